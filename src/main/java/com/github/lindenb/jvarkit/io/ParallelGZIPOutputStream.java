@@ -0,0 +1,143 @@
+package com.github.lindenb.jvarkit.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A GZIP output stream compressing blocks of data in a pool of threads.
+ * Each block is written as a complete GZIP member: the output is a concatenation
+ * of GZIP members that can be read by gunzip or java.util.zip.GZIPInputStream.
+ * With one thread, the blocks are compressed in the calling thread.
+ */
+public class ParallelGZIPOutputStream extends OutputStream
+	{
+	private static final int BLOCK_SIZE=1<<20;
+	private final OutputStream out;
+	private final int numThreads;
+	private ExecutorService executor=null;
+	private final LinkedList<Future<byte[]>> pending=new LinkedList<Future<byte[]>>();
+	private byte block[]=new byte[BLOCK_SIZE];
+	private int blockLength=0;
+	private boolean closed=false;
+
+	private static class Compress implements Callable<byte[]>
+		{
+		private final byte data[];
+		private final int length;
+		Compress(byte data[],int length)
+			{
+			this.data=data;
+			this.length=length;
+			}
+		@Override
+		public byte[] call() throws IOException
+			{
+			ByteArrayOutputStream baos=new ByteArrayOutputStream(this.length/2+64);
+			GZIPOutputStream gzout=new GZIPOutputStream(baos, 1<<16);
+			gzout.write(this.data, 0, this.length);
+			gzout.finish();
+			gzout.close();
+			return baos.toByteArray();
+			}
+		}
+
+	public ParallelGZIPOutputStream(OutputStream out,int numThreads)
+		{
+		this.out=out;
+		this.numThreads=Math.max(1, numThreads);
+		if(this.numThreads>1)
+			{
+			this.executor=Executors.newFixedThreadPool(this.numThreads);
+			}
+		}
+
+	private void writePending(int maxPending) throws IOException
+		{
+		while(this.pending.size()>maxPending)
+			{
+			try
+				{
+				this.out.write(this.pending.removeFirst().get());
+				}
+			catch(InterruptedException err)
+				{
+				throw new IOException(err);
+				}
+			catch(ExecutionException err)
+				{
+				throw new IOException(err.getCause());
+				}
+			}
+		}
+
+	/** compress the current block */
+	private void flushBlock() throws IOException
+		{
+		if(this.blockLength==0) return;
+		Compress compress=new Compress(this.block,this.blockLength);
+		if(this.executor==null)
+			{
+			this.out.write(compress.call());
+			this.blockLength=0;
+			return;
+			}
+		this.pending.add(this.executor.submit(compress));
+		this.block=new byte[BLOCK_SIZE];
+		this.blockLength=0;
+		writePending(2*this.numThreads);
+		}
+
+	@Override
+	public void write(int b) throws IOException
+		{
+		if(this.blockLength==this.block.length) flushBlock();
+		this.block[this.blockLength++]=(byte)b;
+		}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException
+		{
+		while(len>0)
+			{
+			if(this.blockLength==this.block.length) flushBlock();
+			int n=Math.min(len, this.block.length-this.blockLength);
+			System.arraycopy(b, off, this.block, this.blockLength, n);
+			this.blockLength+=n;
+			off+=n;
+			len-=n;
+			}
+		}
+
+	/** compress the pending data and write all the compressed blocks */
+	@Override
+	public void flush() throws IOException
+		{
+		flushBlock();
+		writePending(0);
+		this.out.flush();
+		}
+
+	@Override
+	public void close() throws IOException
+		{
+		if(this.closed) return;
+		this.closed=true;
+		try
+			{
+			flush();
+			}
+		finally
+			{
+			if(this.executor!=null) this.executor.shutdownNow();
+			this.out.close();
+			}
+		}
+	}
@@ -1,9 +1,19 @@
 package com.github.lindenb.jvarkit.tools.bam2wig;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
 import java.io.PrintStream;
 import java.io.PrintWriter;
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 
 import net.sf.samtools.SAMFileReader;
@@ -28,12 +38,14 @@ public class Bam2Wig extends AbstractCommandLineProgram
 	private boolean cast_to_integer=false;
 	private int min_gap=200;
 	private int min_depth=0;
+	private boolean bedGraph=false;
+	private int nThreads=1;
 	
 	
 	@Override
 	public String getProgramDescription() {
-		return "Bam to fixedStep Wiggle converter. Parses the cigar String to get the depth."+
-				"Memory intensive: must alloc sizeof(int)*size(chrom)";
+		return "Bam to fixedStep Wiggle or bedGraph converter. Parses the cigar String to get the depth."+
+				" The BAM must be sorted on coordinate. Memory is proportional to the length of the reads, not to the size of the chromosomes.";
 		}
 	
 	@Override
@@ -41,140 +53,246 @@ public class Bam2Wig extends AbstractCommandLineProgram
 		return "https://github.com/lindenb/jvarkit/wiki/Bam2Wig";
 		}
 	
-	private void run(SAMFileReader sfr)
+	/**
+	 * Streaming coverage of one chromosome. As the reads are sorted, the positions
+	 * before the start of the current read are final: the windows covering those
+	 * positions are printed and their positions are recycled. Only the
+	 * positions between the first window not printed and the end of the
+	 * reads are kept, in a ring buffer.
+	 */
+	private class ContigCoverage
 		{
-		SAMSequenceRecord prev_ssr=null;
-		sfr.setValidationStringency(ValidationStringency.LENIENT);
-		SAMSequenceDictionary dict=sfr.getFileHeader().getSequenceDictionary();
-		PrintWriter w=new  PrintWriter(System.out);
-		SAMRecordIterator iter=sfr.iterator();
-		int array[]=null;
-		long nReads=0;
-		if(custom_track)
+		private final SAMSequenceRecord ssr;
+		private final PrintWriter w;
+		/** ring buffer, position pos0 is stored in ring[pos0&mask] */
+		private int ring[]=new int[1024];
+		private int mask=ring.length-1;
+		/** lowest position in the ring buffer: start of the next window */
+		private int offset=0;
+		/** 1+ highest covered position */
+		private int maxEnd=0;
+		/** windows start at the first covered position */
+		private boolean originFound=false;
+		/* wig state */
+		private int last_non_zero_pos0=0;
+		private int num_zero_regions_skipped=0;
+		private boolean need_print_header=true;
+		/* bedGraph state */
+		private int bedStart=-1;
+		private int bedEnd=-1;
+		private String bedValue=null;
+		
+		ContigCoverage(SAMSequenceRecord ssr,PrintWriter w)
 			{
-			w.println("track type=wiggle_0 name=\"__REPLACE_WIG_NAME__\" description=\"__REPLACE_WIG_DESC__\"");
+			this.ssr=ssr;
+			this.w=w;
+			}
+		
+		/** increase the depth at pos0 */
+		void add(int pos0)
+			{
+			if(pos0< this.offset) return;/* between two windows */
+			if(pos0-this.offset>=this.ring.length)
+				{
+				int n=this.ring.length;
+				while(pos0-this.offset>=n) n*=2;
+				int copy[]=new int[n];
+				for(int i=this.offset;i< this.maxEnd;++i)
+					{
+					copy[i&(n-1)]=this.ring[i&this.mask];
+					}
+				this.ring=copy;
+				this.mask=n-1;
+				}
+			this.ring[pos0&this.mask]++;
+			this.maxEnd=Math.max(this.maxEnd, pos0+1);
+			}
+		
+		/** recycles the positions in [offset,newOffset[ */
+		private void discard(int newOffset)
+			{
+			int end=Math.min(newOffset,Math.min(this.maxEnd, this.offset+this.ring.length));
+			for(int i=this.offset;i< end;++i)
+				{
+				this.ring[i&this.mask]=0;
+				}
+			this.offset=newOffset;
 			}
 		
-		for(;;)
+		/** all the positions lower than limit0 are final */
+		void flush(int limit0)
 			{
-			SAMRecord rec=null;
-			if(iter.hasNext())
+			final int chromLen=this.ssr.getSequenceLength();
+			limit0=Math.min(limit0,chromLen);
+			if(!this.originFound)
 				{
-				rec=iter.next();
-				if(++nReads%1E6==0)
+				while(this.offset< limit0 &&
+					this.offset< this.maxEnd &&
+					this.ring[this.offset&this.mask]==0)
 					{
-					info("nReads: "+nReads);
+					this.offset++;
 					}
-				if(rec.getReadUnmappedFlag()) continue;
-				if(rec.getMappingQuality()< min_qual) continue;
+				if(this.offset>=this.maxEnd)
+					{
+					this.offset=Math.max(this.offset,limit0);
+					return;
+					}
+				if(this.offset>=limit0) return;
+				this.originFound=true;
+				this.last_non_zero_pos0=this.offset;
+				}
+			for(;;)
+				{
+				final int start0=this.offset;
+				if(start0>=chromLen) break;
+				if(start0>=this.maxEnd)
+					{
+					/* no coverage up to the next reads */
+					if(limit0>=chromLen || start0+WINDOW_SIZE>limit0) break;
+					int k=(limit0-WINDOW_SIZE-start0)/WINDOW_SHIFT+1;
+					this.num_zero_regions_skipped+=k;
+					this.offset+=k*WINDOW_SHIFT;
+					continue;
+					}
+				final int end0=Math.min(start0+WINDOW_SIZE, chromLen);
+				if(end0>limit0) break;
+				double sum=0;
+				for(int i=start0;i< end0;++i)
+					{
+					sum+=this.ring[i&this.mask];
+					}
+				window(start0,end0,sum);
+				discard(start0+WINDOW_SHIFT);
+				}
+			}
+		
+		private void window(int start0,int end0,double sum)
+			{
+			/* 
+			 * http://genome.ucsc.edu/goldenPath/help/wiggle.html
+			   Wiggle track data values can be integer or real, positive or negative values.
+			   Chromosome positions are specified as 1-relative.
+			   For a chromosome of length N, the first position is 1 and the last position is N. Only positions specified have data. Positions not specified do not have data and will not be graphed. 
+			 */
+			int n=end0-start0;
+			if(sum/n < min_depth)
+				{
+				sum=0;
 				}
+			if(sum==0)
+				{
+				num_zero_regions_skipped++;
+				return;
+				}
+			String value=(cast_to_integer?String.valueOf((int)(sum/n)):String.valueOf((float)(sum/n)));
 			
-			if(		rec==null ||
-					(prev_ssr!=null && prev_ssr.getSequenceIndex()!=rec.getReferenceIndex()))
+			if(bedGraph)
 				{
-				if(prev_ssr!=null)
+				/* bedGraph intervals don't overlap: each window gives the region up to the next window */
+				int bedEnd0=Math.min(end0, start0+WINDOW_SHIFT);
+				if(this.bedValue!=null && this.bedEnd==start0 && this.bedValue.equals(value))
 					{
-					int start0=0;
-					while(start0< array.length && array[start0]==0)
-						{
-						++start0;
-						}
-					
-					int end0 = prev_ssr.getSequenceLength();
-					while(end0 >0 && array[end0-1]==0)
-						{
-						--end0;
-						}
-					
-					int last_non_zero_pos0=start0;
-					int num_zero_regions_skipped=0;
-					boolean need_print_header=true;
-					while(start0 < end0)
-						{
-						/* 
-						 * http://genome.ucsc.edu/goldenPath/help/wiggle.html
-						   Wiggle track data values can be integer or real, positive or negative values.
-						   Chromosome positions are specified as 1-relative.
-						   For a chromosome of length N, the first position is 1 and the last position is N. Only positions specified have data. Positions not specified do not have data and will not be graphed. 
-						 */
-		 				
-		 					int n=0;
-		 					double sum=0;
-		 					for(int j=0;j< WINDOW_SIZE && start0+j< array.length;++j)
-		 						{
-		 						sum+=array[start0+j];
-		 						n++;
-		 						}
-		 					
-		 					if(sum/n < min_depth)
-		 						{
-		 						sum=0;
-		 						}
-		 					
-		 					
-		 					if(sum==0)
-		 						{
-		 						start0+=WINDOW_SHIFT;
-		 						num_zero_regions_skipped++;
-		 						continue;
-		 						}
-		 					else
-		 						{
-		 						if((start0-last_non_zero_pos0)<= min_gap)
-		 							{
-		 							for(int r=0;r < num_zero_regions_skipped;++r)
-		 								{
-		 								w.println(0);
-		 								}
-		 							}
-		 						else
-		 							{
-		 							need_print_header=(num_zero_regions_skipped>0);
-		 							}
-		 						
-		 						last_non_zero_pos0=start0;
-		 						num_zero_regions_skipped=0;
-		 						}
-		 					
-		 					if(need_print_header)
-			 					{
-		 						need_print_header=false;
-			 					w.println(
-				 						"fixedStep chrom="+prev_ssr.getSequenceName()+
-				 						" start="+(start0+1)+
-				 						" step="+WINDOW_SHIFT +" span="+ WINDOW_SIZE);
-			 					}
-		 					
-		 					if(cast_to_integer)
-		 						{
-		 						w.println((int)(sum/n));
-		 						}
-		 					else
-		 						{
-		 						w.println((float)(sum/n));
-		 						}
-		 					
-		 				if(w.checkError()) break;
-		 				start0+=WINDOW_SHIFT;
-						}
-					array=null;
-					System.gc();
-					prev_ssr=null;
+					this.bedEnd=bedEnd0;
 					}
-				if(rec==null) break;
+				else
+					{
+					printBedGraph();
+					this.bedStart=start0;
+					this.bedEnd=bedEnd0;
+					this.bedValue=value;
+					}
+				num_zero_regions_skipped=0;
+				return;
+				}
+			
+			if((start0-last_non_zero_pos0)<= min_gap)
+				{
+				for(int r=0;r < num_zero_regions_skipped;++r)
+					{
+					w.println(0);
+					}
+				}
+			else
+				{
+				need_print_header=(num_zero_regions_skipped>0);
+				}
+			
+			last_non_zero_pos0=start0;
+			num_zero_regions_skipped=0;
+			
+			if(need_print_header)
+				{
+				need_print_header=false;
+				w.println(
+						"fixedStep chrom="+ssr.getSequenceName()+
+						" start="+(start0+1)+
+						" step="+WINDOW_SHIFT +" span="+ WINDOW_SIZE);
+				}
+			w.println(value);
+			}
+		
+		private void printBedGraph()
+			{
+			if(this.bedValue==null) return;
+			w.print(ssr.getSequenceName());
+			w.print('\t');
+			w.print(this.bedStart);
+			w.print('\t');
+			w.print(this.bedEnd);
+			w.print('\t');
+			w.println(this.bedValue);
+			this.bedValue=null;
+			}
+		
+		/** end of the chromosome */
+		void finish()
+			{
+			flush(this.ssr.getSequenceLength());
+			printBedGraph();
+			}
+		}
+	
+	/** scans the reads, the iterator is closed */
+	private void run(SAMRecordIterator iter,SAMSequenceDictionary dict,PrintWriter w)
+		{
+		ContigCoverage coverage=null;
+		SAMRecord prev=null;
+		long nReads=0;
+		while(iter.hasNext())
+			{
+			SAMRecord rec=iter.next();
+			if(++nReads%1E6==0)
+				{
+				info("nReads: "+nReads);
+				}
+			if(rec.getReadUnmappedFlag()) continue;
+			if(prev!=null &&
+				(prev.getReferenceIndex()>rec.getReferenceIndex() ||
+				(prev.getReferenceIndex().equals(rec.getReferenceIndex()) && prev.getAlignmentStart()>rec.getAlignmentStart())))
+				{
+				throw new IllegalStateException("BAM is not sorted on coordinate: got "+
+						rec.getReferenceName()+":"+rec.getAlignmentStart()+" after "+
+						prev.getReferenceName()+":"+prev.getAlignmentStart());
+				}
+			prev=rec;
+			if(rec.getMappingQuality()< min_qual) continue;
+			
+			if(coverage!=null && coverage.ssr.getSequenceIndex()!=rec.getReferenceIndex())
+				{
+				coverage.finish();
+				coverage=null;
 				if(w.checkError()) break;
 				}
-			if(prev_ssr==null)
+			if(coverage==null)
 				{
-				prev_ssr=dict.getSequence(rec.getReferenceIndex());
-				info("Allocating int["+prev_ssr.getSequenceLength()+"]");
-				array=new int[prev_ssr.getSequenceLength()];
-				info("Allocating : Done.");
-				Arrays.fill(array, 0);
+				coverage=new ContigCoverage(dict.getSequence(rec.getReferenceIndex()),w);
 				}
+			/* all the positions before this read are final */
+			coverage.flush(rec.getAlignmentStart()-1);
 			
 			Cigar cigar=rec.getCigar();
 			if(cigar==null) continue;
+			final int chromLen=coverage.ssr.getSequenceLength();
     		int refpos1=rec.getAlignmentStart();
     		for(CigarElement ce:cigar.getCigarElements())
     			{
@@ -194,11 +312,11 @@ public class Bam2Wig extends AbstractCommandLineProgram
 					case EQ:
 					case X:
 						{
-						for(int i=0;i< ce.getLength() && refpos1<= array.length;++i)
+						for(int i=0;i< ce.getLength() && refpos1<= chromLen;++i)
     		    			{
-							if(refpos1>= 1 && refpos1<=array.length)
+							if(refpos1>= 1 && refpos1<=chromLen)
 								{
-								array[refpos1-1]++;
+								coverage.add(refpos1-1);
 								}
     						refpos1++;
 		    				}
@@ -212,16 +330,121 @@ public class Bam2Wig extends AbstractCommandLineProgram
 					}
     				
     			}
-			
-
-			
-			
+			}
+		if(coverage!=null)
+			{
+			coverage.finish();
 			}
 		iter.close();
 		w.flush();
+		}
+	
+	private void printTrackHeader(PrintWriter w)
+		{
+		if(!custom_track) return;
+		if(bedGraph)
+			{
+			w.println("track type=bedGraph name=\"__REPLACE_WIG_NAME__\" description=\"__REPLACE_WIG_DESC__\"");
+			}
+		else
+			{
+			w.println("track type=wiggle_0 name=\"__REPLACE_WIG_NAME__\" description=\"__REPLACE_WIG_DESC__\"");
+			}
+		}
+	
+	private void run(SAMFileReader sfr)
+		{
+		sfr.setValidationStringency(ValidationStringency.LENIENT);
+		PrintWriter w=new  PrintWriter(System.out);
+		printTrackHeader(w);
+		run(sfr.iterator(),sfr.getFileHeader().getSequenceDictionary(),w);
+		w.flush();
 		w.close();
 		}
 	
+	/** processes one chromosome of an indexed BAM in a temporary file */
+	private class ContigWorker implements Callable<File>
+		{
+		private final File bamFile;
+		private final SAMSequenceRecord ssr;
+		ContigWorker(File bamFile,SAMSequenceRecord ssr)
+			{
+			this.bamFile=bamFile;
+			this.ssr=ssr;
+			}
+		@Override
+		public File call() throws Exception
+			{
+			File tmp=File.createTempFile("bam2wig.", ".txt", getTmpDirectories().get(0));
+			tmp.deleteOnExit();
+			SAMFileReader sfr=null;
+			PrintWriter w=null;
+			try
+				{
+				sfr=new SAMFileReader(this.bamFile);
+				sfr.setValidationStringency(ValidationStringency.LENIENT);
+				w=new PrintWriter(new FileWriter(tmp));
+				run(sfr.query(this.ssr.getSequenceName(), 0, 0, false),
+					sfr.getFileHeader().getSequenceDictionary(),
+					w);
+				w.flush();
+				if(w.checkError()) throw new IOException("Cannot write "+tmp);
+				return tmp;
+				}
+			finally
+				{
+				CloserUtil.close(w);
+				CloserUtil.close(sfr);
+				}
+			}
+		}
+	
+	/** one chromosome per thread, the results are printed in the order of the dictionary */
+	private void runParallel(File bamFile) throws IOException
+		{
+		SAMFileReader sfr=new SAMFileReader(bamFile);
+		SAMSequenceDictionary dict=sfr.getFileHeader().getSequenceDictionary();
+		sfr.close();
+		ExecutorService executor=Executors.newFixedThreadPool(this.nThreads);
+		List<Future<File>> futures=new ArrayList<Future<File>>(dict.size());
+		PrintWriter w=new  PrintWriter(System.out);
+		try
+			{
+			for(SAMSequenceRecord ssr:dict.getSequences())
+				{
+				futures.add(executor.submit(new ContigWorker(bamFile, ssr)));
+				}
+			printTrackHeader(w);
+			for(int i=0;i< futures.size();++i)
+				{
+				File tmp=futures.get(i).get();
+				BufferedReader r=new BufferedReader(new FileReader(tmp));
+				String line;
+				while((line=r.readLine())!=null)
+					{
+					w.println(line);
+					}
+				r.close();
+				tmp.delete();
+				if(w.checkError()) break;
+				}
+			w.flush();
+			}
+		catch(ExecutionException err)
+			{
+			throw new IOException(err.getCause());
+			}
+		catch(InterruptedException err)
+			{
+			throw new IOException(err);
+			}
+		finally
+			{
+			executor.shutdownNow();
+			w.close();
+			}
+		}
+	
 	@Override
 	public void printOptions(PrintStream out)
 		{
@@ -232,6 +455,8 @@ public class Bam2Wig extends AbstractCommandLineProgram
 		out.println(" -i cast to integer.");
 		out.println(" -g (int) minimal zero-coverage length before writing a new header. Default:"+min_gap);
 		out.println(" -d (int) minimal depth before setting depth to zero . Default:"+min_depth);
+		out.println(" -B print a bedGraph instead of a wiggle file. Can be converted to bigWig with UCSC bedGraphToBigWig.");
+		out.println(" -T (int) number of threads. One chromosome per thread, requires an indexed BAM file. Default:"+nThreads);
 		super.printOptions(out);	
 		}
 	
@@ -240,7 +465,7 @@ public class Bam2Wig extends AbstractCommandLineProgram
 		{
 	    GetOpt getopt=new GetOpt();
 		int c;
-		while((c=getopt.getopt(args,getGetOptDefault()+ "ts:w:q:g:d:i"))!=-1)
+		while((c=getopt.getopt(args,getGetOptDefault()+ "ts:w:q:g:d:iBT:"))!=-1)
 			{
 			switch(c)
 				{
@@ -251,6 +476,8 @@ public class Bam2Wig extends AbstractCommandLineProgram
 				case 'q': min_qual=Math.max(0, Integer.parseInt(getopt.getOptArg())); break;
 				case 'g': min_gap=Math.max(1, Integer.parseInt(getopt.getOptArg())); break;
 				case 'd': min_depth=Math.max(0, Integer.parseInt(getopt.getOptArg())); break;
+				case 'B': bedGraph=true; break;
+				case 'T': nThreads=Math.max(1, Integer.parseInt(getopt.getOptArg())); break;
 				default: 
 					switch(handleOtherOptions(c, getopt, args))
 						{
@@ -270,6 +497,7 @@ public class Bam2Wig extends AbstractCommandLineProgram
 			if(getopt.getOptInd()==args.length)
 				{
 				info("Reading from stdin");
+				if(nThreads>1) warning("Cannot use threads when reading from stdin.");
 				samFileReader=new SAMFileReader(System.in);
 				}
 			else if(getopt.getOptInd()+1==args.length)
@@ -277,6 +505,17 @@ public class Bam2Wig extends AbstractCommandLineProgram
 				File bamFile=new File(args[getopt.getOptInd()]);
 				info("Reading from "+bamFile);
 				samFileReader=new SAMFileReader(bamFile);
+				if(nThreads>1)
+					{
+					if(samFileReader.hasIndex())
+						{
+						samFileReader.close();
+						samFileReader=null;
+						runParallel(bamFile);
+						return 0;
+						}
+					warning("No index for "+bamFile+". Cannot use threads.");
+					}
 				}
 			else
 				{
@@ -1,13 +1,24 @@
 package com.github.lindenb.jvarkit.tools.cmpbams;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import com.github.lindenb.jvarkit.util.AbstractCommandLineProgram;
 import com.github.lindenb.jvarkit.util.picard.AbstractDataCodec;
 import com.github.lindenb.jvarkit.util.picard.IntervalUtils;
@@ -182,6 +193,550 @@ public class CompareBams2  extends AbstractCommandLineProgram
 		return compare(chrom1,chrom2);
 		}
 	
+	/** partition mode: hash of a read name */
+	private static int hashName(byte name[])
+		{
+		int h=0;
+		for(byte b:name) h=31*h+b;
+		return h;
+		}
+	
+	/** partition mode: the alignments of one partition, stored in arrays of primitives */
+	private static class AlignmentStore
+		{
+		int size=0;
+		byte bytes[]=new byte[1<<16];
+		int bytesLength=0;
+		int nameStart[]=new int[1<<10];
+		int nameLength[]=new int[1<<10];
+		int cigarStart[]=new int[1<<10];
+		int cigarLength[]=new int[1<<10];
+		byte bamIndex[]=new byte[1<<10];
+		byte numInPair[]=new byte[1<<10];
+		int tid[]=new int[1<<10];
+		int pos[]=new int[1<<10];
+		int flag[]=new int[1<<10];
+		
+		private int addBytes(DataInputStream dis,int len) throws IOException
+			{
+			if(this.bytesLength+len>this.bytes.length)
+				{
+				this.bytes=Arrays.copyOf(this.bytes, Math.max(this.bytes.length*2,this.bytesLength+len));
+				}
+			int start=this.bytesLength;
+			dis.readFully(this.bytes, start, len);
+			this.bytesLength+=len;
+			return start;
+			}
+		
+		/** reads the next alignment of a spill file, returns false at the end of the file */
+		boolean read(DataInputStream dis,int bam,boolean useSamFlag,boolean useCigar) throws IOException
+			{
+			int len;
+			try
+				{
+				len=dis.readInt();
+				}
+			catch(EOFException err)
+				{
+				return false;
+				}
+			if(this.size==this.tid.length)
+				{
+				int n=this.size*2;
+				this.nameStart=Arrays.copyOf(this.nameStart, n);
+				this.nameLength=Arrays.copyOf(this.nameLength, n);
+				this.cigarStart=Arrays.copyOf(this.cigarStart, n);
+				this.cigarLength=Arrays.copyOf(this.cigarLength, n);
+				this.bamIndex=Arrays.copyOf(this.bamIndex, n);
+				this.numInPair=Arrays.copyOf(this.numInPair, n);
+				this.tid=Arrays.copyOf(this.tid, n);
+				this.pos=Arrays.copyOf(this.pos, n);
+				this.flag=Arrays.copyOf(this.flag, n);
+				}
+			int i=this.size;
+			this.nameStart[i]=addBytes(dis,len);
+			this.nameLength[i]=len;
+			this.bamIndex[i]=(byte)bam;
+			this.numInPair[i]=dis.readByte();
+			this.tid[i]=dis.readInt();
+			this.pos[i]=dis.readInt();
+			this.flag[i]=(useSamFlag?dis.readInt():0);
+			if(useCigar)
+				{
+				len=dis.readInt();
+				this.cigarStart[i]=addBytes(dis,len);
+				this.cigarLength[i]=len;
+				}
+			else
+				{
+				this.cigarStart[i]=0;
+				this.cigarLength[i]=0;
+				}
+			this.size++;
+			return true;
+			}
+		
+		private int compareBytes(int start1,int len1,int start2,int len2)
+			{
+			int n=Math.min(len1, len2);
+			for(int k=0;k< n;++k)
+				{
+				int d=(this.bytes[start1+k]&0xFF)-(this.bytes[start2+k]&0xFF);
+				if(d!=0) return d;
+				}
+			return len1-len2;
+			}
+		
+		/** same order as MatchOrderer */
+		int compareName(int i,int j)
+			{
+			int d=compareBytes(this.nameStart[i],this.nameLength[i],this.nameStart[j],this.nameLength[j]);
+			if(d!=0) return d;
+			return this.numInPair[i]-this.numInPair[j];
+			}
+		
+		int compareCigar(int i,int j)
+			{
+			return compareBytes(this.cigarStart[i],this.cigarLength[i],this.cigarStart[j],this.cigarLength[j]);
+			}
+		
+		int hash(int i)
+			{
+			int h=0;
+			for(int k=0;k< this.nameLength[i];++k) h=31*h+this.bytes[this.nameStart[i]+k];
+			return h;
+			}
+		
+		String toString(int start,int len)
+			{
+			return new String(this.bytes,start,len);
+			}
+		}
+	
+	/** partition mode: the result of the comparison of one partition */
+	private static class PartitionResult
+		{
+		String text;
+		long countEQ[];
+		long countNE[];
+		}
+	
+	/** partition mode: scans one BAM and writes its alignments into the spill files */
+	private class BamScanner
+		implements Callable<Void>
+		{
+		private final int bamIndex;
+		private final File samFile;
+		private final Interval interval;
+		private final File partitionFiles[];
+		BamScanner(int bamIndex,File samFile,Interval interval,File partitionFiles[])
+			{
+			this.bamIndex=bamIndex;
+			this.samFile=samFile;
+			this.interval=interval;
+			this.partitionFiles=partitionFiles;
+			}
+		@Override
+		public Void call() throws Exception
+			{
+			SAMFileReader samFileReader=null;
+			DataOutputStream outs[]=new DataOutputStream[this.partitionFiles.length];
+			try
+				{
+				for(int i=0;i< outs.length;++i)
+					{
+					outs[i]=new DataOutputStream(new BufferedOutputStream(new FileOutputStream(this.partitionFiles[i]),1<<15));
+					}
+				info("Opening "+samFile);
+				samFileReader=new SAMFileReader(this.samFile);
+				samFileReader.setValidationStringency(ValidationStringency.SILENT);
+				SAMRecordIterator iter=null;
+				if(this.interval==null)
+					{
+					iter=samFileReader.iterator();
+					}
+				else
+					{
+					iter=samFileReader.queryOverlapping(interval.getSequence(), interval.getStart(), interval.getEnd());
+					}
+				while(iter.hasNext() )
+					{
+					SAMRecord rec=iter.next();
+					if(rec.isSecondaryOrSupplementary()) continue;
+					byte name[]=rec.getReadName().getBytes();
+					DataOutputStream dos=outs[(hashName(name)&Integer.MAX_VALUE)%outs.length];
+					dos.writeInt(name.length);
+					dos.write(name);
+					dos.writeByte(rec.getReadPairedFlag()?(rec.getFirstOfPairFlag()?1:2):0);
+					if(rec.getReadUnmappedFlag())
+						{
+						dos.writeInt(-1);
+						dos.writeInt(-1);
+						}
+					else
+						{
+						dos.writeInt(rec.getReferenceIndex());
+						dos.writeInt(rec.getAlignmentStart());
+						}
+					if(useSamFlag) dos.writeInt(rec.getFlags());
+					if(useCigar)
+						{
+						String cigar=rec.getCigarString();
+						byte cigarBytes[]=(cigar==null?new byte[0]:cigar.getBytes());
+						dos.writeInt(cigarBytes.length);
+						dos.write(cigarBytes);
+						}
+					}
+				iter.close();
+				info("Close "+samFile);
+				return null;
+				}
+			finally
+				{
+				if(samFileReader!=null) samFileReader.close();
+				for(DataOutputStream dos:outs) if(dos!=null) dos.close();
+				}
+			}
+		}
+	
+	/** partition mode: loads, sorts and compares the alignments of one partition */
+	private class PartitionWorker
+		implements Callable<PartitionResult>
+		{
+		private final File bamFiles[];
+		private AlignmentStore store;
+		private final StringBuilder out=new StringBuilder();
+		private final long countEQ[];
+		private final long countNE[];
+		PartitionWorker(File bamFiles[])
+			{
+			this.bamFiles=bamFiles;
+			int nPairs=(bamFiles.length*(bamFiles.length-1))/2;
+			this.countEQ=new long[nPairs];
+			this.countNE=new long[nPairs];
+			}
+		
+		/** same order as MatchComparator, ignoring the read name */
+		private int compareAlignments(int i,int j)
+			{
+			int d=compareTid(store.bamIndex[i],store.tid[i],store.bamIndex[j],store.tid[j]);
+			if(d!=0) return d;
+			d=store.pos[i]-store.pos[j];
+			if(d!=0) return d;
+			return store.flag[i]-store.flag[j];
+			}
+		
+		/** same as CompareBams2.same() */
+		private boolean same(int set1[],int n1,int set2[],int n2)
+			{
+			for(int a=0;a< n1;++a)
+				{
+				int i=set1[a];
+				for(int b=0;b< n2;++b)
+					{
+					int j=set2[b];
+					if(store.tid[i]!=store.tid[j]) continue;
+					if(Math.abs(store.pos[i]-store.pos[j])>distance_tolerance) continue;
+					if(store.flag[i]!=store.flag[j]) continue;
+					if(store.compareCigar(i, j)!=0) continue;
+					return true;
+					}
+				}
+			return false;
+			}
+		
+		/** same as CompareBams2.print() */
+		private void print(int set[],int n,SAMSequenceDictionary dict)
+			{
+			for(int a=0;a< n;++a)
+				{
+				int i=set[a];
+				if(a>0) out.append(',');
+				if(store.tid[i]<0) { out.append("unmapped"); continue;}
+				SAMSequenceRecord ssr=(dict==null?null:dict.getSequence(store.tid[i]));
+				String seqName=(ssr==null?null:ssr.getSequenceName());
+				if(seqName==null) seqName="tid"+store.tid[i];
+				out.append(seqName).append(':').append(store.pos[i]);
+				if(useSamFlag) out.append('=').append(store.flag[i]);
+				if(useCigar) out.append('/').append(store.toString(store.cigarStart[i],store.cigarLength[i]));
+				}
+			if(n==0) out.append("(empty)");
+			}
+		
+		/** compares the alignments idx[from..to[ having the same read name and the same side */
+		private void processRead(int idx[],int from,int to,int sets[][],int setSizes[])
+			{
+			Arrays.fill(setSizes, 0);
+			for(int k=from;k< to;++k)
+				{
+				int i=idx[k];
+				int bam=store.bamIndex[i];
+				int set[]=sets[bam];
+				/* insert in order, ignore the duplicates (as a TreeSet<Match>) */
+				int p=setSizes[bam];
+				boolean dup=false;
+				while(p>0)
+					{
+					int d=compareAlignments(set[p-1],i);
+					if(d==0) { dup=true; break;}
+					if(d< 0) break;
+					--p;
+					}
+				if(dup) continue;
+				if(setSizes[bam]==set.length)
+					{
+					set=sets[bam]=Arrays.copyOf(set, set.length*2);
+					}
+				System.arraycopy(set, p, set, p+1, setSizes[bam]-p);
+				set[p]=i;
+				setSizes[bam]++;
+				}
+			int first=idx[from];
+			out.append(store.toString(store.nameStart[first],store.nameLength[first]));
+			if(store.numInPair[first]>0)
+				{
+				out.append('/').append((int)store.numInPair[first]);
+				}
+			out.append('\t');
+			int pairIndex=0;
+			for(int x=0;x< sets.length;++x)
+				{
+				for(int y=x+1;y< sets.length;++y)
+					{
+					if(!(x==0 && y==1)) out.append('|');
+					if(same(sets[x],setSizes[x],sets[y],setSizes[y]))
+						{
+						out.append("EQ");
+						countEQ[pairIndex]++;
+						}
+					else
+						{
+						out.append("NE");
+						countNE[pairIndex]++;
+						}
+					pairIndex++;
+					}
+				}
+			for(int x=0;x< sets.length;++x)
+				{
+				out.append('\t');
+				print(sets[x],setSizes[x],sequenceDictionaries.get(x));
+				}
+			out.append('\n');
+			}
+		
+		@Override
+		public PartitionResult call() throws Exception
+			{
+			this.store=new AlignmentStore();
+			for(int bam=0;bam< this.bamFiles.length;++bam)
+				{
+				DataInputStream dis=new DataInputStream(new BufferedInputStream(new FileInputStream(this.bamFiles[bam]),1<<16));
+				try
+					{
+					while(store.read(dis, bam, useSamFlag, useCigar))
+						{
+						}
+					}
+				finally
+					{
+					dis.close();
+					}
+				this.bamFiles[bam].delete();
+				}
+			/* sort by hash(name), the index is in the lower bits */
+			long keys[]=new long[store.size];
+			for(int i=0;i< store.size;++i)
+				{
+				keys[i]=(((long)store.hash(i))<<32) | i;
+				}
+			Arrays.sort(keys);
+			int idx[]=new int[store.size];
+			for(int i=0;i< store.size;++i) idx[i]=(int)keys[i];
+			keys=null;
+			
+			int sets[][]=new int[this.bamFiles.length][];
+			for(int x=0;x< sets.length;++x) sets[x]=new int[4];
+			int setSizes[]=new int[sets.length];
+			int i=0;
+			while(i< idx.length)
+				{
+				/* run of the same hash: sort it by name (insertion sort, the runs are small) */
+				int h=store.hash(idx[i]);
+				int j=i+1;
+				while(j< idx.length && store.hash(idx[j])==h) ++j;
+				for(int a=i+1;a< j;++a)
+					{
+					int v=idx[a];
+					int b=a;
+					while(b>i && store.compareName(idx[b-1],v)>0)
+						{
+						idx[b]=idx[b-1];
+						--b;
+						}
+					idx[b]=v;
+					}
+				/* groups of the same name and side */
+				int k=i;
+				while(k< j)
+					{
+					int m=k+1;
+					while(m< j && store.compareName(idx[k],idx[m])==0) ++m;
+					processRead(idx,k,m,sets,setSizes);
+					k=m;
+					}
+				i=j;
+				}
+			PartitionResult result=new PartitionResult();
+			result.text=out.toString();
+			result.countEQ=this.countEQ;
+			result.countNE=this.countNE;
+			this.store=null;
+			return result;
+			}
+		}
+	
+	/** partition mode: the alignments are split into 'nPartitions' spill files by hash(read-name), the BAMs
+	 * are scanned in parallel and the partitions are compared by a pool of threads */
+	private int doWorkPartitions()
+		{
+		ExecutorService executor=null;
+		File partitionFiles[][]=null;
+		try
+			{
+			if(this.IN.size() <2)
+				{
+				error("Need more bams please");
+				return -1;
+				}
+			if(this.IN.size() >Byte.MAX_VALUE)
+				{
+				error("Too many bams");
+				return -1;
+				}
+			this.samSequenceDictAreTheSame=true;
+			List<Interval> intervals=new ArrayList<Interval>(this.IN.size());
+			for(File samFile:this.IN)
+				{
+				SAMFileReader samFileReader=new SAMFileReader(samFile);
+				samFileReader.setValidationStringency(ValidationStringency.SILENT);
+				SAMSequenceDictionary dict=samFileReader.getFileHeader().getSequenceDictionary();
+				samFileReader.close();
+				if(dict.isEmpty())
+					{
+					error("Empty Dict  in "+samFile);
+					return -1;
+					}
+				
+				if(!this.sequenceDictionaries.isEmpty() && !SequenceUtil.areSequenceDictionariesEqual(this.sequenceDictionaries.get(0), dict))
+					{
+					this.samSequenceDictAreTheSame=false;
+					warning("FOOL !! THE SEQUENCE DICTIONARIES ARE **NOT** THE SAME. I will try to compare anyway but it will be slower.");
+					}
+				sequenceDictionaries.add(dict);
+				Interval interval=null;
+				if(REGION!=null)
+					{
+					interval=IntervalUtils.parseOne(dict, REGION);
+					if(interval==null)
+						{
+						System.err.println("Cannot parse "+REGION+" (bad syntax or not in dictionary");
+						return -1;
+						}
+					}
+				intervals.add(interval);
+				}
+			
+			File tmpDir=getTmpDirectories().get(0);
+			partitionFiles=new File[this.nPartitions][this.IN.size()];
+			for(int p=0;p< this.nPartitions;++p)
+				{
+				for(int bam=0;bam< this.IN.size();++bam)
+					{
+					partitionFiles[p][bam]=File.createTempFile("cmpbams.", ".partition", tmpDir);
+					partitionFiles[p][bam].deleteOnExit();
+					}
+				}
+			
+			executor=Executors.newFixedThreadPool(this.nThreads);
+			List<Future<Void>> scans=new ArrayList<Future<Void>>(this.IN.size());
+			for(int bam=0;bam< this.IN.size();++bam)
+				{
+				File bamPartitions[]=new File[this.nPartitions];
+				for(int p=0;p< this.nPartitions;++p) bamPartitions[p]=partitionFiles[p][bam];
+				scans.add(executor.submit(new BamScanner(bam,this.IN.get(bam),intervals.get(bam),bamPartitions)));
+				}
+			for(Future<Void> f:scans) f.get();
+			info("Writing results....");
+			
+			System.out.print("#READ-Name\t");
+			for(int x=0;x<this.IN.size();++x)
+				{
+				for(int y=x+1;y<this.IN.size();++y)
+					{
+					if(!(x==0 && y==1)) System.out.print("|");
+					System.out.print(IN.get(x));
+					System.out.print(" ");
+					System.out.print(IN.get(y));
+					}
+				}
+			for(int x=0;x<this.IN.size();++x)
+				{
+				System.out.print("\t"+IN.get(x));
+				}
+			System.out.println();
+			
+			/* the partitions are compared in parallel and printed in order */
+			int nPairs=(this.IN.size()*(this.IN.size()-1))/2;
+			long countEQ[]=new long[nPairs];
+			long countNE[]=new long[nPairs];
+			LinkedList<Future<PartitionResult>> pending=new LinkedList<Future<PartitionResult>>();
+			int nextPartition=0;
+			for(int p=0;p< this.nPartitions;++p)
+				{
+				while(nextPartition< this.nPartitions && pending.size()< this.nThreads)
+					{
+					pending.add(executor.submit(new PartitionWorker(partitionFiles[nextPartition++])));
+					}
+				PartitionResult result=pending.removeFirst().get();
+				System.out.print(result.text);
+				for(int k=0;k< nPairs;++k)
+					{
+					countEQ[k]+=result.countEQ[k];
+					countNE[k]+=result.countNE[k];
+					}
+				}
+			System.out.flush();
+			int k=0;
+			for(int x=0;x<this.IN.size();++x)
+				{
+				for(int y=x+1;y<this.IN.size();++y)
+					{
+					info(IN.get(x)+" "+IN.get(y)+" EQ:"+countEQ[k]+" NE:"+countNE[k]);
+					++k;
+					}
+				}
+			return 0;
+			}
+		catch(Exception err)
+			{
+			error(err);
+			return -1;
+			}
+		finally
+			{
+			if(executor!=null) executor.shutdownNow();
+			if(partitionFiles!=null)
+				{
+				for(File row[]:partitionFiles)
+					{
+					for(File f:row) if(f!=null) f.delete();
+					}
+				}
+			}
+		}
+	
 	private void print(final Set<Match> set,final SAMSequenceDictionary dict)
 		{
 		boolean first=true;
@@ -213,6 +768,9 @@ public class CompareBams2  extends AbstractCommandLineProgram
     private boolean useCigar=false;
     private SortingCollectionFactory<Match> sortingFactory=new SortingCollectionFactory<Match>();
 	private int distance_tolerance=10;
+	/** partition mode if >0 */
+	private int nPartitions=0;
+	private int nThreads=1;
 	
     private boolean same(Set<Match> set1,Set<Match> set2)
     	{
@@ -254,6 +812,10 @@ public class CompareBams2  extends AbstractCommandLineProgram
 		out.println(" -C use CIGAR when comparing.");
 		out.println(" -n (int) "+getMessageBundle("max.records.in.ram")+" Optional.");
 		out.println(" -T (dir) "+getMessageBundle("add.tmp.dir")+" Optional.");
+		out.println(" -P (int) partition mode: split the alignments into this number of spill files by hash(read-name) "+
+				"instead of sorting all the alignments. The reads are printed in the order of the partitions. "+
+				"Each partition is loaded in memory. Optional.");
+		out.println(" -t (int) partition mode: number of threads scanning the BAMs and comparing the partitions. Default: 1.");
 		super.printOptions(out);
 		}
 
@@ -262,7 +824,7 @@ public class CompareBams2  extends AbstractCommandLineProgram
 		{
 		com.github.lindenb.jvarkit.util.cli.GetOpt opt=new com.github.lindenb.jvarkit.util.cli.GetOpt();
 		int c;
-		while((c=opt.getopt(args,getGetOptDefault()+"r:FCn:d:T:"))!=-1)
+		while((c=opt.getopt(args,getGetOptDefault()+"r:FCn:d:T:P:t:"))!=-1)
 			{
 			switch(c)
 				{
@@ -272,6 +834,8 @@ public class CompareBams2  extends AbstractCommandLineProgram
 				case 'C':useCigar=true;break;
 				case 'n': sortingFactory.setMaxRecordsInRAM(Integer.parseInt(opt.getOptArg()));break;
 				case 'T': this.addTmpDirectory(new File(opt.getOptArg()));break;
+				case 'P': this.nPartitions=Math.max(1,Integer.parseInt(opt.getOptArg()));break;
+				case 't': this.nThreads=Math.max(1,Integer.parseInt(opt.getOptArg()));break;
 				default:
 					{
 					switch(handleOtherOptions(c, opt, null))
@@ -291,6 +855,7 @@ public class CompareBams2  extends AbstractCommandLineProgram
 		
 		try
 			{
+			if(this.nPartitions>0) return doWorkPartitions();
 			return doWork();
 			}
 		catch(Exception err)
@@ -386,8 +951,9 @@ public class CompareBams2  extends AbstractCommandLineProgram
 						}
 					m.readName=rec.getReadName();
 					m.bamIndex=currentSamFileIndex;
-					m.flag=rec.getFlags();
-					m.cigar=rec.getCigarString();
+					/* same values as after a round trip through MatchCodec */
+					m.flag=(useSamFlag?rec.getFlags():0);
+					m.cigar=(useCigar?rec.getCigarString():"");
 					if(m.cigar==null) m.cigar="";
 					if(rec.getReadUnmappedFlag())
 						{
@@ -1,18 +1,30 @@
 package com.github.lindenb.jvarkit.tools.fastq;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import net.sf.picard.PicardException;
 import net.sf.picard.fastq.BasicFastqWriter;
 import net.sf.picard.fastq.FastqRecord;
 import net.sf.picard.fastq.FastqWriter;
+import net.sf.samtools.SAMFileHeader;
 import net.sf.samtools.SAMFileReader;
 import net.sf.samtools.SAMFileReader.ValidationStringency;
 import net.sf.samtools.SAMRecord;
@@ -21,6 +33,7 @@ import net.sf.samtools.util.CloseableIterator;
 import net.sf.samtools.util.CloserUtil;
 import net.sf.samtools.util.SortingCollection;
 
+import com.github.lindenb.jvarkit.io.ParallelGZIPOutputStream;
 import com.github.lindenb.jvarkit.util.AbstractCommandLineProgram;
 import com.github.lindenb.jvarkit.util.bio.AcidNucleics;
 import com.github.lindenb.jvarkit.util.picard.AbstractDataCodec;
@@ -62,8 +75,8 @@ public class BamToFastq
 		@Override
 		public int compare(MappedFastq o1, MappedFastq o2)
 			{
-			int i= o1.hash - o2.hash;
-			if(i!=0) return i;
+			/* don't use o1.hash - o2.hash : it overflows */
+			if(o1.hash!=o2.hash) return o1.hash< o2.hash?-1:1;
 			return o1.name.compareTo(o2.name);
 			}
 		
@@ -117,14 +130,267 @@ public class BamToFastq
 				));
 		}
 	
+	/** the FASTQ writers, opened when they're first needed. Files ending with '.gz' are compressed by several threads */
+	private class FastqOutput implements Closeable
+		{
+		private File forwardFile=null;
+		private File reverseFile=null;
+		private int nThreads=1;
+		private FastqWriter fqw1=null;
+		private FastqWriter fqw2=null;
+		/** PrintStream swallows the IOExceptions: the errors of those streams are checked in close() */
+		private final List<PrintStream> streams=new ArrayList<PrintStream>();
+		
+		private FastqWriter open(PrintStream out)
+			{
+			this.streams.add(out);
+			return new BasicFastqWriter(out);
+			}
+		
+		private FastqWriter open(File file) throws IOException
+			{
+			info("Writing to "+file);
+			if(file.getName().endsWith(".gz"))
+				{
+				return open(new PrintStream(new ParallelGZIPOutputStream(new FileOutputStream(file),this.nThreads)));
+				}
+			return open(new PrintStream(new BufferedOutputStream(new FileOutputStream(file))));
+			}
+		
+		FastqWriter forward() throws IOException
+			{
+			if(this.fqw1==null)
+				{
+				if(this.forwardFile!=null)
+					{
+					this.fqw1=open(this.forwardFile);
+					}
+				else
+					{
+					info("Writing to stdout");
+					this.streams.add(System.out);
+					this.fqw1=open(new PrintStream(System.out));
+					}
+				}
+			return this.fqw1;
+			}
+		
+		FastqWriter reverse() throws IOException
+			{
+			if(this.fqw2==null)
+				{
+				if(this.reverseFile!=null)
+					{
+					this.fqw2=open(this.reverseFile);
+					}
+				else
+					{
+					info("Writing to interlaced forward");
+					this.fqw2=forward();
+					}
+				}
+			return this.fqw2;
+			}
+		
+		@Override
+		public void close() throws IOException
+			{
+			if(this.fqw2!=null && this.fqw2!=this.fqw1) this.fqw2.close();
+			if(this.fqw1!=null) this.fqw1.close();
+			this.fqw1=null;
+			this.fqw2=null;
+			boolean error=false;
+			for(PrintStream out:this.streams)
+				{
+				if(out.checkError()) error=true;
+				}
+			this.streams.clear();
+			if(error) throw new IOException("Cannot write the FASTQ output");
+			}
+		}
+	
+	/** writes the single reads or pairs the consecutive reads having the same name */
+	private class FastqEmitter
+		{
+		private final boolean paired;
+		private final boolean repair_missing_read;
+		private final FastqWriter fqw1;
+		private final FastqWriter fqw2;
+		private final List<MappedFastq> row=new ArrayList<MappedFastq>();
+		
+		FastqEmitter(FastqOutput output,boolean paired,boolean repair_missing_read) throws IOException
+			{
+			this.paired=paired;
+			this.repair_missing_read=repair_missing_read;
+			this.fqw1=output.forward();
+			this.fqw2=(paired?output.reverse():null);
+			}
+		
+		void add(MappedFastq curr)
+			{
+			if(!this.paired)
+				{
+				echo(this.fqw1,curr);
+				return;
+				}
+			if(!this.row.isEmpty() && !this.row.get(0).name.equals(curr.name))
+				{
+				flushRow();
+				}
+			this.row.add(curr);
+			}
+		
+		void finish()
+			{
+			flushRow();
+			}
+		
+		private void flushRow()
+			{
+			if(this.row.isEmpty()) return;
+			if(row.size()>2)
+				{
+				warning("WTF :"+row);
+				}
+			boolean found_F=false;
+			boolean found_R=false;
+			for(MappedFastq m:row)
+				{
+				switch((int)m.side)
+					{
+					case 1:
+						if(found_F) throw new PicardException("two forward reads found for "+row.get(0).name);
+						found_F=true;
+						echo(fqw1,m);
+						break;
+					case 2:
+						if(found_R) throw new PicardException("two reverse reads found for "+row.get(0).name);
+						found_R=true;
+						echo(fqw2,m);
+						break;
+					default: throw new IllegalStateException("uh???");
+					}
+				
+				}
+			if(!found_F)
+				{
+				if(repair_missing_read)
+					{
+					warning("forward not found for "+row.get(0));
+					MappedFastq pad=new MappedFastq();
+					pad.side=(byte)1;
+					pad.name=row.get(0).name;
+					pad.seq="N";
+					pad.qual="#";
+					echo(fqw1,pad);
+					}
+				else
+					{
+					throw new PicardException("forward not found for "+row);
+					}
+				}
+			if(!found_R)
+				{
+				if(repair_missing_read)
+					{
+					warning("reverse not found for "+row.get(0));
+					MappedFastq pad=new MappedFastq();
+					pad.side=(byte)2;
+					pad.name=row.get(0).name;
+					pad.seq="N";
+					pad.qual="#";
+					echo(fqw2,pad);
+					}
+				else
+					{
+					throw new PicardException("reverse not found for "+row);
+					}
+				}
+			this.row.clear();
+			}
+		}
+	
+	/** hash-partition mode: loads a spill file in memory and sorts it */
+	private static class BucketLoader
+		implements Callable<List<MappedFastq>>
+		{
+		private final File file;
+		BucketLoader(File file)
+			{
+			this.file=file;
+			}
+		@Override
+		public List<MappedFastq> call() throws IOException
+			{
+			List<MappedFastq> L=new ArrayList<MappedFastq>();
+			MappedFastqCodec codec=new MappedFastqCodec();
+			DataInputStream dis=new DataInputStream(new BufferedInputStream(new FileInputStream(this.file),1<<16));
+			try
+				{
+				MappedFastq m;
+				while((m=codec.decode(dis))!=null)
+					{
+					L.add(m);
+					}
+				}
+			finally
+				{
+				dis.close();
+				}
+			this.file.delete();
+			Collections.sort(L, new MappedFastqComparator());
+			return L;
+			}
+		}
+	
+	/** index of the bucket for this hash. The buckets are ranges of hashes so their concatenation is sorted like the SortingCollection */
+	private static int bucketIndex(int hash,int nBuckets)
+		{
+		return (int)(((((long)hash)-Integer.MIN_VALUE)*nBuckets)>>>32);
+		}
+	
+	/** converts a SAMRecord to a MappedFastq, returns null if the record must be skipped */
+	private MappedFastq toMappedFastq(SAMRecord rec)
+		{
+		MappedFastq m=new MappedFastq();
+		m.name=rec.getReadName();
+		if(m.name==null)m.name="";
+		m.hash=m.name.hashCode();
+		m.seq=rec.getReadString();
+		
+		if(m.seq.equals(SAMRecord.NULL_SEQUENCE_STRING)) m.seq="";
+		m.qual=rec.getBaseQualityString();
+		if(m.qual.equals(SAMRecord.NULL_QUALS_STRING)) m.qual="";
+		if(!rec.getReadUnmappedFlag() && rec.getReadNegativeStrandFlag())
+			{
+			m.seq=AcidNucleics.reverseComplement(m.seq);
+			m.qual=new StringBuilder(m.qual).reverse().toString();
+			}
+		if(m.seq.length()!=m.qual.length())
+			{
+			error("length(seq)!=length(qual) in "+m.name);
+			return null;
+			}
+		if(m.seq.isEmpty() && m.qual.isEmpty())
+			{
+			m.seq="N";
+			m.qual="#";
+			}
+		return m;
+		}
+	
 	@Override
 	public void printOptions(java.io.PrintStream out)
 		{
-		out.println(" -t (dir) "+getMessageBundle("illegal.number.of.arguments")+" . Optional.");
-		out.println(" -F (fastq) Save fastq_R1 to file (default: stdout) . Optional.");
-		out.println(" -R (fastq) Save fastq_R2 to file (default: interlaced with forward) . Optional.");
+		out.println(" -t (dir) tmp directory. Optional.");
+		out.println(" -F (fastq) Save fastq_R1 to file (default: stdout) . Optional. Compressed by the threads of '-T' if it ends with '.gz'.");
+		out.println(" -R (fastq) Save fastq_R2 to file (default: interlaced with forward) . Optional. Compressed by the threads of '-T' if it ends with '.gz'.");
 		out.println(" -r  repair: insert missing read");
 		out.println(" -N (int) "+getMessageBundle("max.records.in.ram")+". Optional.");
+		out.println(" -B (int) hash-partition mode: instead of sorting all the reads, split them into this number of spill files by hash(name). "+
+				"The files are sorted in memory: (T+1) files must fit in memory. Optional.");
+		out.println(" -T (int) number of threads sorting the spill files of '-B' and compressing the output. Default: 1.");
+		out.println(" -q  input is grouped by read name: pair the reads in one pass, without sorting or shuffling. Default: set if the header says 'SO:queryname'.");
 		super.printOptions(out);
 		}
 
@@ -134,8 +400,10 @@ public class BamToFastq
 		{
 		boolean repair_missing_read=false;
 		SortingCollectionFactory<MappedFastq> sortingFactory=new SortingCollectionFactory<MappedFastq>();
-		File forwardFile=null;
-		File reverseFile=null;
+		FastqOutput output=new FastqOutput();
+		int nBuckets=0;
+		int nThreads=1;
+		boolean queryname_grouped=false;
 		com.github.lindenb.jvarkit.util.cli.GetOpt opt=new com.github.lindenb.jvarkit.util.cli.GetOpt();
 		int c;
 		
@@ -143,15 +411,18 @@ public class BamToFastq
 		sortingFactory.setCodec(new MappedFastqCodec());
 		sortingFactory.setComparator(new MappedFastqComparator());
 		
-		while((c=opt.getopt(args,super.getGetOptDefault()+ "F:R:N:r"))!=-1)
+		while((c=opt.getopt(args,super.getGetOptDefault()+ "F:R:N:rt:B:T:q"))!=-1)
 			{
 			switch(c)
 				{
-				case 'F': forwardFile=new File(opt.getOptArg());break;
-				case 'R': reverseFile=new File(opt.getOptArg());break;
+				case 'F': output.forwardFile=new File(opt.getOptArg());break;
+				case 'R': output.reverseFile=new File(opt.getOptArg());break;
 				case 't': addTmpDirectory(new File(opt.getOptArg()));break;
 				case 'N': sortingFactory.setMaxRecordsInRAM(Math.max(Integer.parseInt(opt.getOptArg()),100));break;
 				case 'r': repair_missing_read=true;break;
+				case 'B': nBuckets=Math.max(1,Integer.parseInt(opt.getOptArg()));break;
+				case 'T': nThreads=Math.max(1,Integer.parseInt(opt.getOptArg()));break;
+				case 'q': queryname_grouped=true;break;
 				case ':': System.err.println("Missing argument for option -"+opt.getOptOpt());return -1;
 				default:
 					{
@@ -164,13 +435,14 @@ public class BamToFastq
 					}
 				}
 			}
+		output.nThreads=nThreads;
 		SAMFileReader sfr=null;
 		SortingCollection<MappedFastq> fastqCollection=null;
+		File bucketFiles[]=null;
+		DataOutputStream bucketStreams[]=null;
+		ExecutorService executor=null;
 		try
 			{
-			sortingFactory.setTmpDirs(this.getTmpDirectories());
-			fastqCollection=sortingFactory.make();
-			fastqCollection.setDestructiveIteration(true);
 			boolean found_single=false;
 			boolean found_paired=false;
 			long non_primary_alignmaned_flag=0L;
@@ -191,6 +463,37 @@ public class BamToFastq
 				return -1;
 				}
 			sfr.setValidationStringency(ValidationStringency.LENIENT);
+			if(sfr.getFileHeader().getSortOrder()==SAMFileHeader.SortOrder.queryname)
+				{
+				queryname_grouped=true;
+				}
+			
+			FastqEmitter streamEmitter=null;
+			MappedFastqCodec bucketCodec=new MappedFastqCodec();
+			if(queryname_grouped)
+				{
+				info("Input is grouped by read name: reads are paired in one pass.");
+				}
+			else if(nBuckets>0)
+				{
+				info("Splitting the reads into "+nBuckets+" spill files.");
+				File tmpDir=getTmpDirectories().get(0);
+				bucketFiles=new File[nBuckets];
+				bucketStreams=new DataOutputStream[nBuckets];
+				for(int i=0;i< nBuckets;++i)
+					{
+					bucketFiles[i]=File.createTempFile("bam2fastq.", ".bucket", tmpDir);
+					bucketFiles[i].deleteOnExit();
+					bucketStreams[i]=new DataOutputStream(new BufferedOutputStream(new FileOutputStream(bucketFiles[i]),1<<15));
+					}
+				}
+			else
+				{
+				sortingFactory.setTmpDirs(this.getTmpDirectories());
+				fastqCollection=sortingFactory.make();
+				fastqCollection.setDestructiveIteration(true);
+				}
+			
 			SAMRecordIterator iter=sfr.iterator();
 			SAMSequenceDictionaryProgress progress=new SAMSequenceDictionaryProgress(sfr.getFileHeader().getSequenceDictionary());
 			while(iter.hasNext())
@@ -209,31 +512,8 @@ public class BamToFastq
 					continue;
 					}
 				
-				MappedFastq m=new MappedFastq();
-				m.name=rec.getReadName();
-				if(m.name==null)m.name="";
-				m.hash=m.name.hashCode();
-				m.seq=rec.getReadString();
-				
-				if(m.seq.equals(SAMRecord.NULL_SEQUENCE_STRING)) m.seq="";
-				m.qual=rec.getBaseQualityString();
-				if(m.qual.equals(SAMRecord.NULL_QUALS_STRING)) m.qual="";
-				if(!rec.getReadUnmappedFlag() && rec.getReadNegativeStrandFlag())
-					{
-					m.seq=AcidNucleics.reverseComplement(m.seq);
-					m.qual=new StringBuilder(m.qual).reverse().toString();
-					}
-				if(m.seq.length()!=m.qual.length())
-					{
-					error("length(seq)!=length(qual) in "+m.name);
-					continue;
-					}
-				if(m.seq.isEmpty() && m.qual.isEmpty())
-					{
-					m.seq="N";
-					m.qual="#";
-					}
-				
+				MappedFastq m=toMappedFastq(rec);
+				if(m==null) continue;
 				
 				if(rec.getReadPairedFlag())
 					{
@@ -255,140 +535,72 @@ public class BamToFastq
 						}
 					m.side=(byte)0;
 					}
-				fastqCollection.add(m);
+				
+				if(queryname_grouped)
+					{
+					if(streamEmitter==null) streamEmitter=new FastqEmitter(output, found_paired, repair_missing_read);
+					streamEmitter.add(m);
+					}
+				else if(bucketStreams!=null)
+					{
+					bucketCodec.encode(bucketStreams[bucketIndex(m.hash,nBuckets)],m);
+					}
+				else
+					{
+					fastqCollection.add(m);
+					}
 				}
 			iter.close();
 			CloserUtil.close(iter);
 			CloserUtil.close(sfr);
 			progress.finish();
-			
-			fastqCollection.doneAdding();
 			info("Done reading.");
 			
-			if(found_paired) 
+			if(queryname_grouped)
 				{
-				FastqWriter fqw1=null;
-				FastqWriter fqw2=null;
-				if(forwardFile!=null)
-					{
-					info("Writing to "+forwardFile);
-					fqw1=new BasicFastqWriter(forwardFile);
-					}
-				else
-					{
-					info("Writing to stdout");
-					fqw1=new BasicFastqWriter(new PrintStream(System.out));
-					}
-				if(reverseFile!=null)
-					{
-					info("Writing to "+reverseFile);
-					fqw2=new BasicFastqWriter(reverseFile);
-					}
-				else
-					{
-					info("Writing to interlaced stdout");
-					fqw2=fqw1;
-					}
-				List<MappedFastq> row=new ArrayList<MappedFastq>();
-				CloseableIterator<MappedFastq> r=fastqCollection.iterator();
-				for(;;)
+				if(streamEmitter!=null) streamEmitter.finish();
+				}
+			else if(bucketStreams!=null)
+				{
+				for(DataOutputStream dos:bucketStreams) dos.close();
+				bucketStreams=null;
+				if(found_paired || found_single)
 					{
-					MappedFastq curr=null;
-					if(r.hasNext()) curr=r.next();
-					if(curr==null || (!row.isEmpty() && !row.get(0).name.equals(curr.name)))
+					FastqEmitter emitter=new FastqEmitter(output, found_paired, repair_missing_read);
+					/* the buckets are loaded and sorted by the threads, but written in order */
+					executor=Executors.newFixedThreadPool(nThreads);
+					LinkedList<Future<List<MappedFastq>>> pending=new LinkedList<Future<List<MappedFastq>>>();
+					int nextBucket=0;
+					for(int i=0;i< nBuckets;++i)
 						{
-						if(!row.isEmpty())
+						while(nextBucket< nBuckets && pending.size()< nThreads)
+							{
+							pending.add(executor.submit(new BucketLoader(bucketFiles[nextBucket++])));
+							}
+						for(MappedFastq m:pending.removeFirst().get())
 							{
-							if(row.size()>2)
-								{
-								warning("WTF :"+row);
-								}
-							boolean found_F=false;
-							boolean found_R=false;
-							for(MappedFastq m:row)
-								{
-								switch((int)m.side)
-									{
-									case 1:
-										if(found_F) throw new PicardException("two forward reads found for "+row.get(0).name);
-										found_F=true;
-										echo(fqw1,m);
-										break;
-									case 2:
-										if(found_R) throw new PicardException("two reverse reads found for "+row.get(0).name);
-										found_R=true;
-										echo(fqw2,m);
-										break;
-									default: throw new IllegalStateException("uh???");
-									}
-								
-								}
-							if(!found_F)
-								{
-								if(repair_missing_read)
-									{
-									warning("forward not found for "+row.get(0));
-									MappedFastq pad=new MappedFastq();
-									pad.side=(byte)1;
-									pad.name=row.get(0).name;
-									pad.seq="N";
-									pad.qual="#";
-									echo(fqw1,pad);
-									}
-								else
-									{
-									throw new PicardException("forward not found for "+row);
-									}
-								}
-							if(!found_R)
-								{
-								if(repair_missing_read)
-									{
-									warning("reverse not found for "+row.get(0));
-									MappedFastq pad=new MappedFastq();
-									pad.side=(byte)2;
-									pad.name=row.get(0).name;
-									pad.seq="N";
-									pad.qual="#";
-									echo(fqw2,pad);
-									}
-								else
-									{
-									throw new PicardException("reverse not found for "+row);
-									}
-								}
+							emitter.add(m);
 							}
-						if(curr==null) break;
-						row.clear();
 						}
-					row.add(curr);
+					emitter.finish();
 					}
-				r.close();
-				fqw1.close();
-				fqw2.close();
 				}
-			else if(found_single) 
+			else
 				{
-				FastqWriter fqw1=null;
-				if(forwardFile!=null)
-					{
-					info("Writing to "+forwardFile);
-					fqw1=new BasicFastqWriter(forwardFile);
-					}
-				else
+				fastqCollection.doneAdding();
+				if(found_paired || found_single) 
 					{
-					info("Writing to stdout");
-					fqw1=new BasicFastqWriter(new PrintStream(System.out));
-					}
-			
-				CloseableIterator<MappedFastq> r=fastqCollection.iterator();
-				while(r.hasNext())
-					{
-					echo(fqw1,r.next());
+					FastqEmitter emitter=new FastqEmitter(output, found_paired, repair_missing_read);
+					CloseableIterator<MappedFastq> r=fastqCollection.iterator();
+					while(r.hasNext())
+						{
+						emitter.add(r.next());
+						}
+					r.close();
+					emitter.finish();
 					}
-				r.close();
-				fqw1.close();
 				}
+			output.close();
 			return 0;
 			}
 		catch(Exception err)
@@ -398,7 +610,17 @@ public class BamToFastq
 			}
 		finally
 			{
+			CloserUtil.close(output);
+			if(executor!=null) executor.shutdownNow();
 			if(fastqCollection!=null) fastqCollection.cleanup();
+			if(bucketStreams!=null)
+				{
+				for(DataOutputStream dos:bucketStreams) CloserUtil.close(dos);
+				}
+			if(bucketFiles!=null)
+				{
+				for(File f:bucketFiles) if(f!=null) f.delete();
+				}
 			}
 		}
 	public static void main(String[] args) {
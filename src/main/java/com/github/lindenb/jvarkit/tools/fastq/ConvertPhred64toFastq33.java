@@ -4,14 +4,13 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintStream;
 
-import net.sf.picard.fastq.FastqConstants;
-import net.sf.picard.fastq.FastqRecord;
 
 
 import com.github.lindenb.jvarkit.io.IOUtils;
 import com.github.lindenb.jvarkit.util.AbstractCommandLineProgram;
-import com.github.lindenb.jvarkit.util.picard.FastqReader;
-import com.github.lindenb.jvarkit.util.picard.FourLinesFastqReader;
+import com.github.lindenb.jvarkit.util.picard.ByteFastqReader;
+import com.github.lindenb.jvarkit.util.picard.ByteFastqWriter;
+import com.github.lindenb.jvarkit.util.picard.MutableFastqRecord;
 
 public class ConvertPhred64toFastq33 extends AbstractCommandLineProgram
 	{
@@ -33,29 +32,36 @@ public class ConvertPhred64toFastq33 extends AbstractCommandLineProgram
 	
 	private void convert(InputStream in) throws IOException
 		{
-		FastqReader r=new FourLinesFastqReader(in);
-		while(r.hasNext() && !pw.checkError())
+		ByteFastqReader r=new ByteFastqReader(in);
+		ByteFastqWriter w=new ByteFastqWriter(pw);
+		MutableFastqRecord rec=new MutableFastqRecord();
+		try
 			{
-			FastqRecord rec=r.next();
-			byte quals[]=rec.getBaseQualityString().getBytes();
-			for(int i=0;i< quals.length;++i )
+			while(r.read(rec))
 				{
-				quals[i]=(byte)(quals[i]-64+33);
-				if(quals[i]<33 || quals[i]>126)
+				/* the record is modified in place */
+				for(int i=0;i< rec.getLength(MutableFastqRecord.BASE_QUALITIES);++i )
+					{
+					byte q=(byte)(rec.byteAt(MutableFastqRecord.BASE_QUALITIES,i)-64+33);
+					if(q<33 || q>126)
+						{
+						r.close();
+						throw new IOException("q="+(int)q);
+						}
+					rec.setByteAt(MutableFastqRecord.BASE_QUALITIES,i,q);
+					}
+				if(rec.equals(MutableFastqRecord.READ_HEADER,MutableFastqRecord.QUALITY_HEADER))
 					{
-					r.close();
-					throw new IOException("q="+(int)quals[i]);
+					rec.setLength(MutableFastqRecord.QUALITY_HEADER, 0);
 					}
+				int diez=rec.indexOf(MutableFastqRecord.READ_HEADER,(byte)'#');
+				if(diez!=-1) rec.setLength(MutableFastqRecord.READ_HEADER, diez);
+				w.write(rec);
 				}
-			String name=rec.getReadHeader();
-			int diez=name.indexOf('#');
-			if(diez!=-1) name=name.substring(0, diez);
-	        pw.print(FastqConstants.SEQUENCE_HEADER);
-	        pw.println(name);
-	        pw.println(rec.getReadString());
-	        pw.print(FastqConstants.QUALITY_HEADER);
-	        pw.println(rec.getBaseQualityHeader() == null || rec.getReadHeader().equals(rec.getBaseQualityHeader())? "" : rec.getBaseQualityHeader());
-	        pw.println(new String(quals));
+			}
+		finally
+			{
+			w.flush();
 			}
 		r.close();
 		}
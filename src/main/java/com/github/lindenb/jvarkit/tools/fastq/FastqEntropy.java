@@ -6,15 +6,14 @@ import java.io.PrintStream;
 import java.util.zip.Deflater;
 import java.util.zip.GZIPOutputStream;
 
-import net.sf.picard.fastq.FastqRecord;
 
 
 import com.github.lindenb.jvarkit.io.IOUtils;
 import com.github.lindenb.jvarkit.io.NullOuputStream;
 import com.github.lindenb.jvarkit.util.AbstractCommandLineProgram;
 import com.github.lindenb.jvarkit.util.Counter;
-import com.github.lindenb.jvarkit.util.picard.FastqReader;
-import com.github.lindenb.jvarkit.util.picard.FourLinesFastqReader;
+import com.github.lindenb.jvarkit.util.picard.ByteFastqReader;
+import com.github.lindenb.jvarkit.util.picard.MutableFastqRecord;
 
 public class FastqEntropy extends AbstractCommandLineProgram
 	{
@@ -55,12 +54,16 @@ public class FastqEntropy extends AbstractCommandLineProgram
 	
 	private void convert(InputStream in) throws IOException
 		{
-		FastqReader r=new FourLinesFastqReader(in);
-		while(r.hasNext())
+		ByteFastqReader r=new ByteFastqReader(in);
+		MutableFastqRecord rec=new MutableFastqRecord();
+		while(r.read(rec))
 			{
-			FastqRecord rec=r.next();
 			BestCompressionOutputStream gzout=new BestCompressionOutputStream();
-			gzout.write(rec.getBaseQualityString().getBytes());
+			gzout.write(
+				rec.getBytes(MutableFastqRecord.BASE_QUALITIES),
+				rec.getOffset(MutableFastqRecord.BASE_QUALITIES),
+				rec.getLength(MutableFastqRecord.BASE_QUALITIES)
+				);
 			gzout.flush();
 			gzout.close();
 			this.length2count.incr(gzout.getByteWrittenCount());
@@ -0,0 +1,612 @@
+package com.github.lindenb.jvarkit.tools.groupbygene;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import net.sf.picard.PicardException;
+import net.sf.samtools.util.CloseableIterator;
+import net.sf.samtools.util.CloserUtil;
+
+/**
+ * Hash aggregation of the calls of GroupByGene: the calls are aggregated in an in-memory map
+ * (chrom,gene,type)-&gt;GeneAggregate. When the estimated size of the map exceeds a budget, the partial
+ * aggregates are spilled to one of PARTITION_COUNT temporary files chosen from the hash of the gene.
+ * At the end, the partitions are aggregated in parallel, each partition is sorted and the sorted
+ * partitions are merged.
+ */
+class GeneAggregator
+	implements Closeable
+	{
+	private static final Logger LOG=Logger.getLogger("jvarkit");
+	private static final int PARTITION_COUNT=64;
+	private final long maxBytesInRam;
+	private final int nThreads;
+	private final boolean keepGenotypes;
+	private final File tmpDir;
+	private Map<GeneKey,GeneAggregate> key2aggregate=new HashMap<GeneKey,GeneAggregate>();
+	private long bytesInRam=0L;
+	private final File partitionFiles[]=new File[PARTITION_COUNT];
+	private final DataOutputStream partitionOut[]=new DataOutputStream[PARTITION_COUNT];
+	private final List<File> tmpFiles=new ArrayList<File>();
+	private int spillCount=0;
+
+	static class GeneKey
+		{
+		final String chrom;
+		final String geneName;
+		final String geneType;
+		GeneKey(String chrom,String geneName,String geneType)
+			{
+			this.chrom=chrom;
+			this.geneName=geneName;
+			this.geneType=geneType;
+			}
+		@Override
+		public int hashCode()
+			{
+			final int prime = 31;
+			int result = 1;
+			result = prime * result +  chrom.hashCode();
+			result = prime * result +  geneName.hashCode();
+			result = prime * result +  geneType.hashCode();
+			return result;
+			}
+		@Override
+		public boolean equals(Object o)
+			{
+			if (this == o) return true;
+			if (o == null) return false;
+			if (getClass() != o.getClass()) return false;
+			GeneKey g=(GeneKey)o;
+			return chrom.equals(g.chrom) && geneName.equals(g.geneName) && geneType.equals(g.geneType);
+			}
+		}
+
+	/** the genotype of a sample, only kept for the XML output */
+	static class GenotypeCall
+		{
+		int sample;
+		int pos;
+		String ref;
+		String a1;
+		String a2;
+		}
+
+	/** the aggregated calls of one gene */
+	static class GeneAggregate
+		{
+		final GeneKey key;
+		int minPos=Integer.MAX_VALUE;
+		int maxPos=Integer.MIN_VALUE;
+		/** number of calls for each sample index */
+		int sampleCounts[]=new int[0];
+		/** distinct 'pos:ref' of the variations */
+		final Set<String> variations=new HashSet<String>();
+		/** the genotypes, in the order of the calls, or null */
+		List<GenotypeCall> genotypes=null;
+
+		GeneAggregate(GeneKey key)
+			{
+			this.key=key;
+			}
+
+		private static long sizeOf(String s)
+			{
+			return 48L+2L*s.length();
+			}
+
+		/** estimated size in memory of a new aggregate */
+		long baseSize()
+			{
+			return 128L+sizeOf(key.chrom)+sizeOf(key.geneName)+sizeOf(key.geneType);
+			}
+
+		private long ensureSample(int sample)
+			{
+			if(sample< this.sampleCounts.length) return 0L;
+			int n=Math.max(sample+1, this.sampleCounts.length*2);
+			int copy[]=new int[n];
+			System.arraycopy(this.sampleCounts, 0, copy, 0, this.sampleCounts.length);
+			long delta=4L*(copy.length-this.sampleCounts.length);
+			this.sampleCounts=copy;
+			return delta;
+			}
+
+		/** adds a call, returns the estimated number of bytes used by this call */
+		long add(int pos,String ref,int sample,String a1,String a2,boolean keepGenotype)
+			{
+			long delta=ensureSample(sample);
+			this.minPos=Math.min(this.minPos, pos);
+			this.maxPos=Math.max(this.maxPos, pos);
+			this.sampleCounts[sample]++;
+			String variation=pos+":"+ref;
+			if(this.variations.add(variation)) delta+=32L+sizeOf(variation);
+			if(keepGenotype)
+				{
+				if(this.genotypes==null) this.genotypes=new ArrayList<GenotypeCall>();
+				GenotypeCall g=new GenotypeCall();
+				g.sample=sample;
+				g.pos=pos;
+				g.ref=ref;
+				g.a1=a1;
+				g.a2=a2;
+				this.genotypes.add(g);
+				delta+=40L+sizeOf(ref)+sizeOf(a1)+sizeOf(a2);
+				}
+			return delta;
+			}
+
+		/** merges a partial aggregate of the same gene */
+		void merge(GeneAggregate other)
+			{
+			ensureSample(other.sampleCounts.length-1);
+			this.minPos=Math.min(this.minPos, other.minPos);
+			this.maxPos=Math.max(this.maxPos, other.maxPos);
+			for(int i=0;i< other.sampleCounts.length;++i)
+				{
+				this.sampleCounts[i]+=other.sampleCounts[i];
+				}
+			this.variations.addAll(other.variations);
+			if(other.genotypes!=null)
+				{
+				if(this.genotypes==null) this.genotypes=new ArrayList<GenotypeCall>();
+				this.genotypes.addAll(other.genotypes);
+				}
+			}
+
+		int getSampleCount(int sample)
+			{
+			return sample< this.sampleCounts.length?this.sampleCounts[sample]:0;
+			}
+
+		/** number of samples having at least one call */
+		int countAffected()
+			{
+			int n=0;
+			for(int c:this.sampleCounts) if(c>0) ++n;
+			return n;
+			}
+
+		void write(DataOutputStream dos) throws IOException
+			{
+			dos.writeUTF(key.chrom);
+			dos.writeUTF(key.geneName);
+			dos.writeUTF(key.geneType);
+			dos.writeInt(this.minPos);
+			dos.writeInt(this.maxPos);
+			int nSamples=0;
+			for(int c:this.sampleCounts) if(c>0) ++nSamples;
+			dos.writeInt(nSamples);
+			for(int i=0;i< this.sampleCounts.length;++i)
+				{
+				if(this.sampleCounts[i]==0) continue;
+				dos.writeInt(i);
+				dos.writeInt(this.sampleCounts[i]);
+				}
+			dos.writeInt(this.variations.size());
+			for(String s:this.variations) dos.writeUTF(s);
+			if(this.genotypes==null)
+				{
+				dos.writeInt(-1);
+				}
+			else
+				{
+				dos.writeInt(this.genotypes.size());
+				for(GenotypeCall g:this.genotypes)
+					{
+					dos.writeInt(g.sample);
+					dos.writeInt(g.pos);
+					dos.writeUTF(g.ref);
+					dos.writeUTF(g.a1);
+					dos.writeUTF(g.a2);
+					}
+				}
+			}
+
+		static GeneAggregate read(DataInputStream dis) throws IOException
+			{
+			String chrom=dis.readUTF();
+			String geneName=dis.readUTF();
+			String geneType=dis.readUTF();
+			GeneAggregate a=new GeneAggregate(new GeneKey(chrom, geneName, geneType));
+			a.minPos=dis.readInt();
+			a.maxPos=dis.readInt();
+			int n=dis.readInt();
+			for(int i=0;i< n;++i)
+				{
+				int sample=dis.readInt();
+				a.ensureSample(sample);
+				a.sampleCounts[sample]=dis.readInt();
+				}
+			n=dis.readInt();
+			for(int i=0;i< n;++i) a.variations.add(dis.readUTF());
+			n=dis.readInt();
+			if(n>=0)
+				{
+				a.genotypes=new ArrayList<GenotypeCall>(n);
+				for(int i=0;i< n;++i)
+					{
+					GenotypeCall g=new GenotypeCall();
+					g.sample=dis.readInt();
+					g.pos=dis.readInt();
+					g.ref=dis.readUTF();
+					g.a1=dis.readUTF();
+					g.a2=dis.readUTF();
+					a.genotypes.add(g);
+					}
+				}
+			return a;
+			}
+		}
+
+	/** same order as GroupByGene.CallCmp */
+	static final Comparator<GeneAggregate> COMPARATOR=new Comparator<GeneAggregate>()
+		{
+		@Override
+		public int compare(GeneAggregate o1, GeneAggregate o2)
+			{
+			int i=o1.key.chrom.compareTo(o2.key.chrom);
+			if(i!=0) return i;
+			i= o1.key.geneName.compareTo(o2.key.geneName);
+			if(i!=0) return i;
+			return o1.key.geneType.compareTo(o2.key.geneType);
+			}
+		};
+
+	/**
+	 * @param maxBytesInRam budget of the in-memory map
+	 * @param nThreads number of threads aggregating the partitions
+	 * @param keepGenotypes keep the genotypes of each call (XML output)
+	 * @param tmpDir directory of the temporary files
+	 */
+	GeneAggregator(long maxBytesInRam,int nThreads,boolean keepGenotypes,File tmpDir)
+		{
+		this.maxBytesInRam=maxBytesInRam;
+		this.nThreads=Math.max(1, nThreads);
+		this.keepGenotypes=keepGenotypes;
+		this.tmpDir=tmpDir;
+		}
+
+	void add(String chrom,String geneName,String geneType,int pos,String ref,int sample,String a1,String a2)
+		throws IOException
+		{
+		GeneKey key=new GeneKey(chrom, geneName, geneType);
+		GeneAggregate a=this.key2aggregate.get(key);
+		if(a==null)
+			{
+			a=new GeneAggregate(key);
+			this.key2aggregate.put(key, a);
+			this.bytesInRam+=a.baseSize();
+			}
+		this.bytesInRam+=a.add(pos, ref, sample, a1, a2, this.keepGenotypes);
+		if(this.bytesInRam>this.maxBytesInRam) spill();
+		}
+
+	private File createTempFile(String suffix) throws IOException
+		{
+		File f=File.createTempFile("groupbygene.", suffix, this.tmpDir);
+		f.deleteOnExit();
+		synchronized(this.tmpFiles)
+			{
+			this.tmpFiles.add(f);
+			}
+		return f;
+		}
+
+	private static DataOutputStream openForWriting(File f) throws IOException
+		{
+		return new DataOutputStream(new BufferedOutputStream(
+			new DeflaterOutputStream(new FileOutputStream(f), new Deflater(Deflater.BEST_SPEED), 1<<16),
+			1<<16));
+		}
+
+	private static DataInputStream openForReading(File f) throws IOException
+		{
+		return new DataInputStream(new BufferedInputStream(
+			new InflaterInputStream(new FileInputStream(f)),
+			1<<16));
+		}
+
+	private static int partition(GeneKey key)
+		{
+		return (key.hashCode() & Integer.MAX_VALUE)%PARTITION_COUNT;
+		}
+
+	/** writes the partial aggregates to the partitions and clears the map */
+	private void spill() throws IOException
+		{
+		++this.spillCount;
+		LOG.info("spilling "+this.key2aggregate.size()+" genes to the partitions ("+this.spillCount+")");
+		for(GeneAggregate a:this.key2aggregate.values())
+			{
+			int p=partition(a.key);
+			if(this.partitionOut[p]==null)
+				{
+				this.partitionFiles[p]=createTempFile(".part");
+				this.partitionOut[p]=openForWriting(this.partitionFiles[p]);
+				}
+			this.partitionOut[p].writeByte(1);
+			a.write(this.partitionOut[p]);
+			}
+		this.key2aggregate.clear();
+		this.bytesInRam=0L;
+		}
+
+	/** aggregates a partition and writes its genes, sorted, to a new file */
+	private class AggregatePartition implements Callable<File>
+		{
+		private final File partitionFile;
+		AggregatePartition(File partitionFile)
+			{
+			this.partitionFile=partitionFile;
+			}
+		@Override
+		public File call() throws IOException
+			{
+			Map<GeneKey,GeneAggregate> map=new HashMap<GeneKey,GeneAggregate>();
+			DataInputStream in=openForReading(this.partitionFile);
+			try
+				{
+				while(in.readByte()==1)
+					{
+					GeneAggregate a=GeneAggregate.read(in);
+					GeneAggregate prev=map.get(a.key);
+					if(prev==null)
+						{
+						map.put(a.key, a);
+						}
+					else
+						{
+						prev.merge(a);
+						}
+					}
+				}
+			finally
+				{
+				in.close();
+				}
+			this.partitionFile.delete();
+			List<GeneAggregate> L=new ArrayList<GeneAggregate>(map.values());
+			map=null;
+			Collections.sort(L, COMPARATOR);
+			File sorted=createTempFile(".sorted");
+			DataOutputStream out=openForWriting(sorted);
+			try
+				{
+				for(GeneAggregate a:L)
+					{
+					out.writeByte(1);
+					a.write(out);
+					}
+				out.writeByte(0);
+				}
+			finally
+				{
+				out.close();
+				}
+			return sorted;
+			}
+		}
+
+	/** reads the genes of a sorted partition */
+	private static class SortedPartition
+		{
+		private final DataInputStream in;
+		GeneAggregate current=null;
+		SortedPartition(File f) throws IOException
+			{
+			this.in=openForReading(f);
+			}
+		boolean advance() throws IOException
+			{
+			this.current=(this.in.readByte()==1?GeneAggregate.read(this.in):null);
+			return this.current!=null;
+			}
+		void close()
+			{
+			CloserUtil.close(this.in);
+			}
+		}
+
+	private class MergeIterator
+		implements CloseableIterator<GeneAggregate>
+		{
+		private final PriorityQueue<SortedPartition> queue;
+		MergeIterator(List<File> sortedFiles) throws IOException
+			{
+			this.queue=new PriorityQueue<SortedPartition>(Math.max(1, sortedFiles.size()),new Comparator<SortedPartition>()
+				{
+				@Override
+				public int compare(SortedPartition o1, SortedPartition o2)
+					{
+					return COMPARATOR.compare(o1.current, o2.current);
+					}
+				});
+			for(File f:sortedFiles)
+				{
+				SortedPartition p=new SortedPartition(f);
+				if(p.advance())
+					{
+					this.queue.add(p);
+					}
+				else
+					{
+					p.close();
+					}
+				}
+			}
+		@Override
+		public boolean hasNext()
+			{
+			return !this.queue.isEmpty();
+			}
+		@Override
+		public GeneAggregate next()
+			{
+			if(this.queue.isEmpty()) throw new NoSuchElementException();
+			SortedPartition p=this.queue.poll();
+			GeneAggregate a=p.current;
+			try
+				{
+				if(p.advance())
+					{
+					this.queue.add(p);
+					}
+				else
+					{
+					p.close();
+					}
+				}
+			catch(IOException err)
+				{
+				throw new PicardException("Cannot read partition",err);
+				}
+			return a;
+			}
+		@Override
+		public void remove()
+			{
+			throw new UnsupportedOperationException();
+			}
+		@Override
+		public void close()
+			{
+			while(!this.queue.isEmpty()) this.queue.poll().close();
+			}
+		}
+
+	/** iterator over the in-memory aggregates when nothing was spilled */
+	private static class ListIterator
+		implements CloseableIterator<GeneAggregate>
+		{
+		private final Iterator<GeneAggregate> delegate;
+		ListIterator(List<GeneAggregate> L)
+			{
+			this.delegate=L.iterator();
+			}
+		@Override
+		public boolean hasNext()
+			{
+			return this.delegate.hasNext();
+			}
+		@Override
+		public GeneAggregate next()
+			{
+			return this.delegate.next();
+			}
+		@Override
+		public void remove()
+			{
+			throw new UnsupportedOperationException();
+			}
+		@Override
+		public void close()
+			{
+			}
+		}
+
+	private static <T> T await(Future<T> future) throws IOException
+		{
+		try
+			{
+			return future.get();
+			}
+		catch(InterruptedException err)
+			{
+			throw new IOException(err);
+			}
+		catch(ExecutionException err)
+			{
+			Throwable cause=err.getCause();
+			if(cause instanceof IOException) throw (IOException)cause;
+			if(cause instanceof RuntimeException) throw (RuntimeException)cause;
+			throw new IOException(cause);
+			}
+		}
+
+	/** called once all the calls were added: returns the genes sorted on chrom/name/type */
+	CloseableIterator<GeneAggregate> iterator() throws IOException
+		{
+		if(this.spillCount==0)
+			{
+			List<GeneAggregate> L=new ArrayList<GeneAggregate>(this.key2aggregate.values());
+			this.key2aggregate=new HashMap<GeneKey,GeneAggregate>();
+			Collections.sort(L, COMPARATOR);
+			return new ListIterator(L);
+			}
+		if(!this.key2aggregate.isEmpty()) spill();
+		List<AggregatePartition> tasks=new ArrayList<AggregatePartition>();
+		for(int p=0;p< PARTITION_COUNT;++p)
+			{
+			if(this.partitionOut[p]==null) continue;
+			this.partitionOut[p].writeByte(0);
+			this.partitionOut[p].close();
+			this.partitionOut[p]=null;
+			tasks.add(new AggregatePartition(this.partitionFiles[p]));
+			}
+		LOG.info("aggregating "+tasks.size()+" partitions");
+		List<File> sortedFiles=new ArrayList<File>(tasks.size());
+		if(this.nThreads==1)
+			{
+			for(AggregatePartition task:tasks) sortedFiles.add(task.call());
+			}
+		else
+			{
+			ExecutorService executor=Executors.newFixedThreadPool(this.nThreads);
+			try
+				{
+				List<Future<File>> futures=new ArrayList<Future<File>>(tasks.size());
+				for(AggregatePartition task:tasks) futures.add(executor.submit(task));
+				for(Future<File> future:futures) sortedFiles.add(await(future));
+				}
+			finally
+				{
+				executor.shutdownNow();
+				}
+			}
+		return new MergeIterator(sortedFiles);
+		}
+
+	/** deletes the temporary files */
+	@Override
+	public void close()
+		{
+		for(int p=0;p< PARTITION_COUNT;++p)
+			{
+			CloserUtil.close(this.partitionOut[p]);
+			this.partitionOut[p]=null;
+			}
+		synchronized(this.tmpFiles)
+			{
+			for(File f:this.tmpFiles) f.delete();
+			this.tmpFiles.clear();
+			}
+		}
+	}
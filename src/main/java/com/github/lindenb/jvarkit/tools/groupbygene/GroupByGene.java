@@ -6,8 +6,10 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 
@@ -27,7 +29,6 @@ import net.sf.samtools.util.SortingCollection;
 
 import com.github.lindenb.jvarkit.io.IOUtils;
 import com.github.lindenb.jvarkit.util.AbstractCommandLineProgram;
-import com.github.lindenb.jvarkit.util.Counter;
 import com.github.lindenb.jvarkit.util.picard.AbstractDataCodec;
 import com.github.lindenb.jvarkit.util.picard.SAMSequenceDictionaryProgress;
 import com.github.lindenb.jvarkit.util.vcf.VcfIterator;
@@ -40,7 +41,13 @@ public class GroupByGene extends AbstractCommandLineProgram
 	private Set<String> sampleNames=new TreeSet<String>();
 	private Set<String> user_gene_tags=new HashSet<String>();
 	private SortingCollection<Call> sortingCollection=null;
+	private GeneAggregator geneAggregator=null;
 	private boolean xml_output=false;
+	/* index of the samples in GeneAggregator.GeneAggregate.sampleCounts */
+	private Map<String,Integer> sample2index=new HashMap<String,Integer>();
+	private boolean hashAggregation=false;
+	private long maxBytesInRam=256L<<20;
+	private int nThreads=1;
 	
 	private static class GeneName
 		{
@@ -211,6 +218,83 @@ public class GroupByGene extends AbstractCommandLineProgram
 		return set;
 		}
 	
+	private int getSampleIndex(String sample)
+		{
+		Integer index=this.sample2index.get(sample);
+		if(index==null)
+			{
+			index=this.sample2index.size();
+			this.sample2index.put(sample, index);
+			}
+		return index;
+		}
+	
+	/** prints the calls of a gene. returns false if the output has raised an error */
+	private boolean print(XMLStreamWriter w,GeneAggregator.GeneAggregate gene) throws XMLStreamException
+		{
+		if(w!=null)
+			{
+			w.writeStartElement("gene");
+			w.writeAttribute("name", gene.key.geneName);
+			w.writeAttribute("type", gene.key.geneType);
+			
+			w.writeAttribute("chrom", gene.key.chrom);
+			w.writeAttribute("min.POS",String.valueOf(gene.minPos));
+			w.writeAttribute("max.POS",String.valueOf(gene.maxPos));
+			w.writeAttribute("affected",String.valueOf(gene.countAffected()));
+			w.writeAttribute("variations",String.valueOf(gene.variations.size()));
+			
+			for(String sample:this.sampleNames)
+				{
+				int sampleIndex=getSampleIndex(sample);
+				int count=gene.getSampleCount(sampleIndex);
+				if(count==0) continue;
+				w.writeStartElement("sample");
+				w.writeAttribute("name",sample);
+				
+				w.writeAttribute("count",String.valueOf(count));
+				for(GeneAggregator.GenotypeCall c:gene.genotypes)
+					{
+					if(c.sample!=sampleIndex) continue;
+					w.writeEmptyElement("genotype");
+					w.writeAttribute("pos", String.valueOf(c.pos));
+					w.writeAttribute("ref", c.ref);
+					w.writeAttribute("A1", c.a1);
+					w.writeAttribute("A2", c.a2);
+					}
+				w.writeEndElement();							
+				}
+			
+			
+			w.writeEndElement();//gene
+			w.writeCharacters("\n");
+			}
+		else
+			{
+			System.out.print(gene.key.chrom);
+			System.out.print('\t');
+			System.out.print(gene.minPos);
+			System.out.print('\t');
+			System.out.print(gene.maxPos);
+			System.out.print('\t');
+			System.out.print(gene.key.geneName);
+			System.out.print('\t');
+			System.out.print(gene.key.geneType);
+			System.out.print('\t');
+			System.out.print(gene.countAffected());
+			System.out.print('\t');
+			System.out.print(gene.variations.size());
+			for(String sample:this.sampleNames)
+				{
+				System.out.print('\t');
+				System.out.print(gene.getSampleCount(getSampleIndex(sample)));
+				}
+			System.out.println();
+			if(System.out.checkError()) return false;
+			}
+		return true;
+		}
+	
 	private void dump() throws IOException,XMLStreamException
 		{
 		XMLStreamWriter w=null;
@@ -256,96 +340,44 @@ public class GroupByGene extends AbstractCommandLineProgram
 			System.out.println();
 			}
 		
-		final CallCmp cmp=new CallCmp();
-		List<Call> row=new ArrayList<Call>();
-		CloseableIterator<Call> iter=sortingCollection.iterator();
-		for(;;)
+		if(this.geneAggregator!=null)
 			{
-			Call curr=null;
-			if(iter.hasNext()) curr=iter.next();
-			if(curr==null || (!row.isEmpty() && cmp.compare(curr, row.get(0))!=0))
+			CloseableIterator<GeneAggregator.GeneAggregate> iter=this.geneAggregator.iterator();
+			while(iter.hasNext())
 				{
-				if(!row.isEmpty())
+				if(!print(w,iter.next())) break;
+				}
+			iter.close();
+			}
+		else
+			{
+			final CallCmp cmp=new CallCmp();
+			List<Call> row=new ArrayList<Call>();
+			CloseableIterator<Call> iter=sortingCollection.iterator();
+			for(;;)
+				{
+				Call curr=null;
+				if(iter.hasNext()) curr=iter.next();
+				if(curr==null || (!row.isEmpty() && cmp.compare(curr, row.get(0))!=0))
 					{
-					int minPos=Integer.MAX_VALUE;
-					int maxPos=Integer.MIN_VALUE;
-					Set<String> affected=new HashSet<String>();
-					Set<String> distinctMut=new HashSet<String>();
-					Counter<String> sample2count=new Counter<String>();
-					for(Call c:row)
+					if(!row.isEmpty())
 						{
-						minPos=Math.min(minPos, c.pos);
-						maxPos=Math.max(maxPos, c.pos);
-						sample2count.incr(c.sample);
-						affected.add(c.sample);
-						distinctMut.add(c.chrom+":"+c.pos+":"+c.ref);
-						}
-					Call first=row.get(0);
-					if(w!=null)
-						{
-						w.writeStartElement("gene");
-						w.writeAttribute("name", first.gene.name);
-						w.writeAttribute("type", first.gene.type);
-						
-						w.writeAttribute("chrom", first.chrom);
-						w.writeAttribute("min.POS",String.valueOf(minPos));
-						w.writeAttribute("max.POS",String.valueOf(maxPos));
-						w.writeAttribute("affected",String.valueOf(affected.size()));
-						w.writeAttribute("variations",String.valueOf(distinctMut.size()));
-						
-						for(String sample:this.sampleNames)
+						Call first=row.get(0);
+						GeneAggregator.GeneAggregate gene=new GeneAggregator.GeneAggregate(
+							new GeneAggregator.GeneKey(first.chrom, first.gene.name, first.gene.type));
+						for(Call c:row)
 							{
-							if(sample2count.count(sample)==0L) continue;
-							w.writeStartElement("sample");
-							w.writeAttribute("name",sample);
-							
-							w.writeAttribute("count",String.valueOf(sample2count.count(sample)));
-							for(Call c:row)
-								{
-								if(!c.sample.equals(sample)) continue;
-								w.writeEmptyElement("genotype");
-								w.writeAttribute("pos", String.valueOf(c.pos));
-								w.writeAttribute("ref", c.ref);
-								w.writeAttribute("A1", c.a1);
-								w.writeAttribute("A2", c.a2);
-								}
-							w.writeEndElement();							
+							gene.add(c.pos, c.ref, getSampleIndex(c.sample), c.a1, c.a2, w!=null);
 							}
-						
-						
-						w.writeEndElement();//gene
-						w.writeCharacters("\n");
-						}
-					else
-						{
-						System.out.print(first.chrom);
-						System.out.print('\t');
-						System.out.print(minPos);
-						System.out.print('\t');
-						System.out.print(maxPos);
-						System.out.print('\t');
-						System.out.print(first.gene.name);
-						System.out.print('\t');
-						System.out.print(first.gene.type);
-						System.out.print('\t');
-						System.out.print(affected.size());
-						System.out.print('\t');
-						System.out.print(distinctMut.size());
-						for(String sample:this.sampleNames)
-							{
-							System.out.print('\t');
-							System.out.print(sample2count.count(sample));
-							}
-						System.out.println();
-						if(System.out.checkError()) break;
+						if(!print(w,gene)) break;
 						}
+					if(curr==null) break;
+					row.clear();
 					}
-				if(curr==null) break;
-				row.clear();
+				row.add(curr);
 				}
-			row.add(curr);
+			iter.close();
 			}
-		iter.close();
 		if(w!=null)
 			{
 			w.writeEndElement();
@@ -355,7 +387,7 @@ public class GroupByGene extends AbstractCommandLineProgram
 			}
 		}
 	
-	private void read(InputStream in)
+	private void read(InputStream in) throws IOException
 		{
 		VcfIterator iter=new VcfIterator(in);
 		VCFHeader header=(VCFHeader)iter.getHeader();
@@ -409,7 +441,15 @@ public class GroupByGene extends AbstractCommandLineProgram
 						iter.close();
 						throw new PicardException("cannot handle multi-ploidy "+ctx);
 						}
-					this.sortingCollection.add(c);
+					if(this.geneAggregator!=null)
+						{
+						this.geneAggregator.add(c.chrom, c.gene.name, c.gene.type, c.pos, c.ref,
+							getSampleIndex(c.sample), c.a1, c.a2);
+						}
+					else
+						{
+						this.sortingCollection.add(c);
+						}
 					}
 				}	
 			}
@@ -429,6 +469,9 @@ public class GroupByGene extends AbstractCommandLineProgram
 		{
 		out.println(" -X XML output");
 		out.println(" -T (tag) add Tag in INFO field containing the name of the genes.");
+		out.println(" -H hash aggregation: the calls are aggregated by gene in memory and spilled to partitions instead of being sorted.");
+		out.println(" -M (int) memory budget in Mb of the hash aggregation (-H). Default: "+(maxBytesInRam>>20));
+		out.println(" -t (int) number of threads aggregating the partitions (-H). Default: "+nThreads);
 		
 		super.printOptions(out);
 		}
@@ -446,12 +489,15 @@ public class GroupByGene extends AbstractCommandLineProgram
 
 		com.github.lindenb.jvarkit.util.cli.GetOpt opt=new com.github.lindenb.jvarkit.util.cli.GetOpt();
 		int c;
-		while((c=opt.getopt(args,getGetOptDefault()+"T:X"))!=-1)
+		while((c=opt.getopt(args,getGetOptDefault()+"T:XHM:t:"))!=-1)
 			{
 			switch(c)
 				{
 				case 'X': xml_output=true;break;
 				case 'T': user_gene_tags.add(opt.getOptArg());break;
+				case 'H': hashAggregation=true;break;
+				case 'M': maxBytesInRam=Math.max(1L, Long.parseLong(opt.getOptArg()))<<20;break;
+				case 't': nThreads=Math.max(1, Integer.parseInt(opt.getOptArg()));break;
 				default:
 					{
 					switch(handleOtherOptions(c, opt, null))
@@ -467,13 +513,20 @@ public class GroupByGene extends AbstractCommandLineProgram
 		
 		try
 			{
-			sortingCollection=SortingCollection.newInstance(
-					Call.class,
-					new CallCodec(),
-					new CallCmp(),
-					maxRecordsInRAM
-					);
-			sortingCollection.setDestructiveIteration(true);
+			if(hashAggregation)
+				{
+				geneAggregator=new GeneAggregator(maxBytesInRam, nThreads, xml_output, getTmpDirectories().get(0));
+				}
+			else
+				{
+				sortingCollection=SortingCollection.newInstance(
+						Call.class,
+						new CallCodec(),
+						new CallCmp(),
+						maxRecordsInRAM
+						);
+				sortingCollection.setDestructiveIteration(true);
+				}
 			if(opt.getOptInd()==args.length)
 				{
 				info("Reading from stdin");
@@ -490,7 +543,7 @@ public class GroupByGene extends AbstractCommandLineProgram
 					in.close();
 					}
 				}
-			sortingCollection.doneAdding();
+			if(sortingCollection!=null) sortingCollection.doneAdding();
 
 			info("Done reading. Now printing results.");
 
@@ -505,6 +558,7 @@ public class GroupByGene extends AbstractCommandLineProgram
 		finally
 			{
 			if(sortingCollection!=null) sortingCollection.cleanup();
+			if(geneAggregator!=null) geneAggregator.close();
 			}
 		}
 	public static void main(String[] args) {
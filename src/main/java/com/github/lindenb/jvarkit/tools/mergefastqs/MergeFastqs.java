@@ -6,11 +6,13 @@ import java.io.PrintWriter;
 import java.util.Arrays;
 
 import net.sf.picard.cmdline.CommandLineProgram;
-import net.sf.picard.fastq.FastqReader;
 import net.sf.picard.fastq.FastqRecord;
 import net.sf.picard.fastq.FastqWriter;
 import net.sf.picard.util.Log;
 
+import com.github.lindenb.jvarkit.util.picard.MutableFastqRecord;
+import com.github.lindenb.jvarkit.util.picard.PairedFastqReader;
+
 public class MergeFastqs extends CommandLineProgram
 	{
 	private Log LOG=Log.getInstance(MergeFastqs.class);
@@ -35,8 +37,7 @@ public class MergeFastqs extends CommandLineProgram
 	@Override
 	protected int doWork()
 		{
-		FastqReader fqr1=null;
-		FastqReader fqr2=null;
+		PairedFastqReader fqr=null;
 		FastqWriter fw1=null;
 		FastqWriter fw2=null;
 		FastqWriter fw3=null;
@@ -44,13 +45,13 @@ public class MergeFastqs extends CommandLineProgram
 		try
 			{
 			Point point=new Point();
-			fqr1=new FastqReader(IN1);
-			fqr2=new FastqReader(IN2);
-			while(fqr1.hasNext())
+			MutableFastqRecord rec1=new MutableFastqRecord();
+			MutableFastqRecord rec2=new MutableFastqRecord();
+			fqr=new PairedFastqReader(IN1,IN2);
+			while(fqr.read(rec1,rec2))
 				{
-				if(!fqr2.hasNext()) throw new IllegalStateException();
-				FastqRecord fq1=fqr1.next();
-				FastqRecord fq2=fqr1.next();
+				FastqRecord fq1=rec1.toFastqRecord();
+				FastqRecord fq2=rec2.toFastqRecord();
 				String X=fq1.getReadString();
 				String Y=fq2.getReadString();
 				
@@ -69,7 +70,7 @@ public class MergeFastqs extends CommandLineProgram
 					for(int y=1;y<=Y.length();++y)
 						{
 						char c2= complement(Y.charAt(Y.length()-1-(y-1)));
-						int idx=matrix[y*width+x];
+						int idx=y*width+x;
 						if(c1==c2)
 							{
 							matrix[idx]=matrix[(y-1)*width+(x-1)]+1;
@@ -136,17 +137,16 @@ public class MergeFastqs extends CommandLineProgram
 	            		}
 	            	}				
 				}
-			if(fqr2.hasNext()) throw new IllegalStateException();
 			return 0;
 			}
 		catch (Exception e)
 			{
+			LOG.error(e);
 			return -1;
 			}
 		finally
 			{
-			if(fqr1!=null) fqr1.close();
-			if(fqr2!=null) fqr2.close();
+			if(fqr!=null) fqr.close();
 			if(fw1!=null) fw1.close();
 			if(fw2!=null) fw2.close();
 			if(fw3!=null) fw3.close();
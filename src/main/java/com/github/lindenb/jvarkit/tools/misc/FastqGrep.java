@@ -2,21 +2,20 @@ package com.github.lindenb.jvarkit.tools.misc;
 
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.IOException;
 import java.io.PrintStream;
 import java.util.HashMap;
 import java.util.Map;
 
-import net.sf.picard.fastq.BasicFastqWriter;
 import net.sf.picard.fastq.FastqConstants;
-import net.sf.picard.fastq.FastqRecord;
-import net.sf.picard.fastq.FastqWriter;
 import net.sf.samtools.SAMFileReader.ValidationStringency;
 import net.sf.samtools.util.CloserUtil;
 
 import com.github.lindenb.jvarkit.io.IOUtils;
 import com.github.lindenb.jvarkit.util.AbstractCommandLineProgram;
-import com.github.lindenb.jvarkit.util.picard.FastqReader;
-import com.github.lindenb.jvarkit.util.picard.FourLinesFastqReader;
+import com.github.lindenb.jvarkit.util.picard.ByteFastqReader;
+import com.github.lindenb.jvarkit.util.picard.ByteFastqWriter;
+import com.github.lindenb.jvarkit.util.picard.MutableFastqRecord;
 
 public class FastqGrep
 	extends AbstractCommandLineProgram
@@ -51,9 +50,13 @@ public class FastqGrep
 		super.printOptions(out);
 		}
 	
-	private String getReadName(FastqRecord r)
+	private String getReadName(MutableFastqRecord r)
 		{
-		return getReadName(r.getReadHeader());
+		final int field=MutableFastqRecord.READ_HEADER;
+		int beg=(r.getLength(field)>0 && r.byteAt(field, 0)==FastqConstants.SEQUENCE_HEADER.charAt(0)?1:0);
+		int end=r.indexOf(field, (byte)' ');
+		if(end==-1) end=r.getLength(field);
+		return new String(r.getBytes(field),r.getOffset(field)+beg,end-beg);
 		}
 	
 	private String getReadName(String s)
@@ -64,13 +67,13 @@ public class FastqGrep
 		s= s.substring(beg, end);
 		return s;
 		}
-	private void run(FastqReader r,FastqWriter out)
+	private void run(ByteFastqReader r,ByteFastqWriter out) throws IOException
 		{
 		long nRec=0L;
 		r.setValidationStringency(ValidationStringency.LENIENT);
-		while(r.hasNext())
+		MutableFastqRecord fastq=new MutableFastqRecord();
+		while(r.read(fastq))
 			{
-			FastqRecord fastq=r.next();
 			boolean keep=false;
 			String readName=getReadName(fastq);
 			Integer count=readNames.get(readName);
@@ -160,24 +163,24 @@ public class FastqGrep
     		warning("no read name found.");
     		}
 		
-		FastqWriter out=null;
+		ByteFastqWriter out=null;
 		try
 			{
 			if(fileout!=null)
 				{
 				info("Writing to "+fileout);
-				out=new BasicFastqWriter(fileout);
+				out=new ByteFastqWriter(fileout);
 				}
 			else
 				{
 				info("Writing to stdout");
-				out=new BasicFastqWriter(System.out);
+				out=new ByteFastqWriter(System.out);
 				}
 			
 			if(opt.getOptInd()==args.length)
 				{
 				info("Reading from stdin");
-				FastqReader fqR=new FourLinesFastqReader(System.in);
+				ByteFastqReader fqR=new ByteFastqReader(System.in);
 				run(fqR,out);
 				fqR.close();
 				}
@@ -185,11 +188,12 @@ public class FastqGrep
 				{
 				File f=new File(args[optind]);
 				info("Reading from "+f);
-				FastqReader fqR=new FourLinesFastqReader(f);
+				ByteFastqReader fqR=new ByteFastqReader(f);
 				run(fqR,out);
 				fqR.close();
 				}
-			CloserUtil.close(out);
+			out.close();
+			out=null;
 			return 0;
 			}
 		catch(Exception err)
@@ -1,18 +1,18 @@
 package com.github.lindenb.jvarkit.tools.misc;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.PrintStream;
 
-import net.sf.picard.fastq.FastqConstants;
-import net.sf.picard.fastq.FastqRecord;
 import net.sf.samtools.SAMFileReader.ValidationStringency;
 import net.sf.samtools.util.CloserUtil;
 
 import com.github.lindenb.jvarkit.io.IOUtils;
 import com.github.lindenb.jvarkit.util.AbstractCommandLineProgram;
 import com.github.lindenb.jvarkit.util.bio.AcidNucleics;
-import com.github.lindenb.jvarkit.util.picard.FastqReader;
-import com.github.lindenb.jvarkit.util.picard.FourLinesFastqReader;
+import com.github.lindenb.jvarkit.util.picard.ByteFastqReader;
+import com.github.lindenb.jvarkit.util.picard.ByteFastqWriter;
+import com.github.lindenb.jvarkit.util.picard.MutableFastqRecord;
 
 public class FastqRevComp extends AbstractCommandLineProgram
 	{
@@ -43,40 +43,40 @@ public class FastqRevComp extends AbstractCommandLineProgram
 	
 	
 	
-	private void run(FastqReader r,PrintStream out)
+	private void run(ByteFastqReader r,PrintStream out) throws IOException
 		{
 		long nRec=0L;
 		r.setValidationStringency(ValidationStringency.LENIENT);
-		while(r.hasNext())
+		/* complement of each byte */
+		byte complement[]=new byte[256];
+		for(int i=0;i< complement.length;++i)
 			{
-			if(++nRec%1E6==0)
-				{
-				info("N-Reads:"+nRec);
-				}
-			FastqRecord fastq=r.next();
-			
-			out.print(FastqConstants.SEQUENCE_HEADER);
-			out.println(fastq.getReadHeader());
-			String s=fastq.getReadString();
-			for(int i=s.length()-1;i>=0;i--)
-				{
-				out.print(AcidNucleics.complement(s.charAt(i)));
-				}
-			out.println();
-			
-			out.print(FastqConstants.QUALITY_HEADER);
-			s=fastq.getBaseQualityHeader();
-			if(s!=null) out.print(s);
-			out.println();
-			
-			s=fastq.getBaseQualityString();
-			
-			for(int i=s.length()-1;i>=0;i--)
+			complement[i]=(byte)AcidNucleics.complement((char)i);
+			}
+		ByteFastqWriter w=new ByteFastqWriter(out);
+		MutableFastqRecord fastq=new MutableFastqRecord();
+		try
+			{
+			while(r.read(fastq))
 				{
-				out.print(s.charAt(i));
+				if(++nRec%1E6==0)
+					{
+					info("N-Reads:"+nRec);
+					}
+				/* the record is modified in place */
+				fastq.reverse(MutableFastqRecord.READ_BASES);
+				for(int i=0;i< fastq.getLength(MutableFastqRecord.READ_BASES);++i)
+					{
+					fastq.setByteAt(MutableFastqRecord.READ_BASES, i,
+						complement[fastq.byteAt(MutableFastqRecord.READ_BASES, i)&0xFF]);
+					}
+				fastq.reverse(MutableFastqRecord.BASE_QUALITIES);
+				w.write(fastq);
 				}
-			out.println();
-			if(out.checkError()) break;
+			}
+		finally
+			{
+			w.flush();
 			}
 		out.flush();
 		info("Done. N-Reads:"+nRec);
@@ -122,7 +122,7 @@ public class FastqRevComp extends AbstractCommandLineProgram
 			if(getopt.getOptInd()==args.length)
 				{
 				info("Reading from stdin");
-				FastqReader fqR=new FourLinesFastqReader(System.in);
+				ByteFastqReader fqR=new ByteFastqReader(System.in);
 				run(fqR,out);
 				fqR.close();
 				}
@@ -130,7 +130,7 @@ public class FastqRevComp extends AbstractCommandLineProgram
 				{
 				File f=new File(args[optind]);
 				info("Reading from "+f);
-				FastqReader fqR=new FourLinesFastqReader(f);
+				ByteFastqReader fqR=new ByteFastqReader(f);
 				run(fqR,out);
 				fqR.close();
 				}
@@ -1,16 +1,17 @@
 package com.github.lindenb.jvarkit.tools.misc;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.IOException;
 import java.io.PrintStream;
 
-import net.sf.picard.fastq.FastqRecord;
 import net.sf.samtools.SAMFileReader.ValidationStringency;
 import net.sf.samtools.util.CloserUtil;
 
 import com.github.lindenb.jvarkit.io.IOUtils;
 import com.github.lindenb.jvarkit.util.AbstractCommandLineProgram;
-import com.github.lindenb.jvarkit.util.picard.FastqReader;
-import com.github.lindenb.jvarkit.util.picard.FourLinesFastqReader;
+import com.github.lindenb.jvarkit.util.picard.ByteFastqReader;
+import com.github.lindenb.jvarkit.util.picard.MutableFastqRecord;
 
 public class FastqToFasta
 	extends AbstractCommandLineProgram
@@ -43,34 +44,40 @@ public class FastqToFasta
 	
 	
 	
-	private void run(FastqReader r,PrintStream out)
+	private void run(ByteFastqReader r,PrintStream out) throws IOException
 		{
 		int wsp=0;
 		long nRec=0L;
 		r.setValidationStringency(ValidationStringency.LENIENT);
-		while(r.hasNext())
+		MutableFastqRecord fastq=new MutableFastqRecord();
+		while(r.read(fastq))
 			{
 			if(++nRec%1E6==0)
 				{
 				info("N-Reads:"+nRec);
 				}
-			FastqRecord fastq=r.next();
-			out.print(">");
-			if(!trim_after_space || (wsp=fastq.getReadHeader().indexOf(' '))==-1)
+			out.write('>');
+			byte array[]=fastq.getBytes(MutableFastqRecord.READ_HEADER);
+			int offset=fastq.getOffset(MutableFastqRecord.READ_HEADER);
+			if(!trim_after_space || (wsp=fastq.indexOf(MutableFastqRecord.READ_HEADER,(byte)' '))==-1)
 				{
-				out.println(fastq.getReadHeader());
+				out.write(array,offset,fastq.getLength(MutableFastqRecord.READ_HEADER));
 				}
 			else
 				{
-				out.println(fastq.getReadHeader().substring(0, wsp));
+				out.write(array,offset,wsp);
 				}
+			out.write('\n');
 			
-			int readLen=fastq.getReadString().length();
+			array=fastq.getBytes(MutableFastqRecord.READ_BASES);
+			offset=fastq.getOffset(MutableFastqRecord.READ_BASES);
+			int readLen=fastq.getLength(MutableFastqRecord.READ_BASES);
 			int i=0;
 			while(i< readLen)
 				{
 				int end=Math.min(i+fastaLineLen,readLen);
-				out.println(fastq.getReadString().substring(i, end));
+				out.write(array,offset+i,end-i);
+				out.write('\n');
 				i=end;
 				}
 			
@@ -111,18 +118,18 @@ public class FastqToFasta
 			if(fileout!=null)
 				{
 				info("Writing to "+fileout);
-				out=new PrintStream(IOUtils.openFileForWriting(fileout));
+				out=new PrintStream(new BufferedOutputStream(IOUtils.openFileForWriting(fileout),1<<16));
 				}
 			else
 				{
 				info("Writing to stdout");
-				out=System.out;
+				out=new PrintStream(new BufferedOutputStream(System.out,1<<16));
 				}
 			
 			if(getopt.getOptInd()==args.length)
 				{
 				info("Reading from stdin");
-				FastqReader fqR=new FourLinesFastqReader(System.in);
+				ByteFastqReader fqR=new ByteFastqReader(System.in);
 				run(fqR,out);
 				fqR.close();
 				}
@@ -130,7 +137,7 @@ public class FastqToFasta
 				{
 				File f=new File(args[optind]);
 				info("Reading from "+f);
-				FastqReader fqR=new FourLinesFastqReader(f);
+				ByteFastqReader fqR=new ByteFastqReader(f);
 				run(fqR,out);
 				fqR.close();
 				}
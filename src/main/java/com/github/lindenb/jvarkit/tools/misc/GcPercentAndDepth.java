@@ -12,6 +12,10 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Pattern;
 
 import org.broad.tribble.readers.LineIterator;
@@ -31,7 +35,6 @@ import net.sf.samtools.util.SequenceUtil;
 import com.github.lindenb.jvarkit.io.IOUtils;
 import com.github.lindenb.jvarkit.util.AbstractCommandLineProgram;
 import com.github.lindenb.jvarkit.util.picard.GenomicSequence;
-import com.github.lindenb.jvarkit.util.picard.MergingSamRecordIterator;
 import com.github.lindenb.jvarkit.util.picard.SAMSequenceDictionaryProgress;
 
 
@@ -45,6 +48,7 @@ public class GcPercentAndDepth extends AbstractCommandLineProgram
 	private int windowSize=100;
 	private int windowStep=50;
 	private int min_depth=0;
+	private int nThreads=1;
 	private SAMSequenceDictionary firstSamDict=null;
 	
 
@@ -191,6 +195,97 @@ public class GcPercentAndDepth extends AbstractCommandLineProgram
 		}
 	
 	
+	/** computes the depth of the samples of one BAM in a RegionCaptured */
+	private class BamWorker
+		implements Callable<Void>
+		{
+		private final SAMFileReader reader;
+		/** sample name to index in this BAM */
+		private final Map<String,Integer> sample2index;
+		/** index of the samples of this BAM in the global list of samples */
+		private final int globalIndex[];
+		/** depth buffer for each sample of this BAM, reused from one region to another */
+		private int depths[][];
+		/** region and windows for the next call */
+		private RegionCaptured roi=null;
+		private List<RegionCaptured.SlidingWindow> windows=null;
+		/** result: sum of the depth in each window for each sample of this BAM */
+		private long windowSums[][];
+		
+		BamWorker(SAMFileReader reader,Map<String,Integer> sample2index,int globalIndex[])
+			{
+			this.reader=reader;
+			this.sample2index=sample2index;
+			this.globalIndex=globalIndex;
+			this.depths=new int[sample2index.size()][];
+			this.windowSums=new long[sample2index.size()][];
+			}
+		
+		@Override
+		public Void call() throws Exception
+			{
+			final int roiLength=this.roi.length();
+			final int roiStart=this.roi.getStart();
+			final int roiEnd=this.roi.getEnd();
+			for(int i=0;i< this.depths.length;++i)
+				{
+				if(this.depths[i]==null || this.depths[i].length< roiLength)
+					{
+					this.depths[i]=new int[roiLength];
+					}
+				else
+					{
+					Arrays.fill(this.depths[i], 0, roiLength, 0);
+					}
+				this.windowSums[i]=new long[this.windows.size()];
+				}
+			SAMRecordIterator iter=this.reader.query(this.roi.getChromosome(), roiStart+1, roiEnd, false);
+			try
+				{
+				while(iter.hasNext())
+					{
+					SAMRecord rec=iter.next();
+					if(rec.getReadUnmappedFlag()) continue;
+					if(rec.isSecondaryOrSupplementary()) continue;
+					if(rec.getDuplicateReadFlag()) continue;
+					if(rec.getReadFailsVendorQualityCheckFlag())  continue;
+					SAMReadGroupRecord g=rec.getReadGroup();
+					if(g==null) continue;
+					String sample=g.getSample();
+					if(sample==null ) continue;
+					Integer sampleIndex=this.sample2index.get(sample);
+					if(sampleIndex==null) continue;
+					int depth[]=this.depths[sampleIndex];
+					int end=Math.min( roiEnd,rec.getAlignmentEnd()+1);
+					for(int i=Math.max( roiStart, rec.getAlignmentStart()-1);i< end;++i) 
+						{
+						depth[i-roiStart]++;
+						}
+					}
+				}
+			finally
+				{
+				iter.close();
+				}
+			for(int i=0;i< this.depths.length;++i)
+				{
+				int depth[]=this.depths[i];
+				long sums[]=this.windowSums[i];
+				for(int w=0;w< sums.length;++w)
+					{
+					RegionCaptured.SlidingWindow win=this.windows.get(w);
+					long sum=0L;
+					for(int pos=win.getStart();pos<win.getEnd();++pos)
+						{
+						sum+=depth[pos-roiStart];
+						}
+					sums[w]=sum;
+					}
+				}
+			return null;
+			}
+		}
+	
 	/** constructor */
 	private GcPercentAndDepth()
 		{
@@ -219,6 +314,7 @@ public class GcPercentAndDepth extends AbstractCommandLineProgram
 		out.println(" -N (file) ."+getMessageBundle("chrom.name.helper")+" Optional.");
 		out.println(" -m min depth :" +min_depth);
 		out.println(" -n skip window if Reference contains one 'N'.");
+		out.println(" -T (int) number of threads. The BAMs are scanned in parallel. default:"+this.nThreads);
 		super.printOptions(out);
 		}
 	
@@ -231,7 +327,7 @@ public class GcPercentAndDepth extends AbstractCommandLineProgram
 		String chromNameFile=null;
 		com.github.lindenb.jvarkit.util.cli.GetOpt opt=new com.github.lindenb.jvarkit.util.cli.GetOpt();
 		int c;
-		while((c=opt.getopt(args,getGetOptDefault()+"R:w:s:B:N:m:"))!=-1)
+		while((c=opt.getopt(args,getGetOptDefault()+"R:w:s:B:N:m:nT:"))!=-1)
 			{
 			switch(c)
 				{
@@ -241,6 +337,7 @@ public class GcPercentAndDepth extends AbstractCommandLineProgram
 				case 'R': refFile=new File(opt.getOptArg());break;
 				case 'm': this.min_depth=Integer.parseInt(opt.getOptArg());break;
 				case 'n': skip_if_contains_N=true;break;
+				case 'T': this.nThreads=Math.max(1,Integer.parseInt(opt.getOptArg()));break;
 				case 'N':
 					{
 					chromNameFile=opt.getOptArg();
@@ -283,6 +380,7 @@ public class GcPercentAndDepth extends AbstractCommandLineProgram
 			}
 		IndexedFastaSequenceFile indexedFastaSequenceFile=null;
 		List<SAMFileReader> readers=new ArrayList<SAMFileReader>();
+		ExecutorService executor=null;
 
 		PrintStream out=System.out;
 		try
@@ -321,6 +419,7 @@ public class GcPercentAndDepth extends AbstractCommandLineProgram
 			
 			
 			Set<String> samples=new TreeSet<String>();
+			List<Set<String>> samplesPerBam=new ArrayList<Set<String>>();
 			/* create input, collect sample names */
 			for(int optind=opt.getOptInd();
 					optind< args.length;
@@ -344,6 +443,7 @@ public class GcPercentAndDepth extends AbstractCommandLineProgram
 					return -1;
 					}
 				
+				Set<String> bamSamples=new TreeSet<String>();
 				for(SAMReadGroupRecord g: header.getReadGroups())
 					{
 					if(g.getSample()==null || g.getSample().isEmpty())
@@ -352,8 +452,26 @@ public class GcPercentAndDepth extends AbstractCommandLineProgram
 						continue;
 						}
 					samples.add(g.getSample());
+					bamSamples.add(g.getSample());
+					}
+				samplesPerBam.add(bamSamples);
+				}
+			
+			/* one worker per BAM */
+			List<String> sampleList=new ArrayList<String>(samples);
+			List<BamWorker> workers=new ArrayList<BamWorker>(readers.size());
+			for(int i=0;i< readers.size();++i)
+				{
+				Map<String,Integer> sample2index=new HashMap<String,Integer>();
+				int globalIndex[]=new int[samplesPerBam.get(i).size()];
+				for(String sample:samplesPerBam.get(i))
+					{
+					globalIndex[sample2index.size()]=sampleList.indexOf(sample);
+					sample2index.put(sample, sample2index.size());
 					}
+				workers.add(new BamWorker(readers.get(i), sample2index,globalIndex));
 				}
+			executor=Executors.newFixedThreadPool(this.nThreads);
 			
 			info("NSample:"+samples.size());
 			
@@ -466,95 +584,73 @@ public class GcPercentAndDepth extends AbstractCommandLineProgram
 						return -1;
 						}
 					}
-				Map<String,int[]> sample2depth=new HashMap<String,int[]>();
-				Map<String,Double> sample2meanDepth=new HashMap<String,Double>();
-				for(String sample:samples)
+				progress.watch(roi.tid, roi.getStart());
+				List<RegionCaptured.SlidingWindow> windows=new ArrayList<RegionCaptured.SlidingWindow>();
+				for(RegionCaptured.SlidingWindow win: roi)
 					{
-					int depth[]=new int[roi.length()];
-					Arrays.fill(depth, 0);
-					sample2depth.put(sample, depth);
+					windows.add(win);
 					}
-				List<SAMRecordIterator> iterators=new ArrayList<SAMRecordIterator>();
-				for(SAMFileReader r:readers)
+				/* scan the BAMs in parallel */
+				List<Future<Void>> futures=new ArrayList<Future<Void>>(workers.size());
+				for(BamWorker worker:workers)
 					{
-					iterators.add(r.query(roi.getChromosome(), roi.getStart()+1, roi.getEnd(), false));
+					worker.roi=roi;
+					worker.windows=windows;
+					futures.add(executor.submit(worker));
 					}
 				
-				Iterator<SAMRecord> merginIter=null;
-				
-				merginIter=null;
-				if(iterators.isEmpty())
+				/* meanwhile, count GC and N once for the whole region */
+				int gcCount[]=new int[roi.length()+1];
+				int nCount[]=new int[roi.length()+1];
+				for(int pos=roi.getStart();pos<roi.getEnd();++pos)
 					{
-					merginIter=Collections.emptyIterator();
-					}
-				else if(iterators.size()==1)
-					{
-					merginIter=iterators.get(0);
-					}
-				else
-					{
-					merginIter=new MergingSamRecordIterator(iterators);
-					}
-				while(merginIter.hasNext())
-					{
-					SAMRecord rec=merginIter.next();
-					if(rec.getReadUnmappedFlag()) continue;
-					if(rec.isSecondaryOrSupplementary()) continue;
-					if(rec.getDuplicateReadFlag()) continue;
-					if(rec.getReadFailsVendorQualityCheckFlag())  continue;
-					SAMReadGroupRecord g=rec.getReadGroup();
-					if(g==null) continue;
-					progress.watch(rec);
-					String sample=g.getSample();
-					if(sample==null ) continue;
-					int depth[]=sample2depth.get(sample);
-					if(depth==null) continue;
-					for(int i=Math.max( roi.getStart(), rec.getAlignmentStart()-1);
-							i<Math.min( roi.getEnd(),rec.getAlignmentEnd()+1) && (i-roi.getStart())< depth.length;
-							++i) 
+					int gc=0,n=0;
+					switch(genomicSequence.charAt(pos))
 						{
-						depth[i-roi.getStart()]++;
+						case 'c':case 'C':
+						case 'g':case 'G':		
+						case 's':case 'S':
+							{
+							gc=1;
+							break;
+							}
+						case 'n':case 'N':n=1;break;
+						default:break;
 						}
+					gcCount[pos-roi.getStart()+1]=gcCount[pos-roi.getStart()]+gc;
+					nCount[pos-roi.getStart()+1]=nCount[pos-roi.getStart()]+n;
 					}
-				CloserUtil.close(merginIter);
 				
-				for(RegionCaptured.SlidingWindow win: roi)
+				/* merge the sums of the samples, a sample can be found in more than one BAM */
+				long sampleWindowSums[][]=new long[sampleList.size()][windows.size()];
+				for(int i=0;i< workers.size();++i)
 					{
-					double total=0f;
-					int countN=0;
-					for(int pos=win.getStart();pos<win.getEnd();++pos)
+					futures.get(i).get();
+					BamWorker worker=workers.get(i);
+					for(int j=0;j< worker.globalIndex.length;++j)
 						{
-						switch(genomicSequence.charAt(pos))
-							{
-							case 'c':case 'C':
-							case 'g':case 'G':		
-							case 's':case 'S':
-								{
-								total++;
-								break;
-								}
-							case 'n':case 'N':countN++;break;
-							default:break;
-							}
+						long src[]=worker.windowSums[j];
+						long dest[]=sampleWindowSums[worker.globalIndex[j]];
+						for(int w=0;w< src.length;++w) dest[w]+=src[w];
 						}
+					}
+				
+				double sampleMean[]=new double[sampleList.size()];
+				for(int w=0;w< windows.size();++w)
+					{
+					RegionCaptured.SlidingWindow win=windows.get(w);
+					int i0=win.getStart()-roi.getStart();
+					int i1=win.getEnd()-roi.getStart();
+					int countN=nCount[i1]-nCount[i0];
 					if(skip_if_contains_N && countN>0) continue;
- 					double GCPercent=total/(double)win.length();
+ 					double GCPercent=(gcCount[i1]-gcCount[i0])/(double)win.length();
 					
 					int max_depth_for_win=0;
-					sample2meanDepth.clear();
-					for(String sample:samples)
+					for(int i=0;i< sampleList.size();++i)
 						{
-						int depth[]=sample2depth.get(sample);
-						double sum=0;
-						for(int pos=win.getStart();
-								pos<win.getEnd() && (pos-roi.getStart())< depth.length;
-								++pos)
-							{
-							sum+=depth[pos-roi.getStart()];
-							}		
-						double mean= (sum/(double)depth.length);
+						double mean= (sampleWindowSums[i][w]/(double)roi.length());
 						max_depth_for_win=Math.max(max_depth_for_win, (int)mean);
-						sample2meanDepth.put(sample,mean);
+						sampleMean[i]=mean;
 						}
 					if(max_depth_for_win< this.min_depth) continue;
 					
@@ -565,10 +661,10 @@ public class GcPercentAndDepth extends AbstractCommandLineProgram
 					out.print(win.getEnd());
 					out.print("\t");
 					out.printf("%.2f",GCPercent);
-					for(String sample:samples)
+					for(int i=0;i< sampleList.size();++i)
 						{
 						out.print("\t");
-						out.printf("%.2f",(double)sample2meanDepth.get(sample));
+						out.printf("%.2f",sampleMean[i]);
 						}
 					out.println();
 					}
@@ -585,6 +681,7 @@ public class GcPercentAndDepth extends AbstractCommandLineProgram
 			}
 		finally
 			{
+			if(executor!=null) executor.shutdownNow();
 			for(SAMFileReader r:readers) CloserUtil.close(r);
 			CloserUtil.close(indexedFastaSequenceFile);
 			}	
@@ -9,36 +9,31 @@ import java.io.PrintWriter;
 import java.math.BigInteger;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.regex.Pattern;
 
-import net.sf.picard.fastq.FastqRecord;
 import net.sf.samtools.SAMFileReader.ValidationStringency;
-import net.sf.samtools.SAMUtils;
+import net.sf.samtools.util.CloserUtil;
 
 import com.github.lindenb.jvarkit.io.ArchiveFactory;
 import com.github.lindenb.jvarkit.util.AbstractCommandLineProgram;
 import com.github.lindenb.jvarkit.util.Counter;
 import com.github.lindenb.jvarkit.util.cli.GetOpt;
 import com.github.lindenb.jvarkit.util.illumina.FastQName;
-import com.github.lindenb.jvarkit.util.picard.FastqReader;
-import com.github.lindenb.jvarkit.util.picard.FourLinesFastqReader;
+import com.github.lindenb.jvarkit.util.picard.ByteFastqReader;
+import com.github.lindenb.jvarkit.util.picard.MutableFastqRecord;
 
 public class IlluminaStatsFastq
 	extends AbstractCommandLineProgram
 	{
 	
-	private static class Bases
-		{
-		long A=0L;
-		long T=0L;
-		long G=0L;
-		long C=0L;
-		long N=0L;
-		}
-	
 	/* archive factory, where to put the results */
     private ArchiveFactory archiveFactory;
     private PrintWriter wnames=null;
@@ -69,11 +64,51 @@ public class IlluminaStatsFastq
 		return "Reads filenames from stdin: Count FASTQs in Illumina Result.";
 		}
 	
-	private class Analyzer extends Thread
+	/** 0=A 1=T 2=G 3=C 4=N/other */
+	private static final byte BASE2INDEX[]=new byte[256];
+	static
+		{
+		Arrays.fill(BASE2INDEX,(byte)4);
+		BASE2INDEX['A']=BASE2INDEX['a']=0;
+		BASE2INDEX['T']=BASE2INDEX['t']=1;
+		BASE2INDEX['G']=BASE2INDEX['g']=2;
+		BASE2INDEX['C']=BASE2INDEX['c']=3;
+		}
+	
+	private static final int QUALITY_STEP=5;
+	
+	/** grows the array if needed so 'index' is a valid index */
+	private static long[] ensureIndex(long array[],int index)
+		{
+		if(index< array.length) return array;
+		return Arrays.copyOf(array, Math.max(index+1, array.length*2));
+		}
+	
+	/** analyzes one FASTQ in a worker thread, the results are written by the main thread */
+	private class Analyzer implements Callable<Analyzer>
 		{
 		private File fastqFile;
 	    private final Pattern DNARegex=Pattern.compile("[ATGCatcNn]{4,8}");
 	    private String hash;
+	    /** not a *.fastq.gz file: ignored */
+	    private boolean ignore=false;
+	    /** if not null: the file cannot be read */
+	    private String badFastqMessage=null;
+	    
+	    private FastQName fq;
+		private long qualityHistogram[]=new long[(93/QUALITY_STEP)+1];
+		private long pos2quality[]=new long[300];
+		private long pos2count[]=new long[300];
+		/** 5 counts (A,T,G,C,N) for each position */
+		private long pos2bases[]=new long[300*5];
+		private int maxReadLength=0;
+		private long lengths[]=new long[301];
+		private Counter<String> dnaIndexes=new Counter<String>();
+		private long nReads=0L;
+		private long sum_qualities=0L;
+		private long count_bases=0L;
+		private long count_read_fails_filter=0L;
+		private long count_read_doesnt_fail_filter=0L;
 	    
 		Analyzer(File fastqFile)
 			{
@@ -95,20 +130,17 @@ public class IlluminaStatsFastq
 			}
 		
 		
-			
-		
-   
-		
 		@Override
-		public void run()
+		public Analyzer call()
 			{
 			try {
 				analyze(this.fastqFile);
 				}
 			catch (Exception e) {
 				error(e);
+				this.ignore=true;
 				}
-		
+			return this;
 			}
 		
 		IlluminaStatsFastq owner()
@@ -116,195 +148,205 @@ public class IlluminaStatsFastq
 			return IlluminaStatsFastq.this;
 			}
 		
+		/** returns true if the read header contains ':c:' */
+		private boolean containsColonFlag(MutableFastqRecord rec,char c)
+			{
+			final int field=MutableFastqRecord.READ_HEADER;
+			for(int i=0;i+2< rec.getLength(field);++i)
+				{
+				if(rec.byteAt(field,i)==':' && rec.byteAt(field,i+1)==c && rec.byteAt(field,i+2)==':') return true;
+				}
+			return false;
+			}
+		
 		private void analyze(File f) throws IOException
 			{
-			if(f==null) return;
-			if(!(f.getName().endsWith(".fastq.gz") && f.isFile())) return;
+			if(f==null || !(f.getName().endsWith(".fastq.gz") && f.isFile()))
+				{
+				this.ignore=true;
+				return;
+				}
 			if(!f.canRead())
 				{
-				synchronized (IlluminaStatsFastq.class)
-					{
-					tsv(owner().wbadfastq,f.getPath(),"Cannot read");
-					}
+				this.badFastqMessage="Cannot read";
 				return;
 				}
-				
-				final int QUALITY_STEP=5;
-				
-				
-				
-				info(f.toString());
-				FastQName fq=FastQName.parse(f);
-				
-				Counter<Integer> qualityHistogram=new Counter<Integer>();
-				Counter<Integer> pos2quality=new Counter<Integer>();
-				List<Bases> pos2bases=new ArrayList<Bases>(300);
-				Counter<Integer> lengths=new Counter<Integer>();
-				Counter<Integer> pos2count=new Counter<Integer>();
-				Counter<String> dnaIndexes=new Counter<String>();
-				long nReads=0L;
-				double sum_qualities=0L;
-				long count_bases=0L;
-				long count_read_fails_filter=0L;
-				long count_read_doesnt_fail_filter=0L;
-				FastqReader r=null;
-				try
+			
+			info(f.toString());
+			this.fq=FastQName.parse(f);
+			
+			MutableFastqRecord record=new MutableFastqRecord();
+			ByteFastqReader r=null;
+			try
+				{
+				r=new ByteFastqReader(f);
+				r.setValidationStringency(ValidationStringency.LENIENT);
+				while(r.read(record))
 					{
-					r=new FourLinesFastqReader(f);
-					r.setValidationStringency(ValidationStringency.LENIENT);
-					while(r.hasNext())
+					++nReads;
+					if(containsColonFlag(record,'Y'))
 						{
-						FastqRecord record=r.next();
-						++nReads;
-						if(record.getReadHeader().contains(":Y:"))
-							{
-							count_read_fails_filter++;
-							continue;
-							}
-						else if(record.getReadHeader().contains(":N:"))
-							{
-							count_read_doesnt_fail_filter++;
-							}
-						
-						if(owner().COUNT_INDEX>0)
-							{
-							//index
-							int last_colon=record.getReadHeader().lastIndexOf(':');
-							if(last_colon!=-1 && last_colon+1< record.getReadHeader().length())
-								{
-								String dnaIndex=record.getReadHeader().substring(last_colon+1).trim().toUpperCase();
-								if(this.DNARegex.matcher(dnaIndex).matches())
-									{
-									dnaIndexes.incr(dnaIndex);
-									}
-								}
-							}
-						
-						byte phred[]=SAMUtils.fastqToPhred(record.getBaseQualityString());
-						
-						for(int i=0;i< phred.length ;++i)
-							{
-							sum_qualities+=phred[i];
-							count_bases++;
-							
-							qualityHistogram.incr(phred[i]/QUALITY_STEP);
-							pos2quality.incr(i,phred[i]);
-							pos2count.incr(i);
-							}
-						/* get base usage */
-						while(pos2bases.size() <record.getReadString().length())
-							{
-							pos2bases.add(new Bases());
-							}
-						for(int i=0;i< record.getReadString().length() ;++i)
+						count_read_fails_filter++;
+						continue;
+						}
+					else if(containsColonFlag(record,'N'))
+						{
+						count_read_doesnt_fail_filter++;
+						}
+					
+					if(owner().COUNT_INDEX>0)
+						{
+						//index
+						String readHeader=record.getReadHeader();
+						int last_colon=readHeader.lastIndexOf(':');
+						if(last_colon!=-1 && last_colon+1< readHeader.length())
 							{
-							Bases bases=pos2bases.get(i);
-							switch(record.getReadString().charAt(i))
+							String dnaIndex=readHeader.substring(last_colon+1).trim().toUpperCase();
+							if(this.DNARegex.matcher(dnaIndex).matches())
 								{
-								case 'A': case 'a':bases.A++;break;
-								case 'T': case 't':bases.T++;break;
-								case 'G': case 'g':bases.G++;break;
-								case 'C': case 'c':bases.C++;break;
-								default: bases.N++;break;
+								dnaIndexes.incr(dnaIndex);
 								}
 							}
-						lengths.incr(record.getBaseQualityString().length());
-						}
-					}
-				catch(Exception err2)
-					{
-					error(err2,"BOUM "+err2.getMessage());
-					err2.printStackTrace();
-					synchronized (IlluminaStatsFastq.class)
-						{
-						tsv(owner().wbadfastq,f.getPath(),this.hash,err2.getMessage());
 						}
 					
-					return;
-					}	
-				finally
-					{
-					if(r!=null) r.close();
-					r=null;
-					}
-				
-				synchronized (IlluminaStatsFastq.class)
-					{
-					if(fq.isValid())
+					final byte quals[]=record.getBytes(MutableFastqRecord.BASE_QUALITIES);
+					final int qualOffset=record.getOffset(MutableFastqRecord.BASE_QUALITIES);
+					final byte bases[]=record.getBytes(MutableFastqRecord.READ_BASES);
+					final int baseOffset=record.getOffset(MutableFastqRecord.READ_BASES);
+					final int readLength=record.getLength(MutableFastqRecord.BASE_QUALITIES);
+					if(readLength>this.maxReadLength)
 						{
-						tsv(owner().wnames,
-							f.getPath(),
-							f.getParentFile(),
-							f.getName(),
-							this.hash,
-							(fq.isUndetermined()?"Undetermined":fq.getSample()),
-							fq.getSeqIndex(),
-							fq.getLane(),
-							fq.getSide(),
-							fq.getSplit(),
-							fq.getFile().length()
-							);
+						this.maxReadLength=readLength;
+						this.pos2quality=ensureIndex(this.pos2quality, readLength-1);
+						this.pos2count=ensureIndex(this.pos2count, readLength-1);
+						this.pos2bases=ensureIndex(this.pos2bases, readLength*5-1);
 						}
-					else
+					for(int i=0;i< readLength ;++i)
 						{
-						tsv(owner().wbadfastq,f.getPath(),this.hash);
+						int phred=quals[qualOffset+i];
+						if(phred<33 || phred>126)
+							{
+							throw new IllegalArgumentException("Invalid fastq character: " + (char)phred);
+							}
+						phred-=33;
+						sum_qualities+=phred;
+						qualityHistogram[phred/QUALITY_STEP]++;
+						pos2quality[i]+=phred;
+						pos2count[i]++;
+						/* get base usage */
+						pos2bases[i*5+BASE2INDEX[bases[baseOffset+i]&0xFF]]++;
 						}
-					
-					tsv(owner().wcount,
+					count_bases+=readLength;
+					this.lengths=ensureIndex(this.lengths, readLength);
+					this.lengths[readLength]++;
+					}
+				}
+			catch(Exception err2)
+				{
+				error(err2,"BOUM "+err2.getMessage());
+				err2.printStackTrace();
+				this.badFastqMessage=err2.getMessage();
+				}	
+			finally
+				{
+				CloserUtil.close(r);
+				}
+			}
+		
+		/** write the results, called by the main thread */
+		private void write()
+			{
+			if(this.ignore) return;
+			if(this.fq==null)
+				{
+				tsv(owner().wbadfastq,this.fastqFile.getPath(),this.badFastqMessage);
+				return;
+				}
+			if(this.badFastqMessage!=null)
+				{
+				tsv(owner().wbadfastq,this.fastqFile.getPath(),this.hash,this.badFastqMessage);
+				return;
+				}
+			if(fq.isValid())
+				{
+				tsv(owner().wnames,
+					this.fastqFile.getPath(),
+					this.fastqFile.getParentFile(),
+					this.fastqFile.getName(),
+					this.hash,
+					(fq.isUndetermined()?"Undetermined":fq.getSample()),
+					fq.getSeqIndex(),
+					fq.getLane(),
+					fq.getSide(),
+					fq.getSplit(),
+					fq.getFile().length()
+					);
+				}
+			else
+				{
+				tsv(owner().wbadfastq,this.fastqFile.getPath(),this.hash);
+				}
+			
+			tsv(owner().wcount,
+				this.hash,
+				nReads,
+				count_read_fails_filter,
+				count_read_doesnt_fail_filter
+				);
+			
+			tsv(owner().wquals,
+				this.hash,
+				sum_qualities/(double)count_bases
+				);
+			for(int step=0;step< qualityHistogram.length;++step)
+				{
+				if(qualityHistogram[step]==0L) continue;
+				tsv(owner().whistquals,
 						this.hash,
-						nReads,
-						count_read_fails_filter,
-						count_read_doesnt_fail_filter
+						step*QUALITY_STEP,
+						qualityHistogram[step]
 						);
-					
-					tsv(owner().wquals,
+				
+				}
+			for(int position=0;position< this.maxReadLength;++position)
+				{
+				if(pos2count[position]==0L) continue;
+				tsv(owner().wqualperpos,
 						this.hash,
-						sum_qualities/count_bases
+						position+1,
+						pos2quality[position]/(double)pos2count[position],
+						pos2count[position]
 						);
-					for(Integer step:qualityHistogram.keySet())
-						{
-						tsv(owner().whistquals,
-								this.hash,
-								step*QUALITY_STEP,
-								qualityHistogram.count(step)
-								);
-						
-						}
-					for(Integer position:pos2quality.keySet())
-						{
-						tsv(owner().wqualperpos,
-								this.hash,
-								position+1,
-								pos2quality.count(position)/(double)pos2count.count(position),
-								pos2count.count(position)
-								);
-						}
-					
-					for(int i=0;i< pos2bases.size();++i)
-						{
-						Bases b=pos2bases.get(i);
-						tsv(owner().wbases,
-							this.hash,
-							i+1,b.A,b.T,b.G,b.C,b.N
-							);
-						}
-					for(Integer L:lengths.keySet())
-						{
-						tsv(owner().wlength,
-								this.hash,
-								L,
-								lengths.count(L)
-								);
-						}
-					
-					int count_out=0;
-					for(String dna:dnaIndexes.keySetDecreasing())
-						{
-						if(++count_out>owner().COUNT_INDEX) break;
-						tsv(owner().wDNAIndexes,this.hash,dna,dnaIndexes.count(dna));
-						}
-					}
-				
+				}
+			
+			for(int i=0;i< this.maxReadLength;++i)
+				{
+				tsv(owner().wbases,
+					this.hash,
+					i+1,
+					pos2bases[i*5+0],
+					pos2bases[i*5+1],
+					pos2bases[i*5+2],
+					pos2bases[i*5+3],
+					pos2bases[i*5+4]
+					);
+				}
+			for(int L=0;L< this.lengths.length;++L)
+				{
+				if(this.lengths[L]==0L) continue;
+				tsv(owner().wlength,
+						this.hash,
+						L,
+						this.lengths[L]
+						);
+				}
+			
+			int count_out=0;
+			for(String dna:dnaIndexes.keySetDecreasing())
+				{
+				if(++count_out>owner().COUNT_INDEX) break;
+				tsv(owner().wDNAIndexes,this.hash,dna,dnaIndexes.count(dna));
+				}
 			}
 		}
 
@@ -374,6 +416,7 @@ public class IlluminaStatsFastq
 			}
 		
 		
+		ExecutorService executor=null;
 		try {
 			
 			archiveFactory=ArchiveFactory.open(OUT);
@@ -390,27 +433,28 @@ public class IlluminaStatsFastq
 			
 			info("reading from stdin");
 			BufferedReader in=new BufferedReader(new InputStreamReader(System.in));
-			List<Analyzer> pool=new ArrayList<Analyzer>(this.nThreads);
-			for(;;)
+			/* the FASTQs are analyzed by the workers, the results are written by this thread as soon as they're available */
+			executor=Executors.newFixedThreadPool(this.nThreads);
+			CompletionService<Analyzer> completionService=new ExecutorCompletionService<Analyzer>(executor);
+			int nPending=0;
+			String line;
+			while((line=in.readLine())!=null)
 				{
-				String line=in.readLine();
-				if(line==null || pool.size()==this.nThreads)
+				completionService.submit(new Analyzer(new File(line)));
+				++nPending;
+				Future<Analyzer> done;
+				while((done=completionService.poll())!=null)
 					{
-					for(Analyzer analyzer:pool)
-						{
-						analyzer.start();
-						}
-					for(Analyzer analyzer:pool)
-						{
-						analyzer.join();
-						}
-					pool.clear();
-					if(line==null) break;
+					done.get().write();
+					--nPending;
 					}
-				pool.add(new Analyzer(new File(line)));
 				}
-			
 			in.close();
+			while(nPending>0)
+				{
+				completionService.take().get().write();
+				--nPending;
+				}
 			
 		
 			this.wsqlite.println("create table if not exists wnames ( path TEXT, directory PATH, filename TEXT, md5 TEST,sample TEXT, dnaIndex TEXT, lane INT, side TEXT, split INT, fileSize INT );");
@@ -465,7 +509,7 @@ public class IlluminaStatsFastq
 			}
 		finally	
 			{
-			
+			if(executor!=null) executor.shutdownNow();
 			}
 		return 0;
 		}
@@ -1,5 +1,6 @@
 package com.github.lindenb.jvarkit.tools.misc;
 
+import java.io.File;
 import java.io.PrintStream;
 import java.util.regex.Pattern;
 
@@ -10,6 +11,7 @@ import org.broad.tribble.readers.LineIterator;
 import com.github.lindenb.jvarkit.io.IOUtils;
 import com.github.lindenb.jvarkit.util.AbstractCommandLineProgram;
 import com.github.lindenb.jvarkit.util.ucsc.KnownGene;
+import com.github.lindenb.jvarkit.util.ucsc.KnownGeneIndex;
 
 public class KnownGenesToBed extends AbstractCommandLineProgram
 	{
@@ -58,42 +60,57 @@ public class KnownGenesToBed extends AbstractCommandLineProgram
 			String line=r.next();
 			String tokens[]=tab.split(line);
 			KnownGene kg=new KnownGene(tokens);
-			if(print_transcripts) print(kg,kg.getTxStart(),kg.getTxEnd(),"TRANSCRIPT",kg.getName());
-			for(int i=0;i< kg.getExonCount();++i)
+			print(kg);
+			}
+		}
+	
+	/** scan a binary index created with KnownGenesToIndex */
+	private void scan(KnownGeneIndex index)
+		{
+		for(int i=0;i< index.size();++i)
+			{
+			if(out.checkError()) break;
+			print(index.getKnownGene(i));
+			}
+		}
+	
+	private void print(KnownGene kg)
+		{
+		if(print_transcripts) print(kg,kg.getTxStart(),kg.getTxEnd(),"TRANSCRIPT",kg.getName());
+		for(int i=0;i< kg.getExonCount();++i)
+			{
+			KnownGene.Exon exon=kg.getExon(i);
+			if(print_exons) print(kg,exon.getStart(),exon.getEnd(),"EXON",exon.getName());
+			
+			if(print_utrs && kg.getCdsStart()>exon.getStart())
 				{
-				KnownGene.Exon exon=kg.getExon(i);
-				if(print_exons) print(kg,exon.getStart(),exon.getEnd(),"EXON",exon.getName());
-				
-				if(print_utrs && kg.getCdsStart()>exon.getStart())
-					{
-					print(kg,exon.getStart(),
-							Math.min(kg.getCdsStart(),exon.getEnd()),"UTR","UTR"+(kg.isPositiveStrand()?"5":"3"));
-					}
-				
-				if(print_cds && !(kg.getCdsStart()>=exon.getEnd() || kg.getCdsEnd()<exon.getStart()))
-					{
-					print(kg,
-							Math.max(kg.getCdsStart(),exon.getStart()),
-							Math.min(kg.getCdsEnd(),exon.getEnd()),
-							"CDS",exon.getName()
-							);
-					}
-				if(print_exons) print(kg,exon.getStart(),exon.getEnd(),"EXON",exon.getName());
-				
-				KnownGene.Intron intron=exon.getNextIntron();
-				if(print_introns && intron!=null)
-					{
-					print(kg,intron.getStart(),intron.getEnd(),"INTRON",intron.getName());
-					}
-				
-				if(print_utrs && kg.getCdsEnd()<exon.getEnd())
-					{
-					print(kg,Math.max(kg.getCdsEnd(),exon.getStart()),
-							exon.getEnd(),
-							"UTR","UTR"+(kg.isPositiveStrand()?"3":"5"));
-					}
-				
+				print(kg,exon.getStart(),
+						Math.min(kg.getCdsStart(),exon.getEnd()),"UTR","UTR"+(kg.isPositiveStrand()?"5":"3"));
+				}
+			
+			if(print_cds && !(kg.getCdsStart()>=exon.getEnd() || kg.getCdsEnd()<exon.getStart()))
+				{
+				print(kg,
+						Math.max(kg.getCdsStart(),exon.getStart()),
+						Math.min(kg.getCdsEnd(),exon.getEnd()),
+						"CDS",exon.getName()
+						);
+				}
+			if(print_exons) print(kg,exon.getStart(),exon.getEnd(),"EXON",exon.getName());
+			
+			KnownGene.Intron intron=exon.getNextIntron();
+			if(print_introns && intron!=null)
+				{
+				print(kg,intron.getStart(),intron.getEnd(),"INTRON",intron.getName());
+				}
+			
+			if(print_utrs && kg.getCdsEnd()<exon.getEnd())
+				{
+				print(kg,Math.max(kg.getCdsEnd(),exon.getStart()),
+						exon.getEnd(),
+						"UTR","UTR"+(kg.isPositiveStrand()?"3":"5"));
 				}
+			
 			}
 		}
 	@Override
@@ -149,6 +166,13 @@ public class KnownGenesToBed extends AbstractCommandLineProgram
 					{
 					String filename=args[i];
 					info("Reading from "+filename);
+					if(KnownGeneIndex.isKnownGeneIndex(filename))
+						{
+						KnownGeneIndex index=new KnownGeneIndex(new File(filename));
+						scan(index);
+						index.close();
+						continue;
+						}
 					r=IOUtils.openURIForLineIterator(filename);
 					scan(r);
 					CloserUtil.close(r);
@@ -0,0 +1,123 @@
+package com.github.lindenb.jvarkit.tools.misc;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import net.sf.samtools.util.CloserUtil;
+
+import org.broad.tribble.readers.LineIterator;
+
+import com.github.lindenb.jvarkit.io.IOUtils;
+import com.github.lindenb.jvarkit.util.AbstractCommandLineProgram;
+import com.github.lindenb.jvarkit.util.ucsc.KnownGene;
+import com.github.lindenb.jvarkit.util.ucsc.KnownGeneIndex;
+
+public class KnownGenesToIndex extends AbstractCommandLineProgram
+	{
+	private List<KnownGene> genes=new ArrayList<KnownGene>();
+
+	@Override
+	public String getProgramDescription() {
+		return "Compiles a UCSC knownGene table into a binary index (*"+KnownGeneIndex.SUFFIX+
+				") that can be used by VCFPredictions, VCFStopCodon and KnownGenesToBed instead of the text file.";
+		}
+
+	@Override
+	protected String getOnlineDocUrl() {
+		return "https://github.com/lindenb/jvarkit/wiki/KnownGenesToIndex";
+		}
+
+	private void scan(LineIterator r)
+		{
+		Pattern tab=Pattern.compile("[\t]");
+		while(r.hasNext())
+			{
+			String line=r.next();
+			if(line.isEmpty()) continue;
+			String tokens[]=tab.split(line);
+			this.genes.add(new KnownGene(tokens));
+			}
+		}
+
+	@Override
+	public void printOptions(java.io.PrintStream out)
+		{
+		out.println(" -o (file) output index. Required. Should end with "+KnownGeneIndex.SUFFIX);
+		super.printOptions(out);
+		}
+
+	@Override
+	public int doWork(String[] args)
+		{
+		File fileout=null;
+		com.github.lindenb.jvarkit.util.cli.GetOpt opt=new com.github.lindenb.jvarkit.util.cli.GetOpt();
+		int c;
+		while((c=opt.getopt(args,getGetOptDefault()+"o:"))!=-1)
+			{
+			switch(c)
+				{
+				case 'o': fileout=new File(opt.getOptArg());break;
+				default:
+					{
+					switch(handleOtherOptions(c, opt,args))
+						{
+						case EXIT_FAILURE: return -1;
+						case EXIT_SUCCESS: return 0;
+						default:break;
+						}
+					}
+				}
+			}
+		if(fileout==null)
+			{
+			error("undefined output file.");
+			return -1;
+			}
+		if(!fileout.getName().endsWith(KnownGeneIndex.SUFFIX))
+			{
+			warning("output file "+fileout+" should end with "+KnownGeneIndex.SUFFIX);
+			}
+
+		LineIterator r=null;
+		try
+			{
+			if(opt.getOptInd()==args.length)
+				{
+				info("Reading from stdin");
+				r=IOUtils.openStdinForLineIterator();
+				scan(r);
+				CloserUtil.close(r);
+				}
+			else
+				{
+				for(int i=opt.getOptInd();i< args.length;++i)
+					{
+					String filename=args[i];
+					info("Reading from "+filename);
+					r=IOUtils.openURIForLineIterator(filename);
+					scan(r);
+					CloserUtil.close(r);
+					}
+				}
+			info("Writing "+this.genes.size()+" transcripts to "+fileout);
+			KnownGeneIndex.write(this.genes, fileout);
+			return 0;
+			}
+		catch(Exception err)
+			{
+			error(err);
+			return -1;
+			}
+		finally
+			{
+			CloserUtil.close(r);
+			}
+		}
+
+	public static void main(String[] args) {
+		new KnownGenesToIndex().instanceMainWithExit(args);
+		}
+
+	}
@@ -1,17 +1,16 @@
 package com.github.lindenb.jvarkit.tools.misc;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
 
-import net.sf.picard.fastq.BasicFastqWriter;
-import net.sf.picard.fastq.FastqRecord;
-import net.sf.picard.fastq.FastqWriter;
-import net.sf.picard.fastq.FastqWriterFactory;
 import net.sf.samtools.SAMFileReader.ValidationStringency;
 import net.sf.samtools.util.CloserUtil;
 
 import com.github.lindenb.jvarkit.util.AbstractCommandLineProgram;
-import com.github.lindenb.jvarkit.util.picard.FastqReader;
-import com.github.lindenb.jvarkit.util.picard.FourLinesFastqReader;
+import com.github.lindenb.jvarkit.util.picard.ByteFastqReader;
+import com.github.lindenb.jvarkit.util.picard.ByteFastqWriter;
+import com.github.lindenb.jvarkit.util.picard.MutableFastqRecord;
 
 public class PadEmptyFastq extends AbstractCommandLineProgram
 	{
@@ -24,24 +23,22 @@ public class PadEmptyFastq extends AbstractCommandLineProgram
 		}
 	
 	
-	private void copyTo(FastqReader r,FastqWriter w)
+	private void copyTo(ByteFastqReader r,ByteFastqWriter w) throws IOException
 		{
 		int padLength=this.N;
 		long nReads=0L;
 		long nFill=0L;
-		String fillN=null;
-		String fillQ=null;
+		byte fillN[]=null;
+		byte fillQ[]=null;
 		r.setValidationStringency(ValidationStringency.LENIENT);
-		while(r.hasNext())
+		MutableFastqRecord rec=new MutableFastqRecord();
+		while(r.read(rec))
 			{
-			FastqRecord rec=r.next();
-			
-			
 			if(++nReads%1E6==0)
 				{
 				info("Read "+nReads +" reads. empty reads="+nFill);
 				}
-			if(rec.getReadString().isEmpty())
+			if(rec.getLength(MutableFastqRecord.READ_BASES)==0)
 				{
 				++nFill;
 				if(padLength<1)
@@ -50,22 +47,17 @@ public class PadEmptyFastq extends AbstractCommandLineProgram
 					}
 				if(fillN==null)
 					{
-					StringBuilder b1=new StringBuilder();
-					while(b1.length()< padLength) b1.append("N");
-					fillN=b1.toString();
-					fillQ=fillN.replace('N', '#');
+					fillN=new byte[padLength];
+					Arrays.fill(fillN, (byte)'N');
+					fillQ=new byte[padLength];
+					Arrays.fill(fillQ, (byte)'#');
 					}
-				
-				rec=new FastqRecord(
-						rec.getReadHeader(),
-						fillN,
-						rec.getBaseQualityHeader(),
-						fillQ
-						);
+				rec.set(MutableFastqRecord.READ_BASES, fillN, 0, fillN.length);
+				rec.set(MutableFastqRecord.BASE_QUALITIES, fillQ, 0, fillQ.length);
 				}
 			else if(padLength<1)
 				{
-				padLength=rec.getReadString().length();
+				padLength=rec.getLength(MutableFastqRecord.READ_BASES);
 				}
 			w.write(rec);
 			}
@@ -121,24 +113,24 @@ public class PadEmptyFastq extends AbstractCommandLineProgram
 				}
 			}
 		
-		FastqWriter fqw=null;		
+		ByteFastqWriter fqw=null;		
 		try
 			{
 			
 			if(fileOut==null)
 				{
 				info("writing to stdout");
-				fqw=new BasicFastqWriter(System.out);
+				fqw=new ByteFastqWriter(System.out);
 				}
 			else
 				{
 				info("writing to "+fileOut);
-				fqw=new FastqWriterFactory().newWriter(fileOut);
+				fqw=new ByteFastqWriter(fileOut);
 				}
 			if(opt.getOptInd()==args.length)
 				{
 				info("Reading from stdin");
-				FastqReader fqr=new FourLinesFastqReader(System.in);
+				ByteFastqReader fqr=new ByteFastqReader(System.in);
 				copyTo(fqr,fqw);
 				fqr.close();
 				}
@@ -148,11 +140,13 @@ public class PadEmptyFastq extends AbstractCommandLineProgram
 					{
 					String filename=args[i];
 					info("Reading from "+filename);
-					FastqReader fqr=new FourLinesFastqReader(new File(filename));
+					ByteFastqReader fqr=new ByteFastqReader(new File(filename));
 					copyTo(fqr,fqw);
 					fqr.close();
 					}
 				}
+			fqw.close();
+			fqw=null;
 			return 0;
 			}
 		catch(Exception err)
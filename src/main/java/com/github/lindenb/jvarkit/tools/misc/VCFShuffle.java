@@ -1,25 +1,37 @@
 package com.github.lindenb.jvarkit.tools.misc;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
-import java.util.Comparator;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
-import net.sf.samtools.util.CloseableIterator;
 import net.sf.samtools.util.CloserUtil;
-import net.sf.samtools.util.SortingCollection;
 
-import org.broadinstitute.variant.variantcontext.VariantContext;
 import org.broadinstitute.variant.variantcontext.writer.VariantContextWriter;
 import org.broadinstitute.variant.vcf.VCFCodec;
 import org.broadinstitute.variant.vcf.VCFHeader;
 import org.broadinstitute.variant.vcf.VCFHeaderLine;
 
 import com.github.lindenb.jvarkit.io.IOUtils;
-import com.github.lindenb.jvarkit.util.picard.AbstractDataCodec;
 import com.github.lindenb.jvarkit.util.vcf.AbstractVCFFilter2;
 import com.github.lindenb.jvarkit.util.vcf.VcfIterator;
 import org.broad.tribble.readers.LineIterator;
@@ -31,51 +43,158 @@ import org.broad.tribble.readers.LineReaderUtil;
 public class VCFShuffle extends AbstractVCFFilter2
 	{
 	
-	private static class RLine
-		{
-		Integer rand;
-		String line;
-		}
+	private static final Charset UTF8=Charset.forName("UTF-8");
 	
-	private static class RLineCodec
-		extends AbstractDataCodec<RLine>
+	/** a temporary file receiving the lines randomly assigned to it */
+	private static class Bucket
 		{
-		@Override
-		public RLine decode(DataInputStream dis) throws IOException
+		final File file;
+		/** seed used to split or to shuffle this bucket */
+		final long seed;
+		private DataOutputStream out;
+		long count=0L;
+		
+		Bucket(File dir,long seed) throws IOException
+			{
+			this.file=File.createTempFile("shuffle.", ".bucket", dir);
+			this.file.deleteOnExit();
+			this.seed=seed;
+			this.out=new DataOutputStream(new BufferedOutputStream(
+				new DeflaterOutputStream(new FileOutputStream(this.file), new Deflater(Deflater.BEST_SPEED), 1<<16),
+				1<<16));
+			}
+		
+		void write(String line) throws IOException
+			{
+			byte b[]=line.getBytes(UTF8);
+			this.out.writeInt(b.length);
+			this.out.write(b);
+			this.count++;
+			}
+		
+		void close() throws IOException
 			{
-			RLine r=new RLine();
+			if(this.out==null) return;
+			this.out.close();
+			this.out=null;
+			}
+		
+		/** reads the lines of this bucket */
+		void read(LineCallback callback) throws IOException
+			{
+			DataInputStream in=new DataInputStream(new BufferedInputStream(
+					new InflaterInputStream(new FileInputStream(this.file),new Inflater(),1<<16),
+					1<<16));
 			try
 				{
-				r.rand=dis.readInt();
+				byte b[]=new byte[1000];
+				for(long i=0;i< this.count;++i)
+					{
+					int len=in.readInt();
+					if(b.length< len) b=new byte[len];
+					in.readFully(b, 0, len);
+					callback.line(new String(b,0,len,UTF8));
+					}
 				}
-			catch(IOException err)
+			finally
 				{
-				return null;
+				in.close();
 				}
-			r.line=dis.readUTF();
-			return r;
 			}
-		@Override
-		public void encode(DataOutputStream dos, RLine object)
-				throws IOException {
-			dos.writeInt(object.rand);
-			dos.writeUTF(object.line);
+		
+		void delete()
+			{
+			CloserUtil.close(this.out);
+			this.file.delete();
+			}
+		}
+	
+	private interface LineCallback
+		{
+		public void line(String line) throws IOException;
+		}
+	
+	/** Fisher-Yates shuffle */
+	private static void shuffle(String lines[],Random random)
+		{
+		for(int i=lines.length-1;i>0;--i)
+			{
+			int j=random.nextInt(i+1);
+			String tmp=lines[i];
+			lines[i]=lines[j];
+			lines[j]=tmp;
+			}
+		}
+	
+	/** loads and shuffles a bucket that fits in memory */
+	private static class ShuffleBucket implements Callable<String[]>
+		{
+		private final Bucket bucket;
+		ShuffleBucket(Bucket bucket)
+			{
+			this.bucket=bucket;
 			}
 		@Override
-		public AbstractDataCodec<RLine> clone() {
-			return new RLineCodec();
+		public String[] call() throws Exception
+			{
+			final String lines[]=new String[(int)this.bucket.count];
+			this.bucket.read(new LineCallback()
+				{
+				int n=0;
+				@Override
+				public void line(String line)
+					{
+					lines[n++]=line;
+					}
+				});
+			this.bucket.delete();
+			shuffle(lines,new Random(this.bucket.seed));
+			return lines;
 			}
 		}
 	
-	private static class RLineCmp
-		implements Comparator<RLine>
+	/** scatters the lines uniformly into 'nBuckets' buckets */
+	private static class Scatter implements LineCallback
 		{
+		final List<Bucket> buckets=new ArrayList<Bucket>();
+		final Random random;
+		Scatter(File tmpDir,int nBuckets,long seed) throws IOException
+			{
+			this.random=new Random(seed);
+			for(int i=0;i< nBuckets;++i)
+				{
+				this.buckets.add(new Bucket(tmpDir,this.random.nextLong()));
+				}
+			}
 		@Override
-		public int compare(RLine o1, RLine o2) {
-			return o1.rand.compareTo(o2.rand);
+		public void line(String line) throws IOException
+			{
+			this.buckets.get(this.random.nextInt(this.buckets.size())).write(line);
+			}
+		void close() throws IOException
+			{
+			for(Bucket b:this.buckets) b.close();
+			}
+		}
+	
+	private static String[] await(Future<String[]> future) throws IOException
+		{
+		try
+			{
+			return future.get();
+			}
+		catch(InterruptedException err)
+			{
+			throw new IOException(err);
+			}
+		catch(ExecutionException err)
+			{
+			Throwable cause=err.getCause();
+			if(cause instanceof IOException) throw (IOException)cause;
+			if(cause instanceof RuntimeException) throw (RuntimeException)cause;
+			throw new IOException(cause);
 			}
 		}
-
 	
 	private VCFShuffle()
 		{
@@ -106,6 +225,8 @@ public class VCFShuffle extends AbstractVCFFilter2
 		out.println(" -T (dir) tmp directory. Optional.");
 		out.println(" -N (long) random seed. Optional.");
 		out.println(" -m (int) max records in ram. Optional");
+		out.println(" -K (int) number of temporary buckets. The buckets having more than 'max records in ram' lines are split again. Default: 64.");
+		out.println(" -t (int) number of threads shuffling the buckets. Default: 1.");
 		super.printOptions(out);
 		}
 	
@@ -113,17 +234,21 @@ public class VCFShuffle extends AbstractVCFFilter2
 	public int doWork(String[] args)
 		{
 		int maxRecordsInRAM=50000;
+		int nBuckets=64;
+		int nThreads=1;
 		File tmpFile=null;
 		long seed=System.currentTimeMillis();
 		com.github.lindenb.jvarkit.util.cli.GetOpt opt=new com.github.lindenb.jvarkit.util.cli.GetOpt();
 		int c;
-		while((c=opt.getopt(args,getGetOptDefault()+ "T:N:m:"))!=-1)
+		while((c=opt.getopt(args,getGetOptDefault()+ "T:N:m:K:t:"))!=-1)
 			{
 			switch(c)
 				{
 				case 'T': tmpFile=new File(opt.getOptArg()); break;
 				case 'N': seed=Long.parseLong(opt.getOptArg()); break;
 				case 'm': maxRecordsInRAM=Math.max(10, Integer.parseInt(opt.getOptArg())); break;
+				case 'K': nBuckets=Math.max(2, Integer.parseInt(opt.getOptArg())); break;
+				case 't': nThreads=Math.max(1, Integer.parseInt(opt.getOptArg())); break;
 				default: 
 					{
 					switch(handleOtherOptions(c, opt, null))
@@ -143,7 +268,8 @@ public class VCFShuffle extends AbstractVCFFilter2
 		VariantContextWriter out=null;
 		LineIterator lineIter=null;
 		LineReader lr=null;
-		SortingCollection<RLine> shuffled=null;
+		List<Bucket> buckets=new ArrayList<Bucket>();
+		ExecutorService executor=null;
 
 		try
 			{
@@ -175,31 +301,79 @@ public class VCFShuffle extends AbstractVCFFilter2
 			out.writeHeader(header);
 			info("shuffling");
 			
-			shuffled=SortingCollection.newInstance(
-					RLine.class,
-					new RLineCodec(),
-					new RLineCmp(),
-					maxRecordsInRAM,
-					tmpFile
-					);
-			shuffled.setDestructiveIteration(true);
+			List<String> lines=new ArrayList<String>();
+			while(lineIter.hasNext() && lines.size()< maxRecordsInRAM)
+				{
+				lines.add(lineIter.next());
+				}
+			if(!lineIter.hasNext())
+				{
+				/* everything fits in memory */
+				String array[]=lines.toArray(new String[lines.size()]);
+				lines=null;
+				shuffle(array,random);
+				for(String line:array)
+					{
+					out.add(vcfCodec.decode(line));
+					}
+				info("done shuffling");
+				return 0;
+				}
+			
+			/* first pass: the lines are scattered uniformly into the buckets */
+			Scatter scatter=new Scatter(tmpFile,nBuckets,random.nextLong());
+			buckets.addAll(scatter.buckets);
+			for(String line:lines) scatter.line(line);
+			lines=null;
 			while(lineIter.hasNext())
 				{
-				RLine rLine=new RLine();
-				rLine.rand=random.nextInt();
-				rLine.line=lineIter.next();
-				shuffled.add(rLine);
+				scatter.line(lineIter.next());
 				}
-			shuffled.doneAdding();
-			info("done shuffling");
+			scatter.close();
 			
-			CloseableIterator<RLine> iter=shuffled.iterator();
-			while(iter.hasNext())
+			/* second pass: each bucket is shuffled in memory, the buckets are written in order.
+			 * A bucket too large for the memory is split again. */
+			if(nThreads>1) executor=Executors.newFixedThreadPool(nThreads);
+			LinkedList<Bucket> todo=new LinkedList<Bucket>(scatter.buckets);
+			LinkedList<Future<String[]>> pending=new LinkedList<Future<String[]>>();
+			while(!todo.isEmpty() || !pending.isEmpty())
 				{
-				VariantContext ctx=vcfCodec.decode(iter.next().line);
-				out.add(ctx);
+				if(!todo.isEmpty() && pending.size()< nThreads)
+					{
+					Bucket bucket=todo.removeFirst();
+					if(bucket.count==0L)
+						{
+						bucket.delete();
+						}
+					else if(bucket.count> maxRecordsInRAM)
+						{
+						info("splitting a bucket of "+bucket.count+" lines");
+						Scatter split=new Scatter(tmpFile,nBuckets,bucket.seed);
+						buckets.addAll(split.buckets);
+						bucket.read(split);
+						split.close();
+						bucket.delete();
+						todo.addAll(0, split.buckets);
+						}
+					else if(executor==null)
+						{
+						for(String line:new ShuffleBucket(bucket).call())
+							{
+							out.add(vcfCodec.decode(line));
+							}
+						}
+					else
+						{
+						pending.add(executor.submit(new ShuffleBucket(bucket)));
+						}
+					continue;
+					}
+				for(String line:await(pending.removeFirst()))
+					{
+					out.add(vcfCodec.decode(line));
+					}
 				}
-
+			info("done shuffling");
 			
 			return 0;
 			}
@@ -210,7 +384,8 @@ public class VCFShuffle extends AbstractVCFFilter2
 			}
 		finally
 			{
-			if(shuffled!=null) shuffled.cleanup();
+			if(executor!=null) executor.shutdownNow();
+			for(Bucket bucket:buckets) bucket.delete();
 			CloserUtil.close(lineIter);
 			CloserUtil.close(lr);
 			CloserUtil.close(out);
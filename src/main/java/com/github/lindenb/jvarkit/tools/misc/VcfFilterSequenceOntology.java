@@ -22,9 +22,10 @@ import com.github.lindenb.jvarkit.util.vcf.predictions.VepPredictionParser;
 
 public class VcfFilterSequenceOntology extends AbstractVCFFilter2
 	{
-	private Set<SequenceOntologyTree.Term> user_terms=new HashSet<SequenceOntologyTree.Term>();
 	private boolean inverse_result=false;
 	private final SequenceOntologyTree sequenceOntologyTree=SequenceOntologyTree.getInstance();
+	/** user's terms and, with reasoning, their descendants, as a bitset of the terms' ids */
+	private final SequenceOntologyTree.TermSet user_terms=sequenceOntologyTree.createTermSet();
 	private VcfFilterSequenceOntology()
 		{
 		}
@@ -42,14 +43,7 @@ public class VcfFilterSequenceOntology extends AbstractVCFFilter2
 	
 	private boolean hasUserTem(Set<SequenceOntologyTree.Term> ctxTerms)
 		{
-		for(SequenceOntologyTree.Term ctxTerm:ctxTerms)
-			{
-			if(this.user_terms.contains(ctxTerm))
-				{
-				return true;
-				}
-			}
-		return false;
+		return this.user_terms.containsAny(ctxTerms);
 		}
 
 	@Override
@@ -186,8 +180,14 @@ public class VcfFilterSequenceOntology extends AbstractVCFFilter2
 		
 		for(SequenceOntologyTree.Term t:setInit)
 			{
-			this.user_terms.add(t);
-			if(reasoning) this.user_terms.addAll(t.getAllDescendants());
+			if(reasoning)
+				{
+				this.user_terms.addAllDescendants(t);
+				}
+			else
+				{
+				this.user_terms.add(t);
+				}
 			}
 		info("Will be using :"+this.user_terms.toString());
 		return doWork(opt.getOptInd(), args);
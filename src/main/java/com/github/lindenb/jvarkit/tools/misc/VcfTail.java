@@ -1,9 +1,15 @@
 package com.github.lindenb.jvarkit.tools.misc;
 
+import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.PrintStream;
+import java.io.RandomAccessFile;
 import java.util.LinkedList;
 
+import net.sf.samtools.util.BlockCompressedInputStream;
+import net.sf.samtools.util.CloserUtil;
 
 import org.broadinstitute.variant.variantcontext.VariantContext;
 import org.broadinstitute.variant.variantcontext.writer.VariantContextWriter;
@@ -16,6 +22,10 @@ import com.github.lindenb.jvarkit.util.vcf.VcfIterator;
 
 public class VcfTail extends AbstractVCFFilter2
 	{
+	/** size of the first tail of the compressed file scanned by the fast path */
+	private static final long FIRST_TAIL_SIZE=1L<<18;
+	/** max size of a BGZF block */
+	private static final int MAX_BLOCK_SIZE=1<<16;
 	private long count=10L;
 	private VcfTail()
 		{
@@ -33,14 +43,19 @@ public class VcfTail extends AbstractVCFFilter2
 	
 	
 
-	@Override
-	protected void doWork(VcfIterator in, VariantContextWriter out)
-			throws IOException
+	private void writeHeader(VcfIterator in, VariantContextWriter out)
 		{
 		VCFHeader header=in.getHeader();
 		header.addMetaDataLine(new VCFHeaderLine(getClass().getSimpleName()+"CmdLine",String.valueOf(getProgramCommandLine())));
 		header.addMetaDataLine(new VCFHeaderLine(getClass().getSimpleName()+"Version",String.valueOf(getVersion())));
 		out.writeHeader(header);
+		}
+
+	@Override
+	protected void doWork(VcfIterator in, VariantContextWriter out)
+			throws IOException
+		{
+		writeHeader(in,out);
 		LinkedList<VariantContext> L=new LinkedList<VariantContext>();
 		while(in.hasNext() && L.size()< this.count)
 			{	
@@ -58,6 +73,154 @@ public class VcfTail extends AbstractVCFFilter2
 		}
 	
 	
+	/**
+	 * returns the size of the BGZF block starting at 'offset' or -1 if there is
+	 * no valid BGZF header at this offset.
+	 */
+	private static int bgzfBlockSize(RandomAccessFile raf,long offset,long fileLength) throws IOException
+		{
+		byte h[]=new byte[12];
+		if(offset+h.length>fileLength) return -1;
+		raf.seek(offset);
+		raf.readFully(h);
+		if((h[0]&0xFF)!=31 || (h[1]&0xFF)!=139 || (h[2]&0xFF)!=8 || (h[3]&0x04)==0) return -1;
+		int xlen=(h[10]&0xFF)|((h[11]&0xFF)<<8);
+		if(offset+h.length+xlen>fileLength) return -1;
+		byte extra[]=new byte[xlen];
+		raf.readFully(extra);
+		int i=0;
+		while(i+4<=xlen)
+			{
+			int slen=(extra[i+2]&0xFF)|((extra[i+3]&0xFF)<<8);
+			if(extra[i]==66 && extra[i+1]==67 && slen==2 && i+6<=xlen)
+				{
+				int blockSize=((extra[i+4]&0xFF)|((extra[i+5]&0xFF)<<8))+1;
+				if(blockSize< h.length+xlen+8 || offset+blockSize>fileLength) return -1;
+				return blockSize;
+				}
+			i+=4+slen;
+			}
+		return -1;
+		}
+
+	/**
+	 * returns the offset of the first BGZF block starting in [start,start+MAX_BLOCK_SIZE[
+	 * whose chain of blocks ends exactly at the end of the file, or -1.
+	 */
+	private static long findBgzfBlock(RandomAccessFile raf,long start,long fileLength) throws IOException
+		{
+		long end=Math.min(fileLength, start+MAX_BLOCK_SIZE);
+		for(long offset=start;offset< end;++offset)
+			{
+			long p=offset;
+			int blockSize;
+			while(p< fileLength && (blockSize=bgzfBlockSize(raf,p,fileLength))!=-1)
+				{
+				p+=blockSize;
+				}
+			if(p==fileLength) return offset;
+			}
+		return -1L;
+		}
+
+	/**
+	 * fast path for a local BGZF file: the blocks at the end of the file are found by scanning
+	 * the compressed file backwards from EOF and only those blocks are decompressed. The tail
+	 * is doubled until it contains 'count' complete variant lines or reaches the header.
+	 * @return the last lines of the file or null if the file is not a BGZF file
+	 */
+	private LinkedList<String> readBgzfTail(File file) throws IOException
+		{
+		RandomAccessFile raf=null;
+		try
+			{
+			raf=new RandomAccessFile(file, "r");
+			long fileLength=raf.length();
+			if(bgzfBlockSize(raf,0L,fileLength)==-1) return null;
+			LinkedList<String> L=new LinkedList<String>();
+			long tailSize=FIRST_TAIL_SIZE;
+			for(;;)
+				{
+				long start=Math.max(0L, fileLength-tailSize);
+				long blockStart=(start==0L?0L:findBgzfBlock(raf,start,fileLength));
+				if(blockStart==-1L)
+					{
+					if(start==0L) return null;
+					tailSize*=2;
+					continue;
+					}
+				L.clear();
+				boolean complete=(blockStart==0L);
+				BlockCompressedInputStream bgzin=new BlockCompressedInputStream(file);
+				try
+					{
+					bgzin.seek(blockStart<<16);
+					BufferedReader r=new BufferedReader(new InputStreamReader(bgzin));
+					/* the first line may have been cut by the start of the block */
+					if(!complete) r.readLine();
+					String line;
+					while((line=r.readLine())!=null)
+						{
+						if(line.isEmpty()) continue;
+						if(line.startsWith("#"))
+							{
+							/* reached the header: the tail contains all the variants */
+							L.clear();
+							complete=true;
+							continue;
+							}
+						L.add(line);
+						if(L.size()>this.count) L.removeFirst();
+						}
+					}
+				finally
+					{
+					bgzin.close();
+					}
+				if(complete || L.size()>=this.count) return L;
+				tailSize*=2;
+				}
+			}
+		finally
+			{
+			CloserUtil.close(raf);
+			}
+		}
+
+	@Override
+	protected int doWork(String IN,File OUT)
+		{
+		if(IN==null || !IN.endsWith(".gz") || this.count==0L) return super.doWork(IN,OUT);
+		File file=new File(IN);
+		if(!file.isFile()) return super.doWork(IN,OUT);
+		VcfIterator r=null;
+		VariantContextWriter w=null;
+		try
+			{
+			LinkedList<String> L=readBgzfTail(file);
+			if(L==null) return super.doWork(IN,OUT);
+			info("read the last "+L.size()+" variants from the end of "+IN);
+			r=this.createVcfIterator(IN);
+			w=this.createVariantContextWriter(OUT);
+			writeHeader(r,w);
+			for(String line:L)
+				{
+				w.add(r.getCodec().decode(line));
+				}
+			}
+		catch (Exception e)
+			{
+			this.error(e);
+			return -1;
+			}
+		finally
+			{
+			if(w!=null) w.close();
+			if(r!=null) r.close();
+			}
+		return 0;
+		}
+
 	@Override
 	public void printOptions(PrintStream out)
 		{
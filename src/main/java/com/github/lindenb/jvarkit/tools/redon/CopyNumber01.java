@@ -18,6 +18,10 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Pattern;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
@@ -42,7 +46,6 @@ import net.sf.samtools.util.CloserUtil;
 import net.sf.samtools.util.SequenceUtil;
 
 import com.github.lindenb.jvarkit.io.IOUtils;
-import com.github.lindenb.jvarkit.math.DoubleArray;
 import com.github.lindenb.jvarkit.util.AbstractCommandLineProgram;
 import com.github.lindenb.jvarkit.util.picard.GenomicSequence;
 import com.github.lindenb.jvarkit.util.picard.SAMSequenceDictionaryProgress;
@@ -63,110 +66,53 @@ public class CopyNumber01 extends AbstractCommandLineProgram
 	private List<List<RegionCaptured>> chrom2capture=null;
 	private int num_windows=0;
 	private Map<String,String> resolveChromName=new HashMap<String, String>();
+	private int nThreads=1;
 
 	
 	/* http://www.biostars.org/p/92744/ */
-	private static class GCBin
+	/** GC% of the windows, shared by all the replicates. The windows having the same GC% belong to the same bin */
+	private static class GCBins
 		{
-		double gc;
-		double medianDepth;
-		double stddev_for_GC;
-		DoubleArray depths=new DoubleArray(10);
-		GCBin(double y_gc,double x_depth)
-			{
-			this.gc=y_gc;
-			this.depths.push_back(x_depth);
-			}
-		double zScore(double observed_depth)
-			{
-			return (observed_depth - this.medianDepth) / this.stddev_for_GC;
-			}
-		double smooth(double observed_depth)
-			{
-			return this.medianDepth * zScore(observed_depth);
-			}
-		}
-	
-	private static class GCBinMap
-		{
-		ArrayList<GCBin> gc=new ArrayList<GCBin>(100);
-		public void put(double y_gc,double x_depth)
-			{
-			for(int i=0;i<gc.size();++i)
-				{
-				GCBin gcBin=gc.get(i);
-				if(gcBin.gc==y_gc)
-					{
-					gcBin.depths.push_back(x_depth);
-					return;
-					}
-				else if(gcBin.gc>y_gc)
-					{
-					gc.add(i, new GCBin(y_gc,x_depth));
-					return;
-					}
-				}
-			gc.add( new GCBin(y_gc,x_depth));
-			}
+		/** bin index for each window, or -1 if the GC% is undefined */
+		int window2bin[];
+		/** index of the windows used to compute the statistics of the bins (no sexual chromosome), grouped by bin */
+		int binnedWindows[];
+		/** bin 'i' is binnedWindows[binOffset[i]] to binnedWindows[binOffset[i+1]] */
+		int binOffset[];
 		
-		
-		public double smooth(double y_gc,double x_depth)
-			{
-			if(Double.isNaN(y_gc)) return x_depth;
-			for(int i=0;i<gc.size();++i)
-				{
-				GCBin gcBin=gc.get(i);
-				if(gcBin.gc==y_gc)
-					{
-					return gcBin.smooth(x_depth);
-					}
-				}
-			return x_depth;
-			}
-		}
-
-	/* fact: Y=depth X=GC% */
-	private static class GCAndDepth
-		implements Comparable<GCAndDepth>
-		{
-		//int tid;
-		//int pos;
-		double depth=0;
-		double gc=0;
-		@Override
-		public int compareTo(final GCAndDepth o)
+		int getBinCount()
 			{
-			if(getX() < o.getX()) return -1;
-			if(getX() > o.getX()) return  1;
-
-			if(getY() < o.getY()) return -1;
-			if(getY() > o.getY()) return  1;
-			return 0;
-			}
-		double getX()
-			{
-			return gc;
+			return this.binOffset.length-1;
 			}
-		double getY()
+		int getBinSize(int bin)
 			{
-			return depth;
+			return this.binOffset[bin+1]-this.binOffset[bin];
 			}
-		
-		
 		}
 
 	
 	
 	/** a Sample, can contain multiple BAM */
 	private class Replicate
+		implements Callable<Void>
 		{
 		int id=0;
 		String filename;
 		File tmpFile;
+		GCBins gcBins;
+		/** the GC-smoothed depths are saved in tmpFile, the final depth is (depth-minDepth)/medianDepth */
+		double minDepth;
+		double medianDepth;
 		File createTmpFile(String prefix) throws IOException
 			{
 			return CopyNumber01.this.createTempFile("pred"+(id+1)+"_"+prefix+"_");
 			}
+		@Override
+		public Void call() throws Exception
+			{
+			scan(this);
+			return null;
+			}
 		}
 	
 	/** A bed segment from the catpure */
@@ -195,12 +141,21 @@ public class CopyNumber01 extends AbstractCommandLineProgram
 			{
 			return this.end0;
 			}
-		@SuppressWarnings("unused")
 		public int length()
 			{
 			return this.getEnd()-this.getStart();
 			}
 		
+		public int countWindows()
+			{
+			int n=0;
+			for(@SuppressWarnings("unused") SlidingWindow win:this)
+				{
+				n++;
+				}
+			return n;
+			}
+		
 		@Override
 		public int compareTo(RegionCaptured o)
 			{
@@ -302,21 +257,20 @@ public class CopyNumber01 extends AbstractCommandLineProgram
 		{
 		}
 	
-	private static double median(final DoubleArray L)
+	/** returns the median of the first 'length' items of 'array'. Warning: those items are sorted */
+	private static double median(final double array[],int length)
 		{
-
-		if(L.isEmpty()) throw new IllegalArgumentException();
-		if(L.size()==1) return L.get(0);
-		double copy[]=L.toArray();
-		Arrays.sort(copy);
-		int mid=copy.length/2;
-		if(copy.length%2==1)
+		if(length==0) throw new IllegalArgumentException();
+		if(length==1) return array[0];
+		Arrays.sort(array,0,length);
+		int mid=length/2;
+		if(length%2==1)
 			{
-			return copy[mid];
+			return array[mid];
 			}
 		else
 			{
-			return (copy[mid-1]+copy[mid])/2.0;
+			return (array[mid-1]+array[mid])/2.0;
 			}
 		
 		}
@@ -354,10 +308,13 @@ public class CopyNumber01 extends AbstractCommandLineProgram
 		return this.indexedFastaSequenceFile.getSequenceDictionary();
 		}
 	
-	/** get a GC% */
-	private DoubleArray createGCPercent() throws Exception
+	/** get the GC% of each window and group the windows by GC% */
+	private GCBins createGCBins() throws Exception
 		{
-		DoubleArray gcPercent=new DoubleArray(this.num_windows);
+		GCBins gcBins=new GCBins();
+		gcBins.window2bin=new int[this.num_windows];
+		Map<Double,Integer> gc2bin=new HashMap<Double,Integer>();
+		int windowIndex=0;
 		for(List<RegionCaptured> rois:this.chrom2capture)
 			{
 			if(rois.isEmpty()) continue;
@@ -390,20 +347,98 @@ public class CopyNumber01 extends AbstractCommandLineProgram
 							default:break;
 							}
 						}
-					gcPercent.push_back(countN>0?
+					int bin=-1;
+					double gc=(countN>0?
 							Double.NaN:
 							total/(double)win.length()
 							);
+					if(!Double.isNaN(gc))
+						{
+						/* +0.0: -0.0 and 0.0 are the same bin */
+						Integer binIndex=gc2bin.get(gc+0.0);
+						if(binIndex==null)
+							{
+							binIndex=gc2bin.size();
+							gc2bin.put(gc+0.0, binIndex);
+							}
+						bin=binIndex;
+						}
+					gcBins.window2bin[windowIndex++]=bin;
+					}
+				}
+			}
+		
+		/* group the windows by bin, windows on the sexual chromosomes are not used for the statistics */
+		gcBins.binOffset=new int[gc2bin.size()+1];
+		for(int pass=0;pass<2;++pass)
+			{
+			int fill[]=null;
+			if(pass==1)
+				{
+				for(int i=0;i+1< gcBins.binOffset.length;++i)
+					{
+					gcBins.binOffset[i+1]+=gcBins.binOffset[i];
+					}
+				gcBins.binnedWindows=new int[gcBins.binOffset[gc2bin.size()]];
+				fill=Arrays.copyOf(gcBins.binOffset, gc2bin.size());
+				}
+			windowIndex=0;
+			for(List<RegionCaptured> rois:this.chrom2capture)
+				{
+				if(rois.isEmpty()) continue;
+				boolean is_sexual_chromosome = this.sexualChromosomes.contains(rois.get(0).getChromosome());
+				for(RegionCaptured roi:rois)
+					{
+					int n=roi.countWindows();
+					for(int i=0;i< n;++i,++windowIndex)
+						{
+						int bin=gcBins.window2bin[windowIndex];
+						if(is_sexual_chromosome || bin==-1) continue;
+						if(pass==0)
+							{
+							gcBins.binOffset[bin+1]++;
+							}
+						else
+							{
+							gcBins.binnedWindows[fill[bin]++]=windowIndex;
+							}
+						}
 					}
 				}
 			}
-		info("GC% done size:"+gcPercent.size());
-		return gcPercent;
+		info("GC% done. windows:"+windowIndex+" bins:"+gcBins.getBinCount());
+		return gcBins;
 		}
 	
+	/** find the name of the chromosome in the SAM file */
+	private String resolveSamChromName(SAMFileReader sfr,String chrom)
+		{
+		String samChromName=chrom;
+		
+		/* try to resolve chromosome name */
+		if(sfr.getFileHeader().getSequenceDictionary().getSequence(samChromName)==null)
+			{
+			info("chromosome "+samChromName+" is not present in dictionary");
+			String altName=resolveChromName.get(samChromName);
+			if(altName==null)
+				{
+				throw new PicardException("in SamFile: unknown chromosome \""+samChromName+"\"");
+				}
+			if(sfr.getFileHeader().getSequenceDictionary().getSequence(altName)==null)
+				{
+				throw new PicardException("in SamFile: unknown chromosome \""+samChromName+" or "+altName+ "\" . resolver="+resolveChromName);
+				}
+			info(samChromName+ " Resolved as "+altName);
+			samChromName=altName;
+			}
+		return samChromName;
+		}
 	
-	private void scan(Replicate replicate,final DoubleArray gcPercentArray) throws Exception
+	/** computes the depth of each window for this replicate, smooth the depths using the GC% bins and
+	 * save the smoothed depths in a tmp file. Can be called in parallel for different replicates. */
+	private void scan(final Replicate replicate) throws Exception
 		{
+		final GCBins gcBins=replicate.gcBins;
 		List<SAMFileReader> samFileReaders=new ArrayList<SAMFileReader>();
 		SAMSequenceDictionaryProgress progress=new SAMSequenceDictionaryProgress(getDicionary());
 		/** open all BAM for this replicate */
@@ -431,184 +466,167 @@ public class CopyNumber01 extends AbstractCommandLineProgram
 			throw new PicardException("empty input for replicate \""+replicate.filename+"\"");
 			}
 		
-		//ListOfDouble depth0List=new ListOfDouble(this.num_windows);
-		GCBinMap gcBinMap=new GCBinMap();
-		Iterator<Double> gcIter=gcPercentArray.iterator();
-		List<GCAndDepth> gcAndDepth=new ArrayList<GCAndDepth>(this.num_windows);
-		for(List<RegionCaptured> rois:this.chrom2capture)
+		/* mean depth of each window */
+		float depths[]=new float[this.num_windows];
+		int windowIndex=0;
+		/* depth in the current region, re-used from one region to another */
+		short roiDepth[]=new short[0];
+		try
 			{
-			if(rois.isEmpty()) continue;
-			final String chrom=rois.get(0).getChromosome();
-			boolean is_sexual_chromosome = this.sexualChromosomes.contains(chrom);
-			
-			info("Alloc for "+chrom);
-			short wholeDepth[]=new short[getDicionary().getSequence(chrom).getSequenceLength()];
-			Arrays.fill(wholeDepth, (short)0);
-			info("Scanning whole "+chrom);
-			for(SAMFileReader sfr:samFileReaders)
+			for(List<RegionCaptured> rois:this.chrom2capture)
 				{
-				String samChromName=chrom;
-				
-				/* try to resolve chromosome name */
-				if(sfr.getFileHeader().getSequenceDictionary().getSequence(samChromName)==null)
+				if(rois.isEmpty()) continue;
+				final String chrom=rois.get(0).getChromosome();
+				List<String> samChromNames=new ArrayList<String>(samFileReaders.size());
+				for(SAMFileReader sfr:samFileReaders)
 					{
-					info("chromosome "+samChromName+" is not present in dictionary");
-					String altName=resolveChromName.get(samChromName);
-					if(altName==null)
-						{
-						throw new PicardException("in SamFile: unknown chromosome \""+samChromName+"\"");
-						}
-					if(sfr.getFileHeader().getSequenceDictionary().getSequence(altName)==null)
-						{
-						throw new PicardException("in SamFile: unknown chromosome \""+samChromName+" or "+altName+ "\" . resolver="+resolveChromName);
-						}
-					info(samChromName+ " Resolved as "+altName);
-					samChromName=altName;
+					samChromNames.add(resolveSamChromName(sfr, chrom));
 					}
+				info("Scanning "+chrom+" for replicate "+replicate.filename);
 				
-				SAMRecordIterator iter=sfr.query(
-						samChromName,
-						0,//whole chrom
-						0,//whole chrom
-						true
-						);
-				while(iter.hasNext())
+				for(RegionCaptured roi:rois)
 					{
-					SAMRecord rec=iter.next();
-					progress.watch(rec);
-					if(rec.getReadFailsVendorQualityCheckFlag()) continue;
-					if(rec.getReadUnmappedFlag()) continue;
-					if(rec.getNotPrimaryAlignmentFlag()) continue;
-					if(rec.getSupplementaryAlignmentFlag()) continue;
-					if(rec.getDuplicateReadFlag()) continue;//check this ?
+					final int roiLength=Math.max(0,roi.length());
+					if(roiDepth.length< roiLength) roiDepth=new short[roiLength];
+					Arrays.fill(roiDepth,0,roiLength, (short)0);
 					
-					for(int pos1= rec.getAlignmentStart();
-							pos1<=rec.getAlignmentEnd() && pos1<=wholeDepth.length ;
-							++pos1
-							)
+					for(int i=0;i< samFileReaders.size() && roiLength>0;++i)
 						{
-						
-						int pos0=pos1-1;
-						if(wholeDepth[pos0]<Short.MAX_VALUE)
+						SAMRecordIterator iter=samFileReaders.get(i).query(
+								samChromNames.get(i),
+								roi.getStart()+1,
+								roi.getEnd(),
+								false
+								);
+						while(iter.hasNext())
 							{
-							wholeDepth[pos0]++;
-							}
-						else
-							{
-							warning("High depth "+chrom+":"+pos0);
+							SAMRecord rec=iter.next();
+							progress.watch(rec);
+							if(rec.getReadFailsVendorQualityCheckFlag()) continue;
+							if(rec.getReadUnmappedFlag()) continue;
+							if(rec.getNotPrimaryAlignmentFlag()) continue;
+							if(rec.getSupplementaryAlignmentFlag()) continue;
+							if(rec.getDuplicateReadFlag()) continue;//check this ?
+							
+							int end0=Math.min(rec.getAlignmentEnd(),roi.getEnd());
+							for(int pos0=Math.max(rec.getAlignmentStart()-1,roi.getStart());
+									pos0< end0;
+									++pos0
+									)
+								{
+								int idx=pos0-roi.getStart();
+								if(roiDepth[idx]<Short.MAX_VALUE)
+									{
+									roiDepth[idx]++;
+									}
+								else
+									{
+									warning("High depth "+chrom+":"+pos0);
+									}
+								}
 							}
+						iter.close();
 						}
-					}
-				iter.close();
-				}
-			info("End scanning whole chromosome. "+chrom);
-			
-			for(RegionCaptured roi:rois)
-				{
-				
-				for(RegionCaptured.SlidingWindow win: roi)
-					{
-					double depth=0;
 					
-					for(int pos0=win.getStart();
-							pos0<win.getEnd() ;
-							++pos0
-							)
+					for(RegionCaptured.SlidingWindow win: roi)
 						{
-						depth+=wholeDepth[pos0];
-						}
-					
-					double mean_depth=(float)depth/(float)win.length();
-					double GCPercent=gcIter.next();
-					
-					GCAndDepth pair=new GCAndDepth();
-					//pair.tid=roi.tid;
-					//pair.pos=win.getStart();
-					pair.depth=(float)mean_depth;
-					pair.gc=GCPercent;
-					gcAndDepth.add(pair);
-					if(!is_sexual_chromosome && !Double.isNaN(pair.gc))
-						{
-						gcBinMap.put(GCPercent,mean_depth);
+						long depth=0;
+						for(int pos0=win.getStart();
+								pos0<win.getEnd() ;
+								++pos0
+								)
+							{
+							depth+=roiDepth[pos0-roi.getStart()];
+							}
+						depths[windowIndex++]=(float)depth/(float)win.length();
 						}
-						
 					}
+				info("End scanning "+chrom+" for replicate "+replicate.filename);
 				}
 			}
-		info("Closing Sam File for replicate "+replicate.filename);
-		progress.finish();
-		CloserUtil.close(samFileReaders);
-		if(gcIter.hasNext()) throw new IllegalStateException();
-
-		
-		
-		for(GCBin gcBin:gcBinMap.gc)
+		finally
 			{
-			gcBin.medianDepth=median(gcBin.depths);
+			info("Closing Sam File for replicate "+replicate.filename);
+			progress.finish();
+			CloserUtil.close(samFileReaders);
+			}
+		roiDepth=null;
+		if(windowIndex!=this.num_windows) throw new IllegalStateException();
+		
+		/* median and stddev of the depth for each GC% bin */
+		final int nBins=gcBins.getBinCount();
+		double binMedian[]=new double[nBins];
+		double binStddev[]=new double[nBins];
+		int maxBinSize=0;
+		for(int bin=0;bin< nBins;++bin)
+			{
+			maxBinSize=Math.max(maxBinSize, gcBins.getBinSize(bin));
+			}
+		double binValues[]=new double[maxBinSize];
+		for(int bin=0;bin< nBins;++bin)
+			{
+			final int beg=gcBins.binOffset[bin];
+			final int end=gcBins.binOffset[bin+1];
+			if(beg==end) continue;
+			for(int i=beg;i< end;++i)
+				{
+				binValues[i-beg]=depths[gcBins.binnedWindows[i]];
+				}
+			binMedian[bin]=median(binValues,end-beg);
 			double stdd=0;
-			for(int i=0;i< gcBin.depths.size();++i)
+			for(int i=beg;i< end;++i)
 				{
-				stdd+=Math.pow((gcBin.depths.get(i)-gcBin.medianDepth), 2);
+				stdd+=Math.pow((depths[gcBins.binnedWindows[i]]-binMedian[bin]), 2);
 				}
-			gcBin.stddev_for_GC= Math.sqrt(stdd/(double)gcBin.depths.size());
+			binStddev[bin]= Math.sqrt(stdd/(double)(end-beg));
 			}
-			
+		binValues=null;
 		
-		for(GCAndDepth gad:gcAndDepth)
+		/* smooth the depth using the bin: median*zscore */
+		double smoothed[]=new double[this.num_windows];
+		for(int i=0;i< this.num_windows;++i)
 			{
-			gad.depth=gcBinMap.smooth(gad.gc,gad.depth);
+			double depth=depths[i];
+			int bin=gcBins.window2bin[i];
+			if(bin!=-1 && gcBins.getBinSize(bin)>0)
+				{
+				depth= binMedian[bin] * ((depth - binMedian[bin]) / binStddev[bin]);
+				}
+			smoothed[i]=depth;
 			}
-		/* substract min depth */
+		depths=null;
+		
+		replicate.tmpFile=replicate.createTmpFile("depth");
+		DataOutputStream daos=openDataStreamForWriting(replicate.tmpFile);
 		double minDepth=Double.MAX_VALUE;
-		for(GCAndDepth gad:gcAndDepth)
-			{
-			minDepth=Math.min(gad.depth, minDepth);
-			}
-		for(GCAndDepth gad:gcAndDepth)
+		for(int i=0;i< smoothed.length;++i)
 			{
-			gad.depth-=minDepth;
+			daos.writeDouble(smoothed[i]);
+			minDepth=Math.min(smoothed[i], minDepth);
 			}
+		daos.flush();
+		daos.close();
+		info("filesize: "+replicate.tmpFile.length());
 		
-		{
-		/* dividide mediane of depth */
-			DoubleArray med=new DoubleArray(gcAndDepth.size());
-		for(GCAndDepth gad:gcAndDepth)
+		/* median of (depth-minDepth): substracting a constant doesn't change the order of the values */
+		Arrays.sort(smoothed);
+		int mid=smoothed.length/2;
+		replicate.minDepth=minDepth;
+		if(smoothed.length==0)
 			{
-			med.push_back(gad.depth);
+			throw new IllegalArgumentException();
 			}
-		double median=median(med);
-		
-		for(GCAndDepth gad:gcAndDepth)
+		else if(smoothed.length%2==1)
 			{
-			gad.depth/=median;
+			replicate.medianDepth=smoothed[mid]-minDepth;
 			}
-		}
-		
-		replicate.tmpFile=replicate.createTmpFile("depth");
-		DataOutputStream daos=openDataStreamForWriting(replicate.tmpFile);
-		for(int i=0;i< gcAndDepth.size();++i)
+		else
 			{
-			daos.writeDouble(gcAndDepth.get(i).depth);
+			replicate.medianDepth=((smoothed[mid-1]-minDepth)+(smoothed[mid]-minDepth))/2.0;
 			}
-		daos.flush();
-		daos.close();
-		info("filesize: "+replicate.tmpFile.length());
 		}
 	
 	
-	
-	private class OuputRow
-		{
-		RegionCaptured.SlidingWindow win;
-		double all_samples[];
-		OuputRow(RegionCaptured.SlidingWindow win)
-			{
-			this.win=win;
-			this.all_samples=new double[replicates.size()];
-			Arrays.fill(this.all_samples, 0);
-			}
-		
-		}
 	private static final int SMOOTH_WINDOW=5;
 	/** print smoothing values with neighbours */
 	
@@ -637,8 +655,13 @@ public class CopyNumber01 extends AbstractCommandLineProgram
 			}
 		
 		SAMSequenceDictionaryProgress progress=new SAMSequenceDictionaryProgress(getDicionary());
-		DoubleArray all_samples=new DoubleArray(this.replicates.size());
-		all_samples.setSize(this.replicates.size(),0);
+		final int nReplicates=this.replicates.size();
+		double all_samples[]=new double[nReplicates];
+		/* the last rows of the region, needed for the smoothing: row 'n' is stored in ring[n%ring.length] */
+		double ring[][]=new double[SMOOTH_WINDOW*2+1][nReplicates];
+		int ringStart[]=new int[ring.length];
+		int ringEnd[]=new int[ring.length];
+		double array[]=new double[ring.length];
 		for(List<RegionCaptured> rois:this.chrom2capture)
 			{
 			if(rois.isEmpty()) continue;
@@ -646,56 +669,75 @@ public class CopyNumber01 extends AbstractCommandLineProgram
 			info("Saving "+chrom+" rois:"+rois.size());
 			for(RegionCaptured roi:rois)
 				{
-				List<OuputRow> rowBuffer=new ArrayList<OuputRow>();
+				int nRows=0;
 				for(RegionCaptured.SlidingWindow win:roi)
 					{
 					progress.watch(chrom, win.getStart());
-					for(int i=0;i< this.replicates.size();++i)
+					for(int i=0;i< nReplicates;++i)
 						{
-						all_samples.set(i,disL.get(i).readDouble());
+						Replicate replicate=this.replicates.get(i);
+						all_samples[i]=((disL.get(i).readDouble()-replicate.minDepth)/replicate.medianDepth);
 						}
-					double median = median(all_samples);
-					
-						
-						OuputRow newrow=new OuputRow(win);
-						rowBuffer.add(newrow);
-						for(int i=0;i< this.replicates.size();++i)
-							{
-							newrow.all_samples[i]=all_samples.get(i)/median;
-							}
-						
-					}
-				info("N rows: "+rowBuffer.size());
-				for(int rowIndex=0;rowIndex< rowBuffer.size();++rowIndex)
-					{
-					OuputRow row=rowBuffer.get(rowIndex);
-					System.out.print(row.win.getChromosome());
-					System.out.print('\t');
-					System.out.print(row.win.getStart());
-					System.out.print('\t');
-					System.out.print(row.win.getEnd());
-					
-					for(int i=0;i<replicates.size();++i)
+					double newrow[]=ring[nRows%ring.length];
+					System.arraycopy(all_samples, 0, newrow, 0, nReplicates);
+					double median = median(all_samples,nReplicates);
+					for(int i=0;i< nReplicates;++i)
 						{
-						System.out.print('\t');
-						DoubleArray array=new DoubleArray(SMOOTH_WINDOW*3);
-						for(int x= Math.max(0,rowIndex-SMOOTH_WINDOW);
-								x<=(rowIndex+SMOOTH_WINDOW) && x< rowBuffer.size();
-								++x)
-							{
-							array.push_back(rowBuffer.get(x).all_samples[i]);
-							}
-						System.out.print(median(array));
+						newrow[i]/=median;
+						}
+					ringStart[nRows%ring.length]=win.getStart();
+					ringEnd[nRows%ring.length]=win.getEnd();
+					nRows++;
+					/* all the neighbours of this row are now known */
+					if(nRows>SMOOTH_WINDOW)
+						{
+						printSmoothedRow(chrom,nRows-1-SMOOTH_WINDOW,nRows,ring,ringStart,ringEnd,array);
 						}
-					System.out.println();
-					if(System.out.checkError()) break;
 					}
+				for(int rowIndex=Math.max(0,nRows-SMOOTH_WINDOW);rowIndex< nRows;++rowIndex)
+					{
+					printSmoothedRow(chrom,rowIndex,nRows,ring,ringStart,ringEnd,array);
+					}
+				if(System.out.checkError()) break;
+				info("N rows: "+nRows);
 				}
 			info("Done "+chrom);
 			}
 		CloserUtil.close(disL);
 		}
 	
+	/** print row 'rowIndex', each value is the median of the SMOOTH_WINDOW rows before and after */
+	private void printSmoothedRow(
+			String chrom,
+			int rowIndex,
+			int nRows,
+			double ring[][],
+			int ringStart[],
+			int ringEnd[],
+			double array[]
+			)
+		{
+		System.out.print(chrom);
+		System.out.print('\t');
+		System.out.print(ringStart[rowIndex%ring.length]);
+		System.out.print('\t');
+		System.out.print(ringEnd[rowIndex%ring.length]);
+		
+		for(int i=0;i<replicates.size();++i)
+			{
+			System.out.print('\t');
+			int n=0;
+			for(int x= Math.max(0,rowIndex-SMOOTH_WINDOW);
+					x<=(rowIndex+SMOOTH_WINDOW) && x< nRows;
+					++x)
+				{
+				array[n++]=ring[x%ring.length][i];
+				}
+			System.out.print(median(array,n));
+			}
+		System.out.println();
+		}
+	
 	@Override
 	public String getProgramDescription() {
 		return "CopyNumber01";
@@ -716,6 +758,7 @@ public class CopyNumber01 extends AbstractCommandLineProgram
 		out.println(" -s (window shft) default:"+this.windowStep);
 		out.println(" -X (chrom) add this sexual chromosome.");
 		out.println(" -N (file) chrom name helper (name1)(tab2)(name2).");
+		out.println(" -p (int) number of replicates scanned in parallel. Default:"+this.nThreads);
 		super.printOptions(out);
 		}
 	
@@ -727,7 +770,7 @@ public class CopyNumber01 extends AbstractCommandLineProgram
 		String chromNameFile=null;
 		com.github.lindenb.jvarkit.util.cli.GetOpt opt=new com.github.lindenb.jvarkit.util.cli.GetOpt();
 		int c;
-		while((c=opt.getopt(args,getGetOptDefault()+"T:R:w:s:B:X:N:"))!=-1)
+		while((c=opt.getopt(args,getGetOptDefault()+"T:R:w:s:B:X:N:p:"))!=-1)
 			{
 			switch(c)
 				{
@@ -737,6 +780,7 @@ public class CopyNumber01 extends AbstractCommandLineProgram
 				case 'R': refFile=new File(opt.getOptArg());break;
 				case 'T': this.addTmpDirectory(new File(opt.getOptArg()));break;
 				case 'X': this.sexualChromosomes.add(opt.getOptArg());break;
+				case 'p': this.nThreads=Math.max(1,Integer.parseInt(opt.getOptArg()));break;
 				case 'N':
 					{
 					chromNameFile=opt.getOptArg();
@@ -777,6 +821,7 @@ public class CopyNumber01 extends AbstractCommandLineProgram
 			error("Illegal Number of arguments.");
 			return -1;
 			}
+		ExecutorService executor=null;
 		try
 			{
 			info("Loading "+refFile);
@@ -869,25 +914,48 @@ public class CopyNumber01 extends AbstractCommandLineProgram
 				{
 				for(RegionCaptured roi:rois)
 					{
-					for(@SuppressWarnings("unused") RegionCaptured.SlidingWindow win:roi)
-						{
-						this.num_windows++;
-						}
+					this.num_windows+=roi.countWindows();
 					}
 				}
 			info("Number of windows : "+this.num_windows);
 			
-			DoubleArray gcPercentArray=createGCPercent();
+			GCBins gcBins=createGCBins();
 			for(int optind=opt.getOptInd();optind< args.length;++optind)
 				{
 				Replicate replicate=new Replicate();
 				replicate.id=this.replicates.size();
 				replicate.filename=args[optind];
-				info("Read replicate: "+args[optind]+" : "+(1+optind-opt.getOptInd())+"/"+(args.length-opt.getOptInd()));
+				replicate.gcBins=gcBins;
 				this.replicates.add(replicate);
-				scan(replicate,gcPercentArray);
 				}
-			gcPercentArray=null;
+			if(this.nThreads==1 || this.replicates.size()==1)
+				{
+				for(Replicate replicate:this.replicates)
+					{
+					info("Read replicate: "+replicate.filename+" : "+(1+replicate.id)+"/"+this.replicates.size());
+					scan(replicate);
+					}
+				}
+			else
+				{
+				/* each replicate is scanned in its own thread */
+				executor=Executors.newFixedThreadPool(Math.min(this.nThreads,this.replicates.size()));
+				List<Future<Void>> futures=new ArrayList<Future<Void>>(this.replicates.size());
+				for(Replicate replicate:this.replicates)
+					{
+					futures.add(executor.submit(replicate));
+					}
+				for(int i=0;i< futures.size();++i)
+					{
+					futures.get(i).get();
+					info("Done replicate: "+this.replicates.get(i).filename+" : "+(i+1)+"/"+this.replicates.size());
+					}
+				}
+			for(Replicate replicate:this.replicates)
+				{
+				replicate.gcBins=null;
+				}
+			gcBins=null;
 			
 			digestAll();
 		
@@ -900,6 +968,7 @@ public class CopyNumber01 extends AbstractCommandLineProgram
 			}
 		finally
 			{
+			if(executor!=null) executor.shutdownNow();
 			CloserUtil.close(this.indexedFastaSequenceFile);
 			}	
 		}
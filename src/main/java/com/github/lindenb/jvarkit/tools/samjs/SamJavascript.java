@@ -9,6 +9,8 @@ package com.github.lindenb.jvarkit.tools.samjs;
 import java.io.File;
 import java.io.FileReader;
 import java.io.PrintStream;
+import java.io.Reader;
+import java.text.ParseException;
 import java.util.Iterator;
 
 import javax.script.Bindings;
@@ -18,8 +20,10 @@ import javax.script.ScriptEngine;
 import javax.script.ScriptEngineManager;
 import javax.script.ScriptException;
 
+import com.github.lindenb.jvarkit.lang.Predicate;
 import com.github.lindenb.jvarkit.util.picard.AbstractBamFilterProgram;
 import com.github.lindenb.jvarkit.util.picard.SAMSequenceDictionaryProgress;
+import com.github.lindenb.jvarkit.util.picard.SamRecordPredicateFactory;
 
 import net.sf.samtools.SAMFileHeader;
 import net.sf.samtools.SAMFileReader;
@@ -37,6 +41,8 @@ public class SamJavascript
 
 	private CompiledScript  script=null;
 	private ScriptEngine engine=null;
+	/** built-in compiled expression, used instead of the script when not null */
+	private Predicate<SAMRecord> fastFilter=null;
 	private File failingReadsFile=null;
 	private SAMFileWriter failingReadsWriter=null;
 	
@@ -82,8 +88,12 @@ public class SamJavascript
 			{
 			SAMFileHeader header=samFileReader.getFileHeader();
 			long count=0L;
-	        Bindings bindings = this.engine.createBindings();
-	        bindings.put("header", samFileReader.getFileHeader());
+	        Bindings bindings = null;
+	        if(this.fastFilter==null)
+	        	{
+	        	bindings=this.engine.createBindings();
+	        	bindings.put("header", samFileReader.getFileHeader());
+	        	}
 	        SAMSequenceDictionaryProgress progress=new SAMSequenceDictionaryProgress(header.getSequenceDictionary());
 	        
 			for(Iterator<SAMRecord> iter=samFileReader.iterator();
@@ -91,6 +101,18 @@ public class SamJavascript
 				{
 				SAMRecord record=iter.next();
 				progress.watch(record);
+				if(this.fastFilter!=null)
+					{
+					if(!this.fastFilter.apply(record))
+						{
+						failing(record,header);
+						continue;
+						}
+					++count;
+					sw.addAlignment(record);
+					if(this.LIMIT>0L && count>=this.LIMIT) break;
+					continue;
+					}
 				bindings.put("record", record);
 				Object result = script.eval(bindings);
 				if(result==null)
@@ -156,6 +178,7 @@ public class SamJavascript
 		out.println(" -e (script) script expression");
 		out.println(" -N (limit:int) limit to 'N' records");
 		out.println(" -X (fail.bam) Save dicarded reads in that file. Optional. Default: no file.");
+		out.println(" -J always use the javascript engine. Default: simple expressions like \"record.getMappingQuality()>=30 && !record.getDuplicateReadFlag()\" are compiled without javascript.");
 
 		super.printOptions(out);
 		}
@@ -164,29 +187,12 @@ public class SamJavascript
 	@Override
 	public int doWork(String[] args)
 		{
-	
-		try
-			{
-			ScriptEngineManager manager = new ScriptEngineManager();
-			this.engine = manager.getEngineByName("js");
-			if(this.engine==null)
-				{
-				error("not available: javascript. Use the SUN/Oracle JDK ?");
-				return -1;
-				}
-		
-			}
-		catch(Exception err)
-			{
-			error(err);
-			return -1;
-			}
-			
+		boolean forceJavascript=false;
 		String SCRIPT_EXPRESSION=null;
 		File SCRIPT_FILE=null;
 		com.github.lindenb.jvarkit.util.cli.GetOpt opt=new com.github.lindenb.jvarkit.util.cli.GetOpt();
 		int c;
-		while((c=opt.getopt(args,getGetOptDefault()+"e:f:N:X:"))!=-1)
+		while((c=opt.getopt(args,getGetOptDefault()+"e:f:N:X:J"))!=-1)
 			{
 			switch(c)
 				{
@@ -198,6 +204,7 @@ public class SamJavascript
 				case 'e':SCRIPT_EXPRESSION=opt.getOptArg();break;
 				case 'f':SCRIPT_FILE=new File(opt.getOptArg());break;
 				case 'N': this.LIMIT=Long.parseLong(opt.getOptArg());break;
+				case 'J': forceJavascript=true;break;
 				default:
 					{
 					switch(handleOtherOptions(c, opt, null))
@@ -216,17 +223,43 @@ public class SamJavascript
 			}
 		try
 			{
-			Compilable compilingEngine = (Compilable)this.engine;
-			this.script = null;
 			if(SCRIPT_FILE!=null)
 				{
 				info("Reading script "+SCRIPT_FILE);
-				FileReader r=new FileReader(SCRIPT_FILE);
-				this.script=compilingEngine.compile(r);
+				StringBuilder b=new StringBuilder();
+				Reader r=new FileReader(SCRIPT_FILE);
+				char buffer[]=new char[4096];
+				int nRead;
+				while((nRead=r.read(buffer))!=-1) b.append(buffer,0,nRead);
 				r.close();
+				SCRIPT_EXPRESSION=b.toString();
+				}
+			
+			this.fastFilter=null;
+			if(!forceJavascript)
+				{
+				try
+					{
+					this.fastFilter=new SamRecordPredicateFactory().compile(SCRIPT_EXPRESSION);
+					info("Expression was compiled without the javascript engine.");
+					}
+				catch(ParseException err)
+					{
+					info("Cannot compile the expression without javascript ("+err.getMessage()+"). Using the javascript engine.");
+					}
 				}
-			else
+			
+			this.script = null;
+			if(this.fastFilter==null)
 				{
+				ScriptEngineManager manager = new ScriptEngineManager();
+				this.engine = manager.getEngineByName("js");
+				if(this.engine==null)
+					{
+					error("not available: javascript. Use the SUN/Oracle JDK ?");
+					return -1;
+					}
+				Compilable compilingEngine = (Compilable)this.engine;
 				info("Eval script "+SCRIPT_EXPRESSION);
 				this.script=compilingEngine.compile(SCRIPT_EXPRESSION);
 				}
@@ -1,14 +1,36 @@
 package com.github.lindenb.jvarkit.tools.sortvcfonref;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 import org.broad.tribble.readers.LineIterator;
 import org.broad.tribble.readers.LineIteratorImpl;
@@ -19,17 +41,13 @@ import org.broadinstitute.variant.vcf.VCFConstants;
 
 import com.github.lindenb.jvarkit.io.IOUtils;
 import com.github.lindenb.jvarkit.util.AbstractCommandLineProgram;
-import com.github.lindenb.jvarkit.util.picard.AbstractDataCodec;
 import com.github.lindenb.jvarkit.util.picard.SAMSequenceDictionaryFactory;
 import com.github.lindenb.jvarkit.util.picard.SAMSequenceDictionaryProgress;
-import com.github.lindenb.jvarkit.util.picard.SortingCollectionFactory;
 import com.github.lindenb.jvarkit.util.vcf.VCFUtils;
 
 import net.sf.samtools.SAMSequenceDictionary;
 import net.sf.samtools.SAMSequenceRecord;
-import net.sf.samtools.util.CloseableIterator;
 import net.sf.samtools.util.CloserUtil;
-import net.sf.samtools.util.SortingCollection;
 
 /**
  * Sort a VCF on the REFERENCE
@@ -37,8 +55,13 @@ import net.sf.samtools.util.SortingCollection;
  */
 public class SortVcfOnRef2 extends AbstractCommandLineProgram
 	{
+    private static final Charset UTF8=Charset.forName("UTF-8");
+    /** max number of runs merged at once */
+    private static final int MAX_FAN_IN=64;
     private SAMSequenceDictionary dict=null;
-    private SortingCollectionFactory<ChromPosLine> sortingCollectionFactory=new SortingCollectionFactory<ChromPosLine>();
+    private int maxRecordsInRAM=50000;
+    private int nThreads=1;
+    private final List<File> tmpFiles=new ArrayList<File>();
     
     @Override
     protected String getOnlineDocUrl() {
@@ -49,96 +72,510 @@ public class SortVcfOnRef2 extends AbstractCommandLineProgram
     public String getProgramDescription() {
     	return "Sort a VCF using the internal dictionary or an external reference order. ";
     	}
-    private class ChromPosLine
-    	implements Comparable<ChromPosLine>
+    /** packed sort key: tid in the 32 upper bits, position in the 32 lower bits */
+    private static long makeKey(int tid,int pos)
     	{
-    	int tid;
-    	int pos;
-    	String line;
-    	ChromPosLine()
+    	return (((long)tid)<<32) | (pos & 0xFFFFFFFFL);
+    	}
+    
+    private static int tidOfKey(long key)
+    	{
+    	return (int)(key>>>32);
+    	}
+    
+    /** unsigned comparison of two lines, used when the keys are the same */
+    private static int compareBytes(byte a[],int aoff,int alen,byte b[],int boff,int blen)
+    	{
+    	int n=Math.min(alen, blen);
+    	for(int i=0;i< n;++i)
+    		{
+    		int i1=a[aoff+i]&0xFF;
+    		int i2=b[boff+i]&0xFF;
+    		if(i1!=i2) return i1-i2;
+    		}
+    	return alen-blen;
+    	}
+    
+    private static int compare(long k1,byte a[],int aoff,int alen,long k2,byte b[],int boff,int blen)
+    	{
+    	if(k1!=k2) return k1< k2?-1:1;
+    	return compareBytes(a, aoff, alen, b, boff, blen);
+    	}
+    
+    /** records stored in primitive arrays: keys and the bytes of the lines */
+    private static class RecordBuffer
+    	{
+    	private long keys[];
+    	private int offsets[];
+    	private int lengths[];
+    	private int order[];
+    	private byte data[]=new byte[1<<16];
+    	private int size=0;
+    	private int dataLength=0;
+    	
+    	RecordBuffer(int capacity)
+    		{
+    		capacity=Math.max(1,capacity);
+    		this.keys=new long[capacity];
+    		this.offsets=new int[capacity];
+    		this.lengths=new int[capacity];
+    		}
+    	
+    	void clear()
+    		{
+    		this.size=0;
+    		this.dataLength=0;
+    		}
+    	
+    	int size()
+    		{
+    		return this.size;
+    		}
+    	
+    	void add(long key,byte line[],int off,int len)
+    		{
+    		if(this.size==this.keys.length)
+    			{
+    			int n=this.size*2;
+    			this.keys=Arrays.copyOf(this.keys, n);
+    			this.offsets=Arrays.copyOf(this.offsets, n);
+    			this.lengths=Arrays.copyOf(this.lengths, n);
+    			}
+    		if(this.dataLength+len> this.data.length)
+    			{
+    			this.data=Arrays.copyOf(this.data, Math.max(this.data.length*2, this.dataLength+len));
+    			}
+    		System.arraycopy(line, off, this.data, this.dataLength, len);
+    		this.keys[this.size]=key;
+    		this.offsets[this.size]=this.dataLength;
+    		this.lengths[this.size]=len;
+    		this.dataLength+=len;
+    		this.size++;
+    		}
+    	
+    	private int compareIndexes(int i,int j)
+    		{
+    		return compare(
+    			this.keys[i],this.data,this.offsets[i],this.lengths[i],
+    			this.keys[j],this.data,this.offsets[j],this.lengths[j]
+    			);
+    		}
+    	
+    	/** sorts the records: fills 'order' with the indexes of the sorted records */
+    	void sort()
+    		{
+    		if(this.order==null || this.order.length< this.size)
+    			{
+    			this.order=new int[this.keys.length];
+    			}
+    		boolean sorted=true;
+    		for(int i=0;i< this.size;++i)
+    			{
+    			this.order[i]=i;
+    			if(i>0 && sorted && compareIndexes(i-1, i)>0) sorted=false;
+    			}
+    		if(sorted) return;
+    		int tmp[]=new int[this.size];
+    		mergeSort(this.order,tmp,0,this.size);
+    		}
+    	
+    	private void mergeSort(int a[],int tmp[],int beg,int end)
+    		{
+    		if(end-beg< 16)
+    			{
+    			for(int i=beg+1;i< end;++i)
+    				{
+    				int v=a[i];
+    				int j=i-1;
+    				while(j>=beg && compareIndexes(a[j], v)>0)
+    					{
+    					a[j+1]=a[j];
+    					--j;
+    					}
+    				a[j+1]=v;
+    				}
+    			return;
+    			}
+    		int mid=(beg+end)>>>1;
+    		mergeSort(a,tmp,beg,mid);
+    		mergeSort(a,tmp,mid,end);
+    		if(compareIndexes(a[mid-1], a[mid])<=0) return;
+    		System.arraycopy(a, beg, tmp, beg, end-beg);
+    		int i=beg,j=mid,k=beg;
+    		while(i< mid && j< end)
+    			{
+    			a[k++]=(compareIndexes(tmp[j], tmp[i])< 0?tmp[j++]:tmp[i++]);
+    			}
+    		while(i< mid) a[k++]=tmp[i++];
+    		while(j< end) a[k++]=tmp[j++];
+    		}
+    	
+    	/** writes the records in the order they were added */
+    	void write(RecordSink sink) throws IOException
     		{
+    		for(int i=0;i< this.size;++i)
+    			{
+    			sink.write(this.keys[i], this.data, this.offsets[i], this.lengths[i]);
+    			}
     		}
-    	public ChromPosLine(String line)
+    	
+    	/** writes the records in sorted order; sort() must have been called */
+    	void writeSorted(RecordSink sink) throws IOException
+    		{
+    		for(int i=0;i< this.size;++i)
+    			{
+    			int idx=this.order[i];
+    			sink.write(this.keys[idx], this.data, this.offsets[idx], this.lengths[idx]);
+    			}
+    		}
+    	}
+    
+    private interface RecordSink
+    	{
+    	public void write(long key,byte line[],int off,int len) throws IOException;
+    	}
+    
+    /** writes the text of the lines to stdout */
+    private static class LineSink implements RecordSink
+    	{
+    	private final OutputStream out=new BufferedOutputStream(System.out, 1<<16);
+    	private long count=0L;
+    	@Override
+    	public void write(long key, byte[] line, int off, int len) throws IOException
+    		{
+    		this.out.write(line, off, len);
+    		this.out.write('\n');
+    		if(++this.count%100000==0L)
+    			{
+    			this.out.flush();
+    			if(System.out.checkError()) throw new IOException("Cannot write to stdout");
+    			}
+    		}
+    	void flush() throws IOException
+    		{
+    		this.out.flush();
+    		System.out.flush();
+    		}
+    	}
+    
+    /** a sorted run in a temporary file: deflated (key,length,bytes) records, the key -1 marks the end */
+    private static class RunWriter implements RecordSink,Closeable
+    	{
+    	private final DataOutputStream out;
+    	RunWriter(File file) throws IOException
+    		{
+    		this.out=new DataOutputStream(new BufferedOutputStream(
+    			new DeflaterOutputStream(new FileOutputStream(file), new Deflater(Deflater.BEST_SPEED), 1<<16),
+    			1<<16));
+    		}
+    	@Override
+    	public void write(long key, byte[] line, int off, int len) throws IOException
+    		{
+    		this.out.writeLong(key);
+    		this.out.writeInt(len);
+    		this.out.write(line, off, len);
+    		}
+    	@Override
+    	public void close() throws IOException
+    		{
+    		this.out.writeLong(-1L);
+    		this.out.close();
+    		}
+    	}
+    
+    /**
+     * reads a sorted run. With read-ahead, the run is inflated and decoded by batches
+     * in its own thread.
+     */
+    private static class RunReader implements Closeable
+    	{
+    	private static final int BATCH_SIZE=1000;
+    	private final File file;
+    	private final DataInputStream in;
+    	private boolean inputEof=false;
+    	private RecordBuffer current=new RecordBuffer(BATCH_SIZE);
+    	private int index=0;
+    	/* read-ahead */
+    	private Thread thread=null;
+    	private BlockingQueue<RecordBuffer> full=null;
+    	private BlockingQueue<RecordBuffer> free=null;
+    	private volatile Throwable error=null;
+    	/* current record */
+    	long key;
+    	byte data[];
+    	int offset;
+    	int length;
+    	
+    	RunReader(File file,boolean readAhead) throws IOException
+    		{
+    		this.file=file;
+    		this.in=new DataInputStream(new BufferedInputStream(
+    			new InflaterInputStream(new FileInputStream(file),new Inflater(),1<<16),
+    			1<<16));
+    		if(readAhead)
+    			{
+    			this.full=new ArrayBlockingQueue<RecordBuffer>(2);
+    			this.free=new LinkedBlockingQueue<RecordBuffer>();
+    			this.thread=new Thread("sortvcf-run")
+    				{
+    				@Override
+    				public void run()
+    					{
+    					readAhead();
+    					}
+    				};
+    			this.thread.setDaemon(true);
+    			this.thread.start();
+    			}
+    		}
+    	
+    	/** reads at most BATCH_SIZE records */
+    	private void fill(RecordBuffer batch) throws IOException
+    		{
+    		batch.clear();
+    		byte tmp[]=new byte[256];
+    		while(!this.inputEof && batch.size()< BATCH_SIZE)
+    			{
+    			long k=this.in.readLong();
+    			if(k==-1L)
+    				{
+    				this.inputEof=true;
+    				break;
+    				}
+    			int len=this.in.readInt();
+    			if(tmp.length< len) tmp=new byte[len];
+    			this.in.readFully(tmp, 0, len);
+    			batch.add(k, tmp, 0, len);
+    			}
+    		}
+    	
+    	private void readAhead()
     		{
-    		int tab1=line.indexOf('\t');
-    		if(tab1==-1) throw new IllegalArgumentException("Bad VCF line in "+line);
-    		String chrom=line.substring(0,tab1);
-			this.tid=dict.getSequenceIndex(chrom);
-			if(this.tid==-1) throw new RuntimeException("unknown chromosome "+ chrom+" in "+line);
-			int tab2=line.indexOf('\t',tab1+1);
-    		if(tab2==-1) throw new IllegalArgumentException("Bad VCF line in "+line);
     		try
     			{
-    			this.pos=Integer.parseInt(line.substring(tab1+1, tab2));
+    			for(;;)
+    				{
+    				RecordBuffer batch=this.free.poll();
+    				if(batch==null) batch=new RecordBuffer(BATCH_SIZE);
+    				fill(batch);
+    				this.full.put(batch);
+    				if(batch.size()==0) break;
+    				}
+    			}
+    		catch(InterruptedException err)
+    			{
+    			/* closed */
     			}
-    		catch(NumberFormatException err)
+    		catch(Throwable err)
     			{
-    			throw new IllegalArgumentException("Bad VCF line in "+line);
+    			this.error=err;
+    			this.full.clear();
+    			this.full.offer(new RecordBuffer(1));
     			}
-    		this.line=line;
     		}
+    	
+    	/** moves to the next record. Returns false at the end of the run */
+    	boolean next() throws IOException
+    		{
+    		if(this.current==null) return false;
+    		if(this.index>=this.current.size())
+    			{
+    			if(this.thread==null)
+    				{
+    				fill(this.current);
+    				}
+    			else
+    				{
+    				this.free.offer(this.current);
+    				try
+    					{
+    					this.current=this.full.take();
+    					}
+    				catch(InterruptedException err)
+    					{
+    					throw new IOException(err);
+    					}
+    				if(this.error!=null) throw new IOException("Cannot read "+this.file,this.error);
+    				}
+    			this.index=0;
+    			if(this.current.size()==0)
+    				{
+    				this.current=null;
+    				return false;
+    				}
+    			}
+    		this.key=this.current.keys[this.index];
+    		this.data=this.current.data;
+    		this.offset=this.current.offsets[this.index];
+    		this.length=this.current.lengths[this.index];
+    		this.index++;
+    		return true;
+    		}
+    	
     	@Override
-    	public int compareTo(ChromPosLine o)
+    	public void close()
     		{
-    		int i=this.tid-o.tid;
-    		if(i!=0) return i;
-    		i=this.pos-o.pos;
-    		if(i!=0) return i;
-    		return this.line.compareTo(o.line);
+    		if(this.thread!=null) this.thread.interrupt();
+    		CloserUtil.close(this.in);
     		}
+    	}
+    
+    private static class RunReaderComparator implements Comparator<RunReader>
+    	{
     	@Override
-    	public int hashCode() {
-    		return line.hashCode();
+    	public int compare(RunReader r1, RunReader r2)
+    		{
+    		return SortVcfOnRef2.compare(
+    			r1.key, r1.data, r1.offset, r1.length,
+    			r2.key, r2.data, r2.offset, r2.length
+    			);
     		}
+    	}
+    
+    /** k-way merge of sorted runs with a priority queue */
+    private static void mergeRuns(List<File> runs,RecordSink sink,boolean readAhead) throws IOException
+    	{
+    	List<RunReader> readers=new ArrayList<RunReader>(runs.size());
+    	try
+    		{
+    		PriorityQueue<RunReader> queue=new PriorityQueue<RunReader>(Math.max(1,runs.size()),new RunReaderComparator());
+    		for(File f:runs)
+    			{
+    			RunReader r=new RunReader(f,readAhead);
+    			readers.add(r);
+    			if(r.next()) queue.add(r);
+    			}
+    		while(!queue.isEmpty())
+    			{
+    			RunReader r=queue.poll();
+    			sink.write(r.key, r.data, r.offset, r.length);
+    			if(r.next()) queue.add(r);
+    			}
+    		}
+    	finally
+    		{
+    		for(RunReader r:readers) r.close();
+    		}
+    	}
+    
+    private File createRunFile() throws IOException
+    	{
+    	File f=File.createTempFile("sortvcf.", ".run", getTmpDirectories().get(0));
+    	f.deleteOnExit();
+    	synchronized(this.tmpFiles)
+    		{
+    		this.tmpFiles.add(f);
+    		}
+    	return f;
+    	}
+    
+    /** writes records sorted within contig blocks: each block is written in its own run */
+    private class ContigBlockWriter implements RecordSink,Closeable
+    	{
+    	final List<File> runs=new ArrayList<File>();
+    	final List<Integer> tids=new ArrayList<Integer>();
+    	private RunWriter writer=null;
     	@Override
-    	public boolean equals(Object obj) {
-    		return line.equals(ChromPosLine.class.cast(obj).line);
+    	public void write(long key, byte[] line, int off, int len) throws IOException
+    		{
+    		int tid=tidOfKey(key);
+    		if(this.writer==null || this.tids.get(this.tids.size()-1)!=tid)
+    			{
+    			if(this.writer!=null) this.writer.close();
+    			File f=createRunFile();
+    			this.runs.add(f);
+    			this.tids.add(tid);
+    			this.writer=new RunWriter(f);
+    			}
+    		this.writer.write(key, line, off, len);
     		}
     	@Override
-    	public String toString() {
-    		return line;
+    	public void close() throws IOException
+    		{
+    		if(this.writer!=null) this.writer.close();
+    		this.writer=null;
     		}
     	}
-	private class VariantCodec extends AbstractDataCodec<ChromPosLine>
-		{
-		@Override
-		public ChromPosLine decode(DataInputStream dis) throws IOException
-			{
-			ChromPosLine cpl=new ChromPosLine();
-			try
-				{
-				cpl.tid=dis.readInt();
-				}
-			catch(IOException err)
-				{
-				return null;
-				}
-			cpl.pos=dis.readInt();
-			cpl.line=dis.readUTF();
-			return cpl;
-			}
-		@Override
-		public void encode(DataOutputStream dos, ChromPosLine s)
-				throws IOException {
-			dos.writeInt(s.tid);
-			dos.writeInt(s.pos);
-			dos.writeUTF(s.line);
-			}
-		@Override
-		public VariantCodec clone() {
-			return new VariantCodec();
-			}
-		}
-	
-	private class VariantComparator implements Comparator<ChromPosLine>
-		{
-		@Override
-		public int compare(ChromPosLine o1, ChromPosLine o2)
-			{
-			return o1.compareTo(o2);
-			}
-		}
-	
+    
+    /** sorts a buffer of records and writes it as a run */
+    private class SortRunTask implements Callable<File>
+    	{
+    	final RecordBuffer buffer;
+    	SortRunTask(RecordBuffer buffer)
+    		{
+    		this.buffer=buffer;
+    		}
+    	@Override
+    	public File call() throws Exception
+    		{
+    		this.buffer.sort();
+    		File f=createRunFile();
+    		RunWriter w=new RunWriter(f);
+    		this.buffer.writeSorted(w);
+    		w.close();
+    		return f;
+    		}
+    	}
+    
+    /** merges a group of runs into a new run */
+    private class MergeRunsTask implements Callable<File>
+    	{
+    	final List<File> runs;
+    	MergeRunsTask(List<File> runs)
+    		{
+    		this.runs=runs;
+    		}
+    	@Override
+    	public File call() throws Exception
+    		{
+    		File f=createRunFile();
+    		RunWriter w=new RunWriter(f);
+    		mergeRuns(this.runs, w, false);
+    		w.close();
+    		for(File run:this.runs) run.delete();
+    		return f;
+    		}
+    	}
+    
+    private static <T> T await(Future<T> future) throws IOException
+    	{
+    	try
+    		{
+    		return future.get();
+    		}
+    	catch(InterruptedException err)
+    		{
+    		throw new IOException(err);
+    		}
+    	catch(ExecutionException err)
+    		{
+    		Throwable cause=err.getCause();
+    		if(cause instanceof IOException) throw (IOException)cause;
+    		if(cause instanceof RuntimeException) throw (RuntimeException)cause;
+    		throw new IOException(cause);
+    		}
+    	}
+    
+    /** parses the CHROM and POS columns and returns the packed key */
+    private long parseKey(String line)
+    	{
+    	int tab1=line.indexOf('\t');
+    	if(tab1==-1) throw new IllegalArgumentException("Bad VCF line in "+line);
+    	String chrom=line.substring(0,tab1);
+		int tid=dict.getSequenceIndex(chrom);
+		if(tid==-1) throw new RuntimeException("unknown chromosome "+ chrom+" in "+line);
+		int tab2=line.indexOf('\t',tab1+1);
+    	if(tab2==-1) throw new IllegalArgumentException("Bad VCF line in "+line);
+    	try
+    		{
+    		return makeKey(tid,Integer.parseInt(line.substring(tab1+1, tab2)));
+    		}
+    	catch(NumberFormatException err)
+    		{
+    		throw new IllegalArgumentException("Bad VCF line in "+line);
+    		}
+    	}
+    
     private static int containsvcfformat(String s)
     	{
     	if( s.startsWith("##fileformat=")) return 0;
@@ -164,25 +601,22 @@ public class SortVcfOnRef2 extends AbstractCommandLineProgram
 		{
 		out.println(" -R (fasta) indexed reference. Optional. The order of this reference will be used for sorting");
 		out.println(" -T (dir) add tmp directory (optional)");
-		out.println(" -N (int) max records in ram. default: "+sortingCollectionFactory.getMaxRecordsInRAM());
+		out.println(" -N (int) max records in ram, for each thread. default: "+this.maxRecordsInRAM);
+		out.println(" -t (int) number of threads sorting the records and merging the temporary files. default: "+this.nThreads);
 		super.printOptions(out);
 		}
     
     @Override
     public int doWork(String[] args)
     	{
-    	sortingCollectionFactory.setMaxRecordsInRAM(50000);
-    	sortingCollectionFactory.setCodec(new VariantCodec());
-    	sortingCollectionFactory.setComparator(new VariantComparator());
-    	sortingCollectionFactory.setComponentType(ChromPosLine.class);
-    
 		com.github.lindenb.jvarkit.util.cli.GetOpt opt=new com.github.lindenb.jvarkit.util.cli.GetOpt();
 		int c;
-		while((c=opt.getopt(args,getGetOptDefault()+"R:T:N:"))!=-1)
+		while((c=opt.getopt(args,getGetOptDefault()+"R:T:N:t:"))!=-1)
 			{
 			switch(c)
 				{
-				case 'N': sortingCollectionFactory.setMaxRecordsInRAM(Integer.parseInt(opt.getOptArg()));break;
+				case 'N': this.maxRecordsInRAM=Math.max(1,Integer.parseInt(opt.getOptArg()));break;
+				case 't': this.nThreads=Math.max(1,Integer.parseInt(opt.getOptArg()));break;
 				case 'T': this.addTmpDirectory(new File(opt.getOptArg()));break;
 				case 'R':
 					{
@@ -208,8 +642,6 @@ public class SortVcfOnRef2 extends AbstractCommandLineProgram
 					}
 				}
 			}
-		sortingCollectionFactory.setTmpDirs(this.getTmpDirectories());
-    	
 		
 		try
 			{
@@ -368,8 +800,8 @@ public class SortVcfOnRef2 extends AbstractCommandLineProgram
 			warning("SEQUENCE DICTIONARY IS EMPTY/NULL");
 			}
 		
-    	CloseableIterator<ChromPosLine> iter=null;
-    	SortingCollection<ChromPosLine> array=null;
+    	ContigBlockWriter blocks=null;
+    	ExecutorService executor=null;
     	try {
     		
     		for(String line:headerLines)
@@ -378,13 +810,27 @@ public class SortVcfOnRef2 extends AbstractCommandLineProgram
     			}
     		//write the #CHROM header
     		System.out.println(chromHeader);
-    			
+    		System.out.flush();
     		
-			
-			array=this.sortingCollectionFactory.make();
-			array.setDestructiveIteration(true);
 			info("Reading body");
 			SAMSequenceDictionaryProgress progress=new SAMSequenceDictionaryProgress(this.dict);
+			LineSink output=new LineSink();
+			List<File> runs=new ArrayList<File>();
+			if(this.nThreads>1) executor=Executors.newFixedThreadPool(this.nThreads);
+			LinkedList<Future<File>> pendingRuns=new LinkedList<Future<File>>();
+			LinkedList<RecordBuffer> pendingBuffers=new LinkedList<RecordBuffer>();
+			List<RecordBuffer> freeBuffers=new ArrayList<RecordBuffer>();
+			RecordBuffer buffer=new RecordBuffer(this.maxRecordsInRAM);
+			
+			/* the first '-N' records are buffered: if the input ends within this buffer, it
+			 * is sorted in memory. Otherwise, as long as the input is sorted within each contig
+			 * and each contig is a single block, the block of each contig is written as a run
+			 * and the runs are concatenated in the order of the dictionary. If the input is not
+			 * sorted within contig blocks, those runs are merged with the runs of the remaining records */
+			boolean contigBlocks=true;
+			boolean seenTids[]=new boolean[this.dict.size()];
+			long prevKey=-1L;
+			byte prevLine[]=null;
 			while(liter.hasNext())
 				{
 				String line=liter.next();
@@ -392,20 +838,131 @@ public class SortVcfOnRef2 extends AbstractCommandLineProgram
 					{
 					throw new IOException("bad VCF line in "+line);
 					}
-				ChromPosLine cpl=new ChromPosLine(line);
-				progress.watch(cpl.tid,cpl.pos);
-				array.add(cpl);
+				long key=parseKey(line);
+				int tid=tidOfKey(key);
+				progress.watch(tid,(int)key);
+				byte bytes[]=line.getBytes(UTF8);
+				if(contigBlocks)
+					{
+					if(prevLine!=null && tidOfKey(prevKey)==tid)
+						{
+						contigBlocks=compare(prevKey,prevLine,0,prevLine.length,key,bytes,0,bytes.length)<=0;
+						}
+					else
+						{
+						contigBlocks=!seenTids[tid];
+						seenTids[tid]=true;
+						}
+					prevKey=key;
+					prevLine=bytes;
+					if(contigBlocks && blocks!=null)
+						{
+						blocks.write(key, bytes, 0, bytes.length);
+						continue;
+						}
+					if(!contigBlocks)
+						{
+						info("The records are not sorted within contig blocks: sorting the records.");
+						if(blocks!=null)
+							{
+							blocks.close();
+							runs.addAll(blocks.runs);
+							blocks=null;
+							}
+						}
+					}
+				buffer.add(key, bytes, 0, bytes.length);
+				if(buffer.size()< this.maxRecordsInRAM) continue;
+				if(contigBlocks)
+					{
+					/* the first buffer is sorted within contig blocks: it is written as blocks */
+					blocks=new ContigBlockWriter();
+					buffer.write(blocks);
+					buffer.clear();
+					continue;
+					}
+				/* sort and save the buffer */
+				if(executor==null)
+					{
+					runs.add(new SortRunTask(buffer).call());
+					buffer.clear();
+					continue;
+					}
+				pendingRuns.add(executor.submit(new SortRunTask(buffer)));
+				pendingBuffers.add(buffer);
+				while(pendingRuns.size()>=this.nThreads)
+					{
+					runs.add(await(pendingRuns.removeFirst()));
+					freeBuffers.add(pendingBuffers.removeFirst());
+					}
+				buffer=(freeBuffers.isEmpty()?new RecordBuffer(this.maxRecordsInRAM):freeBuffers.remove(freeBuffers.size()-1));
+				buffer.clear();
 				}
-			array.doneAdding();
 			lr.close();
 			progress.finish();
 			
-			iter=array.iterator();
-			while(iter.hasNext())
+			if(blocks!=null)
 				{
-				System.out.println(iter.next().line);
-				if(System.out.checkError()) break;
+				blocks.close();
+				info("The records are sorted within contig blocks: reordering "+blocks.runs.size()+" block(s).");
+				List<Integer> tids=new ArrayList<Integer>(blocks.tids);
+				Collections.sort(tids);
+				for(Integer tid:tids)
+					{
+					File f=blocks.runs.get(blocks.tids.indexOf(tid));
+					RunReader r=new RunReader(f,false);
+					while(r.next())
+						{
+						output.write(r.key, r.data, r.offset, r.length);
+						}
+					r.close();
+					f.delete();
+					}
 				}
+			else
+				{
+				while(!pendingRuns.isEmpty())
+					{
+					runs.add(await(pendingRuns.removeFirst()));
+					}
+				if(runs.isEmpty())
+					{
+					/* the input ended within the first buffer */
+					buffer.sort();
+					buffer.writeSorted(output);
+					}
+				else
+					{
+					if(buffer.size()>0) runs.add(new SortRunTask(buffer).call());
+					buffer=null;
+					freeBuffers.clear();
+					pendingBuffers.clear();
+					/* too many runs: the groups of runs are merged in parallel */
+					while(runs.size()> MAX_FAN_IN)
+						{
+						info("merging "+runs.size()+" runs");
+						List<File> merged=new ArrayList<File>();
+						List<Future<File>> futures=new ArrayList<Future<File>>();
+						for(int i=0;i< runs.size();i+=MAX_FAN_IN)
+							{
+							MergeRunsTask task=new MergeRunsTask(new ArrayList<File>(runs.subList(i, Math.min(runs.size(), i+MAX_FAN_IN))));
+							if(executor==null)
+								{
+								merged.add(task.call());
+								}
+							else
+								{
+								futures.add(executor.submit(task));
+								}
+							}
+						for(Future<File> future:futures) merged.add(await(future));
+						runs=merged;
+						}
+					info("merging "+runs.size()+" runs");
+					mergeRuns(runs, output, this.nThreads>1);
+					}
+				}
+			output.flush();
 			return 0;
 			}
     	catch (Exception e)
@@ -416,8 +973,13 @@ public class SortVcfOnRef2 extends AbstractCommandLineProgram
     	finally
 	    	{
     		CloserUtil.close(liter);
-	    	CloserUtil.close(iter);
-	    	if(array!=null) array.cleanup();
+    		CloserUtil.close(blocks);
+    		if(executor!=null) executor.shutdownNow();
+    		synchronized(this.tmpFiles)
+    			{
+    			for(File f:this.tmpFiles) f.delete();
+    			this.tmpFiles.clear();
+    			}
 	    	}
     	
     	}
@@ -14,6 +14,7 @@ import java.util.Set;
 
 import com.github.lindenb.jvarkit.io.IOUtils;
 import com.github.lindenb.jvarkit.util.picard.AbstractCommandLineProgram;
+import com.github.lindenb.jvarkit.util.picard.AsyncSamWriterPool;
 import com.github.lindenb.jvarkit.util.picard.SAMSequenceDictionaryFactory;
 import com.github.lindenb.jvarkit.util.picard.SAMSequenceDictionaryProgress;
 
@@ -77,10 +78,15 @@ public class SplitBam extends AbstractCommandLineProgram
 	@Option(shortName= "IS", doc="input is sorted. ",optional=true)
 	public boolean INPUT_IS_SORTED=false;
 	
+	@Option(shortName= "T", doc="number of threads encoding and compressing the output BAMs. ",optional=true)
+	public int THREADS=1;
+	
 	private SAMSequenceDictionary  samSequenceDictionary;
 	private long id_generator=System.currentTimeMillis();
 	
 	private Set<File> deleteOnError=new HashSet<File>();
+	/** writes the BAMs in parallel if THREADS>1 */
+	private AsyncSamWriterPool writerPool=null;
 
 	
 	public SplitBam()
@@ -259,6 +265,11 @@ public class SplitBam extends AbstractCommandLineProgram
         
        
        SAMSequenceDictionaryProgress progress=new SAMSequenceDictionaryProgress(samFileReader.getFileHeader()==null?null:samFileReader.getFileHeader().getSequenceDictionary());
+       if(this.THREADS>1)
+    	   {
+    	   LOG.info("writing the BAMs with "+this.THREADS+" threads");
+    	   this.writerPool=new AsyncSamWriterPool(this.THREADS);
+    	   }
         
 		for(Iterator<SAMRecord> iter=samFileReader.iterator();
 				iter.hasNext(); )
@@ -306,7 +317,10 @@ public class SplitBam extends AbstractCommandLineProgram
 				deleteOnError.add(fileout);
 				deleteOnError.add(indexFor(fileout));
 
-				
+				if(this.writerPool!=null)
+					{
+					writer=this.writerPool.wrap(writer);
+					}
 				seen.put(groupName, writer);
 				
 				
@@ -315,10 +329,19 @@ public class SplitBam extends AbstractCommandLineProgram
 			writer.addAlignment(record);
 			}
 		
-		for(String k:seen.keySet())
+		if(this.writerPool!=null)
 			{
-			LOG.info("closing group "+k);
-			seen.get(k).close();
+			LOG.info("closing groups "+seen.keySet());
+			this.writerPool.close();
+			this.writerPool=null;
+			}
+		else
+			{
+			for(String k:seen.keySet())
+				{
+				LOG.info("closing group "+k);
+				seen.get(k).close();
+				}
 			}
 		samFileReader.close();
 		
@@ -381,6 +404,11 @@ public class SplitBam extends AbstractCommandLineProgram
 		catch(Exception err)
 			{
 			err.printStackTrace();
+			if(this.writerPool!=null)
+				{
+				this.writerPool.abort();
+				this.writerPool=null;
+				}
 			for(File f:deleteOnError)
 				{
 				if(f!=null && f.exists() && f.isFile())
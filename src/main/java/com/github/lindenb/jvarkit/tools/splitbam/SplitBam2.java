@@ -12,6 +12,7 @@ import java.util.Set;
 
 import com.github.lindenb.jvarkit.io.IOUtils;
 import com.github.lindenb.jvarkit.util.AbstractCommandLineProgram;
+import com.github.lindenb.jvarkit.util.picard.AsyncSamWriterPool;
 import com.github.lindenb.jvarkit.util.picard.SAMSequenceDictionaryProgress;
 
 import net.sf.picard.PicardException;
@@ -213,6 +214,11 @@ public class SplitBam2 extends AbstractCommandLineProgram
         
        
        SAMSequenceDictionaryProgress progress=new SAMSequenceDictionaryProgress(samFileReader.getFileHeader()==null?null:samFileReader.getFileHeader().getSequenceDictionary());
+       if(this.nThreads>1)
+    	   {
+    	   info("writing the BAMs with "+this.nThreads+" threads");
+    	   this.writerPool=new AsyncSamWriterPool(this.nThreads);
+    	   }
         
 		for(Iterator<SAMRecord> iter=samFileReader.iterator();
 				iter.hasNext(); )
@@ -258,16 +264,29 @@ public class SplitBam2 extends AbstractCommandLineProgram
 						false,
 						fileout
 						);
+				if(this.writerPool!=null)
+					{
+					writer=this.writerPool.wrap(writer);
+					}
 				seen.put(groupName, writer);
 				}
 			writer.addAlignment(record);
 			}
 		progress.finish();
 		
-		for(String k:seen.keySet())
+		if(this.writerPool!=null)
+			{
+			info("closing groups "+seen.keySet());
+			this.writerPool.close();
+			this.writerPool=null;
+			}
+		else
 			{
-			info("closing group "+k);
-			seen.get(k).close();
+			for(String k:seen.keySet())
+				{
+				info("closing group "+k);
+				seen.get(k).close();
+				}
 			}
 		samFileReader.close();
 		
@@ -298,10 +317,14 @@ public class SplitBam2 extends AbstractCommandLineProgram
 		out.println("-E generate empty bam if no samRecord found for a given group.");
 		out.println("-S sort/create index");
 		out.println("-R (int)  max records in RAM");
+		out.println("-t (int)  number of threads encoding and compressing the output BAMs. Default: 1");
 		super.printOptions(out);
 		}
 	private int maxRecordsInRam=100000;
 	private boolean createIndex=false;
+	private int nThreads=1;
+	/** writes the BAMs in parallel if nThreads>1 */
+	private AsyncSamWriterPool writerPool=null;
 
 	@Override
 	public int doWork(String[] args)
@@ -309,7 +332,7 @@ public class SplitBam2 extends AbstractCommandLineProgram
 		File chromGroupFile=null;
 		com.github.lindenb.jvarkit.util.cli.GetOpt opt=new com.github.lindenb.jvarkit.util.cli.GetOpt();
 		int c;
-		while((c=opt.getopt(args,getGetOptDefault()+"u:g:p:mET:SR:"))!=-1)
+		while((c=opt.getopt(args,getGetOptDefault()+"u:g:p:mET:SR:t:"))!=-1)
 			{
 			switch(c)
 				{	
@@ -321,6 +344,7 @@ public class SplitBam2 extends AbstractCommandLineProgram
 				case 'm': ADD_MOCK_RECORD=true;this.GENERATE_EMPTY_BAM=true;break;
 				case 'E': GENERATE_EMPTY_BAM=true;break;
 				case 'S': createIndex=true;break;
+				case 't': nThreads=Math.max(1,Integer.parseInt(opt.getOptArg()));break;
 				default:
 					{
 					switch(handleOtherOptions(c, opt, args))
@@ -383,6 +407,11 @@ public class SplitBam2 extends AbstractCommandLineProgram
 			}
 		finally
 			{
+			if(this.writerPool!=null)
+				{
+				this.writerPool.abort();
+				this.writerPool=null;
+				}
 			CloserUtil.close(sfr);
 			}
 		
@@ -1,14 +1,18 @@
 package com.github.lindenb.jvarkit.tools.splitbytitle;
 
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
 
 import net.sf.picard.cmdline.CommandLineProgram;
 import net.sf.picard.cmdline.Option;
 import net.sf.picard.cmdline.StandardOptionDefinitions;
 import net.sf.picard.cmdline.Usage;
+import net.sf.picard.PicardException;
 import net.sf.picard.io.IoUtil;
 import net.sf.picard.util.Log;
 import net.sf.samtools.SAMFileHeader;
@@ -18,19 +22,33 @@ import net.sf.samtools.SAMFileWriter;
 import net.sf.samtools.SAMFileWriterFactory;
 import net.sf.samtools.SAMRecord;
 import net.sf.samtools.SAMRecordIterator;
+import net.sf.samtools.util.CloserUtil;
+
+import com.github.lindenb.jvarkit.util.picard.ByteFastqWriter;
+import com.github.lindenb.jvarkit.util.picard.MutableFastqRecord;
+import com.github.lindenb.jvarkit.util.picard.PairedFastqPipeline;
+import com.github.lindenb.jvarkit.util.picard.PairedFastqReader;
 
 public class SplitByTile  extends CommandLineProgram
 	{
 	private static final String TILEWORD="__TILE__";
+	private static final String SIDEWORD="__SIDE__";
 	private static final Log log = Log.getInstance(SplitByTile.class);
     @Usage
-    public String USAGE = getStandardUsagePreamble() + "Split Bam By tile";
+    public String USAGE = getStandardUsagePreamble() + "Split Bam or a pair of FASTQs By tile";
     
     
-    @Option(shortName= StandardOptionDefinitions.INPUT_SHORT_NAME, doc="A BAM file to process.")
+    @Option(shortName= StandardOptionDefinitions.INPUT_SHORT_NAME, doc="A BAM file to process.",optional=true)
     public File INPUT=null;
-    @Option(shortName= "O", doc="The output file. must ends with .bam and must contains "+TILEWORD,optional=false)
+    @Option(shortName= "F1", doc="Instead of INPUT: the FASTQ R1 of a pair of FASTQs.",optional=true)
+    public File FASTQ1=null;
+    @Option(shortName= "F2", doc="Instead of INPUT: the FASTQ R2 of a pair of FASTQs.",optional=true)
+    public File FASTQ2=null;
+    @Option(shortName= "O", doc="The output file. must contains "+TILEWORD+". For a BAM, must ends with .bam. "+
+    		"For FASTQs, must contains "+SIDEWORD+" (replaced by 1 or 2) and ends with .fastq, .fq, .fastq.gz or .fq.gz",optional=false)
     public String OUTPUT=null;
+    @Option(shortName= "T", doc="FASTQs only: number of threads parsing the read names.",optional=true)
+    public int THREADS=1;
     
     public static void main(final String[] argv)
 		{
@@ -38,8 +56,147 @@ public class SplitByTile  extends CommandLineProgram
 		}	
 
     
+    /** returns the tile in the read name of a FASTQ record (5th field separated by ':') */
+    private static int getTile(MutableFastqRecord rec)
+    	{
+    	int field=0;
+    	int tile=-1;
+    	for(int i=0;i< rec.getLength(MutableFastqRecord.READ_HEADER);++i)
+    		{
+    		byte c=rec.byteAt(MutableFastqRecord.READ_HEADER, i);
+    		if(c==' ' || c=='\t')
+    			{
+    			break;
+    			}
+    		else if(c==':')
+    			{
+    			++field;
+    			if(field==5) break;
+    			}
+    		else if(field==4)
+    			{
+    			if(c<'0' || c>'9') { tile=-1; break;}
+    			tile=(tile<0?0:tile*10)+(c-'0');
+    			}
+    		}
+    	if(field<4 || tile<0)
+    		{
+    		throw new PicardException("Bad tile in read: "+rec.getReadHeader());
+    		}
+    	return tile;
+    	}
+    
+    private static ByteFastqWriter openFastq(File outFile) throws IOException
+    	{
+		if(outFile.getParentFile()!=null)
+			{
+			outFile.getParentFile().mkdirs();
+			}
+		if(outFile.getName().endsWith(".gz"))
+			{
+			return new ByteFastqWriter(new GZIPOutputStream(new FileOutputStream(outFile)));
+			}
+		return new ByteFastqWriter(new FileOutputStream(outFile));
+    	}
+    
+    /** split a pair of FASTQs: the tiles are parsed by THREADS threads, the pairs are written in the original order */
+    private int doWorkFastq()
+    	{
+    	IoUtil.assertFileIsReadable(FASTQ1);
+    	IoUtil.assertFileIsReadable(FASTQ2);
+    	if(OUTPUT==null || !OUTPUT.contains(TILEWORD) || !OUTPUT.contains(SIDEWORD) ||
+    		!(OUTPUT.endsWith(".fastq") || OUTPUT.endsWith(".fq") || OUTPUT.endsWith(".fastq.gz") || OUTPUT.endsWith(".fq.gz")))
+    		{
+    		log.error("Bad OUPUT name "+OUTPUT+". must contain "+TILEWORD+" and "+SIDEWORD+" and ends with .fastq, .fq, .fastq.gz or .fq.gz");
+    		return -1;
+    		}
+    	final Map<Integer, ByteFastqWriter[]> tile2writer=new HashMap<Integer, ByteFastqWriter[]>();
+    	PairedFastqReader reader=null;
+    	try
+    		{
+    		reader=new PairedFastqReader(FASTQ1, FASTQ2);
+    		reader.setValidationStringency(super.VALIDATION_STRINGENCY);
+    		PairedFastqPipeline pipeline=new PairedFastqPipeline();
+    		pipeline.setNumThreads(THREADS);
+    		pipeline.run(reader, new PairedFastqPipeline.Handler()
+				{
+				@Override
+				public int apply(MutableFastqRecord rec1, MutableFastqRecord rec2)
+					{
+					return getTile(rec1);
+					}
+				@Override
+				public void write(MutableFastqRecord rec1, MutableFastqRecord rec2, int tile)
+						throws IOException
+					{
+					ByteFastqWriter fw[]=tile2writer.get(tile);
+					if(fw==null)
+						{
+						fw=new ByteFastqWriter[2];
+						tile2writer.put(tile, fw);
+						for(int side=0;side< 2;++side)
+							{
+							File outFile=new File(OUTPUT.replaceAll(TILEWORD, String.valueOf(tile)).replaceAll(SIDEWORD, String.valueOf(side+1)));
+							log.info("create output for "+outFile );
+							fw[side]=openFastq(outFile);
+							}
+						}
+					fw[0].write(rec1);
+					fw[1].write(rec2);
+					}
+				});
+    		log.info("Number of pairs: "+reader.getPairCount());
+    		/* the last blocks and the gzip trailer are written when the writers are closed */
+    		boolean closeError=false;
+    		for(ByteFastqWriter fw[]:tile2writer.values())
+    			{
+    			for(int side=0;side< fw.length;++side)
+    				{
+    				if(fw[side]==null) continue;
+    				try
+    					{
+    					fw[side].close();
+    					}
+    				catch(IOException err)
+    					{
+    					log.error(err);
+    					closeError=true;
+    					}
+    				fw[side]=null;
+    				}
+    			}
+    		return closeError?-1:0;
+    		}
+    	catch (Exception e) {
+    		log.error(e);
+    		return -1;
+			}
+    	finally
+    		{
+    		if(reader!=null) reader.close();
+    		for(ByteFastqWriter fw[]:tile2writer.values())
+    			{
+    			for(ByteFastqWriter w:fw) CloserUtil.close(w);
+    			}
+    		}
+    	}
+    
     @Override
     protected int doWork() {
+    	if(FASTQ1!=null || FASTQ2!=null)
+    		{
+    		if(FASTQ1==null || FASTQ2==null || INPUT!=null)
+    			{
+    			log.error("FASTQ1 and FASTQ2 must be defined together, without INPUT");
+    			return -1;
+    			}
+    		return doWorkFastq();
+    		}
+    	if(INPUT==null)
+    		{
+    		log.error("undefined INPUT");
+    		return -1;
+    		}
     	IoUtil.assertFileIsReadable(INPUT);
     	if(OUTPUT==null || !OUTPUT.contains(TILEWORD) || !OUTPUT.endsWith(".bam"))
     		{
@@ -0,0 +1,452 @@
+package com.github.lindenb.jvarkit.tools.vcf2sql;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import net.sf.picard.util.Log;
+import net.sf.samtools.util.CloserUtil;
+
+/**
+ * Loads the rows of VcfToSql straight into a JDBC database.
+ * The rows are produced by the thread reading the VCF and are sent, by chunks of complete variants,
+ * to a thread writing them with prepared multi-row inserts. The ids are assigned by the loader
+ * (starting from the max(id) of each table), the ids of the samples are cached, and the transaction
+ * is committed every 'commitSize' variants. The database must not be modified by another client
+ * during the load.
+ */
+class JdbcLoader
+	implements VcfToSql.RowSink
+	{
+	private static final Log LOG=Log.getInstance(JdbcLoader.class);
+	/** max number of parameters of a statement (SQLITE_MAX_VARIABLE_NUMBER) */
+	private static final int MAX_PARAMETERS=999;
+	/** number of rows in a chunk sent to the writer */
+	private static final int CHUNK_ROWS=5000;
+	/** number of chunks waiting for the writer */
+	private static final int QUEUE_CAPACITY=4;
+	/* the tables, in the order of their foreign keys */
+	private static final int FILE=0;
+	private static final int HEADER=1;
+	private static final int SAMPLE=2;
+	private static final int VARIATION=3;
+	private static final int ALT=4;
+	private static final int FILTER=5;
+	private static final int INFO=6;
+	private static final int EXTRAINFO=7;
+	private static final int EXTRAINFOPROP=8;
+	private static final int GENOTYPE=9;
+	private static final int GTPROP=10;
+	private static final String TABLES[]={
+		"FILE","HEADER","SAMPLE","VARIATION","ALT","FILTER","INFO","EXTRAINFO","EXTRAINFOPROP","GENOTYPE","GTPROP"
+		};
+	private static final String COLUMNS[][]={
+		{"id","filename"},
+		{"id","file_id","header"},
+		{"id","name"},
+		{"id","file_id","chrom","pos","START0","END0","rs_id","ref","qual"},
+		{"id","var_id","alt"},
+		{"id","var_id","filter"},
+		{"id","var_id","k","v"},
+		{"id","info_id","type"},
+		{"id","extrainfo_id","k","v"},
+		{"id","var_id","sample_id","A1","A2","dp","ad","gq","pl",
+			"is_phased","is_hom","is_homref","is_homvar","is_mixed",
+			"is_nocall","is_noninformative","is_available","is_called","is_filtered"},
+		{"id","genotype_id","k","v"}
+		};
+	/** marker of the end of the chunks */
+	private static final Chunk END_CHUNK=new Chunk();
+
+	private final Connection connection;
+	private final boolean hsql;
+	private final String suffix;
+	private final int batchSize;
+	private final int commitSize;
+	/** next id of each table */
+	private final long nextId[]=new long[TABLES.length];
+	/** last id of each table, the parent of the next rows */
+	private final long lastId[]=new long[TABLES.length];
+	private final Map<String,Long> sample2id=new HashMap<String,Long>();
+	private Chunk chunk=new Chunk();
+	private final BlockingQueue<Chunk> queue=new ArrayBlockingQueue<Chunk>(QUEUE_CAPACITY);
+	private Thread writer=null;
+	private volatile Throwable error=null;
+	private final PreparedStatement multiRowStatements[]=new PreparedStatement[TABLES.length];
+	private final PreparedStatement singleRowStatements[]=new PreparedStatement[TABLES.length];
+	private final int rowsPerStatement[]=new int[TABLES.length];
+
+	/** rows of complete variants */
+	private static class Chunk
+		{
+		@SuppressWarnings("unchecked")
+		final List<Object[]> rows[]=new List[TABLES.length];
+		int nRows=0;
+		int nVariants=0;
+		Chunk()
+			{
+			for(int i=0;i< rows.length;++i) rows[i]=new ArrayList<Object[]>();
+			}
+		}
+
+	/**
+	 * @param connection the database, the tables must exist
+	 * @param hsql true for HSQLDB (the ids are inserted with OVERRIDING SYSTEM VALUE)
+	 * @param suffix the suffix of the tables
+	 * @param batchSize max number of rows of a multi-row insert
+	 * @param commitSize number of variants in a transaction
+	 */
+	JdbcLoader(Connection connection,boolean hsql,String suffix,int batchSize,int commitSize)
+		{
+		this.connection=connection;
+		this.hsql=hsql;
+		this.suffix=suffix;
+		this.batchSize=Math.max(1, batchSize);
+		this.commitSize=Math.max(1, commitSize);
+		}
+
+	private String insertSql(int table,int nRows)
+		{
+		StringBuilder b=new StringBuilder("insert into ");
+		b.append(TABLES[table]).append(this.suffix).append("(");
+		for(int i=0;i< COLUMNS[table].length;++i)
+			{
+			if(i>0) b.append(",");
+			b.append(COLUMNS[table][i]);
+			}
+		b.append(")");
+		/* the id is GENERATED ALWAYS in HSQLDB */
+		if(this.hsql) b.append(" OVERRIDING SYSTEM VALUE");
+		b.append(" values ");
+		for(int r=0;r< nRows;++r)
+			{
+			if(r>0) b.append(",");
+			b.append("(");
+			for(int i=0;i< COLUMNS[table].length;++i)
+				{
+				if(i>0) b.append(",");
+				b.append("?");
+				}
+			b.append(")");
+			}
+		return b.toString();
+		}
+
+	/** reads the max ids and the samples, prepares the statements and starts the writer */
+	void open() throws SQLException
+		{
+		this.connection.setAutoCommit(false);
+		Statement stmt=this.connection.createStatement();
+		try
+			{
+			for(int t=0;t< TABLES.length;++t)
+				{
+				ResultSet row=stmt.executeQuery("select max(id) from "+TABLES[t]+this.suffix);
+				this.nextId[t]=(row.next()?row.getLong(1):0L)+1L;
+				row.close();
+				}
+			ResultSet row=stmt.executeQuery("select id,name from SAMPLE"+this.suffix);
+			while(row.next())
+				{
+				this.sample2id.put(row.getString(2), row.getLong(1));
+				}
+			row.close();
+			}
+		finally
+			{
+			stmt.close();
+			}
+		for(int t=0;t< TABLES.length;++t)
+			{
+			this.rowsPerStatement[t]=Math.max(1, Math.min(this.batchSize, MAX_PARAMETERS/COLUMNS[t].length));
+			this.multiRowStatements[t]=this.connection.prepareStatement(insertSql(t,this.rowsPerStatement[t]));
+			this.singleRowStatements[t]=this.connection.prepareStatement(insertSql(t,1));
+			}
+		this.writer=new Thread("vcf2sql-writer")
+			{
+			@Override
+			public void run()
+				{
+				write();
+				}
+			};
+		this.writer.setDaemon(true);
+		this.writer.start();
+		}
+
+	private void checkError() throws IOException
+		{
+		if(this.error!=null)
+			{
+			throw new IOException("Cannot write to database: "+this.error.getMessage(),this.error);
+			}
+		}
+
+	private void send(Chunk c) throws IOException
+		{
+		checkError();
+		try
+			{
+			this.queue.put(c);
+			}
+		catch(InterruptedException err)
+			{
+			throw new IOException(err);
+			}
+		}
+
+	private long add(int table,Object... values) throws IOException
+		{
+		long id=this.nextId[table]++;
+		this.lastId[table]=id;
+		values[0]=id;
+		this.chunk.rows[table].add(values);
+		this.chunk.nRows++;
+		return id;
+		}
+
+	/* ---------- called by the thread reading the VCF ---------- */
+
+	@Override
+	public void file(String filename) throws IOException
+		{
+		add(FILE,null,filename);
+		}
+
+	@Override
+	public void header(String line) throws IOException
+		{
+		add(HEADER,null,lastId[FILE],line);
+		}
+
+	@Override
+	public void sample(String name) throws IOException
+		{
+		if(this.sample2id.containsKey(name)) return;
+		this.sample2id.put(name, add(SAMPLE,null,name));
+		}
+
+	@Override
+	public void variation(String chrom,int pos,int start0,int end0,String rsId,String ref,double qual)
+		throws IOException
+		{
+		add(VARIATION,null,lastId[FILE],chrom,pos,start0,end0,rsId,ref,(qual<0?null:qual));
+		}
+
+	@Override
+	public void alt(String alt) throws IOException
+		{
+		add(ALT,null,lastId[VARIATION],alt);
+		}
+
+	@Override
+	public void filter(String filter) throws IOException
+		{
+		add(FILTER,null,lastId[VARIATION],filter);
+		}
+
+	@Override
+	public void info(String key,String value) throws IOException
+		{
+		add(INFO,null,lastId[VARIATION],key,value);
+		}
+
+	@Override
+	public void extraInfo(String type) throws IOException
+		{
+		add(EXTRAINFO,null,lastId[INFO],type);
+		}
+
+	@Override
+	public void extraInfoProp(String key,String value) throws IOException
+		{
+		add(EXTRAINFOPROP,null,lastId[EXTRAINFO],key,value);
+		}
+
+	@Override
+	public void genotype(String sample,String a1,String a2,Integer dp,String ad,Integer gq,String pl,int flags[])
+		throws IOException
+		{
+		Object values[]=new Object[COLUMNS[GENOTYPE].length];
+		values[1]=lastId[VARIATION];
+		values[2]=this.sample2id.get(sample);
+		values[3]=a1;
+		values[4]=a2;
+		values[5]=dp;
+		values[6]=ad;
+		values[7]=gq;
+		values[8]=pl;
+		for(int i=0;i< flags.length;++i) values[9+i]=flags[i];
+		add(GENOTYPE,values);
+		}
+
+	@Override
+	public void gtProp(String key,String value) throws IOException
+		{
+		add(GTPROP,null,lastId[GENOTYPE],key,value);
+		}
+
+	@Override
+	public void endVariant() throws IOException
+		{
+		this.chunk.nVariants++;
+		if(this.chunk.nRows>=CHUNK_ROWS)
+			{
+			send(this.chunk);
+			this.chunk=new Chunk();
+			}
+		}
+
+	/** sends the last rows, waits for the writer and commits */
+	void finish() throws IOException
+		{
+		send(this.chunk);
+		this.chunk=new Chunk();
+		send(END_CHUNK);
+		try
+			{
+			this.writer.join();
+			}
+		catch(InterruptedException err)
+			{
+			throw new IOException(err);
+			}
+		this.writer=null;
+		checkError();
+		try
+			{
+			if(this.hsql)
+				{
+				/* the next generated ids must follow the ids inserted by this loader */
+				Statement stmt=this.connection.createStatement();
+				for(int t=0;t< TABLES.length;++t)
+					{
+					stmt.executeUpdate("alter table "+TABLES[t]+this.suffix+" alter column id restart with "+this.nextId[t]);
+					}
+				stmt.close();
+				}
+			this.connection.commit();
+			this.connection.setAutoCommit(true);
+			}
+		catch(SQLException err)
+			{
+			throw new IOException(err);
+			}
+		}
+
+	/** stops the writer and closes the statements */
+	void close()
+		{
+		if(this.writer!=null)
+			{
+			this.writer.interrupt();
+			this.writer=null;
+			}
+		for(int t=0;t< TABLES.length;++t)
+			{
+			CloserUtil.close(this.multiRowStatements[t]);
+			CloserUtil.close(this.singleRowStatements[t]);
+			}
+		}
+
+	/* ---------- called by the writer thread ---------- */
+
+	private static void setParameters(PreparedStatement pstmt,int index,Object values[]) throws SQLException
+		{
+		for(Object o:values)
+			{
+			if(o==null)
+				{
+				pstmt.setNull(index, Types.NULL);
+				}
+			else
+				{
+				pstmt.setObject(index, o);
+				}
+			++index;
+			}
+		}
+
+	private void insert(int table,List<Object[]> rows) throws SQLException
+		{
+		int n=0;
+		int perStatement=this.rowsPerStatement[table];
+		if(rows.size()>=perStatement)
+			{
+			PreparedStatement pstmt=this.multiRowStatements[table];
+			int nColumns=COLUMNS[table].length;
+			while(rows.size()-n>=perStatement)
+				{
+				for(int r=0;r< perStatement;++r)
+					{
+					setParameters(pstmt,1+r*nColumns,rows.get(n+r));
+					}
+				pstmt.addBatch();
+				n+=perStatement;
+				}
+			pstmt.executeBatch();
+			}
+		if(n< rows.size())
+			{
+			PreparedStatement pstmt=this.singleRowStatements[table];
+			for(;n< rows.size();++n)
+				{
+				setParameters(pstmt,1,rows.get(n));
+				pstmt.addBatch();
+				}
+			pstmt.executeBatch();
+			}
+		}
+
+	private void write()
+		{
+		long nVariants=0L;
+		int sinceCommit=0;
+		for(;;)
+			{
+			Chunk c;
+			try
+				{
+				c=this.queue.take();
+				}
+			catch(InterruptedException err)
+				{
+				return;
+				}
+			if(c==END_CHUNK) return;
+			/* after an error, the chunks are discarded so the reader is never blocked */
+			if(this.error!=null) continue;
+			try
+				{
+				/* parents first */
+				for(int t=0;t< TABLES.length;++t)
+					{
+					if(!c.rows[t].isEmpty()) insert(t,c.rows[t]);
+					}
+				nVariants+=c.nVariants;
+				sinceCommit+=c.nVariants;
+				if(sinceCommit>=this.commitSize)
+					{
+					this.connection.commit();
+					sinceCommit=0;
+					LOG.info("committed "+nVariants+" variants");
+					}
+				}
+			catch(Throwable err)
+				{
+				LOG.error(err, "Cannot write to database");
+				this.error=err;
+				}
+			}
+		}
+	}
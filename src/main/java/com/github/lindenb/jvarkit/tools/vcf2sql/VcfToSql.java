@@ -4,6 +4,10 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -30,6 +34,7 @@ import net.sf.picard.cmdline.Option;
 import net.sf.picard.cmdline.StandardOptionDefinitions;
 import net.sf.picard.cmdline.Usage;
 import net.sf.picard.util.Log;
+import net.sf.samtools.util.CloserUtil;
 
 
 @SuppressWarnings("rawtypes")
@@ -37,7 +42,7 @@ public class VcfToSql extends CommandLineProgram
 	{
 	
 	@Usage(programVersion="1.0")
-	public String USAGE=getStandardUsagePreamble()+"Creates the code to insert one or more VCF into a SQL database. ";
+	public String USAGE=getStandardUsagePreamble()+"Creates the code to insert one or more VCF into a SQL database, or loads them directly with JDBC (option JDBC). ";
     @Option(shortName= StandardOptionDefinitions.INPUT_SHORT_NAME, doc="VCF files to process.",minElements=0)
 	public List<File> IN=new ArrayList<File>();
     
@@ -53,6 +58,18 @@ public class VcfToSql extends CommandLineProgram
 	public String ENGINE=SQLEngine.sqlite.name();
     @Option(shortName="S4",doc="Split DP4",optional=true)
 	public boolean SPLIT4=false;
+    @Option(shortName="JDBC",doc="JDBC url of the database e.g: jdbc:sqlite:file.db or jdbc:hsqldb:file:dir/db . If set, the VCFs are loaded in this database instead of printing the SQL statements. EGN must match the database.",optional=true)
+	public String JDBC=null;
+    @Option(shortName="DRIVER",doc="JDBC driver class e.g: org.sqlite.JDBC or org.hsqldb.jdbc.JDBCDriver",optional=true)
+	public String JDBC_DRIVER=null;
+    @Option(shortName="USER",doc="JDBC user",optional=true)
+	public String JDBC_USER=null;
+    @Option(shortName="PASSWORD",doc="JDBC password",optional=true)
+	public String JDBC_PASSWORD=null;
+    @Option(shortName="BS",doc="JDBC: max number of rows in a multi-row insert",optional=true)
+	public int BATCH_SIZE=500;
+    @Option(shortName="CS",doc="JDBC: number of variants in a transaction",optional=true)
+	public int COMMIT_SIZE=10000;
     
     private SQLEngine engine=SQLEngine.sqlite;
     private enum SQLEngine {sqlite,hsql};
@@ -61,6 +78,164 @@ public class VcfToSql extends CommandLineProgram
     
     private PrintWriter out=new PrintWriter(System.out);
     
+    /**
+     * receives the rows of the tables. The parent of a row (file, variation, info...)
+     * is the last row of the parent table.
+     */
+    interface RowSink
+    	{
+    	public void file(String filename) throws IOException;
+    	public void header(String line) throws IOException;
+    	/** called for each sample of a VCF, the sample may already exist */
+    	public void sample(String name) throws IOException;
+    	/** @param qual phred-scaled quality, negative if undefined */
+    	public void variation(String chrom,int pos,int start0,int end0,String rsId,String ref,double qual) throws IOException;
+    	public void alt(String alt) throws IOException;
+    	public void filter(String filter) throws IOException;
+    	public void info(String key,String value) throws IOException;
+    	public void extraInfo(String type) throws IOException;
+    	public void extraInfoProp(String key,String value) throws IOException;
+    	/** @param flags is_phased,is_hom,is_homref,is_homvar,is_mixed,is_nocall,is_noninformative,is_available,is_called,is_filtered */
+    	public void genotype(String sample,String a1,String a2,Integer dp,String ad,Integer gq,String pl,int flags[]) throws IOException;
+    	public void gtProp(String key,String value) throws IOException;
+    	/** called after all the rows of a variant */
+    	public void endVariant() throws IOException;
+    	}
+    
+    /** prints the SQL statements inserting the rows */
+    private class SqlTextSink implements RowSink
+    	{
+    	@Override
+    	public void file(String filename)
+    		{
+    		out.println("insert into FILE"+SUFFIX+"(filename) values ("+quote(filename)+");");
+    		}
+    	@Override
+    	public void header(String line)
+    		{
+			out.println(
+					"insert into HEADER"+SUFFIX+
+					"(file_id,header) values ("+
+					"(select max(id) from FILE"+SUFFIX+"),"+
+					quote(line)+");"
+					);
+    		}
+    	@Override
+    	public void sample(String S)
+    		{
+			//merge into SAMPLE using (select 1+MAX(id),'azdazd' from SAMPLE) as vals(x,y) on SAMPLE.name=vals.y when  NOT MATCHED THEN INSERT VALUES vals.x,vals.y;
+			switch(engine)
+				{
+				case hsql:out.println(
+						"merge into SAMPLE"+SUFFIX+" using ( values("+quote(S)+") ) " +
+						"AS vals(y) ON SAMPLE"+SUFFIX+".name = vals.y " +
+						"WHEN NOT MATCHED THEN INSERT VALUES  (NULL,vals.y);");
+						break;
+				default:out.println("insert or ignore into SAMPLE"+SUFFIX+"(name) values ("+quote(S)+");");break;
+				
+				}
+    		}
+    	@Override
+    	public void variation(String chrom,int pos,int start0,int end0,String rsId,String ref,double qual)
+    		{
+			out.println(
+					"insert into VARIATION"+SUFFIX+
+					"(file_id,chrom,pos,START0,END0,rs_id,ref,qual) values ("+
+					"(select max(id) from FILE"+SUFFIX+"),"+
+					quote(chrom)+","+
+					pos+","+
+					start0+","+
+					end0+","+
+					quote(rsId)+","+
+					quote(ref)+","+
+					(qual<0?"NULL":qual)+");"
+					);
+    		}
+    	@Override
+    	public void alt(String alt)
+    		{
+			out.println(
+					"insert into ALT"+SUFFIX+"(var_id,alt) values ("+
+					"(select max(id) from VARIATION"+SUFFIX+"),"+
+					quote(alt)+");"
+					);
+    		}
+    	@Override
+    	public void filter(String filter)
+    		{
+			out.println(
+					"insert into FILTER"+SUFFIX+"(var_id,filter) values ("+
+					"(select max(id) from VARIATION"+SUFFIX+"),"+
+					quote(filter)+");"
+					);
+    		}
+    	@Override
+    	public void info(String key,String val)
+    		{
+			out.println(
+					"insert into INFO"+SUFFIX+"(var_id,k,v) values ("+
+					"(select max(id) from VARIATION"+SUFFIX+"),"+
+					quote(key)+","+
+					quote(val)+");"
+					);
+    		}
+    	@Override
+    	public void extraInfo(String type)
+    		{
+			out.println(
+					"insert into EXTRAINFO"+SUFFIX+"(info_id,type) values ("+
+					"(select max(id) from INFO"+SUFFIX+"),"+
+					quote(type)+
+					");"
+					);
+    		}
+    	@Override
+    	public void extraInfoProp(String key,String value)
+    		{
+			out.println(
+					"insert into EXTRAINFOPROP"+SUFFIX+"(extrainfo_id,k,v) values ("+
+					"(select max(id) from EXTRAINFO"+SUFFIX+"),"+
+					quote(key)+","+
+					quote(value)+");"
+					);
+    		}
+    	@Override
+    	public void genotype(String sample,String a1,String a2,Integer dp,String ad,Integer gq,String pl,int flags[])
+    		{
+			StringBuilder b=new StringBuilder(
+					"insert into GENOTYPE"+SUFFIX+
+					"(var_id,sample_id,A1,A2,dp,ad,gq,pl," +
+					"is_phased,is_hom,is_homref,is_homvar,is_mixed," +
+					"is_nocall,is_noninformative,is_available,is_called,is_filtered"+
+					") values ("+
+					"(select max(id) from VARIATION"+SUFFIX+"),"+
+					"(select id from SAMPLE"+SUFFIX+" where name="+quote(sample)+"),"+
+					quote(a1)+","+
+					quote(a2)+","+
+					(dp!=null?dp:"NULL")+","+
+					quote(ad)+","+
+					(gq!=null?gq:"NULL")+","+
+					quote(pl));
+			for(int flag:flags) b.append(",").append(flag);
+			b.append(");");
+			out.println(b.toString());
+    		}
+    	@Override
+    	public void gtProp(String key,String value)
+    		{
+			out.println(
+					"insert into GTPROP"+SUFFIX+"(genotype_id,k,v) values ("+
+					"(select max(id) from GENOTYPE"+SUFFIX+"),"+
+					quote(key)+","+
+					quote(value)+");"
+					);
+    		}
+    	@Override
+    	public void endVariant()
+    		{
+    		}
+    	}
+    
     @Override
     public String getVersion()
     	{
@@ -97,37 +272,27 @@ public class VcfToSql extends CommandLineProgram
 
     
     
-	@Override
-	protected int doWork()
+	/** returns the statements creating the tables */
+	private List<String> createTables()
 		{
-		try
-			{
-			try
-				{
-				this.engine=SQLEngine.valueOf(this.ENGINE);
-				}
-			catch(Exception err)
-				{
-				LOG.error("BAD SQL ENGINE "+this.ENGINE);
-				return -1;
-				}
-		    out.println( "create table if not exists FILE"+SUFFIX+"("+
+		List<String> L=new ArrayList<String>();
+		    L.add( "create table if not exists FILE"+SUFFIX+"("+
 		    		columnId()+
 		    		"filename "+varchar(255)+" NOT NULL"+
 		    		");");
 
-		    out.println( "create table if not exists HEADER"+SUFFIX+"("+
+		    L.add( "create table if not exists HEADER"+SUFFIX+"("+
 		    		columnId()+
 					"file_id INT NOT NULL REFERENCES FILE"+SUFFIX+"(id) ON DELETE CASCADE,"+
 		    		"header "+text()+
 		    		");");
 
 		    
-		    out.println( "create table if not exists SAMPLE"+SUFFIX+"("+
+		    L.add( "create table if not exists SAMPLE"+SUFFIX+"("+
 			    columnId()+
 			    "name "+varchar(100)+" NOT NULL UNIQUE"+
 			   ");");
-		    out.println( "create table if not exists VARIATION"+SUFFIX+"("+
+		    L.add( "create table if not exists VARIATION"+SUFFIX+"("+
 				columnId()+
 				"file_id INT NOT NULL REFERENCES FILE"+SUFFIX+"(id) ON DELETE CASCADE,"+
 				"CHROM VARCHAR(20) NOT NULL,"+
@@ -139,31 +304,31 @@ public class VcfToSql extends CommandLineProgram
 				"QUAL FLOAT"+
 			    ");");
 		    
-		    out.println("create table if not exists ALT"+SUFFIX+"("+
+		    L.add("create table if not exists ALT"+SUFFIX+"("+
 				columnId()+
 				"var_id INT NOT NULL REFERENCES VARIATION"+SUFFIX+"(id) ON DELETE CASCADE,"+
 				"ALT "+text()+
 				  ");");
-		    out.println("create table if not exists FILTER"+SUFFIX+"("+
+		    L.add("create table if not exists FILTER"+SUFFIX+"("+
 				columnId()+
 				"var_id INT NOT NULL REFERENCES VARIATION"+SUFFIX+"(id) ON DELETE CASCADE,"+
 				"FILTER varchar(50) not null"+
 				 ");");
 
-		    out.println("create table if not exists INFO"+SUFFIX+"("+
+		    L.add("create table if not exists INFO"+SUFFIX+"("+
 				columnId()+
 				"var_id INT NOT NULL REFERENCES VARIATION"+SUFFIX+"(id) ON DELETE CASCADE,"+
 				"k varchar(50) not null,"+
 				"v "+text()+" not null"+
 				 ");");
 		    
-		    out.println("create table if not exists EXTRAINFO"+SUFFIX+"("+
+		    L.add("create table if not exists EXTRAINFO"+SUFFIX+"("+
 					columnId()+
 					"info_id INT NOT NULL REFERENCES INFO"+SUFFIX+"(id) ON DELETE CASCADE,"+
 					"type varchar(50) not null"+
 					 ");");
 		    
-		    out.println("create table if not exists EXTRAINFOPROP"+SUFFIX+"("+
+		    L.add("create table if not exists EXTRAINFOPROP"+SUFFIX+"("+
 					columnId()+
 					"extrainfo_id INT NOT NULL REFERENCES EXTRAINFO"+SUFFIX+"(id) ON DELETE CASCADE,"+
 					"k varchar(50) not null,"+
@@ -171,7 +336,7 @@ public class VcfToSql extends CommandLineProgram
 					 ");");
 
 		    
-		    out.println(     "create table if not exists GENOTYPE"+SUFFIX+"("+
+		    L.add(     "create table if not exists GENOTYPE"+SUFFIX+"("+
 				columnId()+
 				"var_id INT NOT NULL REFERENCES VARIATION"+SUFFIX+"(id) ON DELETE CASCADE,"+
 				"sample_id INT NOT NULL REFERENCES SAMPLE"+SUFFIX+"(id) ON DELETE CASCADE,"+
@@ -180,47 +345,88 @@ public class VcfToSql extends CommandLineProgram
 				"is_nocall SMALLINT not null,is_noninformative SMALLINT not null,is_available SMALLINT not null,is_called SMALLINT not null,is_filtered  SMALLINT not null"+
 				");"
 				);
-		    out.println("create table if not exists GTPROP"+SUFFIX+"("+
+		    L.add("create table if not exists GTPROP"+SUFFIX+"("+
 				columnId()+
 				"genotype_id INT NOT NULL REFERENCES GENOTYPE"+SUFFIX+"(id) ON DELETE CASCADE,"+
 				"k varchar(50) not null,"+
 				"v "+text()+" not null"+
 				 ");");
+		return L;
+		}
+	
+	/** returns the statements creating the indexes */
+	private List<String> createIndexes()
+		{
+		List<String> L=new ArrayList<String>();
+		L.add(index("SAMPLE","name"));
+		L.add(index("EXTRAINFO","type"));
+		L.add(index("EXTRAINFOPROP","k"));
+		L.add(index("EXTRAINFOPROP","v"));
+		
+		L.add(index("INFO","var_id"));
+		L.add(index("INFO","k"));
+		L.add(index("EXTRAINFO","info_id"));
+		L.add(index("EXTRAINFOPROP","extrainfo_id"));
+		L.add(index("GENOTYPE","var_id"));
+		L.add(index("GENOTYPE","sample_id"));
+		return L;
+		}
+	
+	private void readAll(RowSink sink) throws IOException
+		{
+		if(IN.isEmpty())
+			{
+			LOG.info("reading from stdin");
+			read(System.in,"<stdin>",sink);
+			}
+		else
+			{
+			for(File input: IN)
+				{
+				LOG.info("opening "+input);
+				InputStream in=IOUtils.openFileForReading(input);
+				read(in,input.toString(),sink);
+				in.close();
+				}
+			}
+		}
+	
+	@Override
+	protected int doWork()
+		{
+		try
+			{
+			try
+				{
+				this.engine=SQLEngine.valueOf(this.ENGINE);
+				}
+			catch(Exception err)
+				{
+				LOG.error("BAD SQL ENGINE "+this.ENGINE);
+				return -1;
+				}
+			if(this.JDBC!=null)
+				{
+				return loadJdbc();
+				}
+			for(String sql:createTables())
+				{
+				out.println(sql);
+				}
 		    switch(this.engine)
 		    	{
 		    	case sqlite:out.println("begin transaction;");break;
 		    	default:break;
 		    	}
 			
-			if(IN.isEmpty())
-				{
-				LOG.info("reading from stdin");
-				read(System.in,"<stdin>");
-				}
-			else
+			readAll(new SqlTextSink());
+			if(SQLINDEX)
 				{
-				for(File input: IN)
+				for(String sql:createIndexes())
 					{
-					LOG.info("opening "+input);
-					InputStream in=IOUtils.openFileForReading(input);
-					read(in,input.toString());
-					in.close();
+					out.print(sql);
 					}
 				}
-			if(SQLINDEX)
-				{
-				index("SAMPLE","name");
-				index("EXTRAINFO","type");
-				index("EXTRAINFOPROP","k");
-				index("EXTRAINFOPROP","v");
-				
-				index("INFO","var_id");
-				index("INFO","k");
-				index("EXTRAINFO","info_id");
-				index("EXTRAINFOPROP","extrainfo_id");
-				index("GENOTYPE","var_id");
-				index("GENOTYPE","sample_id");
-				}
 			 switch(this.engine)
 		    	{
 		    	case sqlite:out.println("commit;");break;
@@ -237,29 +443,93 @@ public class VcfToSql extends CommandLineProgram
 		return 0;
 		}
 	
-	private void index(String table,String column)
+	/** loads the VCFs in the JDBC database */
+	private int loadJdbc()
+		{
+		Connection connection=null;
+		JdbcLoader loader=null;
+		try
+			{
+			if(JDBC_DRIVER!=null)
+				{
+				LOG.info("Getting jdbc-driver "+JDBC_DRIVER);
+				Class.forName(JDBC_DRIVER);
+				}
+			if(JDBC_USER==null)
+				{
+				connection=DriverManager.getConnection(JDBC);
+				}
+			else
+				{
+				connection=DriverManager.getConnection(JDBC,JDBC_USER,JDBC_PASSWORD==null?"":JDBC_PASSWORD);
+				}
+			Statement stmt=connection.createStatement();
+			for(String sql:createTables())
+				{
+				stmt.executeUpdate(sql.substring(0,sql.lastIndexOf(';')));
+				}
+			stmt.close();
+			
+			loader=new JdbcLoader(connection,this.engine==SQLEngine.hsql,SUFFIX,BATCH_SIZE,COMMIT_SIZE);
+			loader.open();
+			readAll(loader);
+			loader.finish();
+			
+			if(SQLINDEX)
+				{
+				stmt=connection.createStatement();
+				for(String sql:createIndexes())
+					{
+					try
+						{
+						stmt.executeUpdate(sql.substring(0,sql.lastIndexOf(';')));
+						}
+					catch(SQLException err)
+						{
+						/* hsql has no 'create index if not exists' */
+						LOG.warn("Cannot create index: "+err.getMessage());
+						}
+					}
+				stmt.close();
+				}
+			return 0;
+			}
+		catch(Exception err)
+			{
+			LOG.error(err,"Cannot load "+JDBC);
+			return -1;
+			}
+		finally
+			{
+			if(loader!=null) loader.close();
+			CloserUtil.close(connection);
+			}
+		}
+	
+	private String index(String table,String column)
 		{
-		out.print("create index ");
+		StringBuilder b=new StringBuilder("create index ");
 
 		switch(this.engine)
 			{
 			case hsql:break;
-			default: out.print(" if not exists ");break;
+			default: b.append(" if not exists ");break;
 			}
 		
 		
-		out.print(" "+ (table+SUFFIX+"_"+column+"_IDX").toUpperCase() +
+		b.append(" "+ (table+SUFFIX+"_"+column+"_IDX").toUpperCase() +
 				" on "+table+SUFFIX+"("+column+");");
+		return b.toString();
 		}
 	
-	private void read(InputStream in,String filename)
+	private void read(InputStream in,String filename,RowSink sink)
 		throws IOException
 		{
 		//Pattern comma=Pattern.compile("[,]");
 		Pattern pipe=Pattern.compile("[\\|]");
 		Pattern amp=Pattern.compile("&");
 
-		out.println("insert into FILE"+SUFFIX+"(filename) values ("+quote(filename)+");");
+		sink.file(filename);
 		VcfIterator r=new VcfIterator(in);
 
 		VCFHeader header=r.getHeader();
@@ -349,18 +619,7 @@ public class VcfToSql extends CommandLineProgram
 		
 		for(String S:header.getSampleNamesInOrder())
 			{
-			//merge into SAMPLE using (select 1+MAX(id),'azdazd' from SAMPLE) as vals(x,y) on SAMPLE.name=vals.y when  NOT MATCHED THEN INSERT VALUES vals.x,vals.y;
-			switch(this.engine)
-				{
-				case hsql:out.println(
-						"merge into SAMPLE"+SUFFIX+" using ( values("+quote(S)+") ) " +
-						"AS vals(y) ON SAMPLE"+SUFFIX+".name = vals.y " +
-						"WHEN NOT MATCHED THEN INSERT VALUES  (NULL,vals.y);");
-						break;
-				default:out.println("insert or ignore into SAMPLE"+SUFFIX+"(name) values ("+quote(S)+");");break;
-				
-				}
-			
+			sink.sample(S);
 			}
 		
 		List<String> headers=new ArrayList<String>();
@@ -391,12 +650,7 @@ public class VcfToSql extends CommandLineProgram
 
          for(String line:headers)
          	{
- 			out.println(
-					"insert into HEADER"+SUFFIX+
-					"(file_id,header) values ("+
-					"(select max(id) from FILE"+SUFFIX+"),"+
-					quote(line)+");"
-					);
+ 			sink.header(line);
          	}
 		
 		
@@ -414,37 +668,26 @@ public class VcfToSql extends CommandLineProgram
 			//"create table if not exists VARIATION(id,file_id,chrom,pos,start0,end0,rs_id,ref,qual)";
 		
 			
-			out.println(
-					"insert into VARIATION"+SUFFIX+
-					"(file_id,chrom,pos,START0,END0,rs_id,ref,qual) values ("+
-					"(select max(id) from FILE"+SUFFIX+"),"+
-					quote(var.getChr())+","+
-					var.getStart()+","+
-					(var.getStart()-1)+","+
-					var.getEnd()+","+
-					(var.getID()==null || var.getID().equals(VCFConstants.EMPTY_ID_FIELD) ?"NULL":quote(var.getID()))+","+
-					quote(var.getReference().getDisplayString())+","+
-					(var.getPhredScaledQual()<0?"NULL":var.getPhredScaledQual())+");"
+			sink.variation(
+					var.getChr(),
+					var.getStart(),
+					var.getStart()-1,
+					var.getEnd(),
+					(var.getID()==null || var.getID().equals(VCFConstants.EMPTY_ID_FIELD) ?null:var.getID()),
+					var.getReference().getDisplayString(),
+					var.getPhredScaledQual()
 					);
 			//"create table if not exists ALT(id,var_id,alt)";
 
 			for(Allele alt: var.getAlternateAlleles())
 				{
-				out.println(
-						"insert into ALT"+SUFFIX+"(var_id,alt) values ("+
-						"(select max(id) from VARIATION"+SUFFIX+"),"+
-						quote(alt.getDisplayString())+");"
-						);
+				sink.alt(alt.getDisplayString());
 				}
 			//"create table if not exists FILTER(id,var_id,filter)";
 
 			for(String filter:var.getFilters())
 				{
-				out.println(
-						"insert into FILTER"+SUFFIX+"(var_id,filter) values ("+
-						"(select max(id) from VARIATION"+SUFFIX+"),"+
-						quote(filter)+");"
-						);
+				sink.filter(filter);
 				}
 			CommonInfo infos=var.getCommonInfo();
 			for(String key:infos.getAttributes().keySet())
@@ -455,14 +698,14 @@ public class VcfToSql extends CommandLineProgram
 				if(SPLIT4 && key.equals("DP4"))
 					{
 					String dp4[]=infotoString(val).split("[,]");
-					insertIntoInfo(quote(key+"[refFor]"),quote( dp4[0]));
-					insertIntoInfo(quote(key+"[refRev]"),quote( dp4[1]));
-					insertIntoInfo(quote(key+"[altFor]"),quote( dp4[2]));
-					insertIntoInfo(quote(key+"[altRev]"),quote( dp4[3]));
+					sink.info(key+"[refFor]", dp4[0]);
+					sink.info(key+"[refRev]", dp4[1]);
+					sink.info(key+"[altFor]", dp4[2]);
+					sink.info(key+"[altRev]", dp4[3]);
 					}
 				else
 					{
-					insertIntoInfo(quote(key),quote(infotoString(val)));
+					sink.info(key,infotoString(val));
 					}
 					
 				
@@ -494,7 +737,7 @@ public class VcfToSql extends CommandLineProgram
 								extraInfo.add(tokens[t]);
 								}
 							}
-						insertExtraInfos("CSQ",extraInfo);
+						insertExtraInfos(sink,"CSQ",extraInfo);
 						}
 					}
 				
@@ -518,7 +761,7 @@ public class VcfToSql extends CommandLineProgram
 							h.add(snpEffColumns[t]);
 							h.add(tokens[t]);
 							}
-						insertExtraInfos(key, h);	
+						insertExtraInfos(sink,key, h);	
 						}
 					}
 				
@@ -537,7 +780,7 @@ public class VcfToSql extends CommandLineProgram
 							h.add(nmdColumns[t]);
 							h.add(tokens[t]);
 							}
-						insertExtraInfos(key, h);
+						insertExtraInfos(sink,key, h);
 						}	
 					}
 				
@@ -556,7 +799,7 @@ public class VcfToSql extends CommandLineProgram
 							h.add(lofColumns[t]);
 							h.add(tokens[t]);
 							}
-						insertExtraInfos(key, h);
+						insertExtraInfos(sink,key, h);
 						}	
 					}
 				
@@ -569,46 +812,36 @@ public class VcfToSql extends CommandLineProgram
 				
 				List<Allele> alleles=g.getAlleles();
 				
-				out.println(
-						"insert into GENOTYPE"+SUFFIX+
-						"(var_id,sample_id,A1,A2,dp,ad,gq,pl," +
-						"is_phased,is_hom,is_homref,is_homvar,is_mixed," +
-						"is_nocall,is_noninformative,is_available,is_called,is_filtered"+
-						") values ("+
-						"(select max(id) from VARIATION"+SUFFIX+"),"+
-						"(select id from SAMPLE"+SUFFIX+" where name="+quote(g.getSampleName())+"),"+
-						(alleles.size()==2?quote(alleles.get(0).getBaseString()):"NULL")+","+
-						(alleles.size()==2?quote(alleles.get(1).getBaseString()):"NULL")+","+
-						(g.hasDP()?g.getDP():"NULL")+","+
-						(g.hasAD()?quote(infotoString(g.getAD())):"NULL")+","+
-						(g.hasGQ()?g.getGQ():"NULL")+","+
-						(g.hasPL()?quote(infotoString(g.getPL())):"NULL")+","+
-						(g.isPhased()?1:0)+","+
-						(g.isHom()?1:0)+","+
-						(g.isHomRef()?1:0)+","+
-						(g.isHomVar()?1:0)+","+
-						(g.isMixed()?1:0)+","+
-						(g.isNoCall()?1:0)+","+
-						(g.isNonInformative()?1:0)+","+
-						(g.isAvailable()?1:0)+","+
-						(g.isCalled()?1:0)+","+
-						(g.isFiltered()?1:0)+");"
-						);
+				sink.genotype(
+						g.getSampleName(),
+						(alleles.size()==2?alleles.get(0).getBaseString():null),
+						(alleles.size()==2?alleles.get(1).getBaseString():null),
+						(g.hasDP()?g.getDP():null),
+						(g.hasAD()?infotoString(g.getAD()):null),
+						(g.hasGQ()?g.getGQ():null),
+						(g.hasPL()?infotoString(g.getPL()):null),
+						new int[]{
+						(g.isPhased()?1:0),
+						(g.isHom()?1:0),
+						(g.isHomRef()?1:0),
+						(g.isHomVar()?1:0),
+						(g.isMixed()?1:0),
+						(g.isNoCall()?1:0),
+						(g.isNonInformative()?1:0),
+						(g.isAvailable()?1:0),
+						(g.isCalled()?1:0),
+						(g.isFiltered()?1:0)
+						});
 				
 				for(String key:g.getExtendedAttributes().keySet())
 					{
 					Object val=g.getExtendedAttribute(key);
 					if(val==null) continue;
-					out.println(
-							"insert into GTPROP"+SUFFIX+"(genotype_id,k,v) values ("+
-							"(select max(id) from GENOTYPE"+SUFFIX+"),"+
-							quote(key)+","+
-							quote(infotoString(val))+");"
-							);
+					sink.gtProp(key,infotoString(val));
 					}
 
 				}
-			
+			sink.endVariant();
 			}
 		r.close();
 		}
@@ -630,7 +863,8 @@ public class VcfToSql extends CommandLineProgram
 		b.append("\'");
 		return b.toString();
 		}
-	private void insertExtraInfos(String type,List<String> h)
+	private void insertExtraInfos(RowSink sink,String type,List<String> h)
+		throws IOException
 		{
 		boolean first=true;
 		for(int i=0;i+1< h.size();i+=2)
@@ -639,22 +873,12 @@ public class VcfToSql extends CommandLineProgram
 			if(first)
 				{
 				
-				out.println(
-						"insert into EXTRAINFO"+SUFFIX+"(info_id,type) values ("+
-						"(select max(id) from INFO"+SUFFIX+"),"+
-						quote(type)+
-						");"
-						);
+				sink.extraInfo(type);
 				first=false;
 	
 				}
 			
-			out.println(
-					"insert into EXTRAINFOPROP"+SUFFIX+"(extrainfo_id,k,v) values ("+
-					"(select max(id) from EXTRAINFO"+SUFFIX+"),"+
-					quote(h.get(i))+","+
-					quote(h.get(i+1))+");"
-					);
+			sink.extraInfoProp(h.get(i),h.get(i+1));
 			}
 
 		}
@@ -704,15 +928,6 @@ public class VcfToSql extends CommandLineProgram
 			}
 		return o.toString();
 		}
-	private void insertIntoInfo(String key,String val)
-		{
-		out.println(
-				"insert into INFO"+SUFFIX+"(var_id,k,v) values ("+
-				"(select max(id) from VARIATION"+SUFFIX+"),"+
-				key+","+
-				val+");"
-				);
-		}
 
 	public static void main(String[] args)
 		{
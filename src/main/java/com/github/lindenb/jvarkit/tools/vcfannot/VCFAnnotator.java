@@ -20,9 +20,12 @@ import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
-import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Pattern;
 
 import net.sf.picard.reference.IndexedFastaSequenceFile;
@@ -47,6 +50,7 @@ import com.github.lindenb.jvarkit.util.picard.SAMSequenceDictionaryProgress;
 import com.github.lindenb.jvarkit.util.picard.SamSequenceRecordTreeMap;
 import com.github.lindenb.jvarkit.util.so.SequenceOntologyTree;
 import com.github.lindenb.jvarkit.util.ucsc.KnownGene;
+import com.github.lindenb.jvarkit.util.ucsc.KnownGeneIndex;
 import com.github.lindenb.jvarkit.util.vcf.AbstractVCFFilter2;
 import com.github.lindenb.jvarkit.util.vcf.VcfIterator;
 
@@ -66,29 +70,40 @@ public class VCFAnnotator extends AbstractVCFFilter2
 	private boolean print_SO_ACN=false;
 	private String kgURI=DEFAULT_KG_URI;
 
+	private int nThreads=1;
+	private int batchSize=1000;
 	private SamSequenceRecordTreeMap<KnownGene> knownGenes=null;
+	/** memory-mapped index, used instead of 'knownGenes' when kgURI is a binary index */
+	private KnownGeneIndex knownGeneIndex=null;
 	private IndexedFastaSequenceFile indexedFastaSequenceFile=null;
 	
 	
 	
+	/** the wild cDNA with (at most) one substituted base. Reused between the annotations */
 	private static class MutedSequence extends DelegateCharSequence
 		{
-		private Map<Integer, Character> pos2char=new TreeMap<Integer, Character>();
+		private int mutPos=-1;
+		private char mutBase='N';
 		MutedSequence(CharSequence wild)
 			{
 			super(wild);
 			}
 		
+		void reset()
+			{
+			this.mutPos=-1;
+			}
+		
 		void put(int pos,char c)
 			{
-			this.pos2char.put(pos, c);
+			this.mutPos=pos;
+			this.mutBase=c;
 			}
 		
 		@Override
 		public char charAt(int i)
 			{
-			Character c= pos2char.get(i);
-			return c==null?getDelegate().charAt(i):c;
+			return i==this.mutPos?this.mutBase:getDelegate().charAt(i);
 			}
 		
 		}
@@ -171,6 +186,13 @@ public class VCFAnnotator extends AbstractVCFFilter2
 	
 	private void loadKnownGenesFromUri() throws IOException
 		{
+		if(KnownGeneIndex.isKnownGeneIndex(this.kgURI))
+			{
+			info("opening knownGene index "+this.kgURI);
+			this.knownGeneIndex=new KnownGeneIndex(new File(this.kgURI));
+			info("genes:"+this.knownGeneIndex.size());
+			return;
+			}
 		int n_genes=0;
 		this.knownGenes=new SamSequenceRecordTreeMap<KnownGene>(
 				this.indexedFastaSequenceFile.getSequenceDictionary()
@@ -223,64 +245,67 @@ public class VCFAnnotator extends AbstractVCFFilter2
 	public static final String TAG="PRED";
 	public static enum FORMAT1{TRANSCRIPT,CDNAPOS,PROTPOS,CODON,AA,SEQONTOLOGY};
 	
-	@Override
-	protected void doWork(VcfIterator r, VariantContextWriter w)
-		throws IOException
-		{	
-		GenomicSequence genomicSequence=null;
-		info("opening REF:"+REF);
-		final String TAG="PRED";
-		this.indexedFastaSequenceFile=new IndexedFastaSequenceFile(REF);
-		loadKnownGenesFromUri();
-		VCFHeader header=(VCFHeader)r.getHeader();
-		
-		
-		VCFHeader h2=new VCFHeader(header.getMetaDataInInputOrder(),header.getSampleNamesInOrder());
-		h2.addMetaDataLine(new VCFHeaderLine(getClass().getSimpleName()+"Version",getVersion()));
-		h2.addMetaDataLine(new VCFHeaderLine(getClass().getSimpleName()+"CmdLine",String.valueOf(getProgramCommandLine())));
-		
-		StringBuilder format=new StringBuilder();
-		for(FORMAT1 f:FORMAT1.values())
+	/** annotates the variants. Each worker thread owns its own Annotator: its own handle
+	 * on the REFERENCE, its own GenomicSequence and its own cDNA buffers. The transcripts
+	 * are shared and only read. */
+	private class Annotator implements Callable<Void>
+		{
+		private final IndexedFastaSequenceFile indexedFastaSequenceFile;
+		private GenomicSequence genomicSequence=null;
+		/** reusable cDNA buffer */
+		private final StringBuilder wildRNABuffer=new StringBuilder();
+		private final MutedSequence mutRNABuffer=new MutedSequence(this.wildRNABuffer);
+		private final SequenceOntologyTree soTree=SequenceOntologyTree.getInstance();
+		private final SequenceOntologyTree.Term so_intron=soTree.getTermByAcn("SO:0001627");
+		private final SequenceOntologyTree.Term so_exon=soTree.getTermByAcn("SO:0001791");
+		private final SequenceOntologyTree.Term so_splice_donor=soTree.getTermByAcn("SO:0001575");
+		private final SequenceOntologyTree.Term so_splice_acceptor=soTree.getTermByAcn("SO:0001574");
+		private final SequenceOntologyTree.Term so_5_prime_UTR_variant=soTree.getTermByAcn("SO:0001623");
+		private final SequenceOntologyTree.Term so_3_prime_UTR_variant=soTree.getTermByAcn("SO:0001624");
+		private final SequenceOntologyTree.Term so_splicing_variant=soTree.getTermByAcn("SO:0001568");
+		private final SequenceOntologyTree.Term so_stop_lost=soTree.getTermByAcn("SO:0001578");
+		private final SequenceOntologyTree.Term so_stop_gained=soTree.getTermByAcn("SO:0001587");
+		private final SequenceOntologyTree.Term so_coding_synonymous=soTree.getTermByAcn("SO:0001819");
+		private final SequenceOntologyTree.Term so_coding_non_synonymous=soTree.getTermByAcn("SO:0001583");
+		private final SequenceOntologyTree.Term so_intergenic=soTree.getTermByAcn("SO:0001628");
+		private final SequenceOntologyTree.Term so_nc_transcript_variant=soTree.getTermByAcn("SO:0001619");
+		private final SequenceOntologyTree.Term so_non_coding_exon_variant=soTree.getTermByAcn("SO:0001792");
+		/* batch of variants to be annotated by call() */
+		private List<VariantContext> batch;
+		private VariantContext annotated[];
+		private int beg;
+		private int end;
+
+		Annotator(IndexedFastaSequenceFile indexedFastaSequenceFile)
 			{
-			if(format.length()>0) format.append("|"); 
-			 format.append(f.name()); 
+			this.indexedFastaSequenceFile=indexedFastaSequenceFile;
 			}
-		
-		h2.addMetaDataLine(new VCFInfoHeaderLine(TAG, VCFHeaderLineCount.UNBOUNDED, VCFHeaderLineType.String,
-				"Prediction from "+getClass().getSimpleName()+
-				". Format: "+format
-				));
-		
-		
-        w.writeHeader(h2);
 
-		
-		SequenceOntologyTree soTree=SequenceOntologyTree.getInstance();
-		final SequenceOntologyTree.Term so_intron=soTree.getTermByAcn("SO:0001627");
-		final SequenceOntologyTree.Term so_exon=soTree.getTermByAcn("SO:0001791");
-		final SequenceOntologyTree.Term so_splice_donor=soTree.getTermByAcn("SO:0001575");
-		final SequenceOntologyTree.Term so_splice_acceptor=soTree.getTermByAcn("SO:0001574");
-		final SequenceOntologyTree.Term so_5_prime_UTR_variant=soTree.getTermByAcn("SO:0001623");
-		final SequenceOntologyTree.Term so_3_prime_UTR_variant=soTree.getTermByAcn("SO:0001624");
-		final SequenceOntologyTree.Term so_splicing_variant=soTree.getTermByAcn("SO:0001568");
-		final SequenceOntologyTree.Term so_stop_lost=soTree.getTermByAcn("SO:0001578");
-		final SequenceOntologyTree.Term so_stop_gained=soTree.getTermByAcn("SO:0001587");
-		final SequenceOntologyTree.Term so_coding_synonymous=soTree.getTermByAcn("SO:0001819");
-		final SequenceOntologyTree.Term so_coding_non_synonymous=soTree.getTermByAcn("SO:0001583");
-		final SequenceOntologyTree.Term so_intergenic=soTree.getTermByAcn("SO:0001628");
-		final SequenceOntologyTree.Term so_nc_transcript_variant=soTree.getTermByAcn("SO:0001619");
-		final SequenceOntologyTree.Term so_non_coding_exon_variant=soTree.getTermByAcn("SO:0001792");
+		@Override
+		public Void call()
+			{
+			for(int i=beg;i< end;++i)
+				{
+				this.annotated[i]=annotate(this.batch.get(i));
+				}
+			return null;
+			}
 
-		SAMSequenceDictionaryProgress progress=new SAMSequenceDictionaryProgress(header.getSequenceDictionary());
-		while(r.hasNext())
+		VariantContext annotate(VariantContext ctx)
 			{
-			VariantContext ctx=r.next();
-			
-			progress.watch(ctx.getChr(), ctx.getStart());
-			
-			List<KnownGene> genes=this.knownGenes.getOverlapping(
-					ctx.getChr(), ctx.getStart(), ctx.getEnd() //1-based
-					);
+			List<KnownGene> genes;
+			if(knownGeneIndex!=null)
+				{
+				genes=knownGeneIndex.getOverlapping(
+						ctx.getChr(), ctx.getStart()-1, ctx.getEnd() //0-based
+						);
+				}
+			else
+				{
+				genes=knownGenes.getOverlapping(
+						ctx.getChr(), ctx.getStart(), ctx.getEnd() //1-based
+						);
+				}
 			List<Annotation> ctx_annotations=new ArrayList<Annotation>();
 			if(genes==null || genes.isEmpty())
 				{
@@ -294,7 +319,7 @@ public class VCFAnnotator extends AbstractVCFFilter2
 				if(genomicSequence==null || !genomicSequence.getChrom().equals(ctx.getChr()))
 					{
 					info("getting genomic Sequence for "+ctx.getChr());
-					genomicSequence=new GenomicSequence(this.indexedFastaSequenceFile, ctx.getChr());
+					this.genomicSequence=new GenomicSequence(this.indexedFastaSequenceFile, ctx.getChr());
 					}
 				
 				for(KnownGene gene:genes)
@@ -371,8 +396,10 @@ public class VCFAnnotator extends AbstractVCFFilter2
 			        					
 			        					if(wildRNA==null)
 			        						{
-			        						wildRNA=new StringBuilder();
-			        						mutRNA=new MutedSequence(wildRNA);
+			        						wildRNA=this.wildRNABuffer;
+			        						wildRNA.setLength(0);
+			        						mutRNA=this.mutRNABuffer;
+			        						mutRNA.reset();
 			        						}
 			        					
 			        					if(i==position)
@@ -487,8 +514,10 @@ public class VCFAnnotator extends AbstractVCFFilter2
 			            				
 			            				if(wildRNA==null)
 			        						{
-			        						wildRNA=new StringBuilder();
-			        						mutRNA=new MutedSequence(wildRNA);
+			        						wildRNA=this.wildRNABuffer;
+			        						wildRNA.setLength(0);
+			        						mutRNA=this.mutRNABuffer;
+			        						mutRNA.reset();
 			        						}
 			            				
 			            				if(i==position)
@@ -620,8 +649,124 @@ public class VCFAnnotator extends AbstractVCFFilter2
 			
 			VariantContextBuilder vb=new VariantContextBuilder(ctx);
 			vb.attribute(TAG, info.toArray());
-			w.add(vb.make());
+			return vb.make();
+			}
+		}
+	
+	/** multi-threaded mode: variants are read by batches, each batch is split between the workers,
+	 * the annotated variants are written in the input order */
+	private void doWorkMultiThread(VcfIterator r, VariantContextWriter w,SAMSequenceDictionaryProgress progress)
+		throws IOException
+		{
+		ExecutorService executor=Executors.newFixedThreadPool(this.nThreads);
+		List<Annotator> workers=new ArrayList<Annotator>(this.nThreads);
+		try
+			{
+			for(int i=0;i< this.nThreads;++i)
+				{
+				workers.add(new Annotator(new IndexedFastaSequenceFile(REF)));
+				}
+			List<VariantContext> batch=new ArrayList<VariantContext>(this.batchSize);
+			VariantContext annotated[]=new VariantContext[this.batchSize];
+			List<Future<Void>> futures=new ArrayList<Future<Void>>(this.nThreads);
+			for(;;)
+				{
+				batch.clear();
+				while(r.hasNext() && batch.size()< this.batchSize)
+					{
+					VariantContext ctx=r.next();
+					progress.watch(ctx.getChr(), ctx.getStart());
+					batch.add(ctx);
+					}
+				if(batch.isEmpty()) break;
+				int chunk=(batch.size()+this.nThreads-1)/this.nThreads;
+				futures.clear();
+				for(int i=0;i< workers.size();++i)
+					{
+					Annotator worker=workers.get(i);
+					worker.batch=batch;
+					worker.annotated=annotated;
+					worker.beg=Math.min(batch.size(),i*chunk);
+					worker.end=Math.min(batch.size(),worker.beg+chunk);
+					if(worker.beg>=worker.end) break;
+					futures.add(executor.submit(worker));
+					}
+				for(Future<Void> future:futures)
+					{
+					future.get();
+					}
+				for(int i=0;i< batch.size();++i)
+					{
+					w.add(annotated[i]);
+					annotated[i]=null;
+					}
+				}
+			}
+		catch(ExecutionException err)
+			{
+			throw new IOException(err.getCause());
+			}
+		catch(InterruptedException err)
+			{
+			throw new IOException(err);
+			}
+		finally
+			{
+			executor.shutdownNow();
+			for(Annotator worker:workers)
+				{
+				CloserUtil.close(worker.indexedFastaSequenceFile);
+				}
+			}
+		}
+	
+	@Override
+	protected void doWork(VcfIterator r, VariantContextWriter w)
+		throws IOException
+		{	
+		info("opening REF:"+REF);
+		final String TAG="PRED";
+		this.indexedFastaSequenceFile=new IndexedFastaSequenceFile(REF);
+		loadKnownGenesFromUri();
+		VCFHeader header=(VCFHeader)r.getHeader();
+		
+		
+		VCFHeader h2=new VCFHeader(header.getMetaDataInInputOrder(),header.getSampleNamesInOrder());
+		h2.addMetaDataLine(new VCFHeaderLine(getClass().getSimpleName()+"Version",getVersion()));
+		h2.addMetaDataLine(new VCFHeaderLine(getClass().getSimpleName()+"CmdLine",String.valueOf(getProgramCommandLine())));
+		
+		StringBuilder format=new StringBuilder();
+		for(FORMAT1 f:FORMAT1.values())
+			{
+			if(format.length()>0) format.append("|"); 
+			 format.append(f.name()); 
+			}
+		
+		h2.addMetaDataLine(new VCFInfoHeaderLine(TAG, VCFHeaderLineCount.UNBOUNDED, VCFHeaderLineType.String,
+				"Prediction from "+getClass().getSimpleName()+
+				". Format: "+format
+				));
+		
+		
+        w.writeHeader(h2);
+
+		
+		SAMSequenceDictionaryProgress progress=new SAMSequenceDictionaryProgress(header.getSequenceDictionary());
+		if(this.nThreads>1)
+			{
+			doWorkMultiThread(r,w,progress);
+			}
+		else
+			{
+			Annotator annotator=new Annotator(this.indexedFastaSequenceFile);
+			while(r.hasNext())
+				{
+				VariantContext ctx=r.next();
+				progress.watch(ctx.getChr(), ctx.getStart());
+				w.add(annotator.annotate(ctx));
+				}
 			}
+		CloserUtil.close(this.knownGeneIndex);
 		CloserUtil.close(this.indexedFastaSequenceFile);
 		}
 	
@@ -639,8 +784,11 @@ public class VCFAnnotator extends AbstractVCFFilter2
 	public void printOptions(PrintStream out) {
 		out.println(" -R (file) indexed Fasta genome REFERENCE.");
 		out.println(" -k (uri) KnownGene data URI/File. should look like"+ DEFAULT_KG_URI+"" +
+				" or a binary index created with KnownGenesToIndex (*"+KnownGeneIndex.SUFFIX+")"+
 				" . Beware chromosome names are formatted the same as your REFERENCE.");
 		out.println(" -T Print SO:term accession rather than label");
+		out.println(" -p (int) number of threads. Default:"+this.nThreads);
+		out.println(" -N (int) number of variants per batch when using more than one thread. Default:"+this.batchSize);
 		super.printOptions(out);
 		}
 	
@@ -650,13 +798,15 @@ public class VCFAnnotator extends AbstractVCFFilter2
 		{
 		com.github.lindenb.jvarkit.util.cli.GetOpt opt=new com.github.lindenb.jvarkit.util.cli.GetOpt();
 		int c;
-		while((c=opt.getopt(args,getGetOptDefault()+"R:k:T"))!=-1)
+		while((c=opt.getopt(args,getGetOptDefault()+"R:k:Tp:N:"))!=-1)
 			{
 			switch(c)
 				{
 				case 'R': this.REF=new File(opt.getOptArg());break;
 				case 'k': this.kgURI=opt.getOptArg();break;
 				case 'T': this.print_SO_ACN=true;break;
+				case 'p': this.nThreads=Math.max(1,Integer.parseInt(opt.getOptArg()));break;
+				case 'N': this.batchSize=Math.max(1,Integer.parseInt(opt.getOptArg()));break;
 				default:
 					{
 					switch(handleOtherOptions(c, opt, null))
@@ -47,6 +47,7 @@ import com.github.lindenb.jvarkit.util.bio.GeneticCode;
 import com.github.lindenb.jvarkit.util.picard.GenomicSequence;
 import com.github.lindenb.jvarkit.util.picard.SAMSequenceDictionaryProgress;
 import com.github.lindenb.jvarkit.util.ucsc.KnownGene;
+import com.github.lindenb.jvarkit.util.ucsc.KnownGeneIndex;
 import com.github.lindenb.jvarkit.util.vcf.AbstractVCFFilter2;
 import com.github.lindenb.jvarkit.util.vcf.VcfIterator;
 
@@ -66,6 +67,8 @@ public class VCFStopCodon extends AbstractVCFFilter2
 	private String kgURI=DEFAULT_KG_URI;
 
 	private Map<String,List<KnownGene>> knownGenes=null;
+	/** memory-mapped index, genes are loaded one chromosome at a time when kgURI is a binary index */
+	private KnownGeneIndex knownGeneIndex=null;
 	private IndexedFastaSequenceFile indexedFastaSequenceFile=null;
 	private GenomicSequence genomicSequence=null;
 	
@@ -125,6 +128,19 @@ public class VCFStopCodon extends AbstractVCFFilter2
 		int n_genes=0;
 		SAMSequenceDictionary dict=this.indexedFastaSequenceFile.getSequenceDictionary();
 		this.knownGenes=new HashMap<String, List<KnownGene>>(dict.size());
+		if(KnownGeneIndex.isKnownGeneIndex(this.kgURI))
+			{
+			info("opening knownGene index "+this.kgURI);
+			this.knownGeneIndex=new KnownGeneIndex(new File(this.kgURI));
+			for(String chrom:this.knownGeneIndex.getChromosomes())
+				{
+				if(dict.getSequence(chrom)==null)
+					{
+					warning("The reference "+REF+" doesn't contain chromosome "+chrom);
+					}
+				}
+			return;
+			}
 		for(SAMSequenceRecord ssr:dict.getSequences())
 			{
 			this.knownGenes.put(ssr.getSequenceName(), new ArrayList<KnownGene>());
@@ -169,6 +185,21 @@ public class VCFStopCodon extends AbstractVCFFilter2
 		info("genes:"+n_genes);
 		}
 	
+	/** returns the coding genes on 'chrom' sorted on txStart, or null if chrom is not in the REFERENCE */
+	private List<KnownGene> getKnownGenes(String chrom)
+		{
+		if(this.knownGeneIndex==null) return this.knownGenes.get(chrom);
+		if(this.indexedFastaSequenceFile.getSequenceDictionary().getSequence(chrom)==null) return null;
+		List<KnownGene> L=new ArrayList<KnownGene>();
+		for(KnownGene g:this.knownGeneIndex.getKnownGenes(chrom))
+			{
+			if(g.isNonCoding()) continue;
+			L.add(g);
+			}
+		info("genes on "+chrom+":"+L.size());
+		return L;
+		}
+	
 	
 	
 	private static class Variant
@@ -243,8 +274,10 @@ public class VCFStopCodon extends AbstractVCFFilter2
 				}
 
 			
+			List<KnownGene> genesOnChrom=(ctx.getChr().equals(currChrom)?null:getKnownGenes(ctx.getChr()));
+			
 			//unknown chromosome
-			if(!this.knownGenes.containsKey(ctx.getChr()))
+			if(!ctx.getChr().equals(currChrom) && genesOnChrom==null)
 				{
 				while(!variantStack.isEmpty())
 					{
@@ -263,7 +296,7 @@ public class VCFStopCodon extends AbstractVCFFilter2
 					dump(w,variantStack.removeFirst());
 					}
 				currChrom=ctx.getChr();
-				currListOfGenes=new ArrayList<KnownGene>(this.knownGenes.get(currChrom));
+				currListOfGenes=new ArrayList<KnownGene>(genesOnChrom);
 				}
 			
 			Variant variant=new Variant();
@@ -316,6 +349,7 @@ public class VCFStopCodon extends AbstractVCFFilter2
 			{
 			dump(w,variantStack.removeFirst());
 			}
+		CloserUtil.close(this.knownGeneIndex);
 		}
 	
 	private void challenge(List<Variant> L,KnownGene gene) throws IOException
@@ -486,6 +520,7 @@ public class VCFStopCodon extends AbstractVCFFilter2
 	public void printOptions(PrintStream out) {
 		out.println(" -R (file) indexed Fasta genome REFERENCE.");
 		out.println(" -k (uri) KnownGene data URI/File. should look like"+ DEFAULT_KG_URI+"" +
+				" or a binary index created with KnownGenesToIndex (*"+KnownGeneIndex.SUFFIX+")"+
 				" . Beware chromosome names are formatted the same as your REFERENCE.");
 		super.printOptions(out);
 		}
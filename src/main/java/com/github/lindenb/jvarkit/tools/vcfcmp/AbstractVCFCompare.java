@@ -7,10 +7,14 @@ import java.io.IOException;
 import java.io.PrintStream;
 import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 
+import net.sf.samtools.SAMSequenceDictionary;
+import net.sf.samtools.util.CloseableIterator;
 import net.sf.samtools.util.CloserUtil;
+import net.sf.samtools.util.SequenceUtil;
 import net.sf.samtools.util.SortingCollection;
 
 import org.broad.tribble.readers.LineIterator;
@@ -33,6 +37,8 @@ public abstract class AbstractVCFCompare extends AbstractCommandLineProgram
 	{
 	protected List<Input> inputs=new ArrayList<Input>();
 	protected SortingCollectionFactory<LineAndFile> factory=new SortingCollectionFactory<LineAndFile>();
+	/** the inputs are sorted: use mergeSorted() instead of a SortingCollection */
+	protected boolean inputsAreSorted=false;
 
 	protected class Input
 		{
@@ -153,12 +159,13 @@ public abstract class AbstractVCFCompare extends AbstractCommandLineProgram
 	public void printOptions(PrintStream out) {
 		out.println(" -M (int) Max records in RAM. Optional.");
 		out.println(" -T (dir) add temporary directory. Optional");
+		out.println(" -s the VCFs are sorted on the same sequence dictionary: single-pass merge-join, no temporary file. The order is checked. Optional");
 		super.printOptions(out);
 		}
 	
 	@Override
 	protected String getGetOptDefault() {
-		return super.getGetOptDefault()+"M:T:";
+		return super.getGetOptDefault()+"M:T:s";
 		}
 	
 	protected Comparator<LineAndFile> createLineAndFileComparator()
@@ -209,21 +216,20 @@ public abstract class AbstractVCFCompare extends AbstractCommandLineProgram
 		return line;
 		}
 	
-	protected Input put(SortingCollection<LineAndFile> variants, String vcfUri)
+	protected LineIterator openLineIterator(String vcfUri)
 		throws IOException
 		{
-		info("begin inserting "+vcfUri);
-		LineIterator iter=null;
 		if(vcfUri==null)
 			{
-			vcfUri="stdin";
-			iter=new LineIteratorImpl(LineReaderUtil.fromBufferedStream(System.in));
+			return new LineIteratorImpl(LineReaderUtil.fromBufferedStream(System.in));
 			}
-		else
-			{
-			iter=IOUtils.openFileForLineIterator(new File(vcfUri));
-			}
-		
+		return IOUtils.openFileForLineIterator(new File(vcfUri));
+		}
+	
+	/** reads the header of a VCF and registers a new Input */
+	protected Input readHeader(String vcfUri,LineIterator iter)
+		throws IOException
+		{
 		List<String> headerLines=new ArrayList<String>();
 		while(iter.hasNext() && iter.peek().startsWith("#"))
 			{
@@ -233,6 +239,16 @@ public abstract class AbstractVCFCompare extends AbstractCommandLineProgram
 		Input input=createInput(vcfUri, headerLines);
 		input.file_id=this.inputs.size();
 		this.inputs.add(input);
+		return input;
+		}
+	
+	protected Input put(SortingCollection<LineAndFile> variants, String vcfUri)
+		throws IOException
+		{
+		info("begin inserting "+vcfUri);
+		LineIterator iter=openLineIterator(vcfUri);
+		if(vcfUri==null) vcfUri="stdin";
+		Input input=readHeader(vcfUri, iter);
 		SAMSequenceDictionaryProgress progress=new SAMSequenceDictionaryProgress(input.header.getSequenceDictionary());
 		while(iter.hasNext())
 			{
@@ -250,6 +266,159 @@ public abstract class AbstractVCFCompare extends AbstractCommandLineProgram
 		return input;
 		}
 	
+	/** a coordinate-sorted input, read in a single pass by the merge-join */
+	private class SortedInput
+		{
+		Input input;
+		LineIterator iter;
+		SAMSequenceDictionary dict;
+		SAMSequenceDictionaryProgress progress;
+		LineAndFile next=null;
+		int nextTid=-1;
+		int nextPos=-1;
+		
+		/** returns the next variant without consuming it. Checks the order of the input */
+		LineAndFile peek()
+			{
+			if(this.next!=null) return this.next;
+			if(!this.iter.hasNext()) return null;
+			LineAndFile laf=new LineAndFile();
+			laf.fileIdx=this.input.file_id;
+			laf.line=simplify(this.iter.next(),laf.fileIdx);
+			String chrom=laf.getChrom();
+			int tid=this.dict.getSequenceIndex(chrom);
+			if(tid<0) throw new IllegalStateException("unknown chromosome not in sequence dictionary: "+chrom+" in "+this.input.filename);
+			int pos=laf.getStart();
+			if(tid< this.nextTid || (tid==this.nextTid && pos< this.nextPos))
+				{
+				throw new IllegalStateException(this.input.filename+" is not sorted: "+chrom+":"+pos+
+						". Do not use the option -s with unsorted files.");
+				}
+			this.progress.watch(chrom, pos);
+			this.input.count++;
+			this.next=laf;
+			this.nextTid=tid;
+			this.nextPos=pos;
+			return laf;
+			}
+		
+		LineAndFile next()
+			{
+			LineAndFile laf=peek();
+			this.next=null;
+			return laf;
+			}
+		}
+	
+	/**
+	 * merge-join of coordinate-sorted inputs: returns the variants in the order of the sequence
+	 * dictionary, the variants having the same CHROM/POS/REF are consecutive, in the order of the inputs.
+	 * Only the variants at the current position are kept in memory.
+	 */
+	private class MergeJoinIterator
+		implements CloseableIterator<LineAndFile>
+		{
+		private final List<SortedInput> sortedInputs;
+		private final List<LineAndFile> block=new ArrayList<LineAndFile>();
+		private int blockIndex=0;
+		private final Comparator<LineAndFile> refComparator=new Comparator<LineAndFile>()
+			{
+			@Override
+			public int compare(LineAndFile o1, LineAndFile o2)
+				{
+				return o1.getReference().compareToIgnoreCase(o2.getReference());
+				}
+			};
+		
+		MergeJoinIterator(List<SortedInput> sortedInputs)
+			{
+			this.sortedInputs=sortedInputs;
+			}
+		
+		@Override
+		public boolean hasNext()
+			{
+			if(this.blockIndex< this.block.size()) return true;
+			this.block.clear();
+			this.blockIndex=0;
+			int tid=-1;
+			int pos=-1;
+			for(SortedInput in:this.sortedInputs)
+				{
+				if(in.peek()==null) continue;
+				if(tid==-1 || in.nextTid< tid || (in.nextTid==tid && in.nextPos< pos))
+					{
+					tid=in.nextTid;
+					pos=in.nextPos;
+					}
+				}
+			if(tid==-1) return false;
+			for(SortedInput in:this.sortedInputs)
+				{
+				while(in.peek()!=null && in.nextTid==tid && in.nextPos==pos)
+					{
+					this.block.add(in.next());
+					}
+				}
+			/* stable: the order of the inputs is kept */
+			if(this.block.size()>1) Collections.sort(this.block,this.refComparator);
+			return true;
+			}
+		
+		@Override
+		public LineAndFile next()
+			{
+			if(!hasNext()) throw new IllegalStateException();
+			return this.block.get(this.blockIndex++);
+			}
+		
+		@Override
+		public void remove()
+			{
+			throw new UnsupportedOperationException();
+			}
+		
+		@Override
+		public void close()
+			{
+			for(SortedInput in:this.sortedInputs)
+				{
+				in.progress.finish();
+				info("end reading "+in.input.filename+" N="+in.input.count);
+				CloserUtil.close(in.iter);
+				}
+			}
+		}
+	
+	/**
+	 * opens coordinate-sorted VCFs (null for stdin) sharing the same sequence dictionary
+	 * and returns an iterator over their merged variants, in a single pass and without temporary file.
+	 */
+	protected CloseableIterator<LineAndFile> mergeSorted(List<String> vcfUris)
+		throws IOException
+		{
+		List<SortedInput> sortedInputs=new ArrayList<SortedInput>(vcfUris.size());
+		for(String vcfUri:vcfUris)
+			{
+			SortedInput in=new SortedInput();
+			in.iter=openLineIterator(vcfUri);
+			in.input=readHeader(vcfUri==null?"stdin":vcfUri,in.iter);
+			in.dict=in.input.header.getSequenceDictionary();
+			if(in.dict==null || in.dict.isEmpty())
+				{
+				throw new IOException("Sequence dictionary missing in "+in.input.filename+": cannot use option -s");
+				}
+			if(!sortedInputs.isEmpty() &&
+				!SequenceUtil.areSequenceDictionariesEqual(sortedInputs.get(0).dict, in.dict))
+				{
+				throw new IOException("Not the same Sequence dictionaries "+sortedInputs.get(0).input.filename+" / "+in.input.filename);
+				}
+			in.progress=new SAMSequenceDictionaryProgress(in.dict);
+			sortedInputs.add(in);
+			}
+		return new MergeJoinIterator(sortedInputs);
+		}
+	
 	@Override
 	protected GetOptStatus
 		handleOtherOptions(int c, GetOpt opt, String[] args)
@@ -258,6 +427,7 @@ public abstract class AbstractVCFCompare extends AbstractCommandLineProgram
 			{
 			case 'M': factory.setMaxRecordsInRAM(Math.max(1,Integer.parseInt(opt.getOptArg()))); return GetOptStatus.OK;
 			case 'T': super.addTmpDirectory(new File(opt.getOptArg())) ; return GetOptStatus.OK;
+			case 's': this.inputsAreSorted=true; return GetOptStatus.OK;
 			default: return super.handleOtherOptions(c, opt, args);
 			}
 		}
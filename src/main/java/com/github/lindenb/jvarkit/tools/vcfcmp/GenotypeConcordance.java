@@ -0,0 +1,224 @@
+package com.github.lindenb.jvarkit.tools.vcfcmp;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Pairwise concordance of the genotypes of N call sets sharing the same samples.
+ * For each site, the genotype of each sample in each file is coded on 2 bits
+ * (0: not called, 1 to 3: one of the distinct genotypes of this site) and packed in a long[]
+ * (32 samples per long): the counts of a pair of files come from bitwise operations
+ * and Long.bitCount. The rare sites having more than 3 distinct genotypes are compared sample by sample.
+ * The counters of the samples are only incremented for the sparse events (not called in both files,
+ * discordant, called in one file) .
+ */
+class GenotypeConcordance
+	{
+	public static final int NO_CALL=0;
+	/** max number of distinct genotypes at a site that can be packed on 2 bits */
+	public static final int MAX_PACKED_CODE=3;
+	private static final long LOW_BITS=0x5555555555555555L;
+	private final int nFiles;
+	private final int nSamples;
+	private final int nWords;
+	/** low bit of each sample in the last word */
+	private final long lastWordMask;
+	private final long packed[][];
+	private long nSites=0L;
+	private long nUnpackedSites=0L;
+	/* counters for each pair of files */
+	private final long pairBoth[];
+	private final long pairDiscordant[];
+	private final long pairOnly1[];
+	private final long pairOnly2[];
+	/* counters for each pair of files and each sample */
+	private final int notBoth[][];
+	private final int discordant[][];
+	private final int only1[][];
+	private final int only2[][];
+
+	GenotypeConcordance(int nFiles,int nSamples)
+		{
+		this.nFiles=nFiles;
+		this.nSamples=nSamples;
+		this.nWords=Math.max(1,(nSamples+31)/32);
+		int remain=nSamples-(this.nWords-1)*32;
+		this.lastWordMask=(remain>=32?LOW_BITS:LOW_BITS & ((1L<<(2*remain))-1L));
+		this.packed=new long[nFiles][this.nWords];
+		int nPairs=(nFiles*(nFiles-1))/2;
+		this.pairBoth=new long[nPairs];
+		this.pairDiscordant=new long[nPairs];
+		this.pairOnly1=new long[nPairs];
+		this.pairOnly2=new long[nPairs];
+		this.notBoth=new int[nPairs][nSamples];
+		this.discordant=new int[nPairs][nSamples];
+		this.only1=new int[nPairs][nSamples];
+		this.only2=new int[nPairs][nSamples];
+		}
+
+	/** increments counts[sample] for each low bit set in 'bits' */
+	private static void incrementSamples(int counts[],int word,long bits)
+		{
+		while(bits!=0L)
+			{
+			counts[(word<<5)+(Long.numberOfTrailingZeros(bits)>>1)]++;
+			bits&=(bits-1L);
+			}
+		}
+
+	/**
+	 * adds a site.
+	 * @param codes the code of the genotype of each sample in each file: codes[file][sample]
+	 * @param maxCode the greatest code in 'codes'
+	 */
+	void addSite(int codes[][],int maxCode)
+		{
+		++this.nSites;
+		if(maxCode>MAX_PACKED_CODE)
+			{
+			++this.nUnpackedSites;
+			addUnpackedSite(codes);
+			return;
+			}
+		for(int f=0;f< this.nFiles;++f)
+			{
+			long words[]=this.packed[f];
+			Arrays.fill(words, 0L);
+			int row[]=codes[f];
+			for(int s=0;s< this.nSamples;++s)
+				{
+				words[s>>5]|=((long)row[s])<<((s&31)<<1);
+				}
+			}
+		int pair=0;
+		for(int f1=0;f1< this.nFiles;++f1)
+			{
+			long a[]=this.packed[f1];
+			for(int f2=f1+1;f2< this.nFiles;++f2)
+				{
+				long b[]=this.packed[f2];
+				int both=0,disc=0,o1=0,o2=0;
+				for(int w=0;w< this.nWords;++w)
+					{
+					long mask=(w+1==this.nWords?this.lastWordMask:LOW_BITS);
+					long calledA=(a[w]|(a[w]>>>1))&LOW_BITS;
+					long calledB=(b[w]|(b[w]>>>1))&LOW_BITS;
+					long calledBoth=calledA&calledB;
+					long diff=a[w]^b[w];
+					long discBits=calledBoth&(diff|(diff>>>1));
+					long only1Bits=calledA&~calledB;
+					long only2Bits=calledB&~calledA;
+					both+=Long.bitCount(calledBoth);
+					disc+=Long.bitCount(discBits);
+					o1+=Long.bitCount(only1Bits);
+					o2+=Long.bitCount(only2Bits);
+					incrementSamples(this.notBoth[pair],w,mask&~calledBoth);
+					incrementSamples(this.discordant[pair],w,discBits);
+					incrementSamples(this.only1[pair],w,only1Bits);
+					incrementSamples(this.only2[pair],w,only2Bits);
+					}
+				this.pairBoth[pair]+=both;
+				this.pairDiscordant[pair]+=disc;
+				this.pairOnly1[pair]+=o1;
+				this.pairOnly2[pair]+=o2;
+				++pair;
+				}
+			}
+		}
+
+	private void addUnpackedSite(int codes[][])
+		{
+		int pair=0;
+		for(int f1=0;f1< this.nFiles;++f1)
+			{
+			for(int f2=f1+1;f2< this.nFiles;++f2)
+				{
+				for(int s=0;s< this.nSamples;++s)
+					{
+					int c1=codes[f1][s];
+					int c2=codes[f2][s];
+					if(c1==NO_CALL || c2==NO_CALL)
+						{
+						this.notBoth[pair][s]++;
+						if(c1!=NO_CALL)
+							{
+							this.only1[pair][s]++;
+							this.pairOnly1[pair]++;
+							}
+						else if(c2!=NO_CALL)
+							{
+							this.only2[pair][s]++;
+							this.pairOnly2[pair]++;
+							}
+						continue;
+						}
+					this.pairBoth[pair]++;
+					if(c1!=c2)
+						{
+						this.discordant[pair][s]++;
+						this.pairDiscordant[pair]++;
+						}
+					}
+				++pair;
+				}
+			}
+		}
+
+	long getSiteCount()
+		{
+		return this.nSites;
+		}
+
+	long getUnpackedSiteCount()
+		{
+		return this.nUnpackedSites;
+		}
+
+	private static void print(PrintStream out,String file1,String file2,String sample,long both,long disc,long o1,long o2)
+		{
+		out.print(file1);
+		out.print('\t');
+		out.print(file2);
+		out.print('\t');
+		out.print(sample);
+		out.print('\t');
+		out.print(both);
+		out.print('\t');
+		out.print(both-disc);
+		out.print('\t');
+		out.print(disc);
+		out.print('\t');
+		out.print(o1);
+		out.print('\t');
+		out.print(o2);
+		out.print('\t');
+		out.print(both==0L?".":String.format("%.4f",(both-disc)/(double)both));
+		out.println();
+		}
+
+	/** prints a table of the concordance for each pair of files and each sample */
+	void print(PrintStream out,List<String> files,List<String> samples)
+		{
+		out.println("#FILE1\tFILE2\tSAMPLE\tCALLED_BOTH\tCONCORDANT\tDISCORDANT\tONLY_FILE1\tONLY_FILE2\tCONCORDANCE");
+		int pair=0;
+		for(int f1=0;f1< this.nFiles;++f1)
+			{
+			for(int f2=f1+1;f2< this.nFiles;++f2)
+				{
+				print(out,files.get(f1),files.get(f2),"*",
+					this.pairBoth[pair],this.pairDiscordant[pair],this.pairOnly1[pair],this.pairOnly2[pair]);
+				for(int s=0;s< this.nSamples;++s)
+					{
+					print(out,files.get(f1),files.get(f2),samples.get(s),
+						this.nSites-this.notBoth[pair][s],
+						this.discordant[pair][s],
+						this.only1[pair][s],
+						this.only2[pair][s]);
+					}
+				++pair;
+				}
+			}
+		out.flush();
+		}
+	}
@@ -93,29 +93,46 @@ public class VCFComm extends AbstractVCFCompare {
 			Set<VCFHeaderLine> metaData=new HashSet<VCFHeaderLine>();
 			
 			final LineAndFileComparator posCompare=new LineAndFileComparator();
-
-			factory.setComponentType(LineAndFile.class);
-			factory.setComparator(posCompare);
-			factory.setTmpDirs(this.getTmpDirectories());
-			factory.setCodec(new LineAndFileCodec());
-			variants=this.factory.make();
-			variants.setDestructiveIteration(true);
-			
+			CloseableIterator<LineAndFile> iter=null;
 			List<String> newSampleNames=new ArrayList<>();
 			Set<String> sampleSet=new HashSet<String>();
+			List<String> filenames=new ArrayList<String>();
 			for(int i=opt.getOptInd();i< args.length;++i)
 				{
 				String filename=args[i];
-				info("Reading from "+filename);
-				Input input=super.put(variants, filename);
+				filenames.add(filename);
 				String sampleName="f"+(1+i-opt.getOptInd());
 				newSampleNames.add(sampleName);
 				metaData.add(new VCFHeaderLine(sampleName,filename));
+				}
+			
+			if(super.inputsAreSorted)
+				{
+				/* single pass merge-join of the sorted files */
+				iter=super.mergeSorted(filenames);
+				for(Input input:super.inputs)
+					{
+					sampleSet.addAll(input.header.getSampleNamesInOrder());
+					}
+				}
+			else
+				{
+				factory.setComponentType(LineAndFile.class);
+				factory.setComparator(posCompare);
+				factory.setTmpDirs(this.getTmpDirectories());
+				factory.setCodec(new LineAndFileCodec());
+				variants=this.factory.make();
+				variants.setDestructiveIteration(true);
 				
-				sampleSet.addAll(input.header.getSampleNamesInOrder());
-					
+				for(String filename:filenames)
+					{
+					info("Reading from "+filename);
+					Input input=super.put(variants, filename);
+					sampleSet.addAll(input.header.getSampleNamesInOrder());
+					}
+				variants.doneAdding();
+				iter=variants.iterator();
 				}
-			variants.doneAdding();
 			
 			String theSampleName=null;
 			if(sampleSet.size()==1)
@@ -148,9 +165,6 @@ public class VCFComm extends AbstractVCFCompare {
 			w.writeHeader(header);
 			List<LineAndFile> row=new ArrayList<LineAndFile>(super.inputs.size());
 			
-			
-			CloseableIterator<LineAndFile> iter=variants.iterator();
-			
 			for(;;)
 				{
 				LineAndFile rec=null;
@@ -6,16 +6,24 @@ import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.logging.Level;
 
+import net.sf.picard.PicardException;
+import net.sf.samtools.SAMSequenceDictionary;
 import net.sf.samtools.util.CloseableIterator;
+import net.sf.samtools.util.CloserUtil;
+import net.sf.samtools.util.SequenceUtil;
 import net.sf.samtools.util.SortingCollection;
 
 import org.broadinstitute.variant.variantcontext.Allele;
@@ -136,6 +144,200 @@ public class VCFCompareGT extends AbstractCommandLineProgram
 		}
 	
 	
+	/** one sorted input of the concordance mode */
+	private static class ConcordanceInput
+		{
+		int fileIndex;
+		String filename;
+		VcfIterator iter;
+		SAMSequenceDictionary dict;
+		int prevTid=-1;
+		int prevStart=-1;
+		
+		/** returns the next variant or null. Checks that the file is sorted */
+		VariantContext peek()
+			{
+			if(!this.iter.hasNext()) return null;
+			VariantContext ctx=this.iter.peek();
+			int tid=tid(ctx);
+			if(tid< this.prevTid || (tid==this.prevTid && ctx.getStart()< this.prevStart))
+				{
+				throw new PicardException(this.filename+" is not sorted: "+ctx.getChr()+":"+ctx.getStart());
+				}
+			this.prevTid=tid;
+			this.prevStart=ctx.getStart();
+			return ctx;
+			}
+		
+		int tid(VariantContext ctx)
+			{
+			int tid=this.dict.getSequenceIndex(ctx.getChr());
+			if(tid<0) throw new PicardException("unknown chromosome not in sequence dictionary: "+ctx.getChr()+" in "+this.filename);
+			return tid;
+			}
+		}
+	
+	/** a variant of one file at the current position */
+	private static class SiteVariant
+		{
+		int fileIndex;
+		VariantContext ctx;
+		SiteVariant(int fileIndex,VariantContext ctx)
+			{
+			this.fileIndex=fileIndex;
+			this.ctx=ctx;
+			}
+		}
+	
+	/** same CHROM/POS/END/REF as PosComparator; the position is the same in a block */
+	private static int compareSite(VariantContext v1,VariantContext v2)
+		{
+		int i=v1.getEnd()-v2.getEnd();
+		if(i!=0) return i;
+		return v1.getReference().getBaseString().compareToIgnoreCase(v2.getReference().getBaseString());
+		}
+	
+	/** sorted, uppercase alleles of a genotype, or null if the genotype is ignored (as in the VCF mode) */
+	private static String genotypeKey(Genotype genotype)
+		{
+		if(!genotype.isAvailable()) return null;
+		if(!genotype.isCalled()) return null;
+		if(genotype.isNoCall()) return null;
+		List<Allele> alleles=genotype.getAlleles();
+		if(alleles==null) return null;
+		if(alleles.size()==1)
+			{
+			String a1=alleles.get(0).getBaseString().toUpperCase();
+			return a1+"/"+a1;
+			}
+		else if(alleles.size()==2)
+			{
+			String a1=alleles.get(0).getBaseString().toUpperCase();
+			String a2=alleles.get(1).getBaseString().toUpperCase();
+			return a1.compareTo(a2)>0?a2+"/"+a1:a1+"/"+a2;
+			}
+		return null;
+		}
+	
+	/**
+	 * concordance mode: the VCFs are sorted on the same dictionary, they are read in parallel
+	 * and the genotypes of each site are compared with a GenotypeConcordance.
+	 */
+	private int doWorkConcordance(List<String> filenames)
+		{
+		List<ConcordanceInput> inputs=new ArrayList<ConcordanceInput>();
+		try
+			{
+			List<String> samples=new ArrayList<String>();
+			final Map<String,Integer> sample2index=new HashMap<String,Integer>();
+			for(String filename:filenames)
+				{
+				getLogger().info("Opening "+filename);
+				ConcordanceInput input=new ConcordanceInput();
+				input.fileIndex=inputs.size();
+				input.filename=filename;
+				input.iter=new VcfIterator(IOUtils.openFileForReading(new File(filename)));
+				inputs.add(input);
+				VCFHeader header=input.iter.getHeader();
+				input.dict=header.getSequenceDictionary();
+				if(input.dict==null || input.dict.isEmpty()) throw new PicardException("dictionary missing in "+filename);
+				if(!SequenceUtil.areSequenceDictionariesEqual(inputs.get(0).dict, input.dict))
+					{
+					throw new PicardException("Not the same Sequence dictionaries "+filenames.get(0)+" / "+filename);
+					}
+				for(String sample:header.getSampleNamesInOrder())
+					{
+					if(sample2index.containsKey(sample)) continue;
+					sample2index.put(sample, samples.size());
+					samples.add(sample);
+					}
+				}
+			GenotypeConcordance concordance=new GenotypeConcordance(inputs.size(), samples.size());
+			int codes[][]=new int[inputs.size()][samples.size()];
+			Map<String,Integer> genotype2code=new HashMap<String,Integer>();
+			List<SiteVariant> block=new ArrayList<SiteVariant>();
+			Comparator<SiteVariant> siteCmp=new Comparator<SiteVariant>()
+				{
+				@Override
+				public int compare(SiteVariant o1, SiteVariant o2)
+					{
+					return compareSite(o1.ctx,o2.ctx);
+					}
+				};
+			for(;;)
+				{
+				/* find the smallest position */
+				int tid=-1;
+				int start=-1;
+				for(ConcordanceInput input:inputs)
+					{
+					VariantContext ctx=input.peek();
+					if(ctx==null) continue;
+					int tid1=input.tid(ctx);
+					if(tid==-1 || tid1< tid || (tid1==tid && ctx.getStart()< start))
+						{
+						tid=tid1;
+						start=ctx.getStart();
+						}
+					}
+				if(tid==-1) break;
+				/* all the variants at this position */
+				block.clear();
+				for(ConcordanceInput input:inputs)
+					{
+					VariantContext ctx;
+					while((ctx=input.peek())!=null && input.tid(ctx)==tid && ctx.getStart()==start)
+						{
+						input.iter.next();
+						if(ctx.getReference()==null || ctx.getReference().isSymbolic()) continue;
+						if(!ctx.hasGenotypes()) continue;
+						block.add(new SiteVariant(input.fileIndex,ctx));
+						}
+					}
+				Collections.sort(block,siteCmp);
+				int i=0;
+				while(i< block.size())
+					{
+					int j=i+1;
+					while(j< block.size() && compareSite(block.get(i).ctx,block.get(j).ctx)==0) ++j;
+					for(int row[]:codes) Arrays.fill(row,GenotypeConcordance.NO_CALL);
+					genotype2code.clear();
+					for(int k=i;k< j;++k)
+						{
+						SiteVariant sv=block.get(k);
+						int row[]=codes[sv.fileIndex];
+						for(Genotype genotype:sv.ctx.getGenotypes())
+							{
+							String key=genotypeKey(genotype);
+							if(key==null) continue;
+							Integer code=genotype2code.get(key);
+							if(code==null)
+								{
+								code=genotype2code.size()+1;
+								genotype2code.put(key,code);
+								}
+							row[sample2index.get(genotype.getSampleName())]=code;
+							}
+						}
+					concordance.addSite(codes, genotype2code.size());
+					i=j;
+					}
+				}
+			getLogger().info("sites: "+concordance.getSiteCount()+" compared sample by sample: "+concordance.getUnpackedSiteCount());
+			concordance.print(System.out, filenames, samples);
+			return 0;
+			}
+		catch(Exception err)
+			{
+			getLogger().log(Level.SEVERE, ""+err.getMessage(),err);
+			return -1;
+			}
+		finally
+			{
+			for(ConcordanceInput input:inputs) CloserUtil.close(input.iter);
+			}
+		}
+	
 	private VCFCompareGT()
 		{
 		}
@@ -145,6 +347,7 @@ public class VCFCompareGT extends AbstractCommandLineProgram
 		out.println(" -M (int) Max recods in RAM. Optional.");
 		out.println(" -T (dir) add temporary directory. Optional");
 		out.println(" -m only print modified samples. Optional");
+		out.println(" -c print a table of the pairwise concordance of the genotypes instead of a VCF. The VCFs must be sorted on the same sequence dictionary. Optional");
 		super.printOptions(out);
 		}
 	
@@ -153,15 +356,17 @@ public class VCFCompareGT extends AbstractCommandLineProgram
 		{
 		SortingCollectionFactory<Variant> factory=new SortingCollectionFactory<Variant>();
 		boolean only_print_modified=false;
+		boolean concordance_mode=false;
 		GetOpt getopt=new GetOpt();
 		int c;
-		while((c=getopt.getopt(args, super.getGetOptDefault()+"M:T:m"))!=-1)
+		while((c=getopt.getopt(args, super.getGetOptDefault()+"M:T:mc"))!=-1)
 			{
 			switch(c)
 				{
 				case 'M': factory.setMaxRecordsInRAM(Math.max(1,Integer.parseInt(getopt.getOptArg())));break;
 				case 'T': this.addTmpDirectory(new File(getopt.getOptArg()));break;
 				case 'm': only_print_modified=true; break;
+				case 'c': concordance_mode=true; break;
 				default:
 					{
 					switch(super.handleOtherOptions(c, getopt, args))
@@ -178,6 +383,12 @@ public class VCFCompareGT extends AbstractCommandLineProgram
 			System.err.println("VCF missing.");
 			return -1;
 			}
+		if(concordance_mode)
+			{
+			List<String> filenames=new ArrayList<String>();
+			for(int i=getopt.getOptInd();i< args.length;++i) filenames.add(args[i]);
+			return doWorkConcordance(filenames);
+			}
 		VariantComparator varcmp=new VariantComparator();
 		factory.setCodec(new VariantCodec());
 		factory.setComponentType(Variant.class);
@@ -1,10 +1,16 @@
 package com.github.lindenb.jvarkit.tools.vcfcmp;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.EnumSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.regex.Pattern;
 
+import org.broad.tribble.readers.LineIterator;
+
 import org.broadinstitute.variant.variantcontext.writer.Options;
 import org.broadinstitute.variant.variantcontext.writer.VariantContextWriter;
 import org.broadinstitute.variant.variantcontext.writer.VariantContextWriterFactory;
@@ -15,6 +21,10 @@ import net.sf.samtools.util.CloseableIterator;
 import net.sf.samtools.util.CloserUtil;
 import net.sf.samtools.util.SortingCollection;
 
+import com.github.lindenb.jvarkit.io.IOUtils;
+import com.github.lindenb.jvarkit.util.BloomFilter;
+import com.github.lindenb.jvarkit.util.tabix.TabixFileReader;
+
 
 public class VcfIn extends AbstractVCFCompare
 	{
@@ -39,6 +49,7 @@ public class VcfIn extends AbstractVCFCompare
 	public void printOptions(java.io.PrintStream out)
 		{
 		out.println(" -v : inverse. Print variant that are not part of the VCF-database.");
+		out.println(" -B (file) bloom filter of the VCF-database. Created from the VCF-database if it doesn't exist or if it was created from another or a modified VCF-database. The VCF-database must be indexed with tabix: the variants rejected by the bloom filter are never searched in the VCF-database. Optional.");
 		super.printOptions(out);
 		}
 	
@@ -56,17 +67,148 @@ public class VcfIn extends AbstractVCFCompare
 		return line;
 		}
 	
+	/** key of a variant in the bloom filter: CHROM/POS/REF as in LineAndFileComparator */
+	private static String bloomKey(String chrom,String pos,String ref)
+		{
+		return chrom+":"+pos+":"+ref.toUpperCase();
+		}
+	
+	/** path, size and date of the VCF-database: saved in the bloom filter to detect an outdated filter */
+	private static String bloomSource(String databaseUri) throws IOException
+		{
+		File f=new File(databaseUri);
+		return f.getCanonicalPath()+"\t"+f.length()+"\t"+f.lastModified();
+		}
+	
+	/** creates the bloom filter of the VCF-database */
+	private BloomFilter createBloomFilter(String databaseUri,File bloomFile)
+		throws IOException
+		{
+		info("Counting the variants in "+databaseUri);
+		long n=0L;
+		LineIterator lit=IOUtils.openURIForLineIterator(databaseUri);
+		while(lit.hasNext())
+			{
+			if(!lit.next().startsWith("#")) ++n;
+			}
+		CloserUtil.close(lit);
+		info("Creating bloom filter "+bloomFile+" for "+n+" variants");
+		BloomFilter bloom=new BloomFilter(n,0.01);
+		lit=IOUtils.openURIForLineIterator(databaseUri);
+		while(lit.hasNext())
+			{
+			String line=lit.next();
+			if(line.startsWith("#")) continue;
+			String tokens[]=tab.split(line,5);
+			bloom.add(bloomKey(tokens[0],tokens[1],tokens[3]));
+			}
+		CloserUtil.close(lit);
+		bloom.setSource(bloomSource(databaseUri));
+		bloom.save(bloomFile);
+		return bloom;
+		}
+	
+	/**
+	 * single pass over the user VCF: the variants rejected by the bloom filter are not in the
+	 * VCF-database, the other variants are searched in the VCF-database with tabix.
+	 */
+	private int doWorkWithBloomFilter(String databaseUri,String userUri,File bloomFile,boolean print_in_both_file)
+		{
+		TabixFileReader database=null;
+		LineIterator lit=null;
+		VariantContextWriter vcw=null;
+		try
+			{
+			if(!new File(databaseUri+".tbi").exists())
+				{
+				error("The VCF-database "+databaseUri+" must be indexed with tabix when using a bloom filter.");
+				return -1;
+				}
+			BloomFilter bloom;
+			if(bloomFile.exists())
+				{
+				info("Loading bloom filter "+bloomFile);
+				bloom=BloomFilter.load(bloomFile);
+				if(!bloomSource(databaseUri).equals(bloom.getSource()))
+					{
+					/* created from another or an older VCF-database: it would reject some variants of the database */
+					warning("The bloom filter "+bloomFile+" was not created from the current "+databaseUri+" ("+bloom.getSource()+"). Rebuilding it.");
+					bloom=createBloomFilter(databaseUri,bloomFile);
+					}
+				}
+			else
+				{
+				bloom=createBloomFilter(databaseUri,bloomFile);
+				}
+			database=new TabixFileReader(databaseUri);
+			lit=super.openLineIterator(userUri);
+			Input input=super.readHeader(userUri==null?"stdin":userUri, lit);
+			VCFHeader header=input.header;
+			vcw = VariantContextWriterFactory.create(System.out, header.getSequenceDictionary(), EnumSet.noneOf(Options.class));
+			header.addMetaDataLine(new VCFHeaderLine(getClass().getSimpleName()+"CmdLine",String.valueOf(getProgramCommandLine())));
+			header.addMetaDataLine(new VCFHeaderLine(getClass().getSimpleName()+"Version",String.valueOf(getVersion())));
+			vcw.writeHeader(header);
+			long n_rejected=0L;
+			long n_false_positives=0L;
+			int n_printed=0;
+			while(lit.hasNext())
+				{
+				String line=lit.next();
+				String tokens[]=tab.split(line,5);
+				boolean found=false;
+				if(!bloom.mightContain(bloomKey(tokens[0],tokens[1],tokens[3])))
+					{
+					n_rejected++;
+					}
+				else
+					{
+					Iterator<String> r=database.iterator(tokens[0],Integer.parseInt(tokens[1]),Integer.parseInt(tokens[1]));
+					while(r.hasNext())
+						{
+						String tokens2[]=tab.split(r.next(),5);
+						if(tokens2[1].equals(tokens[1]) && tokens2[3].equalsIgnoreCase(tokens[3]))
+							{
+							found=true;
+							break;
+							}
+						}
+					if(!found) n_false_positives++;
+					}
+				if(found==print_in_both_file)
+					{
+					vcw.add(input.codec.decode(line));
+					n_printed++;
+					}
+				}
+			info("Done. N="+n_printed+" rejected by the bloom filter:"+n_rejected+" false positives:"+n_false_positives);
+			return 0;
+			}
+		catch(Exception err)
+			{
+			error(err);
+			return -1;
+			}
+		finally
+			{
+			CloserUtil.close(vcw);
+			CloserUtil.close(lit);
+			CloserUtil.close(database);
+			}
+		}
+	
 	@Override
 	public int doWork(String[] args)
 		{
 		boolean print_in_both_file=true;
+		File bloomFile=null;
 		com.github.lindenb.jvarkit.util.cli.GetOpt opt=new com.github.lindenb.jvarkit.util.cli.GetOpt();
 		int c;
-		while((c=opt.getopt(args,getGetOptDefault()+"v"))!=-1)
+		while((c=opt.getopt(args,getGetOptDefault()+"vB:"))!=-1)
 			{
 			switch(c)
 				{
 				case 'v': print_in_both_file=false;break;
+				case 'B': bloomFile=new File(opt.getOptArg());break;
 				default:
 					{
 					switch(handleOtherOptions(c, opt,args))
@@ -84,30 +226,46 @@ public class VcfIn extends AbstractVCFCompare
 		try
 			{
 			final LineAndFileComparator posCompare=new LineAndFileComparator();
-
-			
-			factory.setComponentType(LineAndFile.class);
-			factory.setComparator(posCompare);
-			factory.setTmpDirs(this.getTmpDirectories());
-			factory.setCodec(new LineAndFileCodec());
-			variants=this.factory.make();
-			variants.setDestructiveIteration(true);
-			Input inputs[]=new Input[2];
+			String databaseUri;
+			String userUri;
 			if(opt.getOptInd()+1 == args.length)
 				{
-				inputs[DATABASE_VCF]=super.put(variants, args[opt.getOptInd()]);
-				inputs[USER_VCF]=super.put(variants, null);
+				databaseUri=args[opt.getOptInd()];
+				userUri=null;
 				}
 			else if(opt.getOptInd()+2 == args.length)
 				{
-				inputs[DATABASE_VCF]=super.put(variants, args[opt.getOptInd()+0]);
-				inputs[USER_VCF]=super.put(variants, args[opt.getOptInd()+1]);
+				databaseUri=args[opt.getOptInd()+0];
+				userUri=args[opt.getOptInd()+1];
 				}
 			else
 				{
 				error("Illegal number of arguments.");
 				return -1;
 				}
+			if(bloomFile!=null)
+				{
+				return doWorkWithBloomFilter(databaseUri,userUri,bloomFile,print_in_both_file);
+				}
+			CloseableIterator<LineAndFile> iter;
+			if(super.inputsAreSorted)
+				{
+				/* single pass merge-join of the sorted files */
+				iter=super.mergeSorted(Arrays.asList(databaseUri,userUri));
+				}
+			else
+				{
+				factory.setComponentType(LineAndFile.class);
+				factory.setComparator(posCompare);
+				factory.setTmpDirs(this.getTmpDirectories());
+				factory.setCodec(new LineAndFileCodec());
+				variants=this.factory.make();
+				variants.setDestructiveIteration(true);
+				super.put(variants, databaseUri);
+				super.put(variants, userUri);
+				variants.doneAdding();
+				iter=variants.iterator();
+				}
 			VCFHeader header=super.inputs.get(1).header;
 			vcw = VariantContextWriterFactory.create(System.out, header.getSequenceDictionary(), EnumSet.noneOf(Options.class));
 			
@@ -117,8 +275,6 @@ public class VcfIn extends AbstractVCFCompare
 			
 			List<LineAndFile> row=new ArrayList<LineAndFile>(super.inputs.size());
 			
-			
-			CloseableIterator<LineAndFile> iter=variants.iterator();
 			int n_printed=0;
 			for(;;)
 				{
@@ -5,8 +5,10 @@ import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.io.Reader;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.regex.Pattern;
@@ -36,6 +38,7 @@ import com.github.lindenb.jvarkit.lang.Function;
 import com.github.lindenb.jvarkit.util.biomart.BiomartQuery;
 import com.github.lindenb.jvarkit.util.cli.GetOpt;
 import com.github.lindenb.jvarkit.util.doid.DiseaseOntoglogyTree;
+import com.github.lindenb.jvarkit.util.ontology.OntologySnapshot;
 import com.github.lindenb.jvarkit.util.picard.IntervalTreeMapFactory;
 import com.github.lindenb.jvarkit.util.picard.SamSequenceRecordTreeMap;
 import com.github.lindenb.jvarkit.util.vcf.AbstractVCFFilter2;
@@ -49,6 +52,8 @@ public abstract class AbstractVCFDiseaseOntology
 	protected String DOI_ANN="http://dga.nubic.northwestern.edu/ajax/Download.ajax.php?exportType=ids";
 	/*  used to reduce the number of mapped genes */
 	protected File REF=null;
+	/* binary snapshot of the ontology and of the annotations */
+	protected File SNAPSHOT=null;
 	
 	
 	protected DiseaseOntoglogyTree diseaseOntoglogyTree;
@@ -65,13 +70,14 @@ public abstract class AbstractVCFDiseaseOntology
 		out.println(" -D (url) Disease Ontology OWL file/URI. default:"+DOI_INPUT);
 		out.println(" -A (url) Disease Annotations. default:"+DOI_ANN);
 		out.println(" -R (fasta) Indexed  Genome Reference.");
+		out.println(" -S (file) binary snapshot of the ontology and the annotations. Loaded instead of -D and -A when it is up to date, created otherwise.");
 		super.printOptions(out);
 		}
 	
 	@Override
 	protected String getGetOptDefault()
 		{
-		return super.getGetOptDefault()+"D:A:R:";
+		return super.getGetOptDefault()+"D:A:R:S:";
 		}
 	@Override
 	protected GetOptStatus handleOtherOptions(int c, GetOpt opt, String[] args)
@@ -81,6 +87,7 @@ public abstract class AbstractVCFDiseaseOntology
 			case 'D': DOI_INPUT=opt.getOptArg(); return GetOptStatus.OK;
 			case 'A': DOI_ANN=opt.getOptArg(); return GetOptStatus.OK;
 			case 'R': REF=new File(opt.getOptArg());return GetOptStatus.OK;
+			case 'S': SNAPSHOT=new File(opt.getOptArg());return GetOptStatus.OK;
 			default:return super.handleOtherOptions(c, opt, args);
 			}
 		
@@ -184,6 +191,48 @@ public abstract class AbstractVCFDiseaseOntology
 			}
 		}
 	
+	/** loads the ontology and the annotations from SNAPSHOT if it is up to date, or from DOI_INPUT and DOI_ANN; the snapshot is then (re)created */
+	protected void readDiseaseOntoglogyTreeAndAnnotations() throws IOException
+		{
+		List<String> sources=Arrays.asList(DOI_INPUT,DOI_ANN);
+		if(SNAPSHOT!=null && SNAPSHOT.exists())
+			{
+			OntologySnapshot snapshot=new OntologySnapshot(SNAPSHOT);
+			try
+				{
+				if(snapshot.isUpToDate(sources))
+					{
+					this.info("read DOID snapshot "+SNAPSHOT);
+					Map<String,Set<DiseaseOntoglogyTree.Term>> annotations=new HashMap<String,Set<DiseaseOntoglogyTree.Term>>();
+					this.diseaseOntoglogyTree=DiseaseOntoglogyTree.readSnapshot(snapshot, annotations);
+					for(String geneId:annotations.keySet())
+						{
+						this.gene2doid.put(Integer.parseInt(geneId), annotations.get(geneId));
+						}
+					this.info("DOID size:"+diseaseOntoglogyTree.size()+" genes:"+gene2doid.size());
+					return;
+					}
+				this.info("snapshot "+SNAPSHOT+" is stale");
+				}
+			finally
+				{
+				snapshot.close();
+				}
+			}
+		readDiseaseOntoglogyTree();
+		readDiseaseOntoglogyAnnotations();
+		if(SNAPSHOT!=null)
+			{
+			this.info("writing DOID snapshot "+SNAPSHOT);
+			Map<String,Set<DiseaseOntoglogyTree.Term>> annotations=new HashMap<String,Set<DiseaseOntoglogyTree.Term>>(this.gene2doid.size());
+			for(Integer geneId:this.gene2doid.keySet())
+				{
+				annotations.put(String.valueOf(geneId), this.gene2doid.get(geneId));
+				}
+			this.diseaseOntoglogyTree.writeSnapshot(SNAPSHOT, sources, annotations);
+			}
+		}
+	
 	protected void loadEnsemblProtein() throws IOException
 		{
 	
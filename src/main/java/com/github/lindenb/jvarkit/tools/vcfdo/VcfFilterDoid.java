@@ -38,7 +38,7 @@ public class VcfFilterDoid
 	protected void doWork(VcfIterator r, VariantContextWriter w)
 			throws IOException
 		{
-		super.readDiseaseOntoglogyTree();
+		super.readDiseaseOntoglogyTreeAndAnnotations();
 		Set<DiseaseOntoglogyTree.Term> positive_terms=new HashSet<DiseaseOntoglogyTree.Term>(CHILD_OF.size());
 		for(String acn:CHILD_OF)
 			{
@@ -55,7 +55,6 @@ public class VcfFilterDoid
 		VCFHeader header=r.getHeader();
 
 		
-		super.readDiseaseOntoglogyAnnotations();
 		super.loadEntrezGenes(header.getSequenceDictionary());
 		
 
@@ -9,6 +9,14 @@ package com.github.lindenb.jvarkit.tools.vcffilterjs;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.script.Bindings;
 import javax.script.Compilable;
@@ -20,6 +28,7 @@ import javax.script.ScriptException;
 
 import com.github.lindenb.jvarkit.util.picard.SAMSequenceDictionaryProgress;
 import com.github.lindenb.jvarkit.util.vcf.AbstractVCFFilter2;
+import com.github.lindenb.jvarkit.util.vcf.VCFUtils;
 import com.github.lindenb.jvarkit.util.vcf.VcfIterator;
 
 import org.broadinstitute.variant.variantcontext.VariantContext;
@@ -35,13 +44,152 @@ public class VCFFilterJS extends AbstractVCFFilter2
 	
 	private CompiledScript  script=null;
 	private ScriptEngine engine=null;
+	/** source of the script, each worker compiles its own copy */
+	private String scriptSource=null;
+	/** number of threads */
+	private int nThreads=1;
+	/** number of variants per batch in multi-threaded mode */
+	private int batchSize=10000;
+	
 	private VCFFilterJS()
 		{
 		
 		}
 	
+	/** convert the value returned by the script to a boolean */
+	private boolean accept(Object result)
+		{
+		if(result==null) return false;
+		if(result instanceof Boolean)
+			{
+			return Boolean.TRUE.equals(result);
+			}
+		else if(result instanceof Number)
+			{
+			return ((Number)result).intValue()==1;
+			}
+		else
+			{
+			warning("Script returned something that is not a boolean or a number:"+result.getClass());
+			return false;
+			}
+		}
 	
+	/** a worker owns its own script engine, compiled script and bindings.
+	 * It evaluates a slice [beg,end[ of the current batch */
+	private class ScriptWorker implements Callable<Void>
+		{
+		private CompiledScript script;
+		private Bindings bindings;
+		private List<VariantContext> batch;
+		private boolean accepted[];
+		private int beg;
+		private int end;
+		
+		ScriptWorker(VCFHeader header) throws ScriptException
+			{
+			ScriptEngine engine=new ScriptEngineManager().getEngineByName("js");
+			if(engine==null)
+				{
+				throw new ScriptException("not available: javascript.");
+				}
+			this.script=((Compilable)engine).compile(VCFFilterJS.this.scriptSource);
+			this.bindings=engine.createBindings();
+			this.bindings.put("header", header);
+			}
+		
+		@Override
+		public Void call() throws ScriptException
+			{
+			for(int i=beg;i< end;++i)
+				{
+				this.bindings.put("variant", batch.get(i));
+				this.accepted[i]=accept(this.script.eval(this.bindings));
+				}
+			return null;
+			}
+		}
 	
+	/** multi-threaded mode: variants are read by batches, each batch is split
+	 * between the workers, accepted variants are written in the input order */
+	private void doWorkMultiThread(VcfIterator r, VariantContextWriter w,
+			VCFHeader header,SAMSequenceDictionaryProgress progress)
+			throws IOException
+		{
+		ExecutorService executor=Executors.newFixedThreadPool(this.nThreads);
+		try
+			{
+			List<ScriptWorker> workers=new ArrayList<ScriptWorker>(this.nThreads);
+			for(int i=0;i< this.nThreads;++i)
+				{
+				workers.add(new ScriptWorker(header));
+				}
+			List<VariantContext> batch=new ArrayList<VariantContext>(this.batchSize);
+			boolean accepted[]=new boolean[this.batchSize];
+			List<Future<Void>> futures=new ArrayList<Future<Void>>(this.nThreads);
+			long nBatches=0L;
+			for(;;)
+				{
+				batch.clear();
+				while(r.hasNext() && batch.size()< this.batchSize)
+					{
+					/* decoded here: the workers must not call back into the codec */
+					VariantContext variation=VCFUtils.decodeGenotypes(r.next());
+					progress.watch(variation.getChr(),variation.getStart());
+					batch.add(variation);
+					}
+				if(batch.isEmpty()) break;
+				long startNano=System.nanoTime();
+				
+				int chunk=(batch.size()+this.nThreads-1)/this.nThreads;
+				futures.clear();
+				for(int i=0;i< workers.size();++i)
+					{
+					ScriptWorker worker=workers.get(i);
+					worker.batch=batch;
+					worker.accepted=accepted;
+					worker.beg=Math.min(batch.size(),i*chunk);
+					worker.end=Math.min(batch.size(),worker.beg+chunk);
+					if(worker.beg>=worker.end) break;
+					futures.add(executor.submit(worker));
+					}
+				for(Future<Void> future:futures)
+					{
+					future.get();
+					}
+				
+				int nAccepted=0;
+				for(int i=0;i< batch.size();++i)
+					{
+					if(!accepted[i]) continue;
+					w.add(batch.get(i));
+					++nAccepted;
+					}
+				++nBatches;
+				info("batch "+nBatches+": "+nAccepted+"/"+batch.size()+" variant(s) accepted. script evaluation: "+
+						((System.nanoTime()-startNano)/1000000L)+" ms.");
+				}
+			}
+		catch(ScriptException err)
+			{
+			error(err);
+			throw new IOException(err);
+			}
+		catch(ExecutionException err)
+			{
+			error(err.getCause());
+			throw new IOException(err.getCause());
+			}
+		catch(InterruptedException err)
+			{
+			error(err);
+			throw new IOException(err);
+			}
+		finally
+			{
+			executor.shutdownNow();
+			}
+		}
 	
 	@Override
 	protected void doWork(VcfIterator r, VariantContextWriter w)
@@ -56,6 +204,11 @@ public class VCFFilterJS extends AbstractVCFFilter2
 		
 		SAMSequenceDictionaryProgress progress=new SAMSequenceDictionaryProgress(header.getSequenceDictionary());
         w.writeHeader(h2);
+        if(this.nThreads>1)
+        	{
+        	doWorkMultiThread(r,w,header,progress);
+        	return;
+        	}
         Bindings bindings = this.engine.createBindings();
         bindings.put("header", header);
        
@@ -68,20 +221,7 @@ public class VCFFilterJS extends AbstractVCFFilter2
 	        	
 				bindings.put("variant", variation);
 				Object result = script.eval(bindings);
-				if(result==null) continue;
-				if(result instanceof Boolean)
-					{
-					if(Boolean.FALSE.equals(result)) continue;
-					}
-				else if(result instanceof Number)
-					{
-					if(((Number)result).intValue()!=1) continue;
-					}
-				else
-					{
-					warning("Script returned something that is not a boolean or a number:"+result.getClass());
-					continue;
-					}
+				if(!accept(result)) continue;
 				w.add(variation);
 				}
 	        }
@@ -111,6 +251,8 @@ public class VCFFilterJS extends AbstractVCFFilter2
 		{
 		out.println(" -e (script) javascript expression.");
 		out.println(" -f (script) javascript file.");
+		out.println(" -T (int) number of threads. Each thread compiles its own copy of the script. Default:"+this.nThreads);
+		out.println(" -N (int) number of variants per batch when using more than one thread. Default:"+this.batchSize);
 		super.printOptions(out);
 		}
 	
@@ -121,12 +263,14 @@ public class VCFFilterJS extends AbstractVCFFilter2
 		String SCRIPT_EXPRESSION=null;
 		com.github.lindenb.jvarkit.util.cli.GetOpt opt=new com.github.lindenb.jvarkit.util.cli.GetOpt();
 		int c;
-		while((c=opt.getopt(args,getGetOptDefault()+"e:f:"))!=-1)
+		while((c=opt.getopt(args,getGetOptDefault()+"e:f:T:N:"))!=-1)
 			{
 			switch(c)
 				{
 				case 'e':SCRIPT_EXPRESSION=opt.getOptArg();break;
 				case 'f':SCRIPT_FILE=new File(opt.getOptArg());break;
+				case 'T':this.nThreads=Math.max(1,Integer.parseInt(opt.getOptArg()));break;
+				case 'N':this.batchSize=Math.max(1,Integer.parseInt(opt.getOptArg()));break;
 				default:
 					{
 					switch(handleOtherOptions(c, opt, null))
@@ -165,15 +309,20 @@ public class VCFFilterJS extends AbstractVCFFilter2
 			if(SCRIPT_FILE!=null)
 				{
 				info("Compiling "+SCRIPT_FILE);
-				FileReader r=new FileReader(SCRIPT_FILE);
-				this.script=compilingEngine.compile(r);
+				StringBuilder b=new StringBuilder();
+				Reader r=new FileReader(SCRIPT_FILE);
+				char buffer[]=new char[4096];
+				int nRead;
+				while((nRead=r.read(buffer))!=-1) b.append(buffer,0,nRead);
 				r.close();
+				this.scriptSource=b.toString();
 				}
 			else
 				{
 				info("Compiling "+SCRIPT_EXPRESSION);
-				this.script=compilingEngine.compile(SCRIPT_EXPRESSION);
+				this.scriptSource=SCRIPT_EXPRESSION;
 				}
+			this.script=compilingEngine.compile(this.scriptSource);
 			return super.doWork(opt.getOptInd(), args);
 			}
 		catch(Exception err)
@@ -3,8 +3,10 @@ package com.github.lindenb.jvarkit.tools.vcfgo;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.regex.Pattern;
@@ -24,6 +26,7 @@ import com.github.lindenb.jvarkit.io.IOUtils;
 import com.github.lindenb.jvarkit.lang.Function;
 import com.github.lindenb.jvarkit.util.biomart.BiomartQuery;
 import com.github.lindenb.jvarkit.util.go.GoTree;
+import com.github.lindenb.jvarkit.util.ontology.OntologySnapshot;
 import com.github.lindenb.jvarkit.util.picard.IntervalTreeMapFactory;
 import com.github.lindenb.jvarkit.util.picard.SAMSequenceDictionaryFactory;
 import com.github.lindenb.jvarkit.util.vcf.AbstractVCFFilter;
@@ -40,6 +43,8 @@ public abstract class AbstractVcfGeneOntology extends AbstractVCFFilter
 	public String GO="http://archive.geneontology.org/latest-termdb/go_daily-termdb.rdf-xml.gz";
 	@Option(shortName=StandardOptionDefinitions.REFERENCE_SHORT_NAME, doc="Reference (used to reduce the number of mapped genes)",optional=true)
 	public File REF=null;
+	@Option(shortName="GO_SNAPSHOT", doc="Binary snapshot of GO and GOA. Loaded instead of GO and GOA when it is up to date, created otherwise.",optional=true)
+	public File SNAPSHOT=null;
 
 	
 	
@@ -93,6 +98,38 @@ public abstract class AbstractVcfGeneOntology extends AbstractVCFFilter
 		LOG.info("GOA size:"+name2go.size());
 		}
 	
+	/** loads GO and GOA from SNAPSHOT if it is up to date, or from the GO and GOA files; the snapshot is then (re)created */
+	protected void readGOAndGOA() throws IOException
+		{
+		List<String> sources=Arrays.asList(GO,GOA);
+		if(SNAPSHOT!=null && SNAPSHOT.exists())
+			{
+			OntologySnapshot snapshot=new OntologySnapshot(SNAPSHOT);
+			try
+				{
+				if(snapshot.isUpToDate(sources))
+					{
+					LOG.info("read GO/GOA snapshot "+SNAPSHOT);
+					this.goTree=GoTree.readSnapshot(snapshot, this.name2go);
+					LOG.info("GO size:"+goTree.size()+" GOA size:"+name2go.size());
+					return;
+					}
+				LOG.info("snapshot "+SNAPSHOT+" is stale");
+				}
+			finally
+				{
+				snapshot.close();
+				}
+			}
+		readGO();
+		readGOA();
+		if(SNAPSHOT!=null)
+			{
+			LOG.info("writing GO/GOA snapshot "+SNAPSHOT);
+			this.goTree.writeSnapshot(SNAPSHOT, sources, this.name2go);
+			}
+		}
+	
 	protected void loadBiomartHGNC() throws IOException
 		{
 		BiomartQuery q=new BiomartQuery();
@@ -41,7 +41,7 @@ public class VcfFilterGo extends AbstractVcfGeneOntology
 	protected void doWork(VcfIterator r, VariantContextWriter w)
 			throws IOException
 		{
-		super.readGO();
+		super.readGOAndGOA();
 		Set<GoTree.Term> positive_terms=new HashSet<GoTree.Term>(CHILD_OF.size());
 		for(String acn:CHILD_OF)
 			{
@@ -60,7 +60,6 @@ public class VcfFilterGo extends AbstractVcfGeneOntology
 		
 		
 		
-		super.readGOA();
 		super.loadBiomartHGNC();
 		
 		VCFHeader h2=new VCFHeader(header.getMetaDataInInputOrder(),header.getSampleNamesInOrder());
@@ -32,8 +32,7 @@ public class VcfGeneOntology extends AbstractVcfGeneOntology
 	protected void doWork(VcfIterator r, VariantContextWriter w)
 			throws IOException
 		{
-		super.readGO();
-		super.readGOA();
+		super.readGOAndGOA();
 		super.loadBiomartHGNC();
 		
 		final String TAG="GOA";
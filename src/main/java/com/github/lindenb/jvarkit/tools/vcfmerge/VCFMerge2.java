@@ -1,18 +1,28 @@
 package com.github.lindenb.jvarkit.tools.vcfmerge;
 
+import java.io.BufferedReader;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintStream;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.broad.tribble.readers.LineIterator;
 import org.broad.tribble.readers.LineIteratorImpl;
@@ -30,6 +40,7 @@ import org.broadinstitute.variant.vcf.VCFHeaderLine;
 
 import net.sf.picard.PicardException;
 import net.sf.samtools.SAMSequenceDictionary;
+import net.sf.samtools.SAMSequenceRecord;
 import net.sf.samtools.util.CloseableIterator;
 import net.sf.samtools.util.CloserUtil;
 import net.sf.samtools.util.SequenceUtil;
@@ -38,6 +49,8 @@ import net.sf.samtools.util.SortingCollection;
 import com.github.lindenb.jvarkit.io.IOUtils;
 import com.github.lindenb.jvarkit.util.picard.AbstractDataCodec;
 import com.github.lindenb.jvarkit.util.picard.SortingCollectionFactory;
+import com.github.lindenb.jvarkit.util.vcf.ReadAheadVariantIterator;
+import com.github.lindenb.jvarkit.util.vcf.TabixVcfFileReader;
 import com.github.lindenb.jvarkit.util.vcf.VCFUtils;
 import com.github.lindenb.jvarkit.util.vcf.VcfIterator;
 
@@ -46,6 +59,7 @@ public class VCFMerge2
 	{
 	private SortingCollectionFactory<VariantOfFile> sortingCollectionFactory=new SortingCollectionFactory<VariantOfFile>();
 	private List<VCFHandler> vcfHandlers=new ArrayList<VCFHandler>();
+	private int nThreads=1;
 
 	
 	private VCFMerge2()
@@ -211,7 +225,8 @@ public class VCFMerge2
 	@Override
 	public void printOptions(PrintStream out)
 		{
-		out.println(" -s files are known to be sorted");		
+		out.println(" -s files are known to be sorted: they are merged with a priority queue, without temporary file. The order of each file is checked.");
+		out.println(" -t (int) number of threads. With -s: each file is decoded in its own thread or, if all the files are indexed with tabix, the contigs are merged in parallel. Default: 1.");
 		super.printOptions(out);
 		}
 
@@ -221,11 +236,12 @@ public class VCFMerge2
 		boolean filesAreSorted=false;
 		com.github.lindenb.jvarkit.util.cli.GetOpt opt=new com.github.lindenb.jvarkit.util.cli.GetOpt();
 		int c;
-		while((c=opt.getopt(args,getGetOptDefault()+ "s"))!=-1)
+		while((c=opt.getopt(args,getGetOptDefault()+ "st:"))!=-1)
 			{
 			switch(c)
 				{
 				case 's': filesAreSorted=true;break;
+				case 't': this.nThreads=Math.max(1,Integer.parseInt(opt.getOptArg()));break;
 				default: 
 					{
 					switch(handleOtherOptions(c, opt, null))
@@ -253,7 +269,7 @@ public class VCFMerge2
 				}
 			else if(filesAreSorted)
 				{
-				workUsingPeekIterator(opt.getOptInd(),args);
+				workUsingHeapMerge(opt.getOptInd(),args);
 				}
 			else
 				{
@@ -282,12 +298,6 @@ public class VCFMerge2
 		CloserUtil.close(out);
 		}
 	
-	private static class PeekVCF
-		{
-		String uri;
-		InputStream is=null;
-		VcfIterator iter=null;
-		}
 	private int compare(
 			SAMSequenceDictionary dict,
 			VariantContext me,
@@ -310,89 +320,336 @@ public class VCFMerge2
 		return 0;
 		}
 	
-	protected void workUsingPeekIterator(int optind,String args[])
-		throws IOException
+	/** the header of the merged VCF, built from the headers of the inputs */
+	private static class MergedHeader
 		{
 		SAMSequenceDictionary dict=null;
+		String firstUri=null;
 		Set<String> genotypeSampleNames=new HashSet<String>();
 		Set<VCFHeaderLine> metaData=new HashSet<VCFHeaderLine>();
-		List<PeekVCF> input=new ArrayList<PeekVCF>();
-		for(int i=optind;i< args.length;++i)
+		
+		void add(String uri,VCFHeader header)
 			{
-			PeekVCF p=new PeekVCF();
-			p.uri=args[i];
-			info("Opening "+p.uri);
-			p.is=IOUtils.openURIForReading(p.uri);
-			p.iter=new VcfIterator(p.is);
-			input.add(p);
-			SAMSequenceDictionary dict1=p.iter.getHeader().getSequenceDictionary();
-			if(dict1==null) throw new PicardException("dictionary missing in "+p.uri);
-			if(dict1.isEmpty()) throw new PicardException("dictionary is Empty in "+p.uri);
-			genotypeSampleNames.addAll(p.iter.getHeader().getSampleNamesInOrder());
-			metaData.addAll(p.iter.getHeader().getMetaDataInInputOrder());
-			if(i==optind)
+			SAMSequenceDictionary dict1=header.getSequenceDictionary();
+			if(dict1==null) throw new PicardException("dictionary missing in "+uri);
+			if(dict1.isEmpty()) throw new PicardException("dictionary is Empty in "+uri);
+			genotypeSampleNames.addAll(header.getSampleNamesInOrder());
+			metaData.addAll(header.getMetaDataInInputOrder());
+			if(this.dict==null)
 				{
-				dict=dict1;
+				this.dict=dict1;
+				this.firstUri=uri;
 				}
-			else if(!SequenceUtil.areSequenceDictionariesEqual(dict, dict1))
+			else if(!SequenceUtil.areSequenceDictionariesEqual(this.dict, dict1))
 				{
-				throw new PicardException("Not the same Sequence dictionaries "+input.get(0).uri+" / "+p.uri);
+				throw new PicardException("Not the same Sequence dictionaries "+this.firstUri+" / "+uri);
 				}
 			}
-		VariantContextWriter out=VCFUtils.createVariantContextWriter(null);
 		
-		VCFHeader headerOut=new VCFHeader(
-				metaData,
-				genotypeSampleNames);
-		out.writeHeader(headerOut);
-		boolean peeked[]=new boolean[input.size()];
+		/** a new header for each writer: VCFHeader is not thread safe */
+		VCFHeader createHeader()
+			{
+			return new VCFHeader(metaData,genotypeSampleNames);
+			}
+		}
+	
+	/** one sorted input of the heap merge and its current variant */
+	private static class MergeInput
+		{
+		int fileIndex;
+		String uri;
+		Iterator<VariantContext> iter=null;
+		VariantContext head=null;
+		int tid=-1;
+		
+		/** moves to the next variant and checks that the input is sorted. Returns false at the end of the input */
+		boolean advance(SAMSequenceDictionary dict)
+			{
+			if(!this.iter.hasNext())
+				{
+				this.head=null;
+				return false;
+				}
+			VariantContext ctx=this.iter.next();
+			int tid1=dict.getSequenceIndex(ctx.getChr());
+			if(tid1<0) throw new PicardException("unknown chromosome not in sequence dictionary: "+ctx.getChr()+" in "+this.uri);
+			if(this.head!=null &&
+				(tid1< this.tid || (tid1==this.tid && ctx.getStart()< this.head.getStart())))
+				{
+				throw new PicardException(this.uri+" is not sorted: "+
+						ctx.getChr()+":"+ctx.getStart()+" after "+
+						this.head.getChr()+":"+this.head.getStart());
+				}
+			this.head=ctx;
+			this.tid=tid1;
+			return true;
+			}
+		}
+	
+	/** order of the heap: chromosome, position and index of the file */
+	private static class MergeInputComparator implements Comparator<MergeInput>
+		{
+		@Override
+		public int compare(MergeInput o1, MergeInput o2)
+			{
+			int i=o1.tid-o2.tid;
+			if(i!=0) return i;
+			i=o1.head.getStart()-o2.head.getStart();
+			if(i!=0) return i;
+			return o1.fileIndex-o2.fileIndex;
+			}
+		}
+	
+	/**
+	 * merges sorted inputs with a priority queue. The variants at the same position are
+	 * sorted with compare() (stable: the order of the files is kept) and the variants having
+	 * the same CHROM/POS/END/REF are merged. The output is the same as workUsingSortingCollection.
+	 */
+	private void heapMerge(
+			final SAMSequenceDictionary dict,
+			List<MergeInput> inputs,
+			VCFHeader header,
+			VariantContextWriter out)
+		{
+		PriorityQueue<MergeInput> queue=new PriorityQueue<MergeInput>(
+				Math.max(1, inputs.size()),
+				new MergeInputComparator());
+		for(MergeInput input:inputs)
+			{
+			if(input.advance(dict)) queue.add(input);
+			}
+		Comparator<VariantContext> cmp=new Comparator<VariantContext>()
+			{
+			@Override
+			public int compare(VariantContext o1, VariantContext o2)
+				{
+				return VCFMerge2.this.compare(dict,o1,o2);
+				}
+			};
+		List<VariantContext> block=new ArrayList<VariantContext>();
 		List<VariantContext> row=new ArrayList<VariantContext>();
-		for(;;)
+		while(!queue.isEmpty())
 			{
+			/* all the variants at this position */
+			block.clear();
+			MergeInput input=queue.poll();
+			int tid=input.tid;
+			int start=input.head.getStart();
+			for(;;)
+				{
+				block.add(input.head);
+				if(input.advance(dict)) queue.add(input);
+				input=queue.peek();
+				if(input==null || input.tid!=tid || input.head.getStart()!=start) break;
+				queue.poll();
+				}
+			if(block.size()>1) Collections.sort(block,cmp);
 			row.clear();
-			Arrays.fill(peeked, false);
-			for(int i=0;i< input.size();++i)
+			for(VariantContext ctx:block)
 				{
-				if(!input.get(i).iter.hasNext()) continue;
-				VariantContext ctx=input.get(i).iter.peek();
-				if(row.isEmpty())
+				if(!row.isEmpty() && cmp.compare(row.get(0), ctx)!=0)
 					{
-					Arrays.fill(peeked, false);
-					peeked[i]=true;
-					row.add(ctx);
-					continue;
+					out.add(buildContextFromVariantContext(header, row));
+					row.clear();
 					}
-				int cmp=compare(dict, ctx, row.get(0));
-				if(cmp==0)
+				row.add(ctx);
+				}
+			out.add(buildContextFromVariantContext(header, row));
+			}
+		}
+	
+	private static boolean isTabixIndexed(String uri)
+		{
+		return uri.endsWith(".gz") && !IOUtils.isRemoteURI(uri) && new File(uri+".tbi").exists();
+		}
+	
+	protected void workUsingHeapMerge(int optind,String args[])
+		throws IOException
+		{
+		boolean indexed=(this.nThreads>1);
+		for(int i=optind;indexed && i< args.length;++i)
+			{
+			indexed=isTabixIndexed(args[i]);
+			}
+		if(indexed)
+			{
+			workUsingContigs(optind,args);
+			return;
+			}
+		MergedHeader mergedHeader=new MergedHeader();
+		List<MergeInput> inputs=new ArrayList<MergeInput>();
+		List<VcfIterator> iterators=new ArrayList<VcfIterator>();
+		try
+			{
+			for(int i=optind;i< args.length;++i)
+				{
+				MergeInput input=new MergeInput();
+				input.fileIndex=inputs.size();
+				input.uri=args[i];
+				info("Opening "+input.uri);
+				VcfIterator iter=new VcfIterator(IOUtils.openURIForReading(input.uri));
+				iterators.add(iter);
+				mergedHeader.add(input.uri,iter.getHeader());
+				if(this.nThreads>1)
 					{
-					peeked[i]=true;
-					row.add(ctx);
+					/* each input is decoded in its own thread */
+					input.iter=new ReadAheadVariantIterator(iter,"vcfmerge-"+input.fileIndex);
 					}
-				else if(cmp<0)
+				else
 					{
-					Arrays.fill(peeked, false);
-					peeked[i]=true;
-					row.clear();
-					row.add(ctx);
+					input.iter=iter;
 					}
+				inputs.add(input);
 				}
-			if(row.isEmpty()) break;
-			
-			VariantContext merged=buildContextFromVariantContext(headerOut, row);
-			out.add(merged);
-			
-			for(int i=0;i< input.size();++i)
+			VariantContextWriter out=VCFUtils.createVariantContextWriter(null);
+			VCFHeader headerOut=mergedHeader.createHeader();
+			out.writeHeader(headerOut);
+			heapMerge(mergedHeader.dict, inputs, headerOut, out);
+			CloserUtil.close(out);
+			}
+		finally
+			{
+			for(MergeInput input:inputs) CloserUtil.close(input.iter);
+			for(VcfIterator iter:iterators) CloserUtil.close(iter);
+			}
+		}
+	
+	/** merges one contig of the tabix-indexed inputs into a temporary VCF */
+	private class ContigMerger implements Callable<File>
+		{
+		private final String contig;
+		private final List<String> uris;
+		private final MergedHeader mergedHeader;
+		
+		ContigMerger(String contig,List<String> uris,MergedHeader mergedHeader)
+			{
+			this.contig=contig;
+			this.uris=uris;
+			this.mergedHeader=mergedHeader;
+			}
+		
+		@Override
+		public File call() throws Exception
+			{
+			List<TabixVcfFileReader> readers=new ArrayList<TabixVcfFileReader>(this.uris.size());
+			VariantContextWriter w=null;
+			File tmpFile=File.createTempFile("vcfmerge.", ".vcf", getTmpDirectories().get(0));
+			tmpFile.deleteOnExit();
+			try
 				{
-				if(peeked[i]) input.get(i).iter.next();
+				List<MergeInput> inputs=new ArrayList<MergeInput>(this.uris.size());
+				for(String uri:this.uris)
+					{
+					TabixVcfFileReader r=new TabixVcfFileReader(uri);
+					readers.add(r);
+					if(!r.getChromosomes().contains(this.contig)) continue;
+					MergeInput input=new MergeInput();
+					input.fileIndex=readers.size()-1;
+					input.uri=uri;
+					input.iter=r.iterator(this.contig);
+					inputs.add(input);
+					}
+				w=VCFUtils.createVariantContextWriter(tmpFile);
+				VCFHeader header=this.mergedHeader.createHeader();
+				w.writeHeader(header);
+				heapMerge(this.mergedHeader.dict, inputs, header, w);
+				w.close();
+				w=null;
+				return tmpFile;
+				}
+			catch(Exception err)
+				{
+				tmpFile.delete();
+				throw err;
+				}
+			finally
+				{
+				CloserUtil.close(w);
+				for(TabixVcfFileReader r:readers) r.close();
 				}
-			
 			}
-		CloserUtil.close(out);
-		
-		for(PeekVCF p: input)
+		}
+	
+	/** the inputs are indexed with tabix: the contigs are merged in parallel and written in the order of the dictionary */
+	private void workUsingContigs(int optind,String args[])
+		throws IOException
+		{
+		MergedHeader mergedHeader=new MergedHeader();
+		List<String> uris=new ArrayList<String>();
+		Set<String> contigs=new HashSet<String>();
+		for(int i=optind;i< args.length;++i)
+			{
+			String uri=args[i];
+			info("Opening "+uri);
+			TabixVcfFileReader r=new TabixVcfFileReader(uri);
+			mergedHeader.add(uri, r.getHeader());
+			contigs.addAll(r.getChromosomes());
+			r.close();
+			uris.add(uri);
+			}
+		List<String> sortedContigs=new ArrayList<String>();
+		for(SAMSequenceRecord ssr:mergedHeader.dict.getSequences())
+			{
+			if(contigs.remove(ssr.getSequenceName())) sortedContigs.add(ssr.getSequenceName());
+			}
+		if(!contigs.isEmpty())
+			{
+			throw new PicardException("unknown chromosome not in sequence dictionary: "+contigs.iterator().next());
+			}
+		if(sortedContigs.isEmpty())
+			{
+			VariantContextWriter out=VCFUtils.createVariantContextWriter(null);
+			out.writeHeader(mergedHeader.createHeader());
+			CloserUtil.close(out);
+			return;
+			}
+		info("merging "+sortedContigs.size()+" contigs using "+this.nThreads+" threads");
+		ExecutorService executor=Executors.newFixedThreadPool(this.nThreads);
+		LinkedList<Future<File>> pending=new LinkedList<Future<File>>();
+		try
+			{
+			int nextContig=0;
+			for(int i=0;i< sortedContigs.size();++i)
+				{
+				while(nextContig< sortedContigs.size() && pending.size()< this.nThreads)
+					{
+					pending.add(executor.submit(new ContigMerger(sortedContigs.get(nextContig++),uris,mergedHeader)));
+					}
+				File tmpFile=pending.removeFirst().get();
+				/* the header is written once, with the first contig */
+				BufferedReader in=IOUtils.openFileForBufferedReading(tmpFile);
+				String line;
+				while((line=in.readLine())!=null)
+					{
+					if(i>0 && line.startsWith("#")) continue;
+					System.out.print(line);
+					System.out.print('\n');
+					}
+				in.close();
+				tmpFile.delete();
+				info("done "+sortedContigs.get(i));
+				}
+			System.out.flush();
+			}
+		catch(ExecutionException err)
+			{
+			Throwable cause=err.getCause();
+			if(cause instanceof RuntimeException) throw (RuntimeException)cause;
+			throw new IOException(cause);
+			}
+		catch(InterruptedException err)
 			{
-			CloserUtil.close(p.iter);
-			CloserUtil.close(p.is);
+			throw new IOException(err);
+			}
+		finally
+			{
+			executor.shutdownNow();
+			for(Future<File> f:pending)
+				{
+				if(!f.isDone() || f.isCancelled()) continue;
+				try { f.get().delete();}
+				catch(Exception err) {}
+				}
 			}
 		}
 	
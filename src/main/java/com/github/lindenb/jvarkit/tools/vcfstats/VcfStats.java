@@ -2,14 +2,20 @@ package com.github.lindenb.jvarkit.tools.vcfstats;
 
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
-import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.TreeMap;
-import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.xml.stream.XMLOutputFactory;
 import javax.xml.stream.XMLStreamException;
@@ -18,9 +24,13 @@ import javax.xml.stream.XMLStreamWriter;
 import net.sf.samtools.SAMSequenceRecord;
 import net.sf.samtools.util.CloserUtil;
 
+import org.broad.tribble.readers.LineIterator;
+import org.broad.tribble.readers.LineIteratorImpl;
+import org.broad.tribble.readers.LineReaderUtil;
 import org.broadinstitute.variant.variantcontext.Allele;
 import org.broadinstitute.variant.variantcontext.Genotype;
 import org.broadinstitute.variant.variantcontext.VariantContext;
+import org.broadinstitute.variant.vcf.VCFCodec;
 import org.broadinstitute.variant.vcf.VCFHeader;
 import org.broadinstitute.variant.vcf.VCFHeaderLineCount;
 import org.broadinstitute.variant.vcf.VCFHeaderLineType;
@@ -32,7 +42,7 @@ import com.github.lindenb.jvarkit.util.AbstractCommandLineProgram;
 import com.github.lindenb.jvarkit.util.Counter;
 import com.github.lindenb.jvarkit.util.picard.SAMSequenceDictionaryProgress;
 import com.github.lindenb.jvarkit.util.so.SequenceOntologyTree;
-import com.github.lindenb.jvarkit.util.vcf.VcfIterator;
+import com.github.lindenb.jvarkit.util.vcf.VCFUtils;
 import com.github.lindenb.jvarkit.util.vcf.predictions.SnpEffPredictionParser;
 import com.github.lindenb.jvarkit.util.vcf.predictions.SnpEffPredictionParser.SnpEffPrediction;
 import com.github.lindenb.jvarkit.util.vcf.predictions.VepPredictionParser;
@@ -41,22 +51,207 @@ import com.github.lindenb.jvarkit.util.vcf.predictions.VepPredictionParser.VepPr
 public class VcfStats extends AbstractCommandLineProgram
 	{
 	private static final int HISTOGRAM_STEP=5;
-	private VepPredictionParser vepPredictionParser=null;
-	private SnpEffPredictionParser snpEffPredictionParser=null;
-	private final SequenceOntologyTree.Term coding_exon_variant=SequenceOntologyTree.getInstance().getTermByAcn("SO:0001791");
+	
+	/* keys of Stats.counts */
+	private static final String COUNT_KEYS[]={
+		"genotype.unavailable","genotype.hom.ref","genotype.hom.var","genotype.het",
+		"genotype.hom","genotype.filtered","genotype.is.mixed",
+		"num.variants","bi.allelic","not.bi.allelic","symbolic.alleles",
+		"variant.having.ID","variant.having.rsId",
+		"num.samples","num.dictionary.chromosomes","num.seen.chromosomes",
+		"genotype.indels","genotype.substitutions","genotype.transitions","genotype.transversions",
+		"genotype.coding.indels","genotype.coding.substitutions","genotype.coding.transitions","genotype.coding.transversions",
+		"variant.indels","variant.substitutions","variant.transitions","variant.transversions",
+		"variant.coding.indels","variant.coding.substitutions","variant.coding.transitions","variant.coding.transversions"
+		};
+	private static final int GENOTYPE_UNAVAILABLE=0;
+	private static final int GENOTYPE_HOM_REF=1;
+	private static final int GENOTYPE_HOM_VAR=2;
+	private static final int GENOTYPE_HET=3;
+	private static final int GENOTYPE_HOM=4;
+	private static final int GENOTYPE_FILTERED=5;
+	private static final int GENOTYPE_IS_MIXED=6;
+	private static final int NUM_VARIANTS=7;
+	private static final int BI_ALLELIC=8;
+	private static final int NOT_BI_ALLELIC=9;
+	private static final int SYMBOLIC_ALLELES=10;
+	private static final int VARIANT_HAVING_ID=11;
+	private static final int VARIANT_HAVING_RSID=12;
+	private static final int NUM_SAMPLES=13;
+	private static final int NUM_DICTIONARY_CHROMOSOMES=14;
+	private static final int NUM_SEEN_CHROMOSOMES=15;
+	/* first index of the counts of the alleles for 'genotype' and 'variant', followed by the counts for '.coding' */
+	private static final int GENOTYPE_ALLELES=16;
+	private static final int VARIANT_ALLELES=24;
+	private static final int INDELS=0;
+	private static final int SUBSTITUTIONS=1;
+	private static final int TRANSITIONS=2;
+	private static final int TRANSVERSIONS=3;
+	/** number of variants in a batch sent to a thread */
+	private static final int BATCH_SIZE=1000;
+	
+	private final SequenceOntologyTree soTree=SequenceOntologyTree.getInstance();
+	private final SequenceOntologyTree.Term coding_exon_variant=soTree.getTermByAcn("SO:0001791");
 	private boolean DP_info_is_depth=false;
+	private int nThreads=1;
+	/** the header lines, used to create a VCFCodec for each thread */
+	private List<String> headerLines=null;
+	private List<String> sampleNames=null;
+	/** the Accumulators of all the threads */
+	private final List<Accumulator> accumulators=new ArrayList<Accumulator>();
+	private final ThreadLocal<Accumulator> threadAccumulator=new ThreadLocal<Accumulator>()
+		{
+		@Override
+		protected Accumulator initialValue()
+			{
+			Accumulator acc=new Accumulator(VCFUtils.parseHeader(headerLines));
+			synchronized(accumulators)
+				{
+				accumulators.add(acc);
+				}
+			return acc;
+			}
+		};
+	
+	/** a histogram of int values in a primitive array. Histograms can be merged */
+	private static class Histogram
+		{
+		private int first=0;
+		private long counts[]=new long[0];
+		
+		void incr(int bin)
+			{
+			incr(bin,1L);
+			}
+		
+		void incr(int bin,long n)
+			{
+			if(this.counts.length==0)
+				{
+				this.first=bin;
+				this.counts=new long[16];
+				}
+			else if(bin< this.first)
+				{
+				int shift=this.first-bin;
+				long copy[]=new long[Math.max(this.counts.length+shift, 2*this.counts.length)];
+				System.arraycopy(this.counts, 0, copy, copy.length-this.counts.length, this.counts.length);
+				this.first-=(copy.length-this.counts.length);
+				this.counts=copy;
+				}
+			else if(bin-this.first>=this.counts.length)
+				{
+				long copy[]=new long[Math.max(bin-this.first+1, 2*this.counts.length)];
+				System.arraycopy(this.counts, 0, copy, 0, this.counts.length);
+				this.counts=copy;
+				}
+			this.counts[bin-this.first]+=n;
+			}
+		
+		void merge(Histogram other)
+			{
+			for(int i=0;i< other.counts.length;++i)
+				{
+				if(other.counts[i]!=0L) incr(other.first+i,other.counts[i]);
+				}
+			}
+		
+		boolean isEmpty()
+			{
+			return this.counts.length==0;
+			}
+		
+		int getFirstBin()
+			{
+			return this.first;
+			}
+		
+		int getLastBin()
+			{
+			return this.first+this.counts.length-1;
+			}
+		
+		long count(int bin)
+			{
+			return bin< this.first || bin-this.first>=this.counts.length?0L:this.counts[bin-this.first];
+			}
+		}
+	
+	/** the SO terms of the predictions of a variant, computed once for all the Stats */
+	private class Predictions
+		{
+		/* the parsers have a cache: one parser for each thread */
+		private final VepPredictionParser vepPredictionParser;
+		private final SnpEffPredictionParser snpEffPredictionParser;
+		private final SequenceOntologyTree.TermSet vepSet=soTree.createTermSet();
+		private final SequenceOntologyTree.TermSet snpEffSet=soTree.createTermSet();
+		/** distinct ids of the terms */
+		int snpEffIds[]=new int[16];
+		int snpEffCount=0;
+		int vepIds[]=new int[16];
+		int vepCount=0;
+		boolean is_in_coding=false;
+		
+		Predictions(VCFHeader header)
+			{
+			this.vepPredictionParser=new VepPredictionParser(header);
+			this.snpEffPredictionParser=new SnpEffPredictionParser(header);
+			}
+		
+		void parse(VariantContext ctx)
+			{
+			snpEffSet.clear();
+			vepSet.clear();
+			snpEffCount=0;
+			vepCount=0;
+			for(SnpEffPrediction eff :snpEffPredictionParser.getPredictions(ctx))
+				{
+				for(SequenceOntologyTree.Term t:eff.getSOTerms())
+					{
+					if(snpEffSet.contains(t)) continue;
+					snpEffSet.add(t);
+					if(snpEffCount==snpEffIds.length) snpEffIds=Arrays.copyOf(snpEffIds, 2*snpEffCount);
+					snpEffIds[snpEffCount++]=t.getId();
+					}
+				}
+			for(VepPrediction eff :vepPredictionParser.getPredictions(ctx))
+				{
+				for(SequenceOntologyTree.Term t:eff.getSOTerms())
+					{
+					if(vepSet.contains(t)) continue;
+					vepSet.add(t);
+					if(vepCount==vepIds.length) vepIds=Arrays.copyOf(vepIds, 2*vepCount);
+					vepIds[vepCount++]=t.getId();
+					}
+				}
+			is_in_coding=snpEffSet.contains(coding_exon_variant) || vepSet.contains(coding_exon_variant);
+			}
+		}
 	
 	private class Stats
 		{
-		Counter<String> counter=new Counter<String>();
-		Counter<Integer> alternate_alleles=new Counter<Integer>();
-		Counter<Integer> depth=new Counter<Integer>();
-		Counter<Integer> qual=new Counter<Integer>();
-		Counter<SequenceOntologyTree.Term> snpEffSo=new Counter<SequenceOntologyTree.Term>();
-		Counter<SequenceOntologyTree.Term> vepSo=new Counter<SequenceOntologyTree.Term>();
-
+		/** counts indexed like COUNT_KEYS */
+		final long counts[]=new long[COUNT_KEYS.length];
+		final Histogram alternate_alleles=new Histogram();
+		final Histogram depth=new Histogram();
+		final Histogram qual=new Histogram();
+		/** count of variants for each SO term, indexed by the term's id */
+		final long snpEffSo[]=new long[soTree.size()];
+		final long vepSo[]=new long[soTree.size()];
 		
-		private void watch(boolean is_in_coding,String prefix,Allele allele1,Allele allele2)
+		/** adds the counts of another Stats */
+		void merge(Stats other)
+			{
+			for(int i=0;i< this.counts.length;++i) this.counts[i]+=other.counts[i];
+			this.alternate_alleles.merge(other.alternate_alleles);
+			this.depth.merge(other.depth);
+			this.qual.merge(other.qual);
+			for(int i=0;i< this.snpEffSo.length;++i) this.snpEffSo[i]+=other.snpEffSo[i];
+			for(int i=0;i< this.vepSo.length;++i) this.vepSo[i]+=other.vepSo[i];
+			}
+		
+		/** @param offset GENOTYPE_ALLELES or VARIANT_ALLELES */
+		private void watch(boolean is_in_coding,int offset,Allele allele1,Allele allele2)
 			{
 			for(int i=0;i< 2;++i)
 				{
@@ -66,60 +261,36 @@ public class VcfStats extends AbstractCommandLineProgram
 					{
 					if(allele1.getDisplayString().length()!=allele2.getDisplayString().length())
 						{
-						counter.incr(prefix+".indels");
+						counts[offset+INDELS]++;
 						}
 					}
 				else
 					{
-					counter.incr(prefix+".substitutions");
+					counts[offset+SUBSTITUTIONS]++;
 					if(isTransition(a1, a2))
 						{
-						counter.incr(prefix+".transitions");
+						counts[offset+TRANSITIONS]++;
 						}
 					else if(isTransversion(a1, a2))
 						{
-						counter.incr(prefix+".transversions");
+						counts[offset+TRANSVERSIONS]++;
 						}
 					}
 				if(!is_in_coding) break;
-				prefix=prefix+".coding";
+				offset+=4;
 				}
 			}
 		
-		void watch(String sampleName,VariantContext ctx)
+		/**
+		 * @param sampleName the sample or null for the statistics of the variants
+		 * @param pred the predictions of 'ctx'
+		 */
+		void watch(String sampleName,VariantContext ctx,Predictions pred)
 			{
 			List<Allele> alleles=null;
-			boolean is_in_coding=false;
-			Set<SequenceOntologyTree.Term> vepSet=new HashSet<SequenceOntologyTree.Term >();
-			Set<SequenceOntologyTree.Term> snpEffSet=new HashSet<SequenceOntologyTree.Term >();
-			
-			
-			
-			for(SnpEffPrediction eff :snpEffPredictionParser.getPredictions(ctx))
-				{
-				for(SequenceOntologyTree.Term t:eff.getSOTerms())
-					{
-					if(t.equals(coding_exon_variant)) is_in_coding=true;
-					snpEffSet.add(t);
-					}
-				}
-			for(VepPrediction eff :vepPredictionParser.getPredictions(ctx))
-				{
-				for(SequenceOntologyTree.Term t:eff.getSOTerms())
-					{
-					if(t.equals(coding_exon_variant)) is_in_coding=true;
-					vepSet.add(t);
-					}
-				}
-			
-			for(SequenceOntologyTree.Term t:snpEffSet)
-				{
-				snpEffSo.incr(t);
-				}
-			for(SequenceOntologyTree.Term t:vepSet)
-				{
-				vepSo.incr(t);
-				}
+			for(int i=0;i< pred.snpEffCount;++i) snpEffSo[pred.snpEffIds[i]]++;
+			for(int i=0;i< pred.vepCount;++i) vepSo[pred.vepIds[i]]++;
+			boolean is_in_coding=pred.is_in_coding;
 			
 			if(sampleName!=null)
 				{
@@ -127,19 +298,19 @@ public class VcfStats extends AbstractCommandLineProgram
 				
 				if(!g.isAvailable())
 					{
-					counter.incr("genotype.unavailable");
+					counts[GENOTYPE_UNAVAILABLE]++;
 					return;
 					}
-				if(g.isHomRef()) counter.incr("genotype.hom.ref");
-				if(g.isHomVar()) counter.incr("genotype.hom.var");
-				if(g.isHet()) counter.incr("genotype.het");
-				if(g.isHom()) counter.incr("genotype.hom");
-				if(g.isFiltered()) counter.incr("genotype.filtered");
-				if(g.isMixed()) counter.incr("genotype.is.mixed");
+				if(g.isHomRef()) counts[GENOTYPE_HOM_REF]++;
+				if(g.isHomVar()) counts[GENOTYPE_HOM_VAR]++;
+				if(g.isHet()) counts[GENOTYPE_HET]++;
+				if(g.isHom()) counts[GENOTYPE_HOM]++;
+				if(g.isFiltered()) counts[GENOTYPE_FILTERED]++;
+				if(g.isMixed()) counts[GENOTYPE_IS_MIXED]++;
 				alleles=g.getAlleles();
 				if(!g.isHomRef() && alleles.size()==2)
 					{
-					watch(is_in_coding,"genotype",alleles.get(0),alleles.get(1));
+					watch(is_in_coding,GENOTYPE_ALLELES,alleles.get(0),alleles.get(1));
 					}
 				
 				if(g.hasDP())
@@ -162,7 +333,7 @@ public class VcfStats extends AbstractCommandLineProgram
 					{
 					Allele allele1=ctx.getReference();
 					Allele allele2=ctx.getAlternateAllele(0);
-					watch(is_in_coding,"variant",allele1,allele2);
+					watch(is_in_coding,VARIANT_ALLELES,allele1,allele2);
 					}
 				
 				
@@ -186,29 +357,29 @@ public class VcfStats extends AbstractCommandLineProgram
 			
 			
 			
-			counter.incr("num.variants");
+			counts[NUM_VARIANTS]++;
 			
 			if(ctx.isBiallelic())
 				{
-				counter.incr("bi.allelic");
+				counts[BI_ALLELIC]++;
 				}
 			else
 				{
-				counter.incr("not.bi.allelic");
+				counts[NOT_BI_ALLELIC]++;
 				}
 			
 			
 			if(ctx.hasSymbolicAlleles())
 				{
-				counter.incr("symbolic.alleles");
+				counts[SYMBOLIC_ALLELES]++;
 				}
 			
 			if(ctx.hasID())
 				{
-				counter.incr("variant.having.ID");
+				counts[VARIANT_HAVING_ID]++;
 				if(ctx.getID().matches("rs[0-9]+"))
 					{
-					counter.incr("variant.having.rsId");
+					counts[VARIANT_HAVING_RSID]++;
 					}
 				}
 			
@@ -217,6 +388,11 @@ public class VcfStats extends AbstractCommandLineProgram
 		
 		void xml(XMLStreamWriter out) throws XMLStreamException
 			{
+			Counter<String> counter=new Counter<String>();
+			for(int i=0;i< counts.length;++i)
+				{
+				if(counts[i]>0L) counter.incr(COUNT_KEYS[i],counts[i]);
+				}
 			if(!counter.isEmpty())
 				{
 				out.writeStartElement("div");
@@ -289,8 +465,9 @@ public class VcfStats extends AbstractCommandLineProgram
 
 				
 				out.writeStartElement("tbody");
-				for(Integer i:(new TreeSet<Integer>(alternate_alleles.keySet())))
+				for(int i=alternate_alleles.getFirstBin();i<= alternate_alleles.getLastBin();++i)
 					{
+					if(alternate_alleles.count(i)==0L) continue;
 					out.writeStartElement("tr");
 					
 					out.writeStartElement("th");
@@ -334,8 +511,9 @@ public class VcfStats extends AbstractCommandLineProgram
 				out.writeEndElement();//thead
 
 				out.writeStartElement("tbody");
-				for(Integer i:(new TreeSet<Integer>(depth.keySet())))
+				for(int i=depth.getFirstBin();i<= depth.getLastBin();++i)
 					{
+					if(depth.count(i)==0L) continue;
 					out.writeStartElement("tr");
 					
 					out.writeStartElement("td");
@@ -390,8 +568,9 @@ public class VcfStats extends AbstractCommandLineProgram
 				out.writeEndElement();//thead
 
 				out.writeStartElement("tbody");
-				for(Integer i:(new TreeSet<Integer>(qual.keySet())))
+				for(int i=qual.getFirstBin();i<= qual.getLastBin();++i)
 					{
+					if(qual.count(i)==0L) continue;
 					out.writeStartElement("tr");
 					
 					out.writeStartElement("td");
@@ -420,8 +599,10 @@ public class VcfStats extends AbstractCommandLineProgram
 			for(int i=0;i< 2;++i)
 				{
 				String predName=(i==0?"SnpEff":"Vep");
-				Counter<SequenceOntologyTree.Term> set=(i==0?this.snpEffSo:this.vepSo);
-				if(set.isEmpty())
+				long counts[]=(i==0?this.snpEffSo:this.vepSo);
+				boolean empty=true;
+				for(long n:counts) if(n>0L) { empty=false; break;}
+				if(empty)
 					{
 					out.writeComment("No prediction for "+predName+" available");
 					continue;
@@ -452,8 +633,10 @@ public class VcfStats extends AbstractCommandLineProgram
 				out.writeEndElement();//thead
 				
 				out.writeStartElement("tbody");
-				for(SequenceOntologyTree.Term t:set.keySet())
+				for(int id=0;id< counts.length;++id)
 					{
+					if(counts[id]==0L) continue;
+					SequenceOntologyTree.Term t=soTree.getTermById(id);
 					out.writeStartElement("tr");
 					
 					out.writeStartElement("th");
@@ -469,7 +652,7 @@ public class VcfStats extends AbstractCommandLineProgram
 
 					
 					out.writeStartElement("td");
-					out.writeCharacters(String.valueOf(set.count(t)));
+					out.writeCharacters(String.valueOf(counts[id]));
 					out.writeEndElement();
 
 					out.writeEndElement();
@@ -482,6 +665,119 @@ public class VcfStats extends AbstractCommandLineProgram
 			}
 		}
 	
+	/** the statistics collected by one thread, merged at the end */
+	private class Accumulator
+		{
+		final VCFCodec codec;
+		final Predictions predictions;
+		final Stats g_stats=new Stats();
+		final Map<String,Stats> stats_per_chr=new TreeMap<String,Stats>();
+		/** indexed like sampleNames */
+		final Stats stats_per_samples[];
+		
+		Accumulator(VCFUtils.CodecAndHeader cah)
+			{
+			this.codec=cah.codec;
+			this.predictions=new Predictions(cah.header);
+			this.stats_per_samples=new Stats[sampleNames.size()];
+			for(int i=0;i< this.stats_per_samples.length;++i)
+				{
+				this.stats_per_samples[i]=new Stats();
+				}
+			}
+		
+		void watch(String line)
+			{
+			VariantContext ctx=this.codec.decode(line);
+			if(ctx==null) return;
+			Stats k_stats=this.stats_per_chr.get(ctx.getChr());
+			if(k_stats==null)
+				{
+				k_stats=new Stats();
+				this.stats_per_chr.put(ctx.getChr(), k_stats);
+				}
+			this.predictions.parse(ctx);
+			this.g_stats.watch(null,ctx,this.predictions);
+			k_stats.watch(null,ctx,this.predictions);
+			for(int i=0;i< this.stats_per_samples.length;++i)
+				{
+				this.stats_per_samples[i].watch(sampleNames.get(i),ctx,this.predictions);
+				}
+			}
+		
+		void merge(Accumulator other)
+			{
+			this.g_stats.merge(other.g_stats);
+			for(String k:other.stats_per_chr.keySet())
+				{
+				Stats k_stats=this.stats_per_chr.get(k);
+				if(k_stats==null)
+					{
+					k_stats=new Stats();
+					this.stats_per_chr.put(k, k_stats);
+					}
+				k_stats.merge(other.stats_per_chr.get(k));
+				}
+			for(int i=0;i< this.stats_per_samples.length;++i)
+				{
+				this.stats_per_samples[i].merge(other.stats_per_samples[i]);
+				}
+			}
+		}
+	
+	/** decodes and watches a batch of VCF lines with the Accumulator of the current thread */
+	private class WatchBatch implements Callable<Void>
+		{
+		private final List<String> lines;
+		WatchBatch(List<String> lines)
+			{
+			this.lines=lines;
+			}
+		@Override
+		public Void call()
+			{
+			Accumulator acc=threadAccumulator.get();
+			for(String line:this.lines) acc.watch(line);
+			return null;
+			}
+		}
+	
+	private static void await(Future<Void> future) throws IOException
+		{
+		try
+			{
+			future.get();
+			}
+		catch(InterruptedException err)
+			{
+			throw new IOException(err);
+			}
+		catch(ExecutionException err)
+			{
+			Throwable cause=err.getCause();
+			if(cause instanceof IOException) throw (IOException)cause;
+			if(cause instanceof RuntimeException) throw (RuntimeException)cause;
+			throw new IOException(cause);
+			}
+		}
+	
+	/** position of a line, for SAMSequenceDictionaryProgress, without decoding the line */
+	private static void watchProgress(SAMSequenceDictionaryProgress progress,String line)
+		{
+		int tab1=line.indexOf('\t');
+		if(tab1<=0) return;
+		int tab2=line.indexOf('\t',tab1+1);
+		if(tab2<=0) return;
+		try
+			{
+			progress.watch(line.substring(0,tab1), Integer.parseInt(line.substring(tab1+1,tab2)));
+			}
+		catch(NumberFormatException err)
+			{
+			/* the codec will report the error */
+			}
+		}
+	
 	// https://en.wikipedia.org/wiki/File:Transitions-transversions-v3.png
 	private static boolean isTransversion(Character a1, Character a2)
 		{
@@ -526,6 +822,7 @@ public class VcfStats extends AbstractCommandLineProgram
 	public void printOptions(java.io.PrintStream out)
 		{
 		out.println("-o (filename?xml) . If set, the original VCF will be printed to stdout. ");
+		out.println("-t (int) number of threads decoding and counting the variants. Default: "+nThreads);
 		super.printOptions(out);
 		}
 	
@@ -535,11 +832,12 @@ public class VcfStats extends AbstractCommandLineProgram
 		File fileout=null;
 		com.github.lindenb.jvarkit.util.cli.GetOpt opt=new com.github.lindenb.jvarkit.util.cli.GetOpt();
 		int c;
-		while((c=opt.getopt(args,getGetOptDefault()+"o:"))!=-1)
+		while((c=opt.getopt(args,getGetOptDefault()+"o:t:"))!=-1)
 			{
 			switch(c)
 				{
 				case 'o': fileout=new File(opt.getOptArg());break;
+				case 't': nThreads=Math.max(1, Integer.parseInt(opt.getOptArg()));break;
 				default:
 					{
 					switch(handleOtherOptions(c, opt, null))
@@ -552,7 +850,8 @@ public class VcfStats extends AbstractCommandLineProgram
 				}
 			}
 	
-		VcfIterator iter=null;
+		LineIterator iter=null;
+		ExecutorService executor=null;
 		XMLStreamWriter xout=null;
 		InputStream vcfInputStream=null;
 		
@@ -589,8 +888,17 @@ public class VcfStats extends AbstractCommandLineProgram
 				xout=xof.createXMLStreamWriter(System.out,"UTF-8");
 				}
 			
-			iter=new VcfIterator(vcfInputStream);
-			VCFHeader header=iter.getHeader();
+			iter=new LineIteratorImpl(LineReaderUtil.fromBufferedStream(vcfInputStream));
+			this.headerLines=new ArrayList<String>();
+			while(iter.hasNext() && iter.peek().startsWith("#"))
+				{
+				String line=iter.next();
+				this.headerLines.add(line);
+				if(line.startsWith("#CHROM\t")) break;
+				}
+			VCFUtils.CodecAndHeader cah=VCFUtils.parseHeader(this.headerLines);
+			VCFHeader header=cah.header;
+			this.sampleNames=header.getSampleNamesInOrder();
 			SAMSequenceDictionaryProgress progress=new SAMSequenceDictionaryProgress(header.getSequenceDictionary());
 			
 			
@@ -605,8 +913,6 @@ public class VcfStats extends AbstractCommandLineProgram
 				this.DP_info_is_depth=true;
 				}
 			
-			this.vepPredictionParser=new VepPredictionParser(header);
-			this.snpEffPredictionParser=new SnpEffPredictionParser(header);
 			
 			xout.writeStartElement("html");
 			xout.writeAttribute("xmlns", "http://www.w3.org/1999/xhtml");
@@ -641,41 +947,62 @@ public class VcfStats extends AbstractCommandLineProgram
 			
 						
 			
-			Stats g_stats=new Stats();
+			Accumulator acc;
+			if(this.nThreads==1)
+				{
+				acc=new Accumulator(cah);
+				while(iter.hasNext())
+					{
+					String line=iter.next();
+					watchProgress(progress,line);
+					acc.watch(line);
+					}
+				}
+			else
+				{
+				executor=Executors.newFixedThreadPool(this.nThreads);
+				LinkedList<Future<Void>> pending=new LinkedList<Future<Void>>();
+				List<String> batch=new ArrayList<String>(BATCH_SIZE);
+				for(;;)
+					{
+					String line=(iter.hasNext()?iter.next():null);
+					if(line!=null)
+						{
+						watchProgress(progress,line);
+						batch.add(line);
+						}
+					if(batch.size()>=BATCH_SIZE || (line==null && !batch.isEmpty()))
+						{
+						pending.add(executor.submit(new WatchBatch(batch)));
+						batch=new ArrayList<String>(BATCH_SIZE);
+						while(pending.size()>2*this.nThreads) await(pending.removeFirst());
+						}
+					if(line==null) break;
+					}
+				while(!pending.isEmpty()) await(pending.removeFirst());
+				executor.shutdown();
+				executor=null;
+				/* reduce the accumulators of the threads */
+				acc=new Accumulator(cah);
+				for(Accumulator other:this.accumulators) acc.merge(other);
+				this.accumulators.clear();
+				}
+			
+			Stats g_stats=acc.g_stats;
 			Map<String,Stats> stats_per_samples=new TreeMap<String,Stats>();
-			Map<String,Stats> stats_per_chr=new TreeMap<String,Stats>();
-			for(String sample:header.getSampleNamesInOrder())
+			Map<String,Stats> stats_per_chr=acc.stats_per_chr;
+			for(int i=0;i< this.sampleNames.size();++i)
 				{
-				stats_per_samples.put(sample, new Stats());
+				stats_per_samples.put(this.sampleNames.get(i), acc.stats_per_samples[i]);
 				}
 			
-			g_stats.counter.incr("num.samples",header.getSampleNamesInOrder().size());
+			g_stats.counts[NUM_SAMPLES]+=this.sampleNames.size();
 			
-			g_stats.counter.incr("num.dictionary.chromosomes",
+			g_stats.counts[NUM_DICTIONARY_CHROMOSOMES]+=
 					header.getSequenceDictionary()==null?
 					0
 					:header.getSequenceDictionary().getSequences().size()
-					);
-			
-			while(iter.hasNext())
-				{
-				VariantContext ctx=iter.next();
-				
-				progress.watch(ctx.getChr(), ctx.getStart());
-				
-				Stats k_stats=stats_per_chr.get(ctx.getChr());
-				if(k_stats==null)
-					{
-					k_stats=new Stats();
-					stats_per_chr.put(ctx.getChr(), k_stats);
-					}
-				g_stats.watch(null,ctx);
-				k_stats.watch(null,ctx);
-				for(String sample:header.getSampleNamesInOrder())
-					{
-					stats_per_samples.get(sample).watch(sample,ctx);
-					}
-				}
+					;
 			
 			//hyperlink for chromosomes
 			xout.writeStartElement("div");
@@ -707,7 +1034,7 @@ public class VcfStats extends AbstractCommandLineProgram
 
 			
 			
-			g_stats.counter.incr("num.seen.chromosomes",stats_per_chr.size());
+			g_stats.counts[NUM_SEEN_CHROMOSOMES]+=stats_per_chr.size();
 			
 			xout.writeStartElement("div");
 			xout.writeAttribute("j:title","General");
@@ -789,6 +1116,7 @@ public class VcfStats extends AbstractCommandLineProgram
 			}
 		finally
 			{
+			if(executor!=null) executor.shutdownNow();
 			CloserUtil.close(xout);
 			CloserUtil.close(iter);
 			CloserUtil.close(vcfInputStream);
@@ -0,0 +1,155 @@
+package com.github.lindenb.jvarkit.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * A Bloom filter of strings that can be saved to / loaded from a file.
+ * mightContain() never returns false for a string that was added; it may return
+ * true for a string that was not added (false positive).
+ * A free 'source' string (e.g. the path, size and date of the indexed file) is saved with the filter
+ * so the caller can check that a saved filter is not outdated.
+ */
+public class BloomFilter
+	{
+	private static final int MAGIC_V1=0x424C4D31;/* BLM1 */
+	private static final int MAGIC=0x424C4D32;/* BLM2 : BLM1 + source */
+	private final long bits[];
+	private final long nBits;
+	private final int nHashes;
+	private String source=null;
+
+	private BloomFilter(long bits[],int nHashes)
+		{
+		this.bits=bits;
+		this.nBits=64L*bits.length;
+		this.nHashes=nHashes;
+		}
+
+	/**
+	 * @param expectedCount expected number of strings
+	 * @param falsePositiveRate expected rate of false positives e.g: 0.01
+	 */
+	public BloomFilter(long expectedCount,double falsePositiveRate)
+		{
+		expectedCount=Math.max(1L, expectedCount);
+		double m=-expectedCount*Math.log(falsePositiveRate)/(Math.log(2)*Math.log(2));
+		long nWords=Math.max(1L,((long)Math.ceil(m)+63L)/64L);
+		if(nWords>Integer.MAX_VALUE-8) throw new IllegalArgumentException("Bloom filter is too large");
+		this.bits=new long[(int)nWords];
+		this.nBits=64L*this.bits.length;
+		this.nHashes=Math.max(1,(int)Math.round((this.nBits/(double)expectedCount)*Math.log(2)));
+		}
+
+	/** sets the description of the data of this filter, saved with the filter */
+	public void setSource(String source)
+		{
+		this.source=source;
+		}
+
+	/** returns the description of the data of this filter, or null */
+	public String getSource()
+		{
+		return this.source;
+		}
+
+	/** FNV-1a 64 bits */
+	private static long hash1(String s)
+		{
+		long h=0xcbf29ce484222325L;
+		for(int i=0;i< s.length();++i)
+			{
+			h^=s.charAt(i);
+			h*=0x100000001b3L;
+			}
+		return h;
+		}
+
+	/** second hash for the double hashing, always odd */
+	private static long hash2(long h)
+		{
+		h^=(h>>>33);
+		h*=0xff51afd7ed558ccdL;
+		h^=(h>>>33);
+		h*=0xc4ceb9fe1a85ec53L;
+		h^=(h>>>33);
+		return h|1L;
+		}
+
+	private long index(long h1,long h2,int i)
+		{
+		long h=h1+i*h2;
+		return (h & Long.MAX_VALUE)%this.nBits;
+		}
+
+	public void add(String s)
+		{
+		long h1=hash1(s);
+		long h2=hash2(h1);
+		for(int i=0;i< this.nHashes;++i)
+			{
+			long n=index(h1,h2,i);
+			this.bits[(int)(n>>>6)]|=(1L<<(n&63));
+			}
+		}
+
+	public boolean mightContain(String s)
+		{
+		long h1=hash1(s);
+		long h2=hash2(h1);
+		for(int i=0;i< this.nHashes;++i)
+			{
+			long n=index(h1,h2,i);
+			if((this.bits[(int)(n>>>6)]&(1L<<(n&63)))==0L) return false;
+			}
+		return true;
+		}
+
+	public void save(File file) throws IOException
+		{
+		DataOutputStream out=new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file),1<<16));
+		try
+			{
+			out.writeInt(MAGIC);
+			out.writeBoolean(this.source!=null);
+			if(this.source!=null) out.writeUTF(this.source);
+			out.writeInt(this.nHashes);
+			out.writeInt(this.bits.length);
+			for(long w:this.bits) out.writeLong(w);
+			}
+		finally
+			{
+			out.close();
+			}
+		}
+
+	public static BloomFilter load(File file) throws IOException
+		{
+		DataInputStream in=new DataInputStream(new BufferedInputStream(new FileInputStream(file),1<<16));
+		try
+			{
+			int magic=in.readInt();
+			if(magic!=MAGIC && magic!=MAGIC_V1) throw new IOException("Not a bloom filter: "+file);
+			String source=null;
+			if(magic==MAGIC && in.readBoolean()) source=in.readUTF();
+			int nHashes=in.readInt();
+			int nWords=in.readInt();
+			if(nHashes<1 || nWords<1) throw new IOException("Bad bloom filter: "+file);
+			long bits[]=new long[nWords];
+			for(int i=0;i< nWords;++i) bits[i]=in.readLong();
+			BloomFilter bloom=new BloomFilter(bits,nHashes);
+			bloom.source=source;
+			return bloom;
+			}
+		finally
+			{
+			in.close();
+			}
+		}
+	}
@@ -5,9 +5,11 @@ import java.io.File;
 import java.io.IOException;
 import java.io.Reader;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import javax.xml.namespace.QName;
@@ -20,6 +22,7 @@ import javax.xml.stream.events.StartElement;
 import javax.xml.stream.events.XMLEvent;
 
 import com.github.lindenb.jvarkit.io.IOUtils;
+import com.github.lindenb.jvarkit.util.ontology.OntologySnapshot;
 
 public class GoTree
 	{
@@ -275,6 +278,55 @@ public class GoTree
 	
 		}	
 	
+	/** creates and links the terms of this tree for OntologySnapshot */
+	private class SnapshotAdapter implements OntologySnapshot.TermAdapter<TermImpl>
+		{
+		@Override
+		public String getAccession(TermImpl term)
+			{
+			return term.accession;
+			}
+		@Override
+		public String getLabel(TermImpl term)
+			{
+			return term.name;
+			}
+		@Override
+		public Collection<String> getParentUris(TermImpl term)
+			{
+			return term.parents;
+			}
+		@Override
+		public TermImpl createTerm(String uri,String acn,String label)
+			{
+			TermImpl t=new TermImpl();
+			t.accession=acn;
+			t.name=label;
+			uri2term.put(uri, t);
+			return t;
+			}
+		@Override
+		public void addParent(TermImpl term,String uri,TermImpl parent,String parentUri)
+			{
+			term.parents.add(parentUri);
+			parent.children.add(uri);
+			}
+		}
+	
+	/** writes this tree and the annotations of some keys (e.g. genes) in a binary snapshot. 'sources' are the URIs the data were read from */
+	public void writeSnapshot(File file,List<String> sources,Map<String,? extends Collection<Term>> annotations) throws IOException
+		{
+		OntologySnapshot.write(file, sources, this.uri2term, annotations, new SnapshotAdapter());
+		}
+	
+	/** loads a tree from a binary snapshot. The annotations of the snapshot are inserted in 'annotations' */
+	public static GoTree readSnapshot(OntologySnapshot snapshot,Map<String,Set<Term>> annotations)
+		{
+		GoTree tree=new GoTree();
+		snapshot.read(tree.new SnapshotAdapter(), annotations);
+		return tree;
+		}
+	
 	public static GoTree parse(Reader xmlIn) throws IOException,XMLStreamException
 		{
 		GoTree tree=new GoTree();
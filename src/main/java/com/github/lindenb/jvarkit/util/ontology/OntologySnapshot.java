@@ -0,0 +1,401 @@
+package com.github.lindenb.jvarkit.util.ontology;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.github.lindenb.jvarkit.io.IOUtils;
+
+/**
+ * A compact, versioned binary snapshot of an ontology (terms, labels, is_a links)
+ * and of the annotations of some keys (e.g. gene names) with those terms.
+ * It is used by GoTree and DiseaseOntoglogyTree to avoid parsing the RDF/XML
+ * files at each run.
+ *
+ * The file is a block of big-endian int32 followed by a pool of strings:
+ * <pre>
+ * header  : MAGIC, VERSION, n_sources, n_terms, n_parents, n_keys, n_annotations
+ * sources : n_sources * (uri_offset, timestamp_high, timestamp_low)
+ * terms   : n_terms * (uri_offset, acn_offset, label_offset, first_parent)
+ * parents : n_parents term indexes , 1 sentinel (n_parents)
+ * keys    : n_keys * (key_offset, first_annotation)
+ * annots  : n_annotations term indexes, 1 sentinel (n_annotations)
+ * strings : (int length, utf-8 bytes) *
+ * </pre>
+ * The sources are the URIs the snapshot was built from, with their last
+ * modification time (the 'Last-Modified' header for the remote URIs):
+ * the snapshot is stale if they have changed, or if one of those times
+ * is unknown.
+ */
+public class OntologySnapshot implements Closeable
+	{
+	/** 'JVON' */
+	private static final int MAGIC=0x4A564F4E;
+	public static final int VERSION=1;
+	private static final int HEADER_SIZE=7;
+	private static final int SOURCE_RECORD_SIZE=3;
+	private static final int TERM_RECORD_SIZE=4;
+	private static final int KEY_RECORD_SIZE=2;
+
+	private RandomAccessFile raf;
+	private IntBuffer ints;
+	private ByteBuffer strings;
+	private int version;
+	private int nSources;
+	private int nTerms;
+	private int nParents;
+	private int nKeys;
+	private int nAnnotations;
+	private int sourcesOffset;
+	private int termsOffset;
+	private int parentsOffset;
+	private int keysOffset;
+	private int annotationsOffset;
+
+	/** open and memory-map an existing snapshot */
+	public OntologySnapshot(File file) throws IOException
+		{
+		this.raf=new RandomAccessFile(file, "r");
+		FileChannel channel=this.raf.getChannel();
+		ByteBuffer buffer=channel.map(FileChannel.MapMode.READ_ONLY, 0L, channel.size());
+		this.ints=buffer.asIntBuffer();
+		if(buffer.capacity()< HEADER_SIZE*4 || this.ints.get(0)!=MAGIC)
+			{
+			close();
+			throw new IOException("Not an ontology snapshot: "+file);
+			}
+		this.version=this.ints.get(1);
+		if(this.version!=VERSION) return;
+		this.nSources=this.ints.get(2);
+		this.nTerms=this.ints.get(3);
+		this.nParents=this.ints.get(4);
+		this.nKeys=this.ints.get(5);
+		this.nAnnotations=this.ints.get(6);
+		this.sourcesOffset=HEADER_SIZE;
+		this.termsOffset=this.sourcesOffset+this.nSources*SOURCE_RECORD_SIZE;
+		this.parentsOffset=this.termsOffset+this.nTerms*TERM_RECORD_SIZE;
+		this.keysOffset=this.parentsOffset+this.nParents+1;
+		this.annotationsOffset=this.keysOffset+this.nKeys*KEY_RECORD_SIZE;
+		buffer.position(4*(this.annotationsOffset+this.nAnnotations+1));
+		this.strings=buffer.slice();
+		}
+
+	/** an ontology tree, as seen by the snapshot: T is the class of its terms */
+	public static interface TermAdapter<T>
+		{
+		public String getAccession(T term);
+		public String getLabel(T term);
+		/** returns the URIs of the direct parents of a term */
+		public Collection<String> getParentUris(T term);
+		/** creates a term and inserts it in the tree */
+		public T createTerm(String uri,String acn,String label);
+		/** declares a is_a link between two terms created with createTerm */
+		public void addParent(T term,String uri,T parent,String parentUri);
+		}
+
+	/** returns the last modification time of a source, or -1 if it is unknown: such a source is always stale */
+	private static long timestamp(String uri)
+		{
+		if(IOUtils.isRemoteURI(uri))
+			{
+			try
+				{
+				URLConnection con=new URL(uri).openConnection();
+				if(con instanceof HttpURLConnection) ((HttpURLConnection)con).setRequestMethod("HEAD");
+				long stamp=con.getLastModified();
+				if(con instanceof HttpURLConnection) ((HttpURLConnection)con).disconnect();
+				return stamp>0L?stamp:-1L;
+				}
+			catch(IOException err)
+				{
+				return -1L;
+				}
+			}
+		File f=new File(uri);
+		return f.isFile()?f.lastModified():-1L;
+		}
+
+	/** returns true if this snapshot has the current VERSION and was built from those sources, unchanged */
+	public boolean isUpToDate(List<String> sources)
+		{
+		if(this.version!=VERSION) return false;
+		if(sources.size()!=this.nSources) return false;
+		for(int i=0;i< this.nSources;++i)
+			{
+			int base=this.sourcesOffset+i*SOURCE_RECORD_SIZE;
+			if(!getString(this.ints.get(base)).equals(sources.get(i))) return false;
+			long stamp=(((long)this.ints.get(base+1))<<32) | (this.ints.get(base+2) & 0xFFFFFFFFL);
+			if(stamp<0L || stamp!=timestamp(sources.get(i))) return false;
+			}
+		return true;
+		}
+
+	private String getString(int offset)
+		{
+		int len=this.strings.getInt(offset);
+		byte array[]=new byte[len];
+		for(int i=0;i< len;++i) array[i]=this.strings.get(offset+4+i);
+		try
+			{
+			return new String(array,"UTF-8");
+			}
+		catch(java.io.UnsupportedEncodingException err)
+			{
+			throw new RuntimeException(err);
+			}
+		}
+
+	private int[] getRange(int recordOffset,int listOffset,int listSize,int recordSize,int index,int count)
+		{
+		int first=this.ints.get(recordOffset+index*recordSize+recordSize-1);
+		int last=(index+1< count?this.ints.get(recordOffset+(index+1)*recordSize+recordSize-1):listSize);
+		int array[]=new int[last-first];
+		for(int i=0;i< array.length;++i) array[i]=this.ints.get(listOffset+first+i);
+		return array;
+		}
+
+	public int getTermCount()
+		{
+		return this.nTerms;
+		}
+
+	public String getTermUri(int index)
+		{
+		return getString(this.ints.get(this.termsOffset+index*TERM_RECORD_SIZE));
+		}
+
+	public String getTermAccession(int index)
+		{
+		return getString(this.ints.get(this.termsOffset+index*TERM_RECORD_SIZE+1));
+		}
+
+	public String getTermLabel(int index)
+		{
+		return getString(this.ints.get(this.termsOffset+index*TERM_RECORD_SIZE+2));
+		}
+
+	/** returns the indexes of the direct parents of a term */
+	public int[] getTermParents(int index)
+		{
+		return getRange(this.termsOffset,this.parentsOffset,this.nParents,TERM_RECORD_SIZE,index,this.nTerms);
+		}
+
+	public int getKeyCount()
+		{
+		return this.nKeys;
+		}
+
+	public String getKey(int index)
+		{
+		return getString(this.ints.get(this.keysOffset+index*KEY_RECORD_SIZE));
+		}
+
+	/** returns the indexes of the terms annotating a key */
+	public int[] getKeyTerms(int index)
+		{
+		return getRange(this.keysOffset,this.annotationsOffset,this.nAnnotations,KEY_RECORD_SIZE,index,this.nKeys);
+		}
+
+	/** creates the terms of this snapshot with 'adapter'. The annotations of the snapshot are inserted in 'annotations' */
+	public <T extends A,A> void read(TermAdapter<T> adapter,Map<String,Set<A>> annotations)
+		{
+		List<T> terms=new ArrayList<T>(this.nTerms);
+		String uris[]=new String[this.nTerms];
+		for(int i=0;i< this.nTerms;++i)
+			{
+			uris[i]=getTermUri(i);
+			terms.add(adapter.createTerm(uris[i], getTermAccession(i), getTermLabel(i)));
+			}
+		for(int i=0;i< this.nTerms;++i)
+			{
+			for(int p:getTermParents(i))
+				{
+				adapter.addParent(terms.get(i), uris[i], terms.get(p), uris[p]);
+				}
+			}
+		for(int i=0;i< this.nKeys;++i)
+			{
+			Set<A> set=new HashSet<A>();
+			for(int t:getKeyTerms(i))
+				{
+				set.add(terms.get(t));
+				}
+			annotations.put(getKey(i), set);
+			}
+		}
+
+	/** writes a snapshot of the terms 'uri2term' and of the annotations of some keys (e.g. genes). 'sources' are the URIs the data were read from */
+	public static <T> void write(File file,List<String> sources,Map<String,T> uri2term,Map<String,? extends Collection<?>> annotations,TermAdapter<T> adapter) throws IOException
+		{
+		Builder builder=new Builder();
+		Map<Object,String> term2uri=new HashMap<Object,String>(uri2term.size());
+		for(String s:sources) builder.addSource(s);
+		for(String uri:uri2term.keySet())
+			{
+			T t=uri2term.get(uri);
+			builder.addTerm(uri, adapter.getAccession(t), adapter.getLabel(t));
+			term2uri.put(t,uri);
+			}
+		for(String uri:uri2term.keySet())
+			{
+			for(String parentUri:adapter.getParentUris(uri2term.get(uri)))
+				{
+				builder.addParent(uri, parentUri);
+				}
+			}
+		for(String key:annotations.keySet())
+			{
+			for(Object t:annotations.get(key))
+				{
+				String uri=term2uri.get(t);
+				if(uri!=null) builder.addAnnotation(key, uri);
+				}
+			}
+		builder.write(file);
+		}
+
+	@Override
+	public void close() throws IOException
+		{
+		this.ints=null;
+		this.strings=null;
+		if(this.raf!=null) this.raf.close();
+		this.raf=null;
+		}
+
+	/** collects the content of a snapshot before it is written */
+	public static class Builder
+		{
+		private List<String> sources=new ArrayList<String>();
+		private Map<String,Integer> uri2index=new HashMap<String,Integer>();
+		private List<String[]> terms=new ArrayList<String[]>();
+		private List<List<Integer>> parents=new ArrayList<List<Integer>>();
+		private Map<String,List<Integer>> annotations=new LinkedHashMap<String,List<Integer>>();
+
+		public void addSource(String uri)
+			{
+			this.sources.add(uri);
+			}
+
+		/** adds a term, returns its index */
+		public int addTerm(String uri,String acn,String label)
+			{
+			Integer index=this.uri2index.get(uri);
+			if(index!=null) return index;
+			index=this.terms.size();
+			this.uri2index.put(uri,index);
+			this.terms.add(new String[]{uri,acn,label});
+			this.parents.add(new ArrayList<Integer>());
+			return index;
+			}
+
+		/** declares a is_a link between two terms previously added */
+		public void addParent(String uri,String parentUri)
+			{
+			Integer child=this.uri2index.get(uri);
+			Integer parent=this.uri2index.get(parentUri);
+			if(child==null || parent==null) return;
+			this.parents.get(child).add(parent);
+			}
+
+		/** annotates 'key' with a term previously added */
+		public void addAnnotation(String key,String uri)
+			{
+			Integer index=this.uri2index.get(uri);
+			if(index==null) return;
+			List<Integer> L=this.annotations.get(key);
+			if(L==null)
+				{
+				L=new ArrayList<Integer>();
+				this.annotations.put(key,L);
+				}
+			L.add(index);
+			}
+
+		public void write(File file) throws IOException
+			{
+			ByteArrayOutputStream pool=new ByteArrayOutputStream();
+			DataOutputStream poolOut=new DataOutputStream(pool);
+			int nParents=0;
+			for(List<Integer> L:this.parents) nParents+=L.size();
+			int nAnnotations=0;
+			for(List<Integer> L:this.annotations.values()) nAnnotations+=L.size();
+
+			DataOutputStream out=new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(this.sources.size());
+			out.writeInt(this.terms.size());
+			out.writeInt(nParents);
+			out.writeInt(this.annotations.size());
+			out.writeInt(nAnnotations);
+			for(String uri:this.sources)
+				{
+				long stamp=timestamp(uri);
+				out.writeInt(writeString(poolOut,uri));
+				out.writeInt((int)(stamp>>>32));
+				out.writeInt((int)stamp);
+				}
+			int n=0;
+			for(int i=0;i< this.terms.size();++i)
+				{
+				String t[]=this.terms.get(i);
+				out.writeInt(writeString(poolOut,t[0]));
+				out.writeInt(writeString(poolOut,t[1]));
+				out.writeInt(writeString(poolOut,t[2]));
+				out.writeInt(n);
+				n+=this.parents.get(i).size();
+				}
+			for(List<Integer> L:this.parents)
+				{
+				for(Integer p:L) out.writeInt(p);
+				}
+			out.writeInt(nParents);
+			n=0;
+			for(String key:this.annotations.keySet())
+				{
+				out.writeInt(writeString(poolOut,key));
+				out.writeInt(n);
+				n+=this.annotations.get(key).size();
+				}
+			for(List<Integer> L:this.annotations.values())
+				{
+				for(Integer t:L) out.writeInt(t);
+				}
+			out.writeInt(nAnnotations);
+			poolOut.flush();
+			pool.writeTo(out);
+			out.flush();
+			out.close();
+			}
+		}
+
+	/** writes a string in the pool, returns its offset */
+	private static int writeString(DataOutputStream out,String s) throws IOException
+		{
+		int offset=out.size();
+		byte array[]=s.getBytes("UTF-8");
+		out.writeInt(array.length);
+		out.write(array);
+		return offset;
+		}
+	}
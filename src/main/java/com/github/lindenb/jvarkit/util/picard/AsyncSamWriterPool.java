@@ -0,0 +1,228 @@
+package com.github.lindenb.jvarkit.util.picard;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Logger;
+
+import net.sf.picard.PicardException;
+import net.sf.samtools.SAMFileHeader;
+import net.sf.samtools.SAMFileWriter;
+import net.sf.samtools.SAMRecord;
+
+/**
+ * A pool of threads writing to many SAMFileWriters (e.g. the BAMs created by a SamWriterFactory
+ * or a SAMFileWriterFactory): wrap() returns a SAMFileWriter whose records are sent, by batches,
+ * to a bounded queue. A thread of the pool encodes and compresses the queued records of this output,
+ * so the outputs are written in parallel but the records of one output are written in order.
+ * addAlignment() blocks when the queue of the output is full.
+ *
+ * <pre>
+ * AsyncSamWriterPool pool=new AsyncSamWriterPool(4);
+ * SAMFileWriter w=pool.wrap(factory.makeBAMWriter(header,true,file));
+ * w.addAlignment(rec);
+ * (...)
+ * pool.close();
+ * </pre>
+ */
+public class AsyncSamWriterPool
+	implements Closeable
+	{
+	private static final Logger LOG=Logger.getLogger("jvarkit");
+	/** number of records in a batch */
+	private static final int BATCH_SIZE=1000;
+	/** number of batches waiting for each output */
+	private static final int QUEUE_CAPACITY=4;
+	/** marker of the end of the records of one output */
+	private static final List<SAMRecord> CLOSE_BATCH=new ArrayList<SAMRecord>(0);
+	private final ExecutorService executor;
+	private final List<AsyncSamWriter> writers=new ArrayList<AsyncSamWriter>();
+
+	private class AsyncSamWriter
+		implements SAMFileWriter,Runnable
+		{
+		private final SAMFileWriter delegate;
+		private List<SAMRecord> batch=new ArrayList<SAMRecord>(BATCH_SIZE);
+		private final BlockingQueue<List<SAMRecord>> queue=new ArrayBlockingQueue<List<SAMRecord>>(QUEUE_CAPACITY);
+		/** true if a thread of the pool is draining the queue */
+		private final AtomicBoolean scheduled=new AtomicBoolean(false);
+		private final CountDownLatch closed=new CountDownLatch(1);
+		private volatile Throwable error=null;
+		private boolean closing=false;
+
+		AsyncSamWriter(SAMFileWriter delegate)
+			{
+			this.delegate=delegate;
+			}
+
+		private void checkError()
+			{
+			if(this.error!=null)
+				{
+				throw new PicardException("Cannot write BAM: "+this.error.getMessage(),this.error);
+				}
+			}
+
+		private void push(List<SAMRecord> records)
+			{
+			try
+				{
+				this.queue.put(records);
+				}
+			catch(InterruptedException err)
+				{
+				throw new PicardException("interrupted",err);
+				}
+			if(this.scheduled.compareAndSet(false, true))
+				{
+				executor.execute(this);
+				}
+			}
+
+		/** called by a thread of the pool: writes the queued batches */
+		@Override
+		public void run()
+			{
+			for(;;)
+				{
+				List<SAMRecord> records=this.queue.poll();
+				if(records==null)
+					{
+					this.scheduled.set(false);
+					/* a batch may have been added before 'scheduled' was reset */
+					if(this.queue.isEmpty() || !this.scheduled.compareAndSet(false, true)) return;
+					continue;
+					}
+				if(records==CLOSE_BATCH)
+					{
+					try
+						{
+						this.delegate.close();
+						}
+					catch(Throwable err)
+						{
+						if(this.error==null) this.error=err;
+						}
+					this.closed.countDown();
+					return;
+					}
+				/* after an error, the batches are discarded so the producer is never blocked */
+				if(this.error!=null) continue;
+				try
+					{
+					for(SAMRecord rec:records)
+						{
+						this.delegate.addAlignment(rec);
+						}
+					}
+				catch(Throwable err)
+					{
+					LOG.severe("Cannot write BAM: "+err.getMessage());
+					this.error=err;
+					}
+				}
+			}
+
+		@Override
+		public void addAlignment(SAMRecord rec)
+			{
+			checkError();
+			this.batch.add(rec);
+			if(this.batch.size()>=BATCH_SIZE)
+				{
+				push(this.batch);
+				this.batch=new ArrayList<SAMRecord>(BATCH_SIZE);
+				}
+			}
+
+		@Override
+		public SAMFileHeader getFileHeader()
+			{
+			return this.delegate.getFileHeader();
+			}
+
+		/** sends the remaining records and asks the pool to close the delegate */
+		void closeAsync()
+			{
+			if(this.closing) return;
+			this.closing=true;
+			if(!this.batch.isEmpty()) push(this.batch);
+			this.batch=null;
+			push(CLOSE_BATCH);
+			}
+
+		void awaitClose()
+			{
+			try
+				{
+				this.closed.await();
+				}
+			catch(InterruptedException err)
+				{
+				throw new PicardException("interrupted",err);
+				}
+			}
+
+		@Override
+		public void close()
+			{
+			closeAsync();
+			awaitClose();
+			checkError();
+			}
+		}
+
+	/** creates a pool with 'numThreads' threads */
+	public AsyncSamWriterPool(int numThreads)
+		{
+		this.executor=Executors.newFixedThreadPool(Math.max(1, numThreads),new ThreadFactory()
+			{
+			@Override
+			public Thread newThread(Runnable r)
+				{
+				Thread t=new Thread(r,"async-sam-writer");
+				t.setDaemon(true);
+				return t;
+				}
+			});
+		}
+
+	/** returns a SAMFileWriter writing to 'delegate' in the threads of this pool */
+	public SAMFileWriter wrap(SAMFileWriter delegate)
+		{
+		AsyncSamWriter w=new AsyncSamWriter(delegate);
+		this.writers.add(w);
+		return w;
+		}
+
+	/** closes, in parallel, all the writers created by this pool and stops the threads */
+	@Override
+	public void close()
+		{
+		try
+			{
+			for(AsyncSamWriter w:this.writers) w.closeAsync();
+			for(AsyncSamWriter w:this.writers) w.awaitClose();
+			for(AsyncSamWriter w:this.writers) w.checkError();
+			}
+		finally
+			{
+			this.writers.clear();
+			this.executor.shutdown();
+			}
+		}
+
+	/** stops the threads without closing the writers. Use it on error */
+	public void abort()
+		{
+		this.writers.clear();
+		this.executor.shutdownNow();
+		}
+	}
@@ -0,0 +1,227 @@
+package com.github.lindenb.jvarkit.util.picard;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+import net.sf.picard.PicardException;
+import net.sf.picard.fastq.FastqConstants;
+import net.sf.samtools.SAMFileReader.ValidationStringency;
+import net.sf.samtools.util.CloserUtil;
+
+import com.github.lindenb.jvarkit.io.IOUtils;
+
+/**
+ * A FASTQ reader working on bytes: the records are parsed directly in a large buffer
+ * and the slices of a MutableFastqRecord point to this buffer. No String or FastqRecord is created.
+ * The validation is the same as FourLinesFastqReader.
+ *
+ * <pre>
+ * MutableFastqRecord rec=new MutableFastqRecord();
+ * while(reader.read(rec)) { ... }
+ * </pre>
+ */
+public class ByteFastqReader
+	implements Closeable
+	{
+	private static final Logger LOG=Logger.getLogger("jvarkit");
+	private File fastqFile=null;
+	private InputStream in;
+	private ValidationStringency validationStringency=ValidationStringency.STRICT;
+	private byte buffer[]=new byte[1<<17];
+	/** first byte not consumed in buffer */
+	private int pos=0;
+	/** end of the data in buffer */
+	private int limit=0;
+	private boolean eof=false;
+	private long nLines=0L;
+	/* begin/end of the four lines of the current record */
+	private final int lineStart[]=new int[4];
+	private final int lineEnd[]=new int[4];
+
+	public ByteFastqReader(final File file) throws IOException
+		{
+		this.fastqFile=file;
+		this.in=IOUtils.openFileForReading(file);
+		}
+
+	public ByteFastqReader(InputStream in)
+		{
+		this.in=in;
+		}
+
+	public void setValidationStringency( ValidationStringency validationStringency)
+		{
+		this.validationStringency = validationStringency;
+		}
+
+	public ValidationStringency getValidationStringency()
+		{
+		return validationStringency;
+		}
+
+	public long getLineNumber()
+		{
+		return this.nLines;
+		}
+
+	/** moves the unread bytes to the beginning of the buffer and reads more bytes. returns false at the end of the stream */
+	private boolean fill() throws IOException
+		{
+		if(this.eof) return false;
+		if(this.pos>0)
+			{
+			System.arraycopy(this.buffer, this.pos, this.buffer, 0, this.limit-this.pos);
+			this.limit-=this.pos;
+			this.pos=0;
+			}
+		if(this.limit==this.buffer.length)
+			{
+			/* record larger than the buffer */
+			this.buffer=Arrays.copyOf(this.buffer, this.buffer.length*2);
+			}
+		/* some streams (e.g. GZIPInputStream) can return 0 byte before the end */
+		int n=this.in.read(this.buffer, this.limit, this.buffer.length-this.limit);
+		if(n<0)
+			{
+			this.eof=true;
+			return false;
+			}
+		this.limit+=n;
+		return true;
+		}
+
+	private boolean isBlank(int line)
+		{
+		for(int i=this.lineStart[line];i< this.lineEnd[line];++i)
+			{
+			if(!Character.isWhitespace(this.buffer[i])) return false;
+			}
+		return true;
+		}
+
+	private String error(final String msg,int nFound)
+		{
+		return msg + " at line "+this.nLines+" in fastq \""+
+				(this.fastqFile == null ?"":this.fastqFile.getAbsolutePath())+"\"."+
+				( nFound==0?"": " Read name:"+ new String(this.buffer,this.lineStart[0],this.lineEnd[0]-this.lineStart[0]))
+				;
+		}
+
+	private void throw_error(String msg)
+		{
+		switch(getValidationStringency())
+			{
+			case LENIENT: LOG.warning(msg);break;
+			case STRICT: throw new PicardException(msg);
+			default:break;
+			}
+		}
+
+	private void checkLine(int line,int nFound,final String kind)
+		{
+		++this.nLines;
+		if (line>=nFound)
+			{
+			throw new PicardException(error("File is too short - missing "+kind+" line",nFound));
+			}
+		if (isBlank(line))
+			{
+			throw_error(error("Missing "+kind,nFound));
+			}
+		}
+
+	/**
+	 * reads the next record.
+	 * @param rec the record to be filled. Its slices are valid until the next call
+	 * @return false at the end of the file
+	 */
+	public boolean read(MutableFastqRecord rec) throws IOException
+		{
+		/* find the four lines */
+		int nFound=0;
+		int scan=this.pos;
+		for(;;)
+			{
+			while(nFound<4)
+				{
+				int i=scan;
+				while(i< this.limit && this.buffer[i]!='\n') ++i;
+				if(i==this.limit) break;
+				this.lineStart[nFound]=scan;
+				this.lineEnd[nFound]=i;
+				++nFound;
+				scan=i+1;
+				}
+			if(nFound==4) break;
+			int shift=this.pos;
+			boolean more=fill();
+			/* the bytes may have been moved to the beginning of the buffer */
+			shift-=this.pos;
+			scan-=shift;
+			for(int i=0;i< nFound;++i)
+				{
+				this.lineStart[i]-=shift;
+				this.lineEnd[i]-=shift;
+				}
+			if(!more)
+				{
+				/* last line without '\n' */
+				if(scan< this.limit)
+					{
+					this.lineStart[nFound]=scan;
+					this.lineEnd[nFound]=this.limit;
+					++nFound;
+					scan=this.limit;
+					}
+				break;
+				}
+			}
+		if(nFound==0) return false;
+		this.pos=scan;
+		for(int i=0;i< nFound;++i)
+			{
+			if(this.lineEnd[i]>this.lineStart[i] && this.buffer[this.lineEnd[i]-1]=='\r')
+				{
+				this.lineEnd[i]--;
+				}
+			}
+
+		++this.nLines;
+		if(isBlank(0))
+			{
+			throw new PicardException(error("Missing sequence header",0));
+			}
+		if(this.buffer[this.lineStart[0]]!=FastqConstants.SEQUENCE_HEADER.charAt(0))
+			{
+			throw new PicardException(error("Sequence header must start with "+ FastqConstants.SEQUENCE_HEADER,nFound));
+			}
+		checkLine(1,nFound,"sequence line");
+		checkLine(2,nFound,"quality header");
+		if(this.lineEnd[2]==this.lineStart[2] || this.buffer[this.lineStart[2]]!=FastqConstants.QUALITY_HEADER.charAt(0))
+			{
+			throw new PicardException(error("Quality header must start with "+ FastqConstants.QUALITY_HEADER+": "+
+					new String(this.buffer,this.lineStart[2],this.lineEnd[2]-this.lineStart[2]),nFound));
+			}
+		checkLine(3,nFound,"quality line");
+		if(this.lineEnd[1]-this.lineStart[1] != this.lineEnd[3]-this.lineStart[3])
+			{
+			throw new PicardException(error("Sequence and quality line must be the same length",nFound));
+			}
+
+		rec.set(MutableFastqRecord.READ_HEADER, this.buffer, this.lineStart[0]+1, this.lineEnd[0]-(this.lineStart[0]+1));
+		rec.set(MutableFastqRecord.READ_BASES, this.buffer, this.lineStart[1], this.lineEnd[1]-this.lineStart[1]);
+		rec.set(MutableFastqRecord.QUALITY_HEADER, this.buffer, this.lineStart[2]+1, this.lineEnd[2]-(this.lineStart[2]+1));
+		rec.set(MutableFastqRecord.BASE_QUALITIES, this.buffer, this.lineStart[3], this.lineEnd[3]-this.lineStart[3]);
+		return true;
+		}
+
+	@Override
+	public void close()
+		{
+		CloserUtil.close(this.in);
+		}
+	}
@@ -0,0 +1,102 @@
+package com.github.lindenb.jvarkit.util.picard;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+import com.github.lindenb.jvarkit.io.IOUtils;
+
+/**
+ * Writes the MutableFastqRecord read by ByteFastqReader: the bytes are copied as is,
+ * without any conversion to String. Same format as picard's BasicFastqWriter.
+ * The errors of a PrintStream (e.g. a broken pipe on stdout) are thrown as IOExceptions.
+ */
+public class ByteFastqWriter
+	implements Closeable
+	{
+	private OutputStream out;
+
+	public ByteFastqWriter(final File file) throws IOException
+		{
+		this(IOUtils.openFileForWriting(file));
+		}
+
+	public ByteFastqWriter(OutputStream out)
+		{
+		if(out instanceof PrintStream) out=new PrintStreamOutput((PrintStream)out);
+		this.out=new BufferedOutputStream(out, 1<<16);
+		}
+
+	/** PrintStream swallows the IOExceptions: its error flag is checked after each write of the buffer */
+	private static class PrintStreamOutput extends FilterOutputStream
+		{
+		private final PrintStream ps;
+		PrintStreamOutput(PrintStream ps)
+			{
+			super(ps);
+			this.ps=ps;
+			}
+		private void check() throws IOException
+			{
+			if(this.ps.checkError()) throw new IOException("Cannot write the FASTQ output");
+			}
+		@Override
+		public void write(int b) throws IOException
+			{
+			this.ps.write(b);
+			check();
+			}
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException
+			{
+			this.ps.write(b, off, len);
+			check();
+			}
+		@Override
+		public void flush() throws IOException
+			{
+			this.ps.flush();
+			check();
+			}
+		@Override
+		public void close() throws IOException
+			{
+			this.ps.close();
+			check();
+			}
+		}
+
+	private void write(MutableFastqRecord rec,int field) throws IOException
+		{
+		this.out.write(rec.getBytes(field), rec.getOffset(field), rec.getLength(field));
+		}
+
+	public void write(MutableFastqRecord rec) throws IOException
+		{
+		this.out.write('@');
+		write(rec,MutableFastqRecord.READ_HEADER);
+		this.out.write('\n');
+		write(rec,MutableFastqRecord.READ_BASES);
+		this.out.write('\n');
+		this.out.write('+');
+		write(rec,MutableFastqRecord.QUALITY_HEADER);
+		this.out.write('\n');
+		write(rec,MutableFastqRecord.BASE_QUALITIES);
+		this.out.write('\n');
+		}
+
+	public void flush() throws IOException
+		{
+		this.out.flush();
+		}
+
+	@Override
+	public void close() throws IOException
+		{
+		this.out.close();
+		}
+	}
@@ -0,0 +1,172 @@
+package com.github.lindenb.jvarkit.util.picard;
+
+import net.sf.picard.fastq.FastqRecord;
+
+/**
+ * A FASTQ record that can be re-used by ByteFastqReader.
+ * Each field (read name, bases, quality header, qualities) is a slice of a byte array:
+ * after ByteFastqReader.read(), the slices point to the buffer of the reader, so they're
+ * only valid until the next call to read().
+ * The bytes can be modified in place and a slice can be replaced by another array.
+ */
+public class MutableFastqRecord
+	{
+	/** read header, without '@' */
+	public static final int READ_HEADER=0;
+	/** sequence */
+	public static final int READ_BASES=1;
+	/** quality header, without '+' */
+	public static final int QUALITY_HEADER=2;
+	/** qualities */
+	public static final int BASE_QUALITIES=3;
+
+	private static final byte EMPTY[]=new byte[0];
+
+	private final byte arrays[][]=new byte[][]{EMPTY,EMPTY,EMPTY,EMPTY};
+	private final int offsets[]=new int[4];
+	private final int lengths[]=new int[4];
+
+	public MutableFastqRecord()
+		{
+		}
+
+	/** set the slice for the field */
+	public void set(int field,byte array[],int offset,int length)
+		{
+		this.arrays[field]=array;
+		this.offsets[field]=offset;
+		this.lengths[field]=length;
+		}
+
+	/** the four fields of this record point to the same slices as 'other' */
+	public void set(MutableFastqRecord other)
+		{
+		for(int field=0;field< this.arrays.length;++field)
+			{
+			set(field,other.arrays[field],other.offsets[field],other.lengths[field]);
+			}
+		}
+
+	/** set the field from a String */
+	public void set(int field,String s)
+		{
+		byte array[]=(s==null?EMPTY:s.getBytes());
+		set(field,array,0,array.length);
+		}
+
+	/** backing array of the field */
+	public byte[] getBytes(int field)
+		{
+		return this.arrays[field];
+		}
+
+	/** offset of the field in getBytes(field) */
+	public int getOffset(int field)
+		{
+		return this.offsets[field];
+		}
+
+	public int getLength(int field)
+		{
+		return this.lengths[field];
+		}
+
+	/** change the length of the field, must be lower or equal than the current length */
+	public void setLength(int field,int length)
+		{
+		if(length<0 || length>this.lengths[field]) throw new IllegalArgumentException("bad length "+length);
+		this.lengths[field]=length;
+		}
+
+	public byte byteAt(int field,int index)
+		{
+		return this.arrays[field][this.offsets[field]+index];
+		}
+
+	public void setByteAt(int field,int index,byte b)
+		{
+		this.arrays[field][this.offsets[field]+index]=b;
+		}
+
+	/** returns the index of 'b' in the field or -1 */
+	public int indexOf(int field,byte b)
+		{
+		final byte array[]=this.arrays[field];
+		final int off=this.offsets[field];
+		for(int i=0;i< this.lengths[field];++i)
+			{
+			if(array[off+i]==b) return i;
+			}
+		return -1;
+		}
+
+	/** reverse the bytes of the field in place */
+	public void reverse(int field)
+		{
+		final byte array[]=this.arrays[field];
+		int i=this.offsets[field];
+		int j=i+this.lengths[field]-1;
+		while(i<j)
+			{
+			byte b=array[i];
+			array[i]=array[j];
+			array[j]=b;
+			++i;
+			--j;
+			}
+		}
+
+	public boolean equals(int field1,int field2)
+		{
+		if(this.lengths[field1]!=this.lengths[field2]) return false;
+		for(int i=0;i< this.lengths[field1];++i)
+			{
+			if(byteAt(field1,i)!=byteAt(field2,i)) return false;
+			}
+		return true;
+		}
+
+	public String toString(int field)
+		{
+		return new String(this.arrays[field],this.offsets[field],this.lengths[field]);
+		}
+
+	public String getReadHeader()
+		{
+		return toString(READ_HEADER);
+		}
+
+	public String getReadString()
+		{
+		return toString(READ_BASES);
+		}
+
+	/** returns the quality header or null if it is empty (as picard's FastqRecord) */
+	public String getBaseQualityHeader()
+		{
+		return getLength(QUALITY_HEADER)==0?null:toString(QUALITY_HEADER);
+		}
+
+	public String getBaseQualityString()
+		{
+		return toString(BASE_QUALITIES);
+		}
+
+	/** creates a copy of this record as a picard FastqRecord */
+	public FastqRecord toFastqRecord()
+		{
+		return new FastqRecord(
+				getReadHeader(),
+				getReadString(),
+				getBaseQualityHeader(),
+				getBaseQualityString()
+				);
+		}
+
+	@Override
+	public String toString()
+		{
+		return "@"+getReadHeader()+"\n"+getReadString()+"\n+"+
+				toString(QUALITY_HEADER)+"\n"+getBaseQualityString();
+		}
+	}
@@ -0,0 +1,170 @@
+package com.github.lindenb.jvarkit.util.picard;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Applies a transformation (reverse-complement, trimming, tile assignment...) to each pair of
+ * a PairedFastqReader. The pairs are grouped in batches that are transformed by a pool of threads,
+ * and the batches are written back in the order of the input by the thread calling run().
+ */
+public class PairedFastqPipeline
+	{
+	/** value returned by Handler.apply() to discard a pair */
+	public static final int DISCARD=-1;
+
+	public interface Handler
+		{
+		/**
+		 * called by the worker threads. The records can be modified in place.
+		 * @return a value passed to write() or DISCARD to remove the pair
+		 */
+		public int apply(MutableFastqRecord rec1,MutableFastqRecord rec2);
+		/** called by the thread running the pipeline, in the order of the input */
+		public void write(MutableFastqRecord rec1,MutableFastqRecord rec2,int key) throws IOException;
+		}
+
+	/** a batch of pairs and the values returned by Handler.apply() */
+	private static class PairBatch
+		implements Callable<PairBatch>
+		{
+		private final PairedFastqReader.RecordBatch side1=new PairedFastqReader.RecordBatch();
+		private final PairedFastqReader.RecordBatch side2=new PairedFastqReader.RecordBatch();
+		private int keys[]=new int[PairedFastqReader.BATCH_SIZE];
+		private final Handler handler;
+
+		PairBatch(Handler handler)
+			{
+			this.handler=handler;
+			}
+
+		void clear()
+			{
+			this.side1.clear();
+			this.side2.clear();
+			}
+
+		int size()
+			{
+			return this.side1.size();
+			}
+
+		void add(MutableFastqRecord rec1,MutableFastqRecord rec2)
+			{
+			this.side1.add(rec1);
+			this.side2.add(rec2);
+			}
+
+		@Override
+		public PairBatch call()
+			{
+			if(this.keys.length< size()) this.keys=Arrays.copyOf(this.keys, size());
+			for(int i=0;i< size();++i)
+				{
+				this.keys[i]=this.handler.apply(this.side1.get(i),this.side2.get(i));
+				}
+			return this;
+			}
+
+		void write() throws IOException
+			{
+			for(int i=0;i< size();++i)
+				{
+				if(this.keys[i]==DISCARD) continue;
+				this.handler.write(this.side1.get(i),this.side2.get(i),this.keys[i]);
+				}
+			}
+		}
+
+	private int numThreads=1;
+
+	public PairedFastqPipeline()
+		{
+		}
+
+	public void setNumThreads(int numThreads)
+		{
+		this.numThreads = Math.max(1,numThreads);
+		}
+
+	public int getNumThreads()
+		{
+		return numThreads;
+		}
+
+	private static PairBatch await(Future<PairBatch> future) throws IOException
+		{
+		try
+			{
+			return future.get();
+			}
+		catch(InterruptedException err)
+			{
+			throw new IOException(err);
+			}
+		catch(ExecutionException err)
+			{
+			Throwable cause=err.getCause();
+			if(cause instanceof RuntimeException) throw (RuntimeException)cause;
+			if(cause instanceof Error) throw (Error)cause;
+			throw new IOException(cause);
+			}
+		}
+
+	/** reads all the pairs of 'reader', transforms them and writes them in the original order */
+	public void run(PairedFastqReader reader,Handler handler) throws IOException
+		{
+		MutableFastqRecord rec1=new MutableFastqRecord();
+		MutableFastqRecord rec2=new MutableFastqRecord();
+		if(this.numThreads<=1)
+			{
+			while(reader.read(rec1, rec2))
+				{
+				int key=handler.apply(rec1, rec2);
+				if(key==DISCARD) continue;
+				handler.write(rec1, rec2, key);
+				}
+			return;
+			}
+
+		ExecutorService executor=Executors.newFixedThreadPool(this.numThreads);
+		LinkedList<Future<PairBatch>> pending=new LinkedList<Future<PairBatch>>();
+		List<PairBatch> free=new ArrayList<PairBatch>();
+		try
+			{
+			boolean more=true;
+			while(more)
+				{
+				PairBatch batch=(free.isEmpty()?new PairBatch(handler):free.remove(free.size()-1));
+				batch.clear();
+				while(batch.size()< PairedFastqReader.BATCH_SIZE && (more=reader.read(rec1, rec2)))
+					{
+					batch.add(rec1, rec2);
+					}
+				if(batch.size()>0)
+					{
+					pending.add(executor.submit(batch));
+					}
+				/* write the oldest batches, keep the workers busy while reading */
+				while(!pending.isEmpty() && (!more || pending.size()>=2*this.numThreads))
+					{
+					PairBatch done=await(pending.removeFirst());
+					done.write();
+					free.add(done);
+					}
+				}
+			}
+		finally
+			{
+			executor.shutdownNow();
+			}
+		}
+	}
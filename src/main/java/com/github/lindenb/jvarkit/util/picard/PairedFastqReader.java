@@ -0,0 +1,311 @@
+package com.github.lindenb.jvarkit.util.picard;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import net.sf.picard.PicardException;
+import net.sf.samtools.SAMFileReader.ValidationStringency;
+import net.sf.samtools.util.CloserUtil;
+
+import com.github.lindenb.jvarkit.io.IOUtils;
+
+/**
+ * Reads a pair of FASTQ files (R1/R2). Each file is decompressed and parsed by its own thread
+ * with a ByteFastqReader; the records are copied in batches and handed to the caller through a
+ * bounded queue. read() returns the records of R1 and R2 at the same rank and checks that
+ * they have the same name.
+ *
+ * <pre>
+ * MutableFastqRecord r1=new MutableFastqRecord();
+ * MutableFastqRecord r2=new MutableFastqRecord();
+ * while(reader.read(r1,r2)) { ... }
+ * </pre>
+ */
+public class PairedFastqReader
+	implements Closeable
+	{
+	/** number of records in a batch */
+	public static final int BATCH_SIZE=1000;
+	/** number of batches waiting in the queue of each side */
+	private static final int QUEUE_CAPACITY=4;
+
+	/** a batch of records owning their bytes */
+	static class RecordBatch
+		{
+		private byte data[]=new byte[1<<16];
+		private int dataLength=0;
+		private MutableFastqRecord records[]=new MutableFastqRecord[BATCH_SIZE];
+		private int size=0;
+
+		RecordBatch()
+			{
+			for(int i=0;i< this.records.length;++i) this.records[i]=new MutableFastqRecord();
+			}
+
+		void clear()
+			{
+			this.dataLength=0;
+			this.size=0;
+			}
+
+		int size()
+			{
+			return this.size;
+			}
+
+		MutableFastqRecord get(int index)
+			{
+			return this.records[index];
+			}
+
+		/** copies the bytes of 'rec' at the end of this batch */
+		void add(MutableFastqRecord rec)
+			{
+			int len=0;
+			for(int field=0;field< 4;++field) len+=rec.getLength(field);
+			if(this.dataLength+len>this.data.length)
+				{
+				this.data=Arrays.copyOf(this.data, Math.max(this.data.length*2, this.dataLength+len));
+				/* the previous records must point to the new array */
+				for(int i=0;i< this.size;++i)
+					{
+					MutableFastqRecord r=this.records[i];
+					for(int field=0;field< 4;++field)
+						{
+						r.set(field, this.data, r.getOffset(field), r.getLength(field));
+						}
+					}
+				}
+			if(this.size==this.records.length)
+				{
+				this.records=Arrays.copyOf(this.records, this.size*2);
+				for(int i=this.size;i< this.records.length;++i) this.records[i]=new MutableFastqRecord();
+				}
+			MutableFastqRecord dest=this.records[this.size++];
+			for(int field=0;field< 4;++field)
+				{
+				int n=rec.getLength(field);
+				System.arraycopy(rec.getBytes(field), rec.getOffset(field), this.data, this.dataLength, n);
+				dest.set(field, this.data, this.dataLength, n);
+				this.dataLength+=n;
+				}
+			}
+		}
+
+	/** reads one of the two files in its own thread. An empty batch marks the end of the file */
+	private static class Side extends Thread
+		{
+		private final ByteFastqReader reader;
+		private final BlockingQueue<RecordBatch> full=new ArrayBlockingQueue<RecordBatch>(QUEUE_CAPACITY);
+		private final BlockingQueue<RecordBatch> free=new LinkedBlockingQueue<RecordBatch>();
+		private volatile Throwable error=null;
+		/* consumer side */
+		private RecordBatch current=null;
+		private int index=0;
+		private boolean eof=false;
+
+		Side(ByteFastqReader reader,String name)
+			{
+			super(name);
+			this.reader=reader;
+			setDaemon(true);
+			}
+
+		@Override
+		public void run()
+			{
+			try
+				{
+				MutableFastqRecord rec=new MutableFastqRecord();
+				for(;;)
+					{
+					RecordBatch batch=this.free.poll();
+					if(batch==null) batch=new RecordBatch();
+					batch.clear();
+					while(batch.size() < BATCH_SIZE && this.reader.read(rec))
+						{
+						batch.add(rec);
+						}
+					this.full.put(batch);
+					if(batch.size()==0) break;
+					}
+				}
+			catch(InterruptedException err)
+				{
+				/* closed */
+				}
+			catch(Throwable err)
+				{
+				this.error=err;
+				RecordBatch batch=new RecordBatch();
+				this.full.clear();
+				this.full.offer(batch);
+				}
+			}
+
+		/** returns the next record or null at the end of the file */
+		MutableFastqRecord next() throws IOException
+			{
+			if(this.eof) return null;
+			if(this.current==null || this.index>=this.current.size())
+				{
+				if(this.current!=null) this.free.offer(this.current);
+				try
+					{
+					this.current=this.full.take();
+					}
+				catch(InterruptedException err)
+					{
+					throw new IOException(err);
+					}
+				this.index=0;
+				if(this.current.size()==0)
+					{
+					this.eof=true;
+					this.current=null;
+					if(this.error!=null)
+						{
+						if(this.error instanceof RuntimeException) throw (RuntimeException)this.error;
+						throw new IOException(this.error);
+						}
+					return null;
+					}
+				}
+			return this.current.get(this.index++);
+			}
+		}
+
+	private final File fastqFiles[]=new File[]{null,null};
+	private final ByteFastqReader readers[]=new ByteFastqReader[2];
+	private final Side sides[]=new Side[2];
+	private boolean validateReadNames=true;
+	private boolean started=false;
+	private long nPairs=0L;
+
+	public PairedFastqReader(final File fastq1,final File fastq2) throws IOException
+		{
+		this(IOUtils.openFileForReading(fastq1),IOUtils.openFileForReading(fastq2));
+		this.fastqFiles[0]=fastq1;
+		this.fastqFiles[1]=fastq2;
+		}
+
+	public PairedFastqReader(InputStream in1,InputStream in2)
+		{
+		this.readers[0]=new ByteFastqReader(in1);
+		this.readers[1]=new ByteFastqReader(in2);
+		}
+
+	/** must be called before the first call to read() */
+	public void setValidationStringency( ValidationStringency validationStringency)
+		{
+		for(ByteFastqReader r:this.readers) r.setValidationStringency(validationStringency);
+		}
+
+	/** check that R1 and R2 have the same name. Default: true */
+	public void setValidateReadNames(boolean validateReadNames)
+		{
+		this.validateReadNames = validateReadNames;
+		}
+
+	public boolean isValidateReadNames()
+		{
+		return validateReadNames;
+		}
+
+	/** number of pairs returned so far */
+	public long getPairCount()
+		{
+		return this.nPairs;
+		}
+
+	private String getSource(int side)
+		{
+		return this.fastqFiles[side]==null?"R"+(side+1):this.fastqFiles[side].getPath();
+		}
+
+	/** length of the read name, ignoring the comment after the first whitespace and a trailing /1 or /2 */
+	private static int readNameLength(MutableFastqRecord rec)
+		{
+		int len=0;
+		while(len< rec.getLength(MutableFastqRecord.READ_HEADER))
+			{
+			byte c=rec.byteAt(MutableFastqRecord.READ_HEADER, len);
+			if(c==' ' || c=='\t') break;
+			++len;
+			}
+		if(len>2 && rec.byteAt(MutableFastqRecord.READ_HEADER, len-2)=='/')
+			{
+			byte c=rec.byteAt(MutableFastqRecord.READ_HEADER, len-1);
+			if(c=='1' || c=='2') len-=2;
+			}
+		return len;
+		}
+
+	/** returns true if the two records have the same read name */
+	public static boolean isSameReadName(MutableFastqRecord rec1,MutableFastqRecord rec2)
+		{
+		int len=readNameLength(rec1);
+		if(len!=readNameLength(rec2)) return false;
+		for(int i=0;i< len;++i)
+			{
+			if(rec1.byteAt(MutableFastqRecord.READ_HEADER, i)!=rec2.byteAt(MutableFastqRecord.READ_HEADER, i)) return false;
+			}
+		return true;
+		}
+
+	/**
+	 * reads the next pair.
+	 * @param rec1 filled with the record of R1. Its slices are valid until the next call
+	 * @param rec2 filled with the record of R2. Its slices are valid until the next call
+	 * @return false at the end of the files
+	 */
+	public boolean read(MutableFastqRecord rec1,MutableFastqRecord rec2) throws IOException
+		{
+		if(!this.started)
+			{
+			this.started=true;
+			for(int i=0;i< 2;++i)
+				{
+				this.sides[i]=new Side(this.readers[i],"fastq-R"+(i+1));
+				this.sides[i].start();
+				}
+			}
+		MutableFastqRecord r1=this.sides[0].next();
+		MutableFastqRecord r2=this.sides[1].next();
+		if(r1==null && r2==null) return false;
+		if(r1==null || r2==null)
+			{
+			throw new PicardException(getSource(r1==null?0:1)+" has fewer reads than "+
+					getSource(r1==null?1:0)+" after "+this.nPairs+" pairs.");
+			}
+		if(this.validateReadNames && !isSameReadName(r1, r2))
+			{
+			throw new PicardException("Read names differ after "+this.nPairs+" pairs: \""+
+					r1.getReadHeader()+"\" in "+getSource(0)+" and \""+
+					r2.getReadHeader()+"\" in "+getSource(1)+".");
+			}
+		rec1.set(r1);
+		rec2.set(r2);
+		++this.nPairs;
+		return true;
+		}
+
+	@Override
+	public void close()
+		{
+		for(Side side:this.sides)
+			{
+			if(side!=null) side.interrupt();
+			}
+		for(ByteFastqReader r:this.readers)
+			{
+			CloserUtil.close(r);
+			}
+		}
+	}
@@ -0,0 +1,888 @@
+package com.github.lindenb.jvarkit.util.picard;
+
+import java.text.ParseException;
+
+import net.sf.samtools.SAMRecord;
+
+import com.github.lindenb.jvarkit.lang.Predicate;
+
+/**
+ * Compiles a small subset of the javascript expressions used by SamJS into
+ * a tree of Predicate&lt;SAMRecord&gt; , so simple filters don't need the
+ * script engine. The subset uses the same syntax and the same operator
+ * precedence as javascript:
+ * <ul>
+ *  <li>record.getXXX() : the boolean flag getters, getFlags(), getMappingQuality(), getReadLength(), getAlignmentStart(), getReferenceName(), getCigarString()...</li>
+ *  <li>record.getAttribute("TAG")</li>
+ *  <li>string.indexOf("x")</li>
+ *  <li>integer (decimal or hexadecimal) and string literals, true, false, null</li>
+ *  <li>operators: ( ) ! - &amp;&amp; || &amp; | ^ == != === !== &lt; &lt;= &gt; &gt;=</li>
+ *  <li>an optional final ';'</li>
+ * </ul>
+ * A ParseException is thrown for anything else, the caller should then
+ * use the javascript engine.
+ */
+public class SamRecordPredicateFactory
+	{
+	/** node returning a primitive int */
+	private static abstract class IntNode
+		{
+		abstract int eval(SAMRecord rec);
+		}
+
+	/** node returning an object (String, attribute, ...) */
+	private static abstract class ObjNode
+		{
+		/** true if this node always returns a java.lang.String */
+		boolean isString()
+			{
+			return false;
+			}
+		abstract Object eval(SAMRecord rec);
+		}
+
+	private static abstract class StringNode extends ObjNode
+		{
+		@Override
+		boolean isString()
+			{
+			return true;
+			}
+		}
+
+	private enum TokenType {IDENTIFIER,INTEGER,STRING,OPERATOR,EOF};
+
+	/** current state of the parser */
+	private static class Lexer
+		{
+		private final String expr;
+		private int pos=0;
+		private TokenType type=null;
+		private String token=null;
+
+		Lexer(String expr) throws ParseException
+			{
+			this.expr=expr;
+			next();
+			}
+
+		private ParseException error(String msg)
+			{
+			return new ParseException(msg+" in \""+expr+"\"",this.pos);
+			}
+
+		/** javascript numbers outside the range of an int are not handled */
+		private int parseInteger(String digits,int radix) throws ParseException
+			{
+			try
+				{
+				long value=Long.parseLong(digits, radix);
+				if(value> Integer.MAX_VALUE) throw error("integer out of range");
+				return (int)value;
+				}
+			catch(NumberFormatException err)
+				{
+				throw error("bad integer");
+				}
+			}
+		
+		private void next() throws ParseException
+			{
+			while(pos< expr.length() && Character.isWhitespace(expr.charAt(pos))) ++pos;
+			if(pos>=expr.length())
+				{
+				this.type=TokenType.EOF;
+				this.token="";
+				return;
+				}
+			char c=expr.charAt(pos);
+			int begin=pos;
+			if(Character.isJavaIdentifierStart(c))
+				{
+				while(pos< expr.length() && Character.isJavaIdentifierPart(expr.charAt(pos))) ++pos;
+				this.type=TokenType.IDENTIFIER;
+				this.token=expr.substring(begin, pos);
+				}
+			else if(Character.isDigit(c))
+				{
+				if(c=='0' && pos+1< expr.length() && (expr.charAt(pos+1)=='x' || expr.charAt(pos+1)=='X'))
+					{
+					pos+=2;
+					while(pos< expr.length() && Character.digit(expr.charAt(pos),16)!=-1) ++pos;
+					this.token=String.valueOf(parseInteger(expr.substring(begin+2, pos),16));
+					}
+				else
+					{
+					while(pos< expr.length() && Character.isDigit(expr.charAt(pos))) ++pos;
+					/* '010' is an octal number in javascript */
+					if(c=='0' && pos-begin>1) throw error("unsupported octal number");
+					this.token=String.valueOf(parseInteger(expr.substring(begin, pos),10));
+					}
+				if(pos< expr.length() && (expr.charAt(pos)=='.' || Character.isJavaIdentifierPart(expr.charAt(pos))))
+					{
+					throw error("unsupported number");
+					}
+				this.type=TokenType.INTEGER;
+				}
+			else if(c=='\"' || c=='\'')
+				{
+				StringBuilder b=new StringBuilder();
+				++pos;
+				for(;;)
+					{
+					if(pos>=expr.length()) throw error("unclosed string");
+					char c2=expr.charAt(pos++);
+					if(c2==c) break;
+					if(c2=='\\')
+						{
+						if(pos>=expr.length()) throw error("unclosed string");
+						c2=expr.charAt(pos++);
+						switch(c2)
+							{
+							case 'n': c2='\n';break;
+							case 't': c2='\t';break;
+							case '\\': case '\'': case '\"': break;
+							default: throw error("unsupported escape sequence");
+							}
+						}
+					b.append(c2);
+					}
+				this.type=TokenType.STRING;
+				this.token=b.toString();
+				}
+			else
+				{
+				final String operators[]={
+						"===","!==",
+						"&&","||","==","!=","<=",">=",
+						"(",")",".",",",";","!","<",">","&","|","^","-"
+						};
+				this.token=null;
+				for(String op:operators)
+					{
+					if(expr.startsWith(op, pos))
+						{
+						this.token=op;
+						break;
+						}
+					}
+				if(this.token==null) throw error("unsupported character '"+c+"'");
+				pos+=this.token.length();
+				this.type=TokenType.OPERATOR;
+				}
+			}
+
+		boolean isOperator(String op)
+			{
+			return this.type==TokenType.OPERATOR && this.token.equals(op);
+			}
+
+		void expect(String op)  throws ParseException
+			{
+			if(!isOperator(op)) throw error("expected '"+op+"' got '"+this.token+"'");
+			next();
+			}
+		}
+
+	public SamRecordPredicateFactory()
+		{
+		}
+
+	/** compiles the expression. Throws a ParseException if the expression is not handled by this factory */
+	@SuppressWarnings("unchecked")
+	public Predicate<SAMRecord> compile(String expression) throws ParseException
+		{
+		Lexer lexer=new Lexer(expression);
+		Object node=parseOr(lexer);
+		if(lexer.isOperator(";")) lexer.next();
+		if(lexer.type!=TokenType.EOF) throw lexer.error("unexpected token '"+lexer.token+"'");
+		if(node instanceof Predicate)
+			{
+			return (Predicate<SAMRecord>)node;
+			}
+		else if(node instanceof IntNode)
+			{
+			/* same as the script engine: a number is accepted if it is equal to 1 */
+			final IntNode n=(IntNode)node;
+			return new Predicate<SAMRecord>()
+				{
+				@Override
+				public boolean apply(SAMRecord rec)
+					{
+					return n.eval(rec)==1;
+					}
+				};
+			}
+		throw lexer.error("expression is neither a boolean nor a number");
+		}
+
+	@SuppressWarnings("unchecked")
+	private static Predicate<SAMRecord> asPredicate(Lexer lexer,Object node) throws ParseException
+		{
+		if(node instanceof Predicate) return (Predicate<SAMRecord>)node;
+		throw lexer.error("expected a boolean expression");
+		}
+
+	private static IntNode asInt(Lexer lexer,Object node) throws ParseException
+		{
+		if(node instanceof IntNode) return (IntNode)node;
+		throw lexer.error("expected an integer expression");
+		}
+
+	@SuppressWarnings("unchecked")
+	private static ObjNode asObject(Object node)
+		{
+		if(node instanceof ObjNode) return (ObjNode)node;
+		if(node instanceof IntNode)
+			{
+			final IntNode n=(IntNode)node;
+			return new ObjNode()
+				{
+				@Override
+				Object eval(SAMRecord rec)
+					{
+					return n.eval(rec);
+					}
+				};
+			}
+		final Predicate<SAMRecord> p=(Predicate<SAMRecord>)node;
+		return new ObjNode()
+			{
+			@Override
+			Object eval(SAMRecord rec)
+				{
+				return p.apply(rec);
+				}
+			};
+		}
+
+	private Object parseOr(Lexer lexer) throws ParseException
+		{
+		Object left=parseAnd(lexer);
+		while(lexer.isOperator("||"))
+			{
+			lexer.next();
+			final Predicate<SAMRecord> p1=asPredicate(lexer,left);
+			final Predicate<SAMRecord> p2=asPredicate(lexer,parseAnd(lexer));
+			left=new Predicate<SAMRecord>()
+				{
+				@Override
+				public boolean apply(SAMRecord rec)
+					{
+					return p1.apply(rec) || p2.apply(rec);
+					}
+				};
+			}
+		return left;
+		}
+
+	private Object parseAnd(Lexer lexer) throws ParseException
+		{
+		Object left=parseBitOr(lexer);
+		while(lexer.isOperator("&&"))
+			{
+			lexer.next();
+			final Predicate<SAMRecord> p1=asPredicate(lexer,left);
+			final Predicate<SAMRecord> p2=asPredicate(lexer,parseBitOr(lexer));
+			left=new Predicate<SAMRecord>()
+				{
+				@Override
+				public boolean apply(SAMRecord rec)
+					{
+					return p1.apply(rec) && p2.apply(rec);
+					}
+				};
+			}
+		return left;
+		}
+
+	private Object parseBitOr(Lexer lexer) throws ParseException
+		{
+		Object left=parseBitXor(lexer);
+		while(lexer.isOperator("|"))
+			{
+			lexer.next();
+			final IntNode n1=asInt(lexer,left);
+			final IntNode n2=asInt(lexer,parseBitXor(lexer));
+			left=new IntNode()
+				{
+				@Override
+				int eval(SAMRecord rec)
+					{
+					return n1.eval(rec) | n2.eval(rec);
+					}
+				};
+			}
+		return left;
+		}
+
+	private Object parseBitXor(Lexer lexer) throws ParseException
+		{
+		Object left=parseBitAnd(lexer);
+		while(lexer.isOperator("^"))
+			{
+			lexer.next();
+			final IntNode n1=asInt(lexer,left);
+			final IntNode n2=asInt(lexer,parseBitAnd(lexer));
+			left=new IntNode()
+				{
+				@Override
+				int eval(SAMRecord rec)
+					{
+					return n1.eval(rec) ^ n2.eval(rec);
+					}
+				};
+			}
+		return left;
+		}
+
+	private Object parseBitAnd(Lexer lexer) throws ParseException
+		{
+		Object left=parseEquality(lexer);
+		while(lexer.isOperator("&"))
+			{
+			lexer.next();
+			final IntNode n1=asInt(lexer,left);
+			final IntNode n2=asInt(lexer,parseEquality(lexer));
+			left=new IntNode()
+				{
+				@Override
+				int eval(SAMRecord rec)
+					{
+					return n1.eval(rec) & n2.eval(rec);
+					}
+				};
+			}
+		return left;
+		}
+
+	@SuppressWarnings("unchecked")
+	private Object parseEquality(Lexer lexer) throws ParseException
+		{
+		Object left=parseRelational(lexer);
+		while(lexer.isOperator("==") || lexer.isOperator("!=") ||
+			  lexer.isOperator("===") || lexer.isOperator("!=="))
+			{
+			final String op=lexer.token;
+			lexer.next();
+			Object right=parseRelational(lexer);
+			final boolean negate=op.startsWith("!");
+			final boolean strict=op.length()==3;
+			final Predicate<SAMRecord> eq;
+			if(left instanceof IntNode && right instanceof IntNode)
+				{
+				final IntNode n1=(IntNode)left;
+				final IntNode n2=(IntNode)right;
+				eq=new Predicate<SAMRecord>()
+					{
+					@Override
+					public boolean apply(SAMRecord rec)
+						{
+						return n1.eval(rec)==n2.eval(rec);
+						}
+					};
+				}
+			else if(left instanceof Predicate && right instanceof Predicate)
+				{
+				final Predicate<SAMRecord> p1=(Predicate<SAMRecord>)left;
+				final Predicate<SAMRecord> p2=(Predicate<SAMRecord>)right;
+				eq=new Predicate<SAMRecord>()
+					{
+					@Override
+					public boolean apply(SAMRecord rec)
+						{
+						return p1.apply(rec)==p2.apply(rec);
+						}
+					};
+				}
+			else
+				{
+				final ObjNode o1=asObject(left);
+				final ObjNode o2=asObject(right);
+				eq=new Predicate<SAMRecord>()
+					{
+					@Override
+					public boolean apply(SAMRecord rec)
+						{
+						Object a=o1.eval(rec);
+						Object b=o2.eval(rec);
+						return strict?strictEquals(a, b):looseEquals(a,b);
+						}
+					};
+				}
+			if(!negate)
+				{
+				left=eq;
+				}
+			else
+				{
+				left=new Predicate<SAMRecord>()
+					{
+					@Override
+					public boolean apply(SAMRecord rec)
+						{
+						return !eq.apply(rec);
+						}
+					};
+				}
+			}
+		return left;
+		}
+
+	private Object parseRelational(Lexer lexer) throws ParseException
+		{
+		Object left=parseUnary(lexer);
+		while(lexer.isOperator("<") || lexer.isOperator("<=") ||
+			  lexer.isOperator(">") || lexer.isOperator(">="))
+			{
+			final String op=lexer.token;
+			lexer.next();
+			Object right=parseUnary(lexer);
+			if(left instanceof IntNode && right instanceof IntNode)
+				{
+				final IntNode n1=(IntNode)left;
+				final IntNode n2=(IntNode)right;
+				switch(op.charAt(0))
+					{
+					case '<': left= op.length()==1?
+							new Predicate<SAMRecord>()
+								{
+								@Override
+								public boolean apply(SAMRecord rec)
+									{
+									return n1.eval(rec) < n2.eval(rec);
+									}
+								}:
+							new Predicate<SAMRecord>()
+								{
+								@Override
+								public boolean apply(SAMRecord rec)
+									{
+									return n1.eval(rec) <= n2.eval(rec);
+									}
+								};
+							break;
+					default: left= op.length()==1?
+							new Predicate<SAMRecord>()
+								{
+								@Override
+								public boolean apply(SAMRecord rec)
+									{
+									return n1.eval(rec) > n2.eval(rec);
+									}
+								}:
+							new Predicate<SAMRecord>()
+								{
+								@Override
+								public boolean apply(SAMRecord rec)
+									{
+									return n1.eval(rec) >= n2.eval(rec);
+									}
+								};
+							break;
+					}
+				}
+			else
+				{
+				final ObjNode o1=asObject(left);
+				final ObjNode o2=asObject(right);
+				left=new Predicate<SAMRecord>()
+					{
+					@Override
+					public boolean apply(SAMRecord rec)
+						{
+						return compare(op,o1.eval(rec),o2.eval(rec));
+						}
+					};
+				}
+			}
+		return left;
+		}
+
+	private Object parseUnary(Lexer lexer) throws ParseException
+		{
+		if(lexer.isOperator("!"))
+			{
+			lexer.next();
+			final Predicate<SAMRecord> p=asPredicate(lexer,parseUnary(lexer));
+			return new Predicate<SAMRecord>()
+				{
+				@Override
+				public boolean apply(SAMRecord rec)
+					{
+					return !p.apply(rec);
+					}
+				};
+			}
+		else if(lexer.isOperator("-"))
+			{
+			lexer.next();
+			final IntNode n=asInt(lexer,parseUnary(lexer));
+			return new IntNode()
+				{
+				@Override
+				int eval(SAMRecord rec)
+					{
+					return -n.eval(rec);
+					}
+				};
+			}
+		return parsePrimary(lexer);
+		}
+
+	private Object parsePrimary(Lexer lexer) throws ParseException
+		{
+		Object node;
+		switch(lexer.type)
+			{
+			case INTEGER:
+				{
+				final int value=Integer.parseInt(lexer.token);
+				lexer.next();
+				node=new IntNode()
+					{
+					@Override
+					int eval(SAMRecord rec)
+						{
+						return value;
+						}
+					};
+				break;
+				}
+			case STRING:
+				{
+				final String value=lexer.token;
+				lexer.next();
+				node=new StringNode()
+					{
+					@Override
+					Object eval(SAMRecord rec)
+						{
+						return value;
+						}
+					};
+				break;
+				}
+			case IDENTIFIER:
+				{
+				if(lexer.token.equals("true") || lexer.token.equals("false"))
+					{
+					final boolean value=lexer.token.equals("true");
+					lexer.next();
+					node=new Predicate<SAMRecord>()
+						{
+						@Override
+						public boolean apply(SAMRecord rec)
+							{
+							return value;
+							}
+						};
+					}
+				else if(lexer.token.equals("null"))
+					{
+					lexer.next();
+					node=new ObjNode()
+						{
+						@Override
+						Object eval(SAMRecord rec)
+							{
+							return null;
+							}
+						};
+					}
+				else if(lexer.token.equals("record"))
+					{
+					lexer.next();
+					lexer.expect(".");
+					if(lexer.type!=TokenType.IDENTIFIER) throw lexer.error("expected a method name");
+					String method=lexer.token;
+					lexer.next();
+					lexer.expect("(");
+					if(method.equals("getAttribute"))
+						{
+						if(lexer.type!=TokenType.STRING) throw lexer.error("expected a tag");
+						final String tag=lexer.token;
+						lexer.next();
+						node=new ObjNode()
+							{
+							@Override
+							Object eval(SAMRecord rec)
+								{
+								return rec.getAttribute(tag);
+								}
+							};
+						}
+					else
+						{
+						node=createGetter(lexer,method);
+						}
+					lexer.expect(")");
+					}
+				else
+					{
+					throw lexer.error("unsupported identifier "+lexer.token);
+					}
+				break;
+				}
+			case OPERATOR:
+				{
+				if(!lexer.isOperator("(")) throw lexer.error("unexpected operator "+lexer.token);
+				lexer.next();
+				node=parseOr(lexer);
+				lexer.expect(")");
+				break;
+				}
+			default: throw lexer.error("unexpected end of expression");
+			}
+
+		/* method calls on strings */
+		while(lexer.isOperator("."))
+			{
+			lexer.next();
+			if(!(node instanceof ObjNode) || !((ObjNode)node).isString())
+				{
+				throw lexer.error("method call on a non-string value");
+				}
+			if(lexer.type!=TokenType.IDENTIFIER || !lexer.token.equals("indexOf"))
+				{
+				throw lexer.error("unsupported method "+lexer.token);
+				}
+			lexer.next();
+			lexer.expect("(");
+			if(lexer.type!=TokenType.STRING) throw lexer.error("expected a string");
+			final String substr=lexer.token;
+			lexer.next();
+			lexer.expect(")");
+			final ObjNode str=(ObjNode)node;
+			node=new IntNode()
+				{
+				@Override
+				int eval(SAMRecord rec)
+					{
+					return String.class.cast(str.eval(rec)).indexOf(substr);
+					}
+				};
+			}
+		return node;
+		}
+
+	/** returns a node for the getters of SAMRecord */
+	private Object createGetter(Lexer lexer,String method) throws ParseException
+		{
+		/* boolean flags */
+		if(method.equals("getReadPairedFlag")) return new Predicate<SAMRecord>()
+			{
+			@Override
+			public boolean apply(SAMRecord rec) { return rec.getReadPairedFlag();}
+			};
+		if(method.equals("getProperPairFlag")) return new Predicate<SAMRecord>()
+			{
+			@Override
+			public boolean apply(SAMRecord rec) { return rec.getProperPairFlag();}
+			};
+		if(method.equals("getReadUnmappedFlag")) return new Predicate<SAMRecord>()
+			{
+			@Override
+			public boolean apply(SAMRecord rec) { return rec.getReadUnmappedFlag();}
+			};
+		if(method.equals("getMateUnmappedFlag")) return new Predicate<SAMRecord>()
+			{
+			@Override
+			public boolean apply(SAMRecord rec) { return rec.getMateUnmappedFlag();}
+			};
+		if(method.equals("getReadNegativeStrandFlag")) return new Predicate<SAMRecord>()
+			{
+			@Override
+			public boolean apply(SAMRecord rec) { return rec.getReadNegativeStrandFlag();}
+			};
+		if(method.equals("getMateNegativeStrandFlag")) return new Predicate<SAMRecord>()
+			{
+			@Override
+			public boolean apply(SAMRecord rec) { return rec.getMateNegativeStrandFlag();}
+			};
+		if(method.equals("getFirstOfPairFlag")) return new Predicate<SAMRecord>()
+			{
+			@Override
+			public boolean apply(SAMRecord rec) { return rec.getFirstOfPairFlag();}
+			};
+		if(method.equals("getSecondOfPairFlag")) return new Predicate<SAMRecord>()
+			{
+			@Override
+			public boolean apply(SAMRecord rec) { return rec.getSecondOfPairFlag();}
+			};
+		if(method.equals("getNotPrimaryAlignmentFlag")) return new Predicate<SAMRecord>()
+			{
+			@Override
+			public boolean apply(SAMRecord rec) { return rec.getNotPrimaryAlignmentFlag();}
+			};
+		if(method.equals("getReadFailsVendorQualityCheckFlag")) return new Predicate<SAMRecord>()
+			{
+			@Override
+			public boolean apply(SAMRecord rec) { return rec.getReadFailsVendorQualityCheckFlag();}
+			};
+		if(method.equals("getDuplicateReadFlag")) return new Predicate<SAMRecord>()
+			{
+			@Override
+			public boolean apply(SAMRecord rec) { return rec.getDuplicateReadFlag();}
+			};
+		if(method.equals("getSupplementaryAlignmentFlag")) return new Predicate<SAMRecord>()
+			{
+			@Override
+			public boolean apply(SAMRecord rec) { return rec.getSupplementaryAlignmentFlag();}
+			};
+		/* integers */
+		if(method.equals("getFlags")) return new IntNode()
+			{
+			@Override
+			int eval(SAMRecord rec) { return rec.getFlags();}
+			};
+		if(method.equals("getMappingQuality")) return new IntNode()
+			{
+			@Override
+			int eval(SAMRecord rec) { return rec.getMappingQuality();}
+			};
+		if(method.equals("getReadLength")) return new IntNode()
+			{
+			@Override
+			int eval(SAMRecord rec) { return rec.getReadLength();}
+			};
+		if(method.equals("getAlignmentStart")) return new IntNode()
+			{
+			@Override
+			int eval(SAMRecord rec) { return rec.getAlignmentStart();}
+			};
+		if(method.equals("getAlignmentEnd")) return new IntNode()
+			{
+			@Override
+			int eval(SAMRecord rec) { return rec.getAlignmentEnd();}
+			};
+		if(method.equals("getUnclippedStart")) return new IntNode()
+			{
+			@Override
+			int eval(SAMRecord rec) { return rec.getUnclippedStart();}
+			};
+		if(method.equals("getUnclippedEnd")) return new IntNode()
+			{
+			@Override
+			int eval(SAMRecord rec) { return rec.getUnclippedEnd();}
+			};
+		if(method.equals("getMateAlignmentStart")) return new IntNode()
+			{
+			@Override
+			int eval(SAMRecord rec) { return rec.getMateAlignmentStart();}
+			};
+		if(method.equals("getInferredInsertSize")) return new IntNode()
+			{
+			@Override
+			int eval(SAMRecord rec) { return rec.getInferredInsertSize();}
+			};
+		/* strings */
+		if(method.equals("getReferenceName")) return new StringNode()
+			{
+			@Override
+			Object eval(SAMRecord rec) { return rec.getReferenceName();}
+			};
+		if(method.equals("getMateReferenceName")) return new StringNode()
+			{
+			@Override
+			Object eval(SAMRecord rec) { return rec.getMateReferenceName();}
+			};
+		if(method.equals("getReadName")) return new StringNode()
+			{
+			@Override
+			Object eval(SAMRecord rec) { return rec.getReadName();}
+			};
+		if(method.equals("getCigarString")) return new StringNode()
+			{
+			@Override
+			Object eval(SAMRecord rec) { return rec.getCigarString();}
+			};
+		if(method.equals("getReadString")) return new StringNode()
+			{
+			@Override
+			Object eval(SAMRecord rec) { return rec.getReadString();}
+			};
+		if(method.equals("getBaseQualityString")) return new StringNode()
+			{
+			@Override
+			Object eval(SAMRecord rec) { return rec.getBaseQualityString();}
+			};
+		throw lexer.error("unsupported method record."+method+"()");
+		}
+
+	/** javascript ToNumber */
+	private static double toNumber(Object o)
+		{
+		if(o==null) return 0.0;
+		if(o instanceof Number) return Number.class.cast(o).doubleValue();
+		if(o instanceof Boolean) return Boolean.TRUE.equals(o)?1.0:0.0;
+		String s=o.toString().trim();
+		if(s.isEmpty()) return 0.0;
+		try
+			{
+			return Double.parseDouble(s);
+			}
+		catch(NumberFormatException err)
+			{
+			return Double.NaN;
+			}
+		}
+
+	private static boolean isStringLike(Object o)
+		{
+		return (o instanceof String) || (o instanceof Character);
+		}
+
+	/** javascript operator '==' */
+	private static boolean looseEquals(Object a,Object b)
+		{
+		if(a==null || b==null) return a==b;
+		if(isStringLike(a) && isStringLike(b))
+			{
+			return a.toString().equals(b.toString());
+			}
+		if((a instanceof Number || a instanceof Boolean || isStringLike(a)) &&
+		   (b instanceof Number || b instanceof Boolean || isStringLike(b)))
+			{
+			return toNumber(a)==toNumber(b);
+			}
+		return a.equals(b);
+		}
+
+	/** javascript operator '===' */
+	private static boolean strictEquals(Object a,Object b)
+		{
+		if(a==null || b==null) return a==b;
+		if(isStringLike(a) && isStringLike(b))
+			{
+			return a.toString().equals(b.toString());
+			}
+		if(a instanceof Number && b instanceof Number)
+			{
+			return toNumber(a)==toNumber(b);
+			}
+		return a.equals(b);
+		}
+
+	/** javascript relational operators */
+	private static boolean compare(String op,Object a,Object b)
+		{
+		int cmp;
+		if(isStringLike(a) && isStringLike(b))
+			{
+			cmp=a.toString().compareTo(b.toString());
+			}
+		else
+			{
+			double d1=toNumber(a);
+			double d2=toNumber(b);
+			if(Double.isNaN(d1) || Double.isNaN(d2)) return false;
+			cmp=Double.compare(d1, d2);
+			if(d1==d2) cmp=0;/* -0.0 / 0.0 */
+			}
+		if(op.equals("<")) return cmp<0;
+		if(op.equals("<=")) return cmp<=0;
+		if(op.equals(">")) return cmp>0;
+		return cmp>=0;
+		}
+	}
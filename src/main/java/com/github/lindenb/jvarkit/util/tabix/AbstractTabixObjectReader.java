@@ -3,6 +3,7 @@ package com.github.lindenb.jvarkit.util.tabix;
 import java.io.Closeable;
 import java.io.IOException;
 import java.util.Iterator;
+import java.util.Set;
 
 import com.github.lindenb.jvarkit.util.tabix.TabixFileReader;
 
@@ -25,6 +26,12 @@ public abstract class AbstractTabixObjectReader<T> implements Closeable
     	return this.uri;
     	}
     
+    /** the chromosomes in the tabix index */
+    public Set<String> getChromosomes()
+    	{
+    	return this.tabix.getChromosomes();
+    	}
+    
     public Iterator<T> iterator(String chrom)
 		{
     	return iterator(tabix.iterator(chrom));
@@ -422,6 +422,13 @@ public class KnownGene implements Iterable<Integer>,Feature
 				}
 			}
 		
+		public void setExonBounds(int exonStarts[],int exonEnds[])
+			{
+			if(exonStarts.length!=exonEnds.length) throw new IllegalArgumentException("exonStarts.length!=exonEnds.length");
+			this.exonStarts=exonStarts;
+			this.exonEnds=exonEnds;
+			}
+
 		public int getExonStart(int index)
 			{
 			return this.exonStarts[index];
@@ -0,0 +1,368 @@
+package com.github.lindenb.jvarkit.util.ucsc;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A compact, versioned binary index of a UCSC knownGene table.
+ *
+ * The file is a block of big-endian int32 followed by a pool of strings:
+ * <pre>
+ * header      : MAGIC, VERSION, n_chroms, n_transcripts, n_exons
+ * chroms      : n_chroms * (first_transcript, end_transcript, name_offset)
+ * transcripts : n_transcripts * (chrom, strand, txStart, txEnd, cdsStart, cdsEnd, first_exon, name_offset)
+ * max_end     : n_transcripts * running max of txEnd on the chromosome
+ * exons       : n_exons starts , n_exons ends , 1 sentinel (n_exons)
+ * strings     : (unsigned short length, utf-8 bytes) *
+ * </pre>
+ * Transcripts are sorted on (chrom,txStart). The file is memory-mapped and
+ * KnownGene objects are only created for the transcripts that are requested.
+ */
+public class KnownGeneIndex implements Closeable
+	{
+	public static final String SUFFIX=".kgi";
+	/** 'JVKG' */
+	private static final int MAGIC=0x4A564B47;
+	public static final int VERSION=1;
+	private static final int HEADER_SIZE=5;
+	private static final int CHROM_RECORD_SIZE=3;
+	private static final int TRANSCRIPT_RECORD_SIZE=8;
+
+	private RandomAccessFile raf;
+	private IntBuffer ints;
+	private ByteBuffer strings;
+	private int nChroms;
+	private int nTranscripts;
+	private int nExons;
+	private int chromTableOffset;
+	private int transcriptTableOffset;
+	private int maxEndOffset;
+	private int exonStartsOffset;
+	private int exonEndsOffset;
+	private Map<String,Integer> chrom2index=new HashMap<String,Integer>();
+
+	/** open and memory-map an existing index */
+	public KnownGeneIndex(File file) throws IOException
+		{
+		this.raf=new RandomAccessFile(file, "r");
+		FileChannel channel=this.raf.getChannel();
+		ByteBuffer buffer=channel.map(FileChannel.MapMode.READ_ONLY, 0L, channel.size());
+		if(buffer.capacity()< HEADER_SIZE*4)
+			{
+			close();
+			throw new IOException("Not a knownGene index: "+file);
+			}
+		this.ints=buffer.asIntBuffer();
+		if(this.ints.get(0)!=MAGIC)
+			{
+			close();
+			throw new IOException("Not a knownGene index: "+file);
+			}
+		if(this.ints.get(1)!=VERSION)
+			{
+			close();
+			throw new IOException("Bad version for knownGene index "+file+
+					" expected "+VERSION+" but got "+this.ints.get(1)+". Please rebuild the index.");
+			}
+		this.nChroms=this.ints.get(2);
+		this.nTranscripts=this.ints.get(3);
+		this.nExons=this.ints.get(4);
+		this.chromTableOffset=HEADER_SIZE;
+		this.transcriptTableOffset=this.chromTableOffset+this.nChroms*CHROM_RECORD_SIZE;
+		this.maxEndOffset=this.transcriptTableOffset+this.nTranscripts*TRANSCRIPT_RECORD_SIZE;
+		this.exonStartsOffset=this.maxEndOffset+this.nTranscripts;
+		this.exonEndsOffset=this.exonStartsOffset+this.nExons;
+		int stringsOffset=4*(this.exonEndsOffset+this.nExons+1);
+		buffer.position(stringsOffset);
+		this.strings=buffer.slice();
+		for(int i=0;i< this.nChroms;++i)
+			{
+			this.chrom2index.put(getString(chromField(i,2)), i);
+			}
+		}
+
+	/** returns true if the file starts with the magic number of a knownGene index */
+	public static boolean isKnownGeneIndex(File file)
+		{
+		if(!file.isFile()) return false;
+		DataInputStream in=null;
+		try
+			{
+			in=new DataInputStream(new FileInputStream(file));
+			return in.readInt()==MAGIC;
+			}
+		catch(IOException err)
+			{
+			return false;
+			}
+		finally
+			{
+			if(in!=null) try { in.close();} catch(IOException err) {}
+			}
+		}
+
+	/** returns true if the uri is a local knownGene index */
+	public static boolean isKnownGeneIndex(String uri)
+		{
+		if(uri==null) return false;
+		return isKnownGeneIndex(new File(uri));
+		}
+
+	private int chromField(int chromIndex,int field)
+		{
+		return this.ints.get(this.chromTableOffset+chromIndex*CHROM_RECORD_SIZE+field);
+		}
+
+	private int transcriptField(int index,int field)
+		{
+		return this.ints.get(this.transcriptTableOffset+index*TRANSCRIPT_RECORD_SIZE+field);
+		}
+
+	private String getString(int offset)
+		{
+		int len=this.strings.getShort(offset)&0xFFFF;
+		byte array[]=new byte[len];
+		for(int i=0;i< len;++i) array[i]=this.strings.get(offset+2+i);
+		try
+			{
+			return new String(array,"UTF-8");
+			}
+		catch(java.io.UnsupportedEncodingException err)
+			{
+			throw new RuntimeException(err);
+			}
+		}
+
+	/** number of transcripts in this index */
+	public int size()
+		{
+		return this.nTranscripts;
+		}
+
+	/** returns the names of the chromosomes in this index */
+	public Set<String> getChromosomes()
+		{
+		return Collections.unmodifiableSet(this.chrom2index.keySet());
+		}
+
+	/** returns true if there is at least one transcript on this chromosome */
+	public boolean containsChromosome(String chrom)
+		{
+		return this.chrom2index.containsKey(chrom);
+		}
+
+	public int getTxStart(int index)
+		{
+		return transcriptField(index,2);
+		}
+
+	public int getTxEnd(int index)
+		{
+		return transcriptField(index,3);
+		}
+
+	/** materializes the transcript at the given index (0&lt;=index&lt;size()) */
+	public KnownGene getKnownGene(int index)
+		{
+		KnownGene kg=new KnownGene();
+		kg.setChrom(getString(chromField(transcriptField(index,0),2)));
+		kg.setStrand((char)transcriptField(index,1));
+		kg.setTxStart(transcriptField(index,2));
+		kg.setTxEnd(transcriptField(index,3));
+		kg.setCdsStart(transcriptField(index,4));
+		kg.setCdsEnd(transcriptField(index,5));
+		int firstExon=transcriptField(index,6);
+		int lastExon=(index+1< this.nTranscripts?transcriptField(index+1,6):this.nExons);
+		int exonStarts[]=new int[lastExon-firstExon];
+		int exonEnds[]=new int[exonStarts.length];
+		for(int i=0;i< exonStarts.length;++i)
+			{
+			exonStarts[i]=this.ints.get(this.exonStartsOffset+firstExon+i);
+			exonEnds[i]=this.ints.get(this.exonEndsOffset+firstExon+i);
+			}
+		kg.setExonBounds(exonStarts, exonEnds);
+		kg.setName(getString(transcriptField(index,7)));
+		return kg;
+		}
+
+	/** returns all the transcripts on the chromosome , sorted on txStart */
+	public List<KnownGene> getKnownGenes(String chrom)
+		{
+		Integer chromIndex=this.chrom2index.get(chrom);
+		if(chromIndex==null) return Collections.emptyList();
+		int first=chromField(chromIndex,0);
+		int end=chromField(chromIndex,1);
+		List<KnownGene> L=new ArrayList<KnownGene>(end-first);
+		for(int i=first;i< end;++i) L.add(getKnownGene(i));
+		return L;
+		}
+
+	/** returns the transcripts overlapping the 0-based interval [start0,end0[ , sorted on txStart */
+	public List<KnownGene> getOverlapping(String chrom,int start0,int end0)
+		{
+		Integer chromIndex=this.chrom2index.get(chrom);
+		if(chromIndex==null) return Collections.emptyList();
+		int first=chromField(chromIndex,0);
+		/* binary search: first transcript with txStart >= end0 */
+		int lo=first;
+		int hi=chromField(chromIndex,1);
+		while(lo< hi)
+			{
+			int mid=(lo+hi)>>>1;
+			if(getTxStart(mid)< end0)
+				{
+				lo=mid+1;
+				}
+			else
+				{
+				hi=mid;
+				}
+			}
+		/* walk back while some transcript before may still reach start0 */
+		List<KnownGene> L=new ArrayList<KnownGene>();
+		for(int i=lo-1;i>=first;--i)
+			{
+			if(this.ints.get(this.maxEndOffset+i)<=start0) break;
+			if(getTxEnd(i)> start0) L.add(getKnownGene(i));
+			}
+		Collections.reverse(L);
+		return L;
+		}
+
+	@Override
+	public void close() throws IOException
+		{
+		this.ints=null;
+		this.strings=null;
+		if(this.raf!=null) this.raf.close();
+		this.raf=null;
+		}
+
+	/** writes the index of a collection of KnownGenes in 'file' */
+	public static void write(List<KnownGene> genes,File file) throws IOException
+		{
+		final Map<String,Integer> chrom2index=new LinkedHashMap<String,Integer>();
+		List<KnownGene> sorted=new ArrayList<KnownGene>(genes);
+		Collections.sort(sorted,new Comparator<KnownGene>()
+			{
+			@Override
+			public int compare(KnownGene o1, KnownGene o2)
+				{
+				int i=o1.getChromosome().compareTo(o2.getChromosome());
+				if(i!=0) return i;
+				return o1.getTxStart()-o2.getTxStart();
+				}
+			});
+		int nExons=0;
+		for(KnownGene kg:sorted)
+			{
+			if(!chrom2index.containsKey(kg.getChromosome()))
+				{
+				chrom2index.put(kg.getChromosome(), chrom2index.size());
+				}
+			nExons+=kg.getExonCount();
+			}
+
+		/* string pool */
+		java.io.ByteArrayOutputStream pool=new java.io.ByteArrayOutputStream();
+		DataOutputStream poolOut=new DataOutputStream(pool);
+		Map<String,Integer> chrom2offset=new HashMap<String,Integer>();
+		for(String chrom:chrom2index.keySet())
+			{
+			chrom2offset.put(chrom,poolOut.size());
+			writeString(poolOut,chrom);
+			}
+		int nameOffsets[]=new int[sorted.size()];
+		for(int i=0;i< sorted.size();++i)
+			{
+			nameOffsets[i]=poolOut.size();
+			writeString(poolOut,sorted.get(i).getName());
+			}
+		poolOut.flush();
+
+		DataOutputStream out=new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(chrom2index.size());
+		out.writeInt(sorted.size());
+		out.writeInt(nExons);
+		/* chromosomes */
+		int n=0;
+		for(String chrom:chrom2index.keySet())
+			{
+			int first=n;
+			while(n< sorted.size() && sorted.get(n).getChromosome().equals(chrom)) ++n;
+			out.writeInt(first);
+			out.writeInt(n);
+			out.writeInt(chrom2offset.get(chrom));
+			}
+		/* transcripts */
+		int exonIndex=0;
+		for(int i=0;i< sorted.size();++i)
+			{
+			KnownGene kg=sorted.get(i);
+			out.writeInt(chrom2index.get(kg.getChromosome()));
+			out.writeInt(kg.isPositiveStrand()?'+':(kg.isNegativeStrand()?'-':'.'));
+			out.writeInt(kg.getTxStart());
+			out.writeInt(kg.getTxEnd());
+			out.writeInt(kg.getCdsStart());
+			out.writeInt(kg.getCdsEnd());
+			out.writeInt(exonIndex);
+			out.writeInt(nameOffsets[i]);
+			exonIndex+=kg.getExonCount();
+			}
+		/* running max of txEnd */
+		String prevChrom=null;
+		int maxEnd=0;
+		for(KnownGene kg:sorted)
+			{
+			if(!kg.getChromosome().equals(prevChrom))
+				{
+				prevChrom=kg.getChromosome();
+				maxEnd=0;
+				}
+			maxEnd=Math.max(maxEnd, kg.getTxEnd());
+			out.writeInt(maxEnd);
+			}
+		/* exons */
+		for(KnownGene kg:sorted)
+			{
+			for(int i=0;i< kg.getExonCount();++i) out.writeInt(kg.getExonStart(i));
+			}
+		for(KnownGene kg:sorted)
+			{
+			for(int i=0;i< kg.getExonCount();++i) out.writeInt(kg.getExonEnd(i));
+			}
+		out.writeInt(nExons);
+		pool.writeTo(out);
+		out.flush();
+		out.close();
+		}
+
+	private static void writeString(DataOutputStream out,String s) throws IOException
+		{
+		byte array[]=s.getBytes("UTF-8");
+		if(array.length>0xFFFF) throw new IOException("String too long "+s);
+		out.writeShort(array.length);
+		out.write(array);
+		}
+
+	}
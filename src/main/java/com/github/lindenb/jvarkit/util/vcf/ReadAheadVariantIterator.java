@@ -0,0 +1,135 @@
+package com.github.lindenb.jvarkit.util.vcf;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import net.sf.picard.PicardException;
+import net.sf.samtools.util.CloserUtil;
+
+import org.broadinstitute.variant.variantcontext.VariantContext;
+
+/**
+ * Reads and decodes the variants of a delegate iterator (e.g. a VcfIterator) in its own thread:
+ * the variants are sent, by batches, through a bounded queue. The delegate must not be used by
+ * another thread.
+ */
+public class ReadAheadVariantIterator
+	implements Iterator<VariantContext>,Closeable
+	{
+	private static final int BATCH_SIZE=256;
+	private static final int QUEUE_CAPACITY=2;
+	private final Iterator<VariantContext> delegate;
+	private final BlockingQueue<List<VariantContext>> queue=new ArrayBlockingQueue<List<VariantContext>>(QUEUE_CAPACITY);
+	private final Thread thread;
+	private volatile Throwable error=null;
+	private List<VariantContext> current=null;
+	private int index=0;
+	private boolean eof=false;
+
+	public ReadAheadVariantIterator(Iterator<VariantContext> delegate,String name)
+		{
+		this.delegate=delegate;
+		this.thread=new Thread(name)
+			{
+			@Override
+			public void run()
+				{
+				readAhead();
+				}
+			};
+		this.thread.setDaemon(true);
+		this.thread.start();
+		}
+
+	/** called by the thread: an empty batch marks the end of the variants */
+	private void readAhead()
+		{
+		try
+			{
+			for(;;)
+				{
+				List<VariantContext> batch=new ArrayList<VariantContext>(BATCH_SIZE);
+				while(batch.size()< BATCH_SIZE && this.delegate.hasNext())
+					{
+					/* the genotypes are decoded in this thread: the consumer never calls back into the codec */
+					batch.add(VCFUtils.decodeGenotypes(this.delegate.next()));
+					}
+				this.queue.put(batch);
+				if(batch.isEmpty()) break;
+				}
+			}
+		catch(InterruptedException err)
+			{
+			/* closed */
+			}
+		catch(Throwable err)
+			{
+			this.error=err;
+			this.queue.clear();
+			this.queue.offer(new ArrayList<VariantContext>(0));
+			}
+		}
+
+	@Override
+	public boolean hasNext()
+		{
+		if(this.eof) return false;
+		if(this.current==null || this.index>=this.current.size())
+			{
+			try
+				{
+				this.current=this.queue.take();
+				}
+			catch(InterruptedException err)
+				{
+				throw new PicardException("interrupted",err);
+				}
+			this.index=0;
+			if(this.current.isEmpty())
+				{
+				this.eof=true;
+				this.current=null;
+				if(this.error!=null)
+					{
+					if(this.error instanceof RuntimeException) throw (RuntimeException)this.error;
+					throw new PicardException(this.error.getMessage(),this.error);
+					}
+				return false;
+				}
+			}
+		return true;
+		}
+
+	public VariantContext peek()
+		{
+		if(!hasNext()) throw new NoSuchElementException();
+		return this.current.get(this.index);
+		}
+
+	@Override
+	public VariantContext next()
+		{
+		if(!hasNext()) throw new NoSuchElementException();
+		return this.current.get(this.index++);
+		}
+
+	@Override
+	public void remove()
+		{
+		throw new UnsupportedOperationException();
+		}
+
+	/** stops the thread and closes the delegate */
+	@Override
+	public void close()
+		{
+		this.thread.interrupt();
+		this.eof=true;
+		CloserUtil.close(this.delegate);
+		}
+	}
@@ -17,6 +17,7 @@ import net.sf.samtools.util.BlockCompressedOutputStream;
 
 import org.broad.tribble.readers.LineIterator;
 import org.broad.tribble.readers.LineReader;
+import org.broadinstitute.variant.variantcontext.VariantContext;
 import org.broadinstitute.variant.variantcontext.writer.Options;
 import org.broadinstitute.variant.variantcontext.writer.VariantContextWriter;
 import org.broadinstitute.variant.variantcontext.writer.VariantContextWriterFactory;
@@ -153,6 +154,18 @@ public class VCFUtils
 		return new VcfIterator(System.in);
 		}
 	
+	/**
+	 * forces the parsing of the genotypes of a variant. The genotypes created by a VCFCodec
+	 * are parsed lazily by this codec, which is not thread-safe: a variant handed to another
+	 * thread must be decoded by the thread that reads the VCF.
+	 */
+	public static VariantContext decodeGenotypes(VariantContext ctx)
+		{
+		/* GenotypesContext.iterator() parses the lazy genotypes */
+		ctx.getGenotypes().iterator();
+		return ctx;
+		}
+	
 	public static  VariantContextWriter createVariantContextWriterToStdout()
 		{
 		return VariantContextWriterFactory.create(System.out,null,EnumSet.noneOf(Options.class));
@@ -0,0 +1,59 @@
+package com.github.lindenb.jvarkit.util.vcf.predictions;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded (least recently used) cache used by the prediction parsers
+ * to resolve the same annotation strings only once per run.
+ */
+abstract class BoundedCache<K,V>
+	{
+	private static final int DEFAULT_CAPACITY=10000;
+	private final Map<K,V> map;
+
+	BoundedCache()
+		{
+		this(DEFAULT_CAPACITY);
+		}
+
+	BoundedCache(final int capacity)
+		{
+		this.map=new LinkedHashMap<K,V>(1000,0.75f,true)
+			{
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<K,V> eldest)
+				{
+				return size()>capacity;
+				}
+			};
+		}
+
+	/** computes the value for a key that is not in the cache */
+	protected abstract V create(K key);
+
+	synchronized V get(K key)
+		{
+		V value=this.map.get(key);
+		if(value==null && !this.map.containsKey(key))
+			{
+			value=create(key);
+			this.map.put(key, value);
+			}
+		return value;
+		}
+
+	/** a cache returning the same instance for equal strings */
+	static BoundedCache<String,String> createStringCache()
+		{
+		return new BoundedCache<String,String>()
+			{
+			@Override
+			protected String create(String key)
+				{
+				return key;
+				}
+			};
+		}
+	}
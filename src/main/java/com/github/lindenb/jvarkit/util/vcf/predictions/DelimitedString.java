@@ -0,0 +1,94 @@
+package com.github.lindenb.jvarkit.util.vcf.predictions;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A String and the offsets of its fields. The string is scanned once,
+ * a field is only extracted when it is requested. Like String.split ,
+ * the trailing empty fields are ignored.
+ */
+class DelimitedString
+	{
+	private final String s;
+	/** field 'i' is s[starts[i],ends[i]] */
+	private int starts[];
+	private int ends[];
+	private int count=0;
+
+	DelimitedString(String s,String delimiters)
+		{
+		this.s=s;
+		this.starts=new int[20];
+		this.ends=new int[20];
+		int begin=0;
+		for(int i=0;i<=s.length();++i)
+			{
+			if(i< s.length() && delimiters.indexOf(s.charAt(i))==-1) continue;
+			if(this.count==this.starts.length)
+				{
+				int copy[]=new int[this.count*2];
+				System.arraycopy(this.starts, 0, copy, 0, this.count);
+				this.starts=copy;
+				copy=new int[this.count*2];
+				System.arraycopy(this.ends, 0, copy, 0, this.count);
+				this.ends=copy;
+				}
+			this.starts[this.count]=begin;
+			this.ends[this.count]=i;
+			this.count++;
+			begin=i+1;
+			}
+		/* remove trailing empty fields */
+		while(this.count>0 && this.starts[this.count-1]==this.ends[this.count-1])
+			{
+			this.count--;
+			}
+		/* String.split returns the whole string if there is no delimiter */
+		if(this.count==0 && s.isEmpty())
+			{
+			this.starts[0]=0;
+			this.ends[0]=0;
+			this.count=1;
+			}
+		}
+
+	/** number of fields */
+	int size()
+		{
+		return this.count;
+		}
+
+	/** returns true if the field is missing or empty */
+	boolean isEmpty(int index)
+		{
+		return index<0 || index>=this.count || this.starts[index]==this.ends[index];
+		}
+
+	/** returns the field, or null if it is missing or empty */
+	String get(int index)
+		{
+		if(isEmpty(index)) return null;
+		return this.s.substring(this.starts[index], this.ends[index]);
+		}
+
+	/** returns the field even if it is empty, or null if it is missing */
+	String getRaw(int index)
+		{
+		if(index<0 || index>=this.count) return null;
+		return this.s.substring(this.starts[index], this.ends[index]);
+		}
+
+	List<String> asList()
+		{
+		List<String> L=new ArrayList<String>(this.count);
+		for(int i=0;i< this.count;++i) L.add(getRaw(i));
+		return L;
+		}
+
+	@Override
+	public String toString()
+		{
+		return this.s;
+		}
+	}
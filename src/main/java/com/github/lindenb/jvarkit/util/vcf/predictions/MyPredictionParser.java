@@ -3,13 +3,13 @@ package com.github.lindenb.jvarkit.util.vcf.predictions;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.logging.Logger;
-import java.util.regex.Pattern;
 
 
 import org.broadinstitute.variant.variantcontext.VariantContext;
@@ -27,8 +27,20 @@ public class MyPredictionParser implements PredictionParser
 	{
 	private static final Logger LOG=Logger.getLogger("jvarkit");
 	private Map<VCFAnnotator.FORMAT1, Integer> col2col=new HashMap<VCFAnnotator.FORMAT1, Integer>();
+	/** column index for each ordinal of the enum, or -1 */
+	private int col2index[]=new int[VCFAnnotator.FORMAT1.values().length];
+	/** consequence string to SO terms: the same consequences are found on most lines */
+	private final BoundedCache<String, Set<SequenceOntologyTree.Term>> soTermsCache=new BoundedCache<String, Set<SequenceOntologyTree.Term>>()
+		{
+		@Override
+		protected Set<SequenceOntologyTree.Term> create(String consequence)
+			{
+			return parseSOTerms(consequence);
+			}
+		};
+	/** shared instances of the gene names */
+	private final BoundedCache<String, String> geneNameCache=BoundedCache.createStringCache();
 
-	private Pattern pipe=Pattern.compile("[\\|]");
 
 	public final String getTag()
 		{
@@ -39,6 +51,7 @@ public class MyPredictionParser implements PredictionParser
 	
 	public MyPredictionParser(VCFHeader header)
 		{	
+		Arrays.fill(this.col2index, -1);
 		VCFInfoHeaderLine info=header.getInfoHeaderLine(getTag());
 		if(info==null || info.getDescription()==null)
 			{
@@ -54,7 +67,7 @@ public class MyPredictionParser implements PredictionParser
 			return;
 			}
 		description=description.substring(i+chunck.length()).replaceAll("[ \'\\.\\(\\)]+","").trim();
-		String tokens[]=pipe.split(description);
+		String tokens[]=description.split("[\\|]");
 
 		for(i=0;i< tokens.length;++i)
 			{
@@ -73,11 +86,26 @@ public class MyPredictionParser implements PredictionParser
 				continue;
 				}
 			col2col.put(col, i);
+			col2index[col.ordinal()]=i;
 			}
 		}
 	
 	
 	
+	private static Set<SequenceOntologyTree.Term> parseSOTerms(String EFF)
+		{
+		SequenceOntologyTree tree=SequenceOntologyTree.getInstance();
+		Set<SequenceOntologyTree.Term> set=new HashSet<SequenceOntologyTree.Term>();
+		for(String eff:EFF.split("[&]"))
+			{
+			/* labels of the tree don't contain any space */
+			SequenceOntologyTree.Term t=tree.getTermByLabel(eff);
+			if(t==null) t=tree.getTermByAcn(eff);
+			if(t!=null) set.add(t);
+			}
+		return Collections.unmodifiableSet(set);
+		}
+	
 	@Override
 	public List<MyPrediction> getPredictions(VariantContext ctx)
 		{
@@ -114,32 +142,27 @@ public class MyPredictionParser implements PredictionParser
 			}
 		String s=String.class.cast(o).trim();
 		
-		String tokens[]=pipe.split(s);
-		preds.add(new MyPrediction(tokens));
+		preds.add(new MyPrediction(new DelimitedString(s,"|")));
 		}
 			
 	
 	public class MyPrediction
 		implements Prediction
 		{
-		private String tokens[];
-		MyPrediction(String tokens[])
+		private DelimitedString tokens;
+		MyPrediction(DelimitedString tokens)
 			{
 			this.tokens=tokens;
 			}			
 		private String getByCol(VCFAnnotator.FORMAT1 col)
 			{
-			Integer idx=col2col.get(col);
-			if(idx==null || idx>=tokens.length || tokens[idx].isEmpty())
-				{
-				return null;
-				}
-			return tokens[idx];
+			return tokens.get(col2index[col.ordinal()]);
 			}
 		
 		public String getTranscript()
 			{
-			return getByCol(VCFAnnotator.FORMAT1.TRANSCRIPT);
+			String s=getByCol(VCFAnnotator.FORMAT1.TRANSCRIPT);
+			return s==null?null:geneNameCache.get(s);
 			}
 		
 		
@@ -156,8 +179,8 @@ public class MyPredictionParser implements PredictionParser
 			for(VCFAnnotator.FORMAT1 c: col2col.keySet())
 				{
 				int idx=col2col.get(c);
-				if(idx>=this.tokens.length) continue;
-				hash.put(c, tokens[idx]);
+				if(idx>=this.tokens.size()) continue;
+				hash.put(c, tokens.getRaw(idx));
 				}
 			return hash;
 			}
@@ -238,33 +261,19 @@ public class MyPredictionParser implements PredictionParser
 			return null;
 			}
 		
+		/** returns an unmodifiable set of SO terms , shared by the predictions having the same consequence */
 		@Override
 		public Set<SequenceOntologyTree.Term> getSOTerms()
 			{
-			Set<SequenceOntologyTree.Term> set=new HashSet<SequenceOntologyTree.Term>();
 			String EFF=getByCol(VCFAnnotator.FORMAT1.SEQONTOLOGY);
-			if(EFF==null) return set;
-			for(SequenceOntologyTree.Term t:SequenceOntologyTree.getInstance().getTerms())
-				{
-				for(String eff:EFF.split("[&]"))
-					{
-					if(t.getLabel().replace(' ', '_').equals(eff))
-						{
-						set.add(t);
-						}
-					else if(t.getAcn().equals(eff))
-						{
-						set.add(t);
-						}
-					}
-				}
-			return set;
+			if(EFF==null) return Collections.emptySet();
+			return soTermsCache.get(EFF);
 			}
 
 		
 	@Override
 	public String toString() {
-		return getMap().toString()+ " "+Arrays.asList(tokens);
+		return getMap().toString()+ " "+tokens.asList();
 		}
 	}
 		
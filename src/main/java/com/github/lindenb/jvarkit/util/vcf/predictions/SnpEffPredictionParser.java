@@ -3,13 +3,12 @@ package com.github.lindenb.jvarkit.util.vcf.predictions;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.logging.Logger;
-import java.util.regex.Pattern;
 
 
 import org.broadinstitute.variant.variantcontext.VariantContext;
@@ -33,7 +32,19 @@ public class SnpEffPredictionParser implements PredictionParser
 		Amino_Acid_change,Amino_Acid_length,Gene_Name , Gene_BioType , Coding , Transcript,
 		Exon  , GenotypeNum , ERRORS , WARNINGS,Transcript_BioType,Gene_Coding,Transcript_ID,Exon_Rank,Genotype_Number};
 	private Map<COLS, Integer> col2col=new HashMap<COLS, Integer>();
-	private Pattern pipe=Pattern.compile("[\\|\\(\\)]");
+	/** column index for each ordinal of the enum, or -1 */
+	private int col2index[]=new int[COLS.values().length];
+	/** consequence string to SO terms: the same consequences are found on most lines */
+	private final BoundedCache<String, Set<SequenceOntologyTree.Term>> soTermsCache=new BoundedCache<String, Set<SequenceOntologyTree.Term>>()
+		{
+		@Override
+		protected Set<SequenceOntologyTree.Term> create(String consequence)
+			{
+			return parseSOTerms(consequence);
+			}
+		};
+	/** shared instances of the gene names */
+	private final BoundedCache<String, String> geneNameCache=BoundedCache.createStringCache();
 	private String tag;
 	public SnpEffPredictionParser(VCFHeader header)
 		{		
@@ -49,6 +60,7 @@ public class SnpEffPredictionParser implements PredictionParser
 	public SnpEffPredictionParser(VCFHeader header,String tag)
 		{	
 		this.tag=(tag==null?getDefaultTag():tag);
+		Arrays.fill(this.col2index, -1);
 		VCFInfoHeaderLine info=header.getInfoHeaderLine(tag);
 		if(info==null || info.getDescription()==null)
 			{
@@ -65,7 +77,7 @@ public class SnpEffPredictionParser implements PredictionParser
 			return;
 			}
 		description=description.substring(i+chunck.length()).replace('(','|').replaceAll("[ \'\\.)\\[\\]]+","").trim();
-		String tokens[]=pipe.split(description);
+		String tokens[]=description.split("[\\|\\(\\)]");
 		for(i=0;i< tokens.length;++i)
 			{
 			if(tokens[i].isEmpty()) continue;
@@ -83,6 +95,7 @@ public class SnpEffPredictionParser implements PredictionParser
 				continue;
 				}
 			col2col.put(col, i);
+			col2index[col.ordinal()]=i;
 			}
 		}
 	
@@ -93,6 +106,13 @@ public class SnpEffPredictionParser implements PredictionParser
 		}
 	
 
+	private static Set<SequenceOntologyTree.Term> parseSOTerms(String EFF)
+		{
+		SequenceOntologyTree.Term t=SequenceOntologyTree.getInstance().getTermByLabel(EFF);
+		if(t==null) return Collections.emptySet();
+		return Collections.singleton(t);
+		}
+
 	@Override
 	public List<SnpEffPrediction> getPredictions(VariantContext ctx)
 		{
@@ -127,8 +147,7 @@ public class SnpEffPredictionParser implements PredictionParser
 			return;
 			}
 		String s=String.class.cast(o).trim();
-		String tokens[]=pipe.split(s);
-		preds.add(new SnpEffPrediction(tokens));
+		preds.add(new SnpEffPrediction(new DelimitedString(s,"|()")));
 		}
 	
 	
@@ -145,21 +164,20 @@ public class SnpEffPredictionParser implements PredictionParser
 	public class SnpEffPrediction
 		implements Prediction
 		{
-		private String tokens[];
-		SnpEffPrediction(String tokens[])
+		private DelimitedString tokens;
+		SnpEffPrediction(DelimitedString tokens)
 			{
 			this.tokens=tokens;
 			}
 		private String getByCol(COLS col)
 			{
-			Integer idx=col2col.get(col);
-			if(idx==null || idx>=tokens.length || tokens[idx].isEmpty()) return null;
-			return tokens[idx];
+			return tokens.get(col2index[col.ordinal()]);
 			}
 		@Override
 		public String getGeneName()
 			{
-			return getByCol(COLS.Gene_Name);
+			String s=getByCol(COLS.Gene_Name);
+			return s==null?null:geneNameCache.get(s);
 			}
 		
 		@Override
@@ -229,34 +247,26 @@ public class SnpEffPredictionParser implements PredictionParser
 			for(COLS c: col2col.keySet())
 				{
 				int idx=col2col.get(c);
-				if(idx>=this.tokens.length) continue;
-				hash.put(c, tokens[idx]);
+				if(idx>=this.tokens.size()) continue;
+				hash.put(c, tokens.getRaw(idx));
 				}
 			return hash;
 			}
 		
+		/** returns an unmodifiable set of SO terms , shared by the predictions having the same effect */
 		@Override
 		public Set<SequenceOntologyTree.Term> getSOTerms()
 			{
-			Set<SequenceOntologyTree.Term> set=new HashSet<SequenceOntologyTree.Term>();
 			String EFF=getByCol(COLS.Effect);
-			if(EFF==null) return set;
-			for(SequenceOntologyTree.Term t:SequenceOntologyTree.getInstance().getTerms())
-				{
-				if(t.getLabel().equals(EFF))
-					{
-					set.add(t);
-					//break ?
-					}
-				}
-			return set;
+			if(EFF==null) return Collections.emptySet();
+			return soTermsCache.get(EFF);
 			}
 
 
 		
 		@Override
 		public String toString() {
-			return getMap().toString()+ " "+Arrays.asList(tokens);
+			return getMap().toString()+ " "+tokens.asList();
 			}
 		}
 	
@@ -3,13 +3,13 @@ package com.github.lindenb.jvarkit.util.vcf.predictions;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.logging.Logger;
-import java.util.regex.Pattern;
 
 
 import org.broadinstitute.variant.variantcontext.VariantContext;
@@ -31,7 +31,19 @@ public class VepPredictionParser implements PredictionParser
 
 	private enum COLS{Allele,Gene,Feature,Feature_type,Consequence,cDNA_position,CDS_position,Protein_position,Amino_acids,Codons,Existing_variation,HGNC,DISTANCE,SIFT,PolyPhen,CELL_TYPE,RefSeq,EXON};
 	private Map<COLS, Integer> col2col=new HashMap<COLS, Integer>();
-	private Pattern pipe=Pattern.compile("[\\|]");
+	/** column index for each ordinal of the enum, or -1 */
+	private int col2index[]=new int[COLS.values().length];
+	/** consequence string to SO terms: the same consequences are found on most lines */
+	private final BoundedCache<String, Set<SequenceOntologyTree.Term>> soTermsCache=new BoundedCache<String, Set<SequenceOntologyTree.Term>>()
+		{
+		@Override
+		protected Set<SequenceOntologyTree.Term> create(String consequence)
+			{
+			return parseSOTerms(consequence);
+			}
+		};
+	/** shared instances of the gene names */
+	private final BoundedCache<String, String> geneNameCache=BoundedCache.createStringCache();
 	private String tag;
 
 	
@@ -54,6 +66,7 @@ public class VepPredictionParser implements PredictionParser
 	public VepPredictionParser(VCFHeader header,String tag)
 		{	
 		this.tag=(tag==null?getDefaultTag():tag);
+		Arrays.fill(this.col2index, -1);
 		VCFInfoHeaderLine info=header.getInfoHeaderLine(tag);
 		if(info==null || info.getDescription()==null)
 			{
@@ -69,7 +82,7 @@ public class VepPredictionParser implements PredictionParser
 			return;
 			}
 		description=description.substring(i+chunck.length()).replaceAll("[ \'\\.\\(\\)]+","").trim();
-		String tokens[]=pipe.split(description);
+		String tokens[]=description.split("[\\|]");
 
 		for(i=0;i< tokens.length;++i)
 			{
@@ -88,11 +101,24 @@ public class VepPredictionParser implements PredictionParser
 				continue;
 				}
 			col2col.put(col, i);
+			col2index[col.ordinal()]=i;
 			}
 		}
 	
 	
 	
+	private static Set<SequenceOntologyTree.Term> parseSOTerms(String EFF)
+		{
+		SequenceOntologyTree tree=SequenceOntologyTree.getInstance();
+		Set<SequenceOntologyTree.Term> set=new HashSet<SequenceOntologyTree.Term>();
+		for(String eff:EFF.split("[&]"))
+			{
+			SequenceOntologyTree.Term t=tree.getTermByLabel(eff);
+			if(t!=null) set.add(t);
+			}
+		return Collections.unmodifiableSet(set);
+		}
+	
 	@Override
 	public List<VepPrediction> getPredictions(VariantContext ctx)
 		{
@@ -128,27 +154,21 @@ public class VepPredictionParser implements PredictionParser
 			return;
 			}
 		String s=String.class.cast(o).trim();
-		String tokens[]=pipe.split(s);
-		preds.add(new VepPrediction(tokens));
+		preds.add(new VepPrediction(new DelimitedString(s,"|")));
 		}
 			
 	
 	public class VepPrediction
 		implements Prediction
 		{
-		private String tokens[];
-		VepPrediction(String tokens[])
+		private DelimitedString tokens;
+		VepPrediction(DelimitedString tokens)
 			{
 			this.tokens=tokens;
 			}
 		private String getByCol(COLS col)
 			{
-			Integer idx=col2col.get(col);
-			if(idx==null || idx>=tokens.length || tokens[idx].isEmpty())
-				{
-				return null;
-				}
-			return tokens[idx];
+			return tokens.get(col2index[col.ordinal()]);
 			}
 		
 		public String getExon()
@@ -160,12 +180,13 @@ public class VepPredictionParser implements PredictionParser
 		@Override
 		public String getGeneName()
 			{
-			return getByCol(COLS.HGNC);
+			return getHGNC();
 			}
 		
 		public String getHGNC()
 			{
-			return getByCol(COLS.HGNC);
+			String s=getByCol(COLS.HGNC);
+			return s==null?null:geneNameCache.get(s);
 			}
 		
 		private Map<COLS,String> getMap()
@@ -174,8 +195,8 @@ public class VepPredictionParser implements PredictionParser
 			for(COLS c: col2col.keySet())
 				{
 				int idx=col2col.get(c);
-				if(idx>=this.tokens.length) continue;
-				hash.put(c, tokens[idx]);
+				if(idx>=this.tokens.size()) continue;
+				hash.put(c, tokens.getRaw(idx));
 				}
 			return hash;
 			}
@@ -214,29 +235,19 @@ public class VepPredictionParser implements PredictionParser
 			return null;
 			}
 		
+		/** returns an unmodifiable set of SO terms , shared by the predictions having the same consequence */
 		@Override
 		public Set<SequenceOntologyTree.Term> getSOTerms()
 			{
-			Set<SequenceOntologyTree.Term> set=new HashSet<SequenceOntologyTree.Term>();
 			String EFF=getByCol(COLS.Consequence);
-			if(EFF==null) return set;
-			for(SequenceOntologyTree.Term t:SequenceOntologyTree.getInstance().getTerms())
-				{
-				for(String eff:EFF.split("[&]"))
-					{
-					if(t.getLabel().equals(eff))
-						{
-						set.add(t);
-						}
-					}
-				}
-			return set;
+			if(EFF==null) return Collections.emptySet();
+			return soTermsCache.get(EFF);
 			}
 
 		
 	@Override
 	public String toString() {
-		return getMap().toString()+ " "+Arrays.asList(tokens);
+		return getMap().toString()+ " "+tokens.asList();
 		}
 	}
 		